@@ -68,4 +68,26 @@ public class Ban {
         return "Ban{service=" + service + ", server=" + server + ", reason=" + reason + "}";
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Ban)) {
+            return false;
+        }
+        Ban other = (Ban) obj;
+        return equal(service, other.service) && equal(server, other.server) && equal(reason, other.reason);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 31 * hash + (service == null ? 0 : service.getName().hashCode());
+        hash = 31 * hash + (server == null ? 0 : server.hashCode());
+        hash = 31 * hash + (reason == null ? 0 : reason.hashCode());
+        return hash;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
 }
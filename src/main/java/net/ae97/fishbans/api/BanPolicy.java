@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import net.ae97.fishbans.api.exceptions.NoSuchUUIDException;
+import net.ae97.fishbans.api.exceptions.NoSuchUserException;
+
+/**
+ * A rule set deciding whether a player should be let in based on their
+ * {@link Ban}s. Policies are built once and reused:
+ *
+ * <pre>
+ * BanPolicy policy = BanPolicy.builder()
+ *         .maxBans(2)
+ *         .ignoreLegacy()
+ *         .exclude(BanServices.getService("GLIZER"))
+ *         .build();
+ * if (policy.check("Bob") == Verdict.DENY) {
+ *     // kick Bob
+ * }
+ * </pre>
+ *
+ * Building a policy turns its rules into per-service lookup tables, and the
+ * verdict of the last policy to check a player is remembered on the
+ * {@link FishbansPlayer}, so checking a cached player again with the same
+ * policy does not look at its bans a second time.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public final class BanPolicy {
+
+    private final boolean[] counted;
+    private final int[] serviceLimits;
+    private final int maxBans;
+    private final Set<String> allowedServers;
+    private final Set<String> deniedServers;
+    private final boolean scanBans;
+
+    private BanPolicy(Builder builder) {
+        int size = 0;
+        for (BanServices service : BanServices.getBanServices()) {
+            size = Math.max(size, service.getOrdinal() + 1);
+        }
+        counted = new boolean[size];
+        serviceLimits = new int[size];
+        Arrays.fill(serviceLimits, -1);
+        for (BanServices service : BanServices.getBanServices()) {
+            int ordinal = service.getOrdinal();
+            if (!builder.included.isEmpty()) {
+                counted[ordinal] = builder.included.contains(service.getName());
+            } else {
+                counted[ordinal] = !builder.excluded.contains(service.getName()) && !(builder.ignoreLegacy && service.isLegacy());
+            }
+            Integer limit = builder.serviceLimits.get(service.getName());
+            if (limit != null && counted[ordinal]) {
+                serviceLimits[ordinal] = limit;
+            }
+        }
+        maxBans = builder.maxBans;
+        allowedServers = new HashSet<String>(builder.allowedServers);
+        deniedServers = new HashSet<String>(builder.deniedServers);
+        scanBans = !allowedServers.isEmpty() || !deniedServers.isEmpty();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Decides whether a player should be let in. The verdict is remembered on
+     * the player, so later calls with the same record return immediately.
+     *
+     * @param player Player to check
+     *
+     * @return The verdict for this player
+     */
+    public Verdict evaluate(FishbansPlayer player) {
+        Verdict verdict = player.getVerdict(this);
+        if (verdict == null) {
+            verdict = scanBans ? scan(player) : count(player);
+            player.setVerdict(this, verdict);
+        }
+        return verdict;
+    }
+
+    /**
+     * Looks up a player and decides whether they should be let in. If
+     * {@link Fishbans#setTrustCleanFilter(boolean)} is enabled, players in
+     * the clean filter are allowed without a lookup, which lets through
+     * banned players at about the false positive rate of the filter.
+     *
+     * @param username Username of the player
+     *
+     * @return The verdict for this player
+     *
+     * @throws IOException Thrown if the data cannot be retrieved from Fishbans
+     * @throws NoSuchUserException Thrown if no user with that name exists on
+     * Fishbans
+     */
+    public Verdict check(String username) throws IOException, NoSuchUserException {
+        if (Fishbans.isTrustCleanFilter() && Fishbans.isKnownClean(username)) {
+            return cleanVerdict();
+        }
+        return evaluate(Fishbans.getFishbanPlayer(username));
+    }
+
+    /**
+     * Looks up a player by {@link UUID} and decides whether they should be
+     * let in.
+     *
+     * @param uuid UUID of the player
+     *
+     * @return The verdict for this player
+     *
+     * @throws IOException Thrown if the data cannot be retrieved from Fishbans
+     * @throws NoSuchUUIDException Thrown if no UUID exists on Fishbans
+     */
+    public Verdict check(UUID uuid) throws IOException, NoSuchUUIDException {
+        if (Fishbans.isTrustCleanFilter() && Fishbans.isKnownClean(uuid)) {
+            return cleanVerdict();
+        }
+        return evaluate(Fishbans.getFishbanPlayer(uuid));
+    }
+
+    private Verdict cleanVerdict() {
+        return maxBans < 0 ? Verdict.DENY : Verdict.ALLOW;
+    }
+
+    private Verdict count(FishbansPlayer player) {
+        int total = 0;
+        for (int ordinal = 0; ordinal < counted.length; ordinal++) {
+            if (!counted[ordinal]) {
+                continue;
+            }
+            int bans = player.getBanCount(ordinal);
+            if (serviceLimits[ordinal] >= 0 && bans > serviceLimits[ordinal]) {
+                return Verdict.DENY;
+            }
+            total += bans;
+        }
+        return total > maxBans ? Verdict.DENY : Verdict.ALLOW;
+    }
+
+    private Verdict scan(FishbansPlayer player) {
+        int[] perService = new int[counted.length];
+        int total = 0;
+        List<Ban> bans = player.getBanList();
+        for (int i = 0; i < bans.size(); i++) {
+            Ban ban = bans.get(i);
+            String server = ban.getServer() == null ? null : ban.getServer().toLowerCase();
+            if (server != null && deniedServers.contains(server)) {
+                return Verdict.DENY;
+            }
+            if (ban.getService() == null || (server != null && allowedServers.contains(server))) {
+                continue;
+            }
+            int ordinal = ban.getService().getOrdinal();
+            if (ordinal >= counted.length || !counted[ordinal]) {
+                continue;
+            }
+            perService[ordinal]++;
+            total++;
+            if (serviceLimits[ordinal] >= 0 && perService[ordinal] > serviceLimits[ordinal]) {
+                return Verdict.DENY;
+            }
+        }
+        return total > maxBans ? Verdict.DENY : Verdict.ALLOW;
+    }
+
+    /**
+     * Builds a {@link BanPolicy}. By default every ban from every service is
+     * counted and nobody is denied until a limit is set.
+     *
+     * @since 1.1
+     */
+    public static class Builder {
+
+        private final Set<String> included = new HashSet<String>();
+        private final Set<String> excluded = new HashSet<String>();
+        private final Map<String, Integer> serviceLimits = new HashMap<String, Integer>();
+        private final Set<String> allowedServers = new HashSet<String>();
+        private final Set<String> deniedServers = new HashSet<String>();
+        private int maxBans = Integer.MAX_VALUE;
+        private boolean ignoreLegacy = false;
+
+        private Builder() {
+        }
+
+        /**
+         * Denies players with more than this many counted bans.
+         *
+         * @param maxBans Highest number of bans which is still allowed
+         *
+         * @return This builder
+         */
+        public Builder maxBans(int maxBans) {
+            this.maxBans = maxBans;
+            return this;
+        }
+
+        /**
+         * Denies players with more than this many bans from one service.
+         *
+         * @param service Service to limit
+         * @param maxBans Highest number of bans from the service which is
+         * still allowed
+         *
+         * @return This builder
+         */
+        public Builder maxBans(BanServices service, int maxBans) {
+            serviceLimits.put(service.getName(), maxBans);
+            return this;
+        }
+
+        /**
+         * Only counts bans from the given service, and from any other service
+         * passed to this method. Overrides {@link #exclude(BanServices)} and
+         * {@link #ignoreLegacy()}.
+         *
+         * @param service Service to count
+         *
+         * @return This builder
+         */
+        public Builder include(BanServices service) {
+            included.add(service.getName());
+            return this;
+        }
+
+        /**
+         * Does not count bans from the given service.
+         *
+         * @param service Service to ignore
+         *
+         * @return This builder
+         */
+        public Builder exclude(BanServices service) {
+            excluded.add(service.getName());
+            return this;
+        }
+
+        /**
+         * Does not count bans from services whose data is
+         * {@link BanServices#isLegacy() legacy}.
+         *
+         * @return This builder
+         */
+        public Builder ignoreLegacy() {
+            ignoreLegacy = true;
+            return this;
+        }
+
+        /**
+         * Does not count bans issued by the given server. Server names are
+         * compared ignoring case.
+         *
+         * @param server Server to ignore bans from
+         *
+         * @return This builder
+         */
+        public Builder allowServer(String server) {
+            allowedServers.add(server.toLowerCase());
+            return this;
+        }
+
+        /**
+         * Denies any player with a ban from the given server, regardless of
+         * the other rules. Server names are compared ignoring case.
+         *
+         * @param server Server whose bans always deny
+         *
+         * @return This builder
+         */
+        public Builder denyServer(String server) {
+            deniedServers.add(server.toLowerCase());
+            return this;
+        }
+
+        public BanPolicy build() {
+            return new BanPolicy(this);
+        }
+    }
+}
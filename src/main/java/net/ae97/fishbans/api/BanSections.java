@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import net.ae97.fishbans.api.exceptions.NoSuchUserException;
+
+/**
+ * The layout of a Fishbans /bans response: who the player is, and where in
+ * the body the ban_info object of each service with bans is. This is the one
+ * walk of the schema both {@link ResponseDecoder} and {@link CompactBans}
+ * build on, so they agree on what counts as a ban. A service has no bans when
+ * its "bans" count is 0 or null, whatever its ban_info holds, and when it or
+ * its ban_info is not an object.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+final class BanSections {
+
+    private static final byte[][] responseKeys = JsonScanner.keys("success", "bans");
+    private static final byte[][] playerKeys = JsonScanner.keys("username", "uuid", "service");
+    private static final byte[][] serviceKeys = JsonScanner.keys("bans", "ban_info");
+    private static final byte[][] noKeys = new byte[0][];
+    final String username;
+    final String uuid;
+    final int sections;
+    final BanServices[] services;
+    final int[] starts;
+    final int[] ends;
+    final int[] counts;
+
+    private BanSections(String username, String uuid, int sections, BanServices[] services, int[] starts, int[] ends, int[] counts) {
+        this.username = username;
+        this.uuid = uuid;
+        this.sections = sections;
+        this.services = services;
+        this.starts = starts;
+        this.ends = ends;
+        this.counts = counts;
+    }
+
+    /**
+     * Walks a /bans response.
+     *
+     * @param name Name the player was looked up by, used in errors
+     * @param body Response body
+     *
+     * @return The layout, or null if the response was null
+     *
+     * @throws IOException Thrown if the response is malformed
+     * @throws NoSuchUserException Thrown if Fishbans does not know the user
+     */
+    static BanSections read(String name, byte[] body) throws IOException, NoSuchUserException {
+        JsonScanner scanner = new JsonScanner(body);
+        if (scanner.readNull()) {
+            return null;
+        }
+        boolean success = false;
+        String username = null;
+        String uuid = null;
+        int sections = 0;
+        BanServices[] services = new BanServices[8];
+        int[] starts = new int[8];
+        int[] ends = new int[8];
+        int[] counts = new int[8];
+        scanner.expect('{');
+        for (boolean first = true; scanner.nextField(first); first = false) {
+            switch (scanner.readKey(responseKeys)) {
+                case 0:
+                    success = scanner.readBoolean();
+                    break;
+                case 1:
+                    if (scanner.peek() != '{') {
+                        scanner.skipValue();
+                        break;
+                    }
+                    scanner.expect('{');
+                    for (boolean firstField = true; scanner.nextField(firstField); firstField = false) {
+                        switch (scanner.readKey(playerKeys)) {
+                            case 0:
+                                username = scanner.readValueAsString();
+                                break;
+                            case 1:
+                                uuid = scanner.readValueAsString();
+                                break;
+                            case 2:
+                                if (scanner.peek() != '{') {
+                                    scanner.skipValue();
+                                    break;
+                                }
+                                scanner.expect('{');
+                                for (boolean firstService = true; scanner.nextField(firstService); firstService = false) {
+                                    if (sections == services.length) {
+                                        services = Arrays.copyOf(services, sections * 2);
+                                        starts = Arrays.copyOf(starts, sections * 2);
+                                        ends = Arrays.copyOf(ends, sections * 2);
+                                        counts = Arrays.copyOf(counts, sections * 2);
+                                    }
+                                    services[sections] = BanServices.getService(scanner.readKey());
+                                    if (readService(scanner, sections, starts, ends, counts)) {
+                                        sections++;
+                                    }
+                                }
+                                break;
+                            default:
+                                scanner.skipValue();
+                        }
+                    }
+                    break;
+                default:
+                    scanner.skipValue();
+            }
+        }
+        if (!success) {
+            throw new NoSuchUserException(name);
+        }
+        if (username == null || uuid == null) {
+            throw new IOException("Fishbans response for " + name + " is missing the username or uuid");
+        }
+        return new BanSections(username, uuid, sections, services, starts, ends, counts);
+    }
+
+    /**
+     * Adds the {@link Ban}s of a ban_info object.
+     *
+     * @param scanner Scanner at the ban_info object
+     * @param service Service the bans are from
+     * @param bans List to add the bans to
+     *
+     * @throws IOException Thrown if the object is malformed
+     */
+    static void decode(JsonScanner scanner, BanServices service, List<Ban> bans) throws IOException {
+        if (!scanner.consume('{')) {
+            return;
+        }
+        for (boolean first = true; scanner.nextField(first); first = false) {
+            String server = scanner.readKey();
+            bans.add(new Ban(service, server, scanner.readValueAsString()));
+        }
+    }
+
+    /**
+     * Adds the servers of a ban_info object, skipping the reasons.
+     *
+     * @param scanner Scanner at the ban_info object
+     * @param servers List to add the servers to
+     *
+     * @throws IOException Thrown if the object is malformed
+     */
+    static void servers(JsonScanner scanner, List<String> servers) throws IOException {
+        if (!scanner.consume('{')) {
+            return;
+        }
+        for (boolean first = true; scanner.nextField(first); first = false) {
+            servers.add(scanner.readKey());
+            scanner.skipValue();
+        }
+    }
+
+    /**
+     * Reads one service object into the given section, returning whether the
+     * service has any bans.
+     */
+    private static boolean readService(JsonScanner scanner, int section, int[] starts, int[] ends, int[] counts) throws IOException {
+        if (scanner.peek() != '{') {
+            scanner.skipValue();
+            return false;
+        }
+        boolean empty = false;
+        counts[section] = 0;
+        scanner.expect('{');
+        for (boolean first = true; scanner.nextField(first); first = false) {
+            switch (scanner.readKey(serviceKeys)) {
+                case 0:
+                    String count = scanner.readValueAsString();
+                    empty = count == null || "0".equals(count);
+                    break;
+                case 1:
+                    if (scanner.peek() != '{') {
+                        scanner.skipValue();
+                        counts[section] = 0;
+                        break;
+                    }
+                    starts[section] = scanner.position();
+                    counts[section] = countEntries(scanner);
+                    ends[section] = scanner.position();
+                    break;
+                default:
+                    scanner.skipValue();
+            }
+        }
+        return !empty && counts[section] > 0;
+    }
+
+    private static int countEntries(JsonScanner scanner) throws IOException {
+        scanner.expect('{');
+        int entries = 0;
+        for (boolean first = true; scanner.nextField(first); first = false) {
+            scanner.readKey(noKeys);
+            scanner.skipValue();
+            entries++;
+        }
+        return entries;
+    }
+}
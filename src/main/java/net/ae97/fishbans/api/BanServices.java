@@ -31,6 +31,8 @@ import java.util.Set;
 public class BanServices {
 
     private static final HashSet<BanServices> registeredServices = new HashSet<BanServices>();
+    private static int nextOrdinal = 0;
+    private final int ordinal;
     private final String name;
     private final String displayName;
     private final boolean legacy;
@@ -54,6 +56,26 @@ public class BanServices {
         return null;
     }
 
+    /**
+     * Gets the ban service with the given ordinal.
+     *
+     * @param ordinal Ordinal of the service
+     *
+     * @return The service, or null if no service has that ordinal
+     *
+     * @see #getOrdinal()
+     */
+    public static BanServices getService(int ordinal) {
+        synchronized (registeredServices) {
+            for (BanServices service : registeredServices) {
+                if (service.ordinal == ordinal) {
+                    return service;
+                }
+            }
+        }
+        return null;
+    }
+
     public static Set<BanServices> getBanServices() {
         synchronized (registeredServices) {
             return (Set< BanServices>) registeredServices.clone();
@@ -70,6 +92,18 @@ public class BanServices {
         this.name = displayName.toUpperCase();
         this.displayName = displayName;
         this.legacy = legacy;
+        this.ordinal = nextOrdinal++;
+    }
+
+    /**
+     * Returns the ordinal of this ban service, which is the order it was
+     * registered in. The built-in services always have the same ordinals, so
+     * this can be used as a compact id when storing bans.
+     *
+     * @return Ordinal of this ban service
+     */
+    public int getOrdinal() {
+        return ordinal;
     }
 
     /**
@@ -114,4 +148,9 @@ public class BanServices {
         }
         return false;
     }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.io.IOException;
+import java.util.UUID;
+import net.ae97.fishbans.api.exceptions.NoSuchUserException;
+
+/**
+ * Ban counts for a player, as returned by the Fishbans /stats endpoint. This
+ * is much smaller than the full list of bans, so it is used when only counts
+ * are needed.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+final class BanStats {
+
+    private static final byte[][] responseKeys = JsonScanner.keys("success", "stats");
+    private static final byte[][] statsKeys = JsonScanner.keys("username", "uuid", "service");
+    private final String name;
+    private final UUID uuid;
+    private final int[] counts;
+    private final int total;
+    private final boolean unknownServices;
+
+    private BanStats(String name, UUID uuid, int[] counts, int total, boolean unknownServices) {
+        this.name = name;
+        this.uuid = uuid;
+        this.counts = counts;
+        this.total = total;
+        this.unknownServices = unknownServices;
+    }
+
+    static BanStats parse(String name, byte[] body) throws IOException, NoSuchUserException {
+        JsonScanner scanner = new JsonScanner(body);
+        boolean success = false;
+        String username = null;
+        String uuid = null;
+        int[] counts = new int[BanServices.getBanServices().size()];
+        int total = 0;
+        boolean unknown = false;
+        scanner.expect('{');
+        for (boolean first = true; scanner.nextField(first); first = false) {
+            switch (scanner.readKey(responseKeys)) {
+                case 0:
+                    success = scanner.readBoolean();
+                    break;
+                case 1:
+                    if (scanner.peek() != '{') {
+                        scanner.skipValue();
+                        break;
+                    }
+                    scanner.expect('{');
+                    for (boolean firstField = true; scanner.nextField(firstField); firstField = false) {
+                        switch (scanner.readKey(statsKeys)) {
+                            case 0:
+                                username = scanner.readValueAsString();
+                                break;
+                            case 1:
+                                uuid = scanner.readValueAsString();
+                                break;
+                            case 2:
+                                scanner.expect('{');
+                                for (boolean firstService = true; scanner.nextField(firstService); firstService = false) {
+                                    BanServices service = BanServices.getService(scanner.readKey());
+                                    int count = scanner.readInt();
+                                    total += count;
+                                    if (service == null || service.getOrdinal() >= counts.length) {
+                                        unknown |= count > 0;
+                                    } else {
+                                        counts[service.getOrdinal()] += count;
+                                    }
+                                }
+                                break;
+                            default:
+                                scanner.skipValue();
+                        }
+                    }
+                    break;
+                default:
+                    scanner.skipValue();
+            }
+        }
+        if (!success) {
+            throw new NoSuchUserException(name);
+        }
+        if (username == null || uuid == null) {
+            throw new IOException("Fishbans stats for " + name + " are missing the username or uuid");
+        }
+        return new BanStats(username, Fishbans.convertToUUID(uuid), counts, total, unknown);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    UUID getUUID() {
+        return uuid;
+    }
+
+    int getTotal() {
+        return total;
+    }
+
+    int getCount(BanServices service) {
+        return service.getOrdinal() < counts.length ? counts[service.getOrdinal()] : 0;
+    }
+
+    /**
+     * Returns whether some of the bans are from services this client does not
+     * know. Those bans can only be fetched with a full lookup.
+     *
+     * @return True if there are bans from unknown services
+     */
+    boolean hasUnknownServices() {
+        return unknownServices;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import net.ae97.fishbans.api.exceptions.NoSuchUserException;
+
+/**
+ * The bans from a Fishbans response, kept as the raw ban_info bytes of each
+ * service. The response is walked once by {@link BanSections} to find where
+ * each service's bans are and how many there are; the {@link Ban}s
+ * themselves are only decoded when a {@link FishbansPlayer} is asked for
+ * them.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+final class CompactBans {
+
+    private final byte[] data;
+    private final int[] offsets;
+    private final BanServices[] services;
+    private final int[] counts;
+
+    private CompactBans(byte[] data, int[] offsets, BanServices[] services, int[] counts) {
+        this.data = data;
+        this.offsets = offsets;
+        this.services = services;
+        this.counts = counts;
+    }
+
+    /**
+     * Scans a Fishbans /bans response and creates a player whose bans are
+     * decoded on first use.
+     *
+     * @param name Name the lookup was for
+     * @param body Response body
+     *
+     * @return The player, or null if the response was null
+     *
+     * @throws IOException Thrown if the response is malformed
+     * @throws NoSuchUserException Thrown if Fishbans does not know the user
+     */
+    static FishbansPlayer parse(String name, byte[] body) throws IOException, NoSuchUserException {
+        BanSections layout = BanSections.read(name, body);
+        if (layout == null) {
+            return null;
+        }
+        int sections = layout.sections;
+        int[] offsets = new int[sections + 1];
+        for (int i = 0; i < sections; i++) {
+            offsets[i + 1] = offsets[i] + layout.ends[i] - layout.starts[i];
+        }
+        byte[] data = new byte[offsets[sections]];
+        for (int i = 0; i < sections; i++) {
+            System.arraycopy(body, layout.starts[i], data, offsets[i], offsets[i + 1] - offsets[i]);
+        }
+        CompactBans bans = new CompactBans(data, offsets, Arrays.copyOf(layout.services, sections), Arrays.copyOf(layout.counts, sections));
+        return new FishbansPlayer(bans, layout.username, Fishbans.convertToUUID(layout.uuid));
+    }
+
+    int getSections() {
+        return services.length;
+    }
+
+    BanServices getService(int section) {
+        return services[section];
+    }
+
+    int getCount(int section) {
+        return counts[section];
+    }
+
+    int getTotalCount() {
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Decodes the bans of one section.
+     *
+     * @param section Section to decode
+     * @param bans List to add the bans to
+     */
+    void decode(int section, List<Ban> bans) {
+        JsonScanner scanner = new JsonScanner(data, offsets[section], offsets[section + 1]);
+        try {
+            BanSections.decode(scanner, services[section], bans);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cached ban data is corrupt", e);
+        }
+    }
+
+    /**
+     * Reads the servers of one section without decoding its bans.
+     *
+     * @param section Section to read
+     * @param servers List to add the servers to
+     */
+    void servers(int section, List<String> servers) {
+        JsonScanner scanner = new JsonScanner(data, offsets[section], offsets[section + 1]);
+        try {
+            BanSections.servers(scanner, servers);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cached ban data is corrupt", e);
+        }
+    }
+}
@@ -18,24 +18,54 @@
  */
 package net.ae97.fishbans.api;
 
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
-import com.google.gson.JsonParser;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
+import net.ae97.fishbans.api.cache.CacheListener;
+import net.ae97.fishbans.api.cache.CleanFilter;
+import net.ae97.fishbans.api.cache.InvalidationChannel;
+import net.ae97.fishbans.api.cache.InvalidationListener;
+import net.ae97.fishbans.api.cache.OffHeapCache;
+import net.ae97.fishbans.api.cache.SharedCache;
+import net.ae97.fishbans.api.cache.SharedCacheEntry;
+import net.ae97.fishbans.api.cache.TtlPolicy;
+import net.ae97.fishbans.api.cluster.ClusterNode;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import net.ae97.fishbans.api.http.Transports;
 import net.ae97.fishbans.api.exceptions.NoSuchBanServiceException;
 import net.ae97.fishbans.api.exceptions.NoSuchUUIDException;
 import net.ae97.fishbans.api.exceptions.NoSuchUserException;
+import net.ae97.fishbans.api.util.HotKeys;
+import net.ae97.fishbans.api.util.LookupExecutors;
+import net.ae97.fishbans.api.util.UpstreamStats;
 
 /**
  * The Fishbans API main class. This class is how information about bans may be
@@ -48,12 +78,63 @@ import net.ae97.fishbans.api.exceptions.NoSuchUserException;
  */
 public class Fishbans {
 
-    private static final HashMap<String, BanCache> banCache = new HashMap<String, BanCache>();
-    private static final long cacheTime = 1000 * 60 * 5;
+    private static final ConcurrentHashMap<String, BanCache> banCache = new ConcurrentHashMap<String, BanCache>();
+    private static volatile TtlPolicy ttlPolicy = TtlPolicy.fixed(5, TimeUnit.MINUTES);
+    private static final PartialCache partialCache = new PartialCache();
+    private static final String defaultApi = "http://api.fishbans.com/";
+    private static volatile String fishbansApi = defaultApi;
+    private static volatile boolean sidecarApi = false;
+    private static volatile boolean keepResponses = false;
+    private static volatile SharedCache sharedCache;
+    private static volatile long sharedCacheTimeout = 20;
+    private static volatile InvalidationChannel invalidationChannel;
+    private static volatile CleanFilter cleanFilter;
+    private static volatile boolean trustCleanFilter = false;
+    private static volatile OffHeapCache offHeapCache;
+    private static volatile ClusterNode clusterNode;
+    private static final List<CacheListener> cacheListeners = new CopyOnWriteArrayList<CacheListener>();
+    private static final Map<String, String> mojangHeaders = new HashMap<String, String>();
+    private static volatile HttpTransport transport = Transports.createDefault();
+    private static final UpstreamStats fishbansStats = new UpstreamStats("fishbans", 256);
+    private static final UpstreamStats fishbansLightStats = new UpstreamStats("fishbans-light", 256);
+    private static final UpstreamStats mojangStats = new UpstreamStats("mojang", 256);
+    private static final HotKeys hotKeys = new HotKeys(64, 16);
+    private static final AtomicLong cacheHits = new AtomicLong();
+    private static final AtomicLong cacheMisses = new AtomicLong();
+    private static final ConcurrentHashMap<String, Fetch> inFlight = new ConcurrentHashMap<String, Fetch>();
+    private static volatile boolean coalescing = false;
+    private static final Object batchLock = new Object();
+    private static Batch openBatch;
+    private static volatile long batchWindow = 0;
+    private static volatile int batchSize = 32;
+    private static final AtomicLong batches = new AtomicLong();
+    private static final AtomicLong batchedLookups = new AtomicLong();
+    private static final int keyStripes = 64;
+    private static final ReentrantLock[] keyLocks = new ReentrantLock[keyStripes];
+    private static final long[] invalidatedAt = new long[keyStripes];
+    private static final AtomicLong invalidations = new AtomicLong();
+    private static final ExecutorService lookupExecutor = Executors.newCachedThreadPool(LookupExecutors.newThreadFactory("Lookup"));
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(LookupExecutors.newThreadFactory("Scheduler"));
+    private static final ConcurrentHashMap<String, Refresh> refreshes = new ConcurrentHashMap<String, Refresh>();
+    private static final AtomicLong staleServed = new AtomicLong();
+    private static final AtomicLong notModified = new AtomicLong();
+    private static volatile long staleIfError = 0;
+    private static final long refreshBackoffMin = 1000;
+    private static final long refreshBackoffMax = 60000;
+    private static volatile double hedgePercentile = 95;
+    private static volatile boolean lazyDecoding = true;
+    private static final int hedgeMinSamples = 20;
     private static final Pattern uuidConvertor = Pattern.compile("(\\w{8})(\\w{4})(\\w{4})(\\w{4})(\\w{12})");
     //AUTOGENERATED BY MAVEN
     private static final String VERSION = "1.1-DEV";
 
+    static {
+        mojangHeaders.put("User-Agent", "minecraft");
+        for (int i = 0; i < keyStripes; i++) {
+            keyLocks[i] = new ReentrantLock();
+        }
+    }
+
     public static String getVersion() {
         return VERSION;
     }
@@ -68,8 +149,22 @@ public class Fishbans {
             if (player != null) {
                 return player;
             }
+            player = checkSharedCache(name);
+            if (player != null) {
+                return player;
+            }
+            player = servingStale(name);
+            if (player != null) {
+                return player;
+            }
+            try {
+                player = assemble(name);
+                return player != null ? player : getData(name);
+            } catch (IOException ex) {
+                return staleOrThrow(name, ex);
+            }
         }
-        return getData(name);
+        return getData(name, true);
     }
 
     public static FishbansPlayer getFishbanPlayer(UUID uuid) throws IOException, NoSuchUUIDException {
@@ -82,8 +177,208 @@ public class Fishbans {
             if (player != null) {
                 return player;
             }
+            player = checkSharedCache(uuid.toString());
+            if (player != null) {
+                return player;
+            }
+            player = servingStale(uuid.toString());
+            if (player != null) {
+                return player;
+            }
+            try {
+                player = assemble(uuid.toString());
+                return player != null ? player : getData(uuid, false);
+            } catch (NoSuchUserException ex) {
+                throw new NoSuchUUIDException(ex);
+            } catch (IOException ex) {
+                return staleOrThrow(uuid.toString(), ex);
+            }
+        }
+        return getData(uuid, true);
+    }
+
+    /**
+     * Checks a player with Fishbans even if the cached copy is still fresh,
+     * the same way an expired player is checked. When Fishbans reports no
+     * change the cached player is kept and returned without being decoded
+     * again, and lookups of the same player running at the same time share
+     * the request. Use this to poll a player for new bans.
+     *
+     * @param name Name of player
+     *
+     * @return The current player
+     *
+     * @throws IOException Thrown if Fishbans could not be reached
+     * @throws NoSuchUserException Thrown if the player does not exist
+     *
+     * @since 1.1
+     */
+    public static FishbansPlayer revalidate(String name) throws IOException, NoSuchUserException {
+        return getData(name, false);
+    }
+
+    /**
+     * Checks a player with Fishbans even if the cached copy is still fresh.
+     * A cached player is checked by the name it was stored under, so Mojang
+     * is only asked for the name of a player not cached yet.
+     *
+     * @param uuid UUID of player
+     *
+     * @return The current player
+     *
+     * @throws IOException Thrown if Fishbans or Mojang could not be reached
+     * @throws NoSuchUUIDException Thrown if the player does not exist
+     *
+     * @see #revalidate(java.lang.String)
+     * @since 1.1
+     */
+    public static FishbansPlayer revalidate(UUID uuid) throws IOException, NoSuchUUIDException {
+        BanCache cached = banCache.get(uuid.toString());
+        if (cached == null || sidecarApi) {
+            return getData(uuid, false);
+        }
+        try {
+            return getData(cached.getBans().getName(), false);
+        } catch (NoSuchUserException ex) {
+            throw new NoSuchUUIDException(ex);
+        }
+    }
+
+    /**
+     * Retrieves a player, giving up once the timeout passes. Use this where a
+     * decision has to be made within a fixed time, such as while a player is
+     * logging in.
+     * <p>
+     * If the lookup takes longer than most recent lookups (see
+     * {@link #setHedgePercentile(double)}), a second request is sent and
+     * whichever answers first is used. Both requests are sent on their own,
+     * without joining other lookups of the player, so the one which loses can
+     * be cancelled. When the timeout passes or the lookup fails, a cache entry
+     * which expired within the window set by
+     * {@link #setStaleIfError(long, TimeUnit)} is returned as
+     * {@link LookupResult.Status#STALE}. Otherwise the result is
+     * {@link LookupResult.Status#FAILED} if a request failed, or
+     * {@link LookupResult.Status#TIMEOUT}.
+     *
+     * @param name Username of player
+     * @param timeout Maximum time to wait
+     * @param unit Unit of the timeout
+     *
+     * @return The result, never null
+     *
+     * @since 1.1
+     */
+    public static LookupResult getFishbanPlayer(String name, long timeout, TimeUnit unit) {
+        FishbansPlayer player = checkCache(name);
+        if (player != null) {
+            return new LookupResult(name, player);
+        }
+        return lookupWithDeadline(name, null, unit.toNanos(timeout));
+    }
+
+    /**
+     * Retrieves a player by {@link UUID}, giving up once the timeout passes.
+     *
+     * @param uuid UUID of player
+     * @param timeout Maximum time to wait
+     * @param unit Unit of the timeout
+     *
+     * @return The result, never null
+     *
+     * @see #getFishbanPlayer(java.lang.String, long, TimeUnit)
+     *
+     * @since 1.1
+     */
+    public static LookupResult getFishbanPlayer(UUID uuid, long timeout, TimeUnit unit) {
+        FishbansPlayer player = checkCache(uuid.toString());
+        if (player != null) {
+            return new LookupResult(uuid.toString(), player);
+        }
+        return lookupWithDeadline(uuid.toString(), uuid, unit.toNanos(timeout));
+    }
+
+    /**
+     * Gets the number of {@link Ban}s on a player. If the player is not cached,
+     * only the ban counts are requested from Fishbans, which is much cheaper
+     * than retrieving every ban.
+     *
+     * @param name Username of player
+     *
+     * @return Number of bans on the player
+     *
+     * @throws IOException Thrown if the data cannot be retrieved from Fishbans
+     * @throws NoSuchUserException Thrown if no user with that name exists on
+     * Fishbans
+     *
+     * @since 1.1
+     */
+    public static int getBanCount(String name) throws IOException, NoSuchUserException {
+        return countBans(name, null);
+    }
+
+    /**
+     * Gets the number of {@link Ban}s on a player from a particular
+     * {@link BanServices}.
+     *
+     * @param name Username of player
+     * @param service Ban service to count bans from
+     *
+     * @return Number of bans on the player
+     *
+     * @throws IOException Thrown if the data cannot be retrieved from Fishbans
+     * @throws NoSuchUserException Thrown if no user with that name exists on
+     * Fishbans
+     *
+     * @see #getBanCount(java.lang.String)
+     *
+     * @since 1.1
+     */
+    public static int getBanCount(String name, BanServices service) throws IOException, NoSuchUserException {
+        if (service == null) {
+            throw new IllegalArgumentException("BanService cannot be null");
+        }
+        return countBans(name, service);
+    }
+
+    /**
+     * Gets the number of {@link Ban}s on an {@link UUID}.
+     *
+     * @param uuid UUID to count bans on
+     *
+     * @return Number of bans on the UUID
+     *
+     * @throws IOException Thrown if the data cannot be retrieved from Fishbans
+     * @throws NoSuchUUIDException Thrown if no UUID exists on Fishbans
+     *
+     * @see #getBanCount(java.lang.String)
+     *
+     * @since 1.1
+     */
+    public static int getBanCount(UUID uuid) throws IOException, NoSuchUUIDException {
+        return countBans(uuid, null);
+    }
+
+    /**
+     * Gets the number of {@link Ban}s on an {@link UUID} from a particular
+     * {@link BanServices}.
+     *
+     * @param uuid UUID to count bans on
+     * @param service Ban service to count bans from
+     *
+     * @return Number of bans on the UUID
+     *
+     * @throws IOException Thrown if the data cannot be retrieved from Fishbans
+     * @throws NoSuchUUIDException Thrown if no UUID exists on Fishbans
+     *
+     * @see #getBanCount(java.lang.String)
+     *
+     * @since 1.1
+     */
+    public static int getBanCount(UUID uuid, BanServices service) throws IOException, NoSuchUUIDException {
+        if (service == null) {
+            throw new IllegalArgumentException("BanService cannot be null");
         }
-        return getData(uuid);
+        return countBans(uuid, service);
     }
 
     /**
@@ -259,7 +554,7 @@ public class Fishbans {
         if (service == null) {
             throw new IllegalArgumentException("BanService cannot be null");
         }
-        return Fishbans.getFishbanPlayer(username, force).getBanList(service);
+        return serviceBans(username, service, force);
     }
 
     /**
@@ -281,7 +576,7 @@ public class Fishbans {
         if (service == null) {
             throw new IllegalArgumentException("BanService cannot be null");
         }
-        return Fishbans.getFishbanPlayer(uuid, force).getBanList(service);
+        return serviceBans(uuid, service, force);
     }
 
     /**
@@ -303,7 +598,7 @@ public class Fishbans {
         if (banservice == null) {
             throw new NoSuchBanServiceException(service);
         }
-        return Fishbans.getFishbanPlayer(username, force).getBanList(banservice);
+        return serviceBans(username, banservice, force);
     }
 
     /**
@@ -329,154 +624,1785 @@ public class Fishbans {
         if (banservice == null) {
             throw new NoSuchBanServiceException(service);
         }
-        return Fishbans.getFishbanPlayer(uuid, force).getBanList(banservice);
+        return serviceBans(uuid, banservice, force);
     }
 
     public static void clearCache() {
-        synchronized (banCache) {
+        for (ReentrantLock lock : keyLocks) {
+            lock.lock();
+        }
+        try {
+            Arrays.fill(invalidatedAt, invalidations.incrementAndGet());
             banCache.clear();
+            partialCache.clear();
+            refreshes.clear();
+            OffHeapCache offHeap = offHeapCache;
+            if (offHeap != null) {
+                offHeap.clear();
+            }
+            CleanFilter filter = cleanFilter;
+            if (filter != null) {
+                filter.clear();
+            }
+            for (CacheListener listener : cacheListeners) {
+                listener.cacheCleared();
+            }
+        } finally {
+            for (ReentrantLock lock : keyLocks) {
+                lock.unlock();
+            }
         }
     }
 
-    private static FishbansPlayer checkCache(String key) {
-        key = key.toLowerCase();
-        synchronized (banCache) {
-            BanCache cached = banCache.get(key);
-            if (cached != null && cached.getCacheTime() + cacheTime < System.currentTimeMillis()) {
-                return cached.getBans();
+    /**
+     * Adds a {@link CacheListener} which is told about players entering and
+     * leaving the cache. The listener is immediately given every player which
+     * is already cached.
+     *
+     * @param listener Listener to add
+     *
+     * @since 1.1
+     */
+    public static void addCacheListener(CacheListener listener) {
+        cacheListeners.add(listener);
+        IdentityHashMap<BanCache, Boolean> seen = new IdentityHashMap<BanCache, Boolean>();
+        for (BanCache cached : banCache.values()) {
+            if (seen.put(cached, Boolean.TRUE) == null) {
+                listener.entryAdded(cached.getBans());
             }
         }
-        return null;
     }
 
-    private static FishbansPlayer getData(UUID uuid) throws IOException, NoSuchUUIDException {
-        String name = getUsernameFromUUID(uuid);
-        if (name == null) {
-            throw new NoSuchUUIDException(uuid);
-        }
-        try {
-            return getData(name);
-        } catch (NoSuchUserException ex) {
-            throw new NoSuchUUIDException(ex);
-        }
+    public static void removeCacheListener(CacheListener listener) {
+        cacheListeners.remove(listener);
     }
 
-    private static FishbansPlayer getData(String name) throws IOException, NoSuchUserException {
-        URL connURL = new URL("http://api.fishbans.com/bans/" + name);
-        BufferedReader reader = null;
-        JsonElement element = null;
-        try {
-            reader = new BufferedReader(new InputStreamReader(connURL.openStream()));
-            JsonParser parser = new JsonParser();
-            element = parser.parse(reader);
-        } catch (JsonParseException e) {
-            throw new IOException(e);
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                }
-            }
-        }
-        if (element == null) {
-            return null;
+    /**
+     * Removes a player from the cache, so the next lookup retrieves it from
+     * Fishbans again. The player is also removed from the {@link SharedCache}
+     * and the other servers on the {@link InvalidationChannel}, if those are
+     * set. Use this after banning or unbanning someone.
+     *
+     * @param name Username of the player
+     *
+     * @since 1.1
+     */
+    public static void invalidate(String name) {
+        invalidateKey(name.toLowerCase());
+    }
+
+    /**
+     * Removes a player from the cache by {@link UUID}.
+     *
+     * @param uuid UUID of the player
+     *
+     * @see #invalidate(java.lang.String)
+     *
+     * @since 1.1
+     */
+    public static void invalidate(UUID uuid) {
+        invalidateKey(uuid.toString());
+    }
+
+    /**
+     * Sets the {@link InvalidationChannel} which calls to
+     * {@link #invalidate(java.lang.String)} are broadcast on, and which
+     * invalidations from other servers are received from. Set to null to
+     * disable.
+     *
+     * @param channel InvalidationChannel to use, or null for none
+     *
+     * @since 1.1
+     */
+    public static void setInvalidationChannel(InvalidationChannel channel) {
+        InvalidationChannel old = invalidationChannel;
+        if (old != null) {
+            old.setListener(null);
         }
-        JsonObject maps = element.getAsJsonObject();
-        if (!maps.get("success").getAsBoolean()) {
-            throw new NoSuchUserException(name);
+        invalidationChannel = channel;
+        if (channel != null) {
+            channel.setListener(new InvalidationListener() {
+                @Override
+                public void onInvalidate(Collection<String> keys) {
+                    for (String key : keys) {
+                        evict(key);
+                    }
+                }
+            });
         }
-        JsonObject bans = maps.getAsJsonObject("bans").getAsJsonObject("service");
-        LinkedList<Ban> banlist = new LinkedList<Ban>();
-        for (Entry<String, JsonElement> banEntry : bans.entrySet()) {
-            BanServices provider = BanServices.getService(banEntry.getKey());
-            JsonObject obj = banEntry.getValue().getAsJsonObject();
-            if (obj.get("bans").getAsInt() == 0) {
-                continue;
-            }
-            for (Entry<String, JsonElement> banListing : obj.get("ban_info").getAsJsonObject().entrySet()) {
-                banlist.add(new Ban(provider, banListing.getKey(), banListing.getValue().getAsString()));
-            }
+    }
+
+    public static InvalidationChannel getInvalidationChannel() {
+        return invalidationChannel;
+    }
+
+    /**
+     * Sets the percentile of recent Fishbans response times after which a
+     * lookup with a timeout sends a second, hedged request. Lower values hedge
+     * sooner and send more requests. Defaults to 95, and 0 disables hedging.
+     *
+     * @param percentile Percentile between 0 and 100
+     *
+     * @since 1.1
+     */
+    public static void setHedgePercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
         }
-        FishbansPlayer playerBans = new FishbansPlayer(banlist, maps.getAsJsonObject("bans").get("username").getAsString(), convertToUUID(maps.getAsJsonObject("bans").get("uuid").getAsString()));
-        banCache.put(name.toLowerCase(), new BanCache(playerBans));
-        return playerBans;
+        hedgePercentile = percentile;
     }
 
     /**
-     * Converts a String with no -s into a UUID. Exists to convert Mojang UUID
-     * to Java {@link UUID}.
+     * Sets the {@link SharedCache} which is checked when a player is not in
+     * the local cache, and which new lookups are published to. This lets
+     * several servers share the result of one lookup. Set to null to disable.
      *
-     * @param input UUID in String form
+     * @param cache SharedCache to use, or null for none
      *
-     * @return Converted UUID
+     * @since 1.1
+     */
+    public static void setSharedCache(SharedCache cache) {
+        sharedCache = cache;
+    }
+
+    public static SharedCache getSharedCache() {
+        return sharedCache;
+    }
+
+    /**
+     * Sets how long a lookup waits on the {@link SharedCache} before giving up
+     * and asking Fishbans instead. Every lookup which misses the local cache
+     * waits up to this long, so it is kept short. Defaults to 20 milliseconds.
      *
-     * @since 1.0
+     * @param timeout Time to wait for the shared cache
+     * @param unit Unit of the timeout
+     *
+     * @since 1.1
      */
-    public static UUID convertToUUID(String input) {
-        String converted = uuidConvertor.matcher(input).replaceAll("$1-$2-$3-$4-$5");
-        return UUID.fromString(converted);
+    public static void setSharedCacheTimeout(long timeout, TimeUnit unit) {
+        sharedCacheTimeout = unit.toMillis(timeout);
     }
 
     /**
-     * Gets the username for a particular UUID by asking the
-     * https://sessionserver.mojang.com server for the information. This only
-     * exists to permit UUID support as Fishbans does not accept it at the time
-     * of 1.0 release.
+     * Sets the {@link CleanFilter} which remembers players recently found to
+     * have no bans. Players are added whenever a lookup finds them clean and
+     * removed when they are found banned or invalidated. The filter answers
+     * {@link #isKnownClean(java.lang.String)}; other lookups only use it once
+     * {@link #setTrustCleanFilter(boolean)} is enabled.
      *
-     * @param uuid The UUID to convert
-     * @return The username, or null if no username
-     * @since 1.0
-     * @throws IOException Thrown when communication to the Mojang server fails
+     * @param filter Filter to use, or null to disable
+     *
+     * @since 1.1
      */
-    public static String getUsernameFromUUID(UUID uuid) throws IOException {
-        URL url = new URL("https://sessionserver.mojang.com/session/minecraft/profile/" + uuid.toString().replace("-", ""));
-        BufferedReader reader = null;
-        JsonObject response = null;
-        try {
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestProperty("User-Agent", "minecraft");
-            reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-            String reply;
-            reply = reader.readLine();
-            if (reply == null) {
-                return null;
+    public static void setCleanFilter(CleanFilter filter) {
+        cleanFilter = filter;
+    }
+
+    public static CleanFilter getCleanFilter() {
+        return cleanFilter;
+    }
+
+    /**
+     * Sets whether players in the {@link CleanFilter} are answered from it
+     * without a lookup. When enabled, players missing from the cache but in
+     * the filter get 0 from {@link #getBanCount(java.lang.String)}, an empty
+     * list from {@link #getBans(java.lang.String, BanServices)} and the
+     * {@link UUID} and String forms of both, and are allowed by
+     * {@link BanPolicy#check(java.lang.String)}. A Bloom filter reports
+     * players it never saw as clean at about
+     * {@link CleanFilter#getFalsePositiveRate()}, so that share of banned
+     * players is let through unchecked. Disabled by default.
+     *
+     * @param trust True to answer from the filter, false to only use it for
+     * {@link #isKnownClean(java.lang.String)}
+     *
+     * @since 1.1
+     */
+    public static void setTrustCleanFilter(boolean trust) {
+        trustCleanFilter = trust;
+    }
+
+    public static boolean isTrustCleanFilter() {
+        return trustCleanFilter;
+    }
+
+    /**
+     * Sets the {@link OffHeapCache} players are cached in. While set, players
+     * are stored there instead of on the heap, and decoded again each time
+     * they are read from the cache. Players cached on the heap before this was
+     * set stay there until they are replaced.
+     *
+     * @param cache Off-heap cache to use, or null to cache on the heap
+     *
+     * @since 1.1
+     */
+    public static void setOffHeapCache(OffHeapCache cache) {
+        offHeapCache = cache;
+    }
+
+    public static OffHeapCache getOffHeapCache() {
+        return offHeapCache;
+    }
+
+    /**
+     * Makes this server one node of a cluster. Players owned by another node
+     * are asked for from that node instead of Fishbans, and cached here too.
+     * See {@link ClusterNode}.
+     *
+     * @param node Node for this server, or null to look every player up
+     * locally
+     *
+     * @since 1.1
+     */
+    public static void setCluster(ClusterNode node) {
+        clusterNode = node;
+    }
+
+    public static ClusterNode getCluster() {
+        return clusterNode;
+    }
+
+    /**
+     * Takes a snapshot of the state of the cache and of the upstream services.
+     * This does not block lookups.
+     *
+     * @return The snapshot
+     *
+     * @since 1.1
+     */
+    public static FishbansStatistics getStatistics() {
+        FishbansStatistics stats = new FishbansStatistics();
+        long now = System.currentTimeMillis();
+        stats.capturedAt = now;
+        IdentityHashMap<BanCache, Boolean> seen = new IdentityHashMap<BanCache, Boolean>();
+        long[] ages = new long[16];
+        int count = 0;
+        for (BanCache cached : banCache.values()) {
+            if (seen.put(cached, Boolean.TRUE) != null) {
+                continue;
             }
-            response = new JsonParser().parse(reply).getAsJsonObject();
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                }
+            if (count == ages.length) {
+                ages = Arrays.copyOf(ages, count * 2);
+            }
+            ages[count++] = now - cached.getCacheTime();
+            if (cached.getExpiry() > now) {
+                stats.freshPlayers++;
             }
         }
-        if (reader == null || response == null) {
-            return null;
+        stats.cachedPlayers = count;
+        if (count > 0) {
+            Arrays.sort(ages, 0, count);
+            stats.newestAge = ages[0];
+            stats.medianAge = ages[count / 2];
+            stats.oldestAge = ages[count - 1];
         }
-        if (response.has("error")) {
-            return null;
-        } else {
-            return response.get("name").getAsString();
+        stats.cacheHits = cacheHits.get();
+        stats.cacheMisses = cacheMisses.get();
+        stats.partialKeys = partialCache.size();
+        stats.staleServed = staleServed.get();
+        stats.notModified = notModified.get();
+        stats.batches = batches.get();
+        stats.batchedLookups = batchedLookups.get();
+        stats.refreshing = refreshes.size();
+        OffHeapCache offHeap = offHeapCache;
+        if (offHeap != null) {
+            stats.offHeapEntries = offHeap.getEntryCount();
+            stats.offHeapUsed = offHeap.getUsedMemory();
+            stats.offHeapCapacity = offHeap.getCapacity();
+            stats.offHeapEvictions = offHeap.getEvictionCount();
+        }
+        CleanFilter filter = cleanFilter;
+        if (filter != null) {
+            stats.cleanFilterMemory = filter.getMemoryUsage();
         }
+        stats.hotKeys = hotKeys.getTop(20);
+        stats.upstreams.add(new FishbansStatistics.Upstream(fishbansStats));
+        stats.upstreams.add(new FishbansStatistics.Upstream(fishbansLightStats));
+        stats.upstreams.add(new FishbansStatistics.Upstream(mojangStats));
+        return stats;
     }
 
-    private static class BanCache {
-
-        private final FishbansPlayer banlist;
-        private final long storageTime;
-
-        private BanCache(FishbansPlayer banlist) {
-            this.banlist = banlist;
-            this.storageTime = System.currentTimeMillis();
+    /**
+     * Sets the {@link TtlPolicy} which decides how long each player stays
+     * cached. The default keeps every player for five minutes. Set a policy
+     * made with {@link TtlPolicy#TtlPolicy(long, long, TimeUnit)} to cache
+     * players longer the longer their bans have not changed, for example
+     * between one minute and an hour.
+     *
+     * @param policy Policy to use
+     *
+     * @since 1.1
+     */
+    public static void setTtlPolicy(TtlPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("TtlPolicy cannot be null");
         }
+        ttlPolicy = policy;
+    }
 
-        protected long getCacheTime() {
-            return storageTime;
+    public static TtlPolicy getTtlPolicy() {
+        return ttlPolicy;
+    }
+
+    /**
+     * Returns whether a player was recently found to have no bans. This never
+     * makes a network call. Players who are not cached are answered from the
+     * {@link CleanFilter}, which wrongly reports a player clean at about its
+     * false positive rate.
+     *
+     * @param name Username of player
+     *
+     * @return True if the player is cached with no bans or probably in the
+     * clean filter, false if they have bans or are not known
+     *
+     * @see #setCleanFilter(CleanFilter)
+     *
+     * @since 1.1
+     */
+    public static boolean isKnownClean(String name) {
+        FishbansPlayer player = checkCache(name);
+        if (player != null) {
+            return player.getBanCount() == 0;
         }
+        return inCleanFilter(name);
+    }
 
-        protected FishbansPlayer getBans() {
-            return banlist;
+    /**
+     * Returns whether a player was recently found to have no bans. This never
+     * makes a network call.
+     *
+     * @param uuid UUID of player
+     *
+     * @return True if the player is cached with no bans or probably in the
+     * clean filter, false if they have bans or are not known
+     *
+     * @see #isKnownClean(java.lang.String)
+     * @see #setCleanFilter(CleanFilter)
+     *
+     * @since 1.1
+     */
+    public static boolean isKnownClean(UUID uuid) {
+        return isKnownClean(uuid.toString());
+    }
+
+    /**
+     * Gets a player from the cache, even if its entry has expired. This never
+     * makes a network call and does not count as a lookup.
+     *
+     * @param uuid UUID of player
+     *
+     * @return The cached player, or null if the player is not cached
+     *
+     * @since 1.1
+     */
+    public static FishbansPlayer getCachedPlayer(UUID uuid) {
+        String key = uuid.toString();
+        BanCache cached = banCache.get(key);
+        if (cached != null) {
+            return cached.getBans();
+        }
+        OffHeapCache offHeap = offHeapCache;
+        return offHeap == null ? null : readOffHeap(offHeap, key, true);
+    }
+
+    private static boolean inCleanFilter(String key) {
+        CleanFilter filter = cleanFilter;
+        return filter != null && filter.isClean(key);
+    }
+
+    /**
+     * Returns whether a player who missed the cache may be answered as clean
+     * without a lookup, see {@link #setTrustCleanFilter(boolean)}.
+     */
+    private static boolean trustedClean(String key) {
+        return trustCleanFilter && inCleanFilter(key);
+    }
+
+    private static void recordClean(String name, UUID uuid, boolean clean) {
+        CleanFilter filter = cleanFilter;
+        if (filter == null) {
+            return;
+        }
+        if (clean) {
+            filter.add(name);
+            filter.add(uuid.toString());
+        } else {
+            filter.remove(name);
+            filter.remove(uuid.toString());
+        }
+    }
+
+    private static void invalidateKey(String key) {
+        BanCache removed = evict(key);
+        SharedCache shared = sharedCache;
+        InvalidationChannel channel = invalidationChannel;
+        if (shared != null) {
+            shared.remove(key);
+        }
+        if (channel != null) {
+            channel.publish(key);
+        }
+        if (removed != null) {
+            String other = otherKey(removed, key);
+            if (shared != null) {
+                shared.remove(other);
+            }
+            if (channel != null) {
+                channel.publish(other);
+            }
+        }
+    }
+
+    private static BanCache evict(String key) {
+        BanCache removed;
+        int stripe = stripe(key);
+        keyLocks[stripe].lock();
+        try {
+            invalidatedAt[stripe] = invalidations.incrementAndGet();
+            partialCache.remove(key);
+            CleanFilter filter = cleanFilter;
+            if (filter != null) {
+                filter.remove(key);
+            }
+            removed = banCache.remove(key);
+            OffHeapCache offHeap = offHeapCache;
+            if (offHeap != null) {
+                FishbansPlayer stored = readOffHeap(offHeap, key, true);
+                offHeap.remove(key);
+                if (removed == null && stored != null) {
+                    removed = new BanCache(stored, 0, 0, 0, null);
+                }
+            }
+            if (removed != null) {
+                banCache.remove(otherKey(removed, key), removed);
+                for (CacheListener listener : cacheListeners) {
+                    listener.entryRemoved(removed.getBans());
+                }
+            }
+        } finally {
+            keyLocks[stripe].unlock();
+        }
+        return removed;
+    }
+
+    private static String otherKey(BanCache cached, String key) {
+        String uuidKey = cached.getBans().getUUID().toString();
+        return uuidKey.equals(key) ? cached.getBans().getName().toLowerCase() : uuidKey;
+    }
+
+    private static LookupResult lookupWithDeadline(final String key, final UUID uuid, long timeout) {
+        long start = System.nanoTime();
+        long deadline = start + timeout;
+        CompletionService<FishbansPlayer> completion = new ExecutorCompletionService<FishbansPlayer>(lookupExecutor);
+        List<Future<FishbansPlayer>> running = new ArrayList<Future<FishbansPlayer>>(2);
+        List<DeadlineRequest> requests = new ArrayList<DeadlineRequest>(2);
+        if (clusterNode != null) {
+            running.add(completion.submit(new Callable<FishbansPlayer>() {
+                @Override
+                public FishbansPlayer call() throws Exception {
+                    return uuid == null ? getFishbanPlayer(key, false) : getFishbanPlayer(uuid, false);
+                }
+            }));
+        } else {
+            DeadlineRequest primary = new DeadlineRequest(key, uuid, true);
+            requests.add(primary);
+            running.add(completion.submit(primary));
+        }
+        long hedgeDelay = hedgeDelay();
+        boolean hedged = hedgeDelay < 0;
+        Exception error = null;
+        try {
+            while (!running.isEmpty()) {
+                long now = System.nanoTime();
+                if (deadline - now <= 0) {
+                    break;
+                }
+                long wait = hedged ? deadline - now : Math.min(deadline - now, start + hedgeDelay - now);
+                Future<FishbansPlayer> done = completion.poll(Math.max(0, wait), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    if (!hedged && System.nanoTime() - (start + hedgeDelay) >= 0) {
+                        hedged = true;
+                        DeadlineRequest hedge = new DeadlineRequest(key, uuid, false);
+                        requests.add(hedge);
+                        running.add(completion.submit(hedge));
+                    }
+                    continue;
+                }
+                running.remove(done);
+                try {
+                    FishbansPlayer player = done.get();
+                    if (player != null) {
+                        return new LookupResult(key, player, null, player.isStale() ? LookupResult.Status.STALE : LookupResult.Status.FRESH);
+                    }
+                } catch (ExecutionException ex) {
+                    error = ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+                    if (error instanceof NoSuchUserException || error instanceof NoSuchUUIDException) {
+                        return new LookupResult(key, error);
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<FishbansPlayer> future : running) {
+                future.cancel(true);
+            }
+            for (DeadlineRequest request : requests) {
+                request.cancel();
+            }
+        }
+        FishbansPlayer stale = staleEntry(key);
+        if (stale != null) {
+            if (stale.isStale()) {
+                staleServed.incrementAndGet();
+            }
+            return new LookupResult(key, stale, error, stale.isStale() ? LookupResult.Status.STALE : LookupResult.Status.FRESH);
+        }
+        if (error != null) {
+            return new LookupResult(key, error);
+        }
+        return new LookupResult(key, null, null, LookupResult.Status.TIMEOUT);
+    }
+
+    private static long hedgeDelay() {
+        double percentile = hedgePercentile;
+        if (percentile <= 0 || fishbansStats.getLatency().getCount() < hedgeMinSamples) {
+            return -1;
+        }
+        return fishbansStats.getLatency().getPercentile(percentile);
+    }
+
+    /**
+     * Gets the expired entry for a key, if it expired less than the stale
+     * window ago, as a copy marked as stale.
+     *
+     * @return The player, or null if there is no usable expired entry
+     */
+    private static FishbansPlayer staleEntry(String key) {
+        long window = staleIfError;
+        if (window <= 0) {
+            return null;
+        }
+        key = key.toLowerCase();
+        long now = System.currentTimeMillis();
+        BanCache cached = banCache.get(key);
+        FishbansPlayer player;
+        long expiresAt;
+        if (cached != null) {
+            player = cached.getBans();
+            expiresAt = cached.getExpiry();
+        } else {
+            OffHeapCache offHeap = offHeapCache;
+            expiresAt = offHeap == null ? Long.MIN_VALUE : offHeap.getExpiresAt(key);
+            if (expiresAt == Long.MIN_VALUE || now - expiresAt > window) {
+                return null;
+            }
+            player = readOffHeap(offHeap, key, true);
+        }
+        if (player == null || now - expiresAt > window) {
+            return null;
+        }
+        return stale(player, expiresAt);
+    }
+
+    /**
+     * Copies a cached player marked as stale, if it has expired. The cached
+     * player itself is never marked, as other lookups may be holding it.
+     */
+    private static FishbansPlayer stale(FishbansPlayer player, long expiresAt) {
+        if (expiresAt > System.currentTimeMillis()) {
+            return player;
+        }
+        return new FishbansPlayer(player, Math.max(expiresAt, 1));
+    }
+
+    /**
+     * Serves a stale entry without asking Fishbans while an earlier failure
+     * is still being retried in the background.
+     */
+    private static FishbansPlayer servingStale(String key) {
+        if (refreshes.isEmpty()) {
+            return null;
+        }
+        FishbansPlayer stale = staleEntry(key);
+        if (stale == null || !refreshes.containsKey(stale.getUUID().toString())) {
+            return null;
+        }
+        staleServed.incrementAndGet();
+        return stale;
+    }
+
+    /**
+     * Serves a stale entry in place of a failed lookup, and starts refreshing
+     * it in the background. Rethrows the failure if there is no entry.
+     */
+    private static FishbansPlayer staleOrThrow(String key, IOException error) throws IOException {
+        FishbansPlayer stale = staleEntry(key);
+        if (stale == null) {
+            throw error;
+        }
+        staleServed.incrementAndGet();
+        String uuidKey = stale.getUUID().toString();
+        Refresh refresh = new Refresh(stale.getName(), uuidKey);
+        if (refreshes.putIfAbsent(uuidKey, refresh) == null) {
+            refresh.schedule();
+        }
+        return stale;
+    }
+
+    private static FishbansPlayer checkCache(String key) {
+        key = key.toLowerCase();
+        hotKeys.record(key);
+        BanCache cached = banCache.get(key);
+        FishbansPlayer player = null;
+        if (cached != null) {
+            player = cached.getExpiry() > System.currentTimeMillis() ? cached.getBans() : null;
+        } else {
+            OffHeapCache offHeap = offHeapCache;
+            player = offHeap == null ? null : readOffHeap(offHeap, key, false);
+        }
+        (player == null ? cacheMisses : cacheHits).incrementAndGet();
+        return player;
+    }
+
+    private static FishbansPlayer readOffHeap(OffHeapCache offHeap, String key, boolean allowExpired) {
+        byte[] payload = allowExpired ? offHeap.get(key) : offHeap.get(key, System.currentTimeMillis());
+        if (payload == null) {
+            return null;
+        }
+        try {
+            return FishbansPlayerCodec.decode(payload);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private static FishbansPlayer checkSharedCache(String key) {
+        SharedCache shared = sharedCache;
+        if (shared == null) {
+            return null;
+        }
+        long since = invalidations.get();
+        key = key.toLowerCase();
+        SharedCacheEntry entry;
+        try {
+            entry = shared.get(key).get(sharedCacheTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException ex) {
+            return null;
+        } catch (TimeoutException ex) {
+            return null;
+        }
+        if (entry == null || entry.isExpired(System.currentTimeMillis())) {
+            return null;
+        }
+        FishbansPlayer player;
+        try {
+            player = FishbansPlayerCodec.decode(entry.getPayload());
+        } catch (IOException ex) {
+            return null;
+        }
+        long storedAt = entry.getStoredAt();
+        storeLocal(player, key, storedAt, storedAt + entry.getTimeToLive(), stableSince(player, storedAt), since, null);
+        return player;
+    }
+
+    private static void store(FishbansPlayer player, String key, long since) {
+        store(player, key, since, null);
+    }
+
+    private static void store(FishbansPlayer player, String key, long since, Validator validator) {
+        long now = System.currentTimeMillis();
+        long stableSince = stableSince(player, now);
+        long ttl = ttlPolicy.getTtl(player, now - stableSince);
+        if (storeLocal(player, key, now, now + ttl, stableSince, since, validator)) {
+            share(player, key, now, ttl);
+        }
+    }
+
+    private static void share(FishbansPlayer player, String key, long now, long ttl) {
+        SharedCache shared = sharedCache;
+        if (shared == null) {
+            return;
+        }
+        SharedCacheEntry entry = new SharedCacheEntry(FishbansPlayerCodec.encode(player, now), now, ttl);
+        shared.put(key.toLowerCase(), entry);
+        String uuidKey = player.getUUID().toString();
+        if (!uuidKey.equals(key)) {
+            shared.put(uuidKey, entry);
+        }
+    }
+
+    /**
+     * Keeps a cached player which Fishbans confirmed has not changed, as if
+     * it had just been stored. Nothing is decoded or allocated unless a
+     * {@link SharedCache} is set.
+     *
+     * @return True if the player was renewed, false if it was invalidated or
+     * replaced since the lookup started
+     */
+    private static boolean renew(BanCache cached, long since) {
+        FishbansPlayer player = cached.getBans();
+        String nameKey = player.getName().toLowerCase();
+        String uuidKey = player.getUUID().toString();
+        long now;
+        long ttl;
+        if (!lockKeys(nameKey, uuidKey, since)) {
+            return false;
+        }
+        try {
+            if (banCache.get(nameKey) != cached || banCache.get(uuidKey) != cached) {
+                return false;
+            }
+            now = System.currentTimeMillis();
+            ttl = ttlPolicy.getTtl(player, now - cached.getStableSince());
+            cached.renew(now, now + ttl);
+        } finally {
+            unlockKeys(nameKey, uuidKey);
+        }
+        notModified.incrementAndGet();
+        share(player, nameKey, now, ttl);
+        return true;
+    }
+
+    /**
+     * Works out since when the bans of a player have been the same, from the
+     * entry it replaces. See {@link TtlPolicy}.
+     */
+    private static long stableSince(FishbansPlayer player, long now) {
+        String uuidKey = player.getUUID().toString();
+        BanCache previous = banCache.get(uuidKey);
+        if (previous != null) {
+            FishbansPlayer old = previous.getBans();
+            boolean same = old.getBanCount() == player.getBanCount() && old.getFingerprint() == player.getFingerprint();
+            return same ? Math.min(previous.getStableSince(), now) : now;
+        }
+        OffHeapCache offHeap = offHeapCache;
+        if (offHeap != null) {
+            long since = offHeap.getStableSince(uuidKey);
+            if (since != Long.MIN_VALUE) {
+                return offHeap.getFingerprint(uuidKey) == player.getFingerprint() ? Math.min(since, now) : now;
+            }
+        }
+        return now - ttlPolicy.getAssumedStability();
+    }
+
+    /**
+     * Caches a player, unless it was invalidated after the lookup which found
+     * it started. Both keys of the player are locked while it is stored, so
+     * an invalidation either sees the new entry and removes it, or happens
+     * first and the entry is not stored. Listeners are told while the keys
+     * are still locked, so they see the changes to a player in order.
+     *
+     * @return True if the player was stored
+     */
+    private static boolean storeLocal(FishbansPlayer player, String key, long storedAt, long expiresAt, long stableSince, long since, Validator validator) {
+        String nameKey = key.toLowerCase();
+        String uuidKey = player.getUUID().toString();
+        BanCache oldName;
+        BanCache oldUUID;
+        if (!lockKeys(nameKey, uuidKey, since)) {
+            return false;
+        }
+        try {
+            OffHeapCache offHeap = offHeapCache;
+            if (offHeap != null && offHeap.put(player, storedAt, expiresAt, stableSince)) {
+                oldName = banCache.remove(nameKey);
+                oldUUID = banCache.remove(uuidKey);
+            } else {
+                BanCache cached = new BanCache(player, storedAt, expiresAt, stableSince, validator);
+                oldName = banCache.put(nameKey, cached);
+                oldUUID = banCache.put(uuidKey, cached);
+            }
+            recordClean(player.getName(), player.getUUID(), player.getBanCount() == 0);
+            if (!cacheListeners.isEmpty()) {
+                released(oldName);
+                if (oldUUID != oldName) {
+                    released(oldUUID);
+                }
+                for (CacheListener listener : cacheListeners) {
+                    listener.entryAdded(player);
+                }
+            }
+        } finally {
+            unlockKeys(nameKey, uuidKey);
+        }
+        return true;
+    }
+
+    /**
+     * Locks the stripes of both keys of a player, unless either was
+     * invalidated after the given point.
+     *
+     * @return True if the keys are now locked
+     */
+    private static boolean lockKeys(String nameKey, String uuidKey, long since) {
+        int first = Math.min(stripe(nameKey), stripe(uuidKey));
+        int second = Math.max(stripe(nameKey), stripe(uuidKey));
+        keyLocks[first].lock();
+        if (second != first) {
+            keyLocks[second].lock();
+        }
+        if (invalidatedAt[first] > since || invalidatedAt[second] > since) {
+            unlockKeys(nameKey, uuidKey);
+            return false;
+        }
+        return true;
+    }
+
+    private static void unlockKeys(String nameKey, String uuidKey) {
+        int first = stripe(nameKey);
+        int second = stripe(uuidKey);
+        keyLocks[first].unlock();
+        if (second != first) {
+            keyLocks[second].unlock();
+        }
+    }
+
+    private static int stripe(String key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (keyStripes - 1);
+    }
+
+    private static void released(BanCache old) {
+        if (old == null) {
+            return;
+        }
+        FishbansPlayer player = old.getBans();
+        if (banCache.get(player.getName().toLowerCase()) == old || banCache.get(player.getUUID().toString()) == old) {
+            return;
+        }
+        for (CacheListener listener : cacheListeners) {
+            listener.entryRemoved(player);
+        }
+    }
+
+    private static int countBans(String name, BanServices service) throws IOException, NoSuchUserException {
+        FishbansPlayer player = checkCache(name);
+        if (player == null && trustedClean(name)) {
+            return 0;
+        }
+        if (player == null) {
+            PartialCache.Record record = partialCache.get(name.toLowerCase());
+            BanStats stats = record == null ? null : record.getStats(System.currentTimeMillis());
+            if (stats == null) {
+                player = checkSharedCache(name);
+            }
+            if (stats == null && player == null) {
+                player = servingStale(name);
+            }
+            try {
+                if (stats == null && player == null) {
+                    stats = fetchStats(name);
+                }
+                if (stats != null) {
+                    return service == null ? stats.getTotal() : stats.getCount(service);
+                }
+                if (player == null) {
+                    player = getData(name);
+                }
+            } catch (IOException ex) {
+                player = staleOrThrow(name, ex);
+            }
+        }
+        return service == null ? player.getBanCount() : player.getBanCount(service);
+    }
+
+    private static int countBans(UUID uuid, BanServices service) throws IOException, NoSuchUUIDException {
+        String key = uuid.toString();
+        FishbansPlayer player = checkCache(key);
+        if (player == null && trustedClean(key)) {
+            return 0;
+        }
+        if (player == null) {
+            PartialCache.Record record = partialCache.get(key);
+            BanStats stats = record == null ? null : record.getStats(System.currentTimeMillis());
+            if (stats != null) {
+                return service == null ? stats.getTotal() : stats.getCount(service);
+            }
+            player = checkSharedCache(key);
+        }
+        if (player == null) {
+            player = servingStale(key);
+        }
+        if (player == null) {
+            try {
+                return countBans(nameOf(uuid), service);
+            } catch (NoSuchUserException ex) {
+                throw new NoSuchUUIDException(ex);
+            } catch (IOException ex) {
+                player = staleOrThrow(key, ex);
+            }
+        }
+        return service == null ? player.getBanCount() : player.getBanCount(service);
+    }
+
+    private static List<Ban> serviceBans(String name, BanServices service, boolean force) throws IOException, NoSuchUserException {
+        if (!force) {
+            FishbansPlayer player = checkCache(name);
+            if (player != null) {
+                return player.getBanList(service);
+            }
+            if (trustedClean(name)) {
+                return FishbansPlayer.noBans();
+            }
+            PartialCache.Record record = partialCache.get(name.toLowerCase());
+            List<Ban> bans = record == null ? null : record.getBans(service, System.currentTimeMillis());
+            if (bans != null) {
+                return bans;
+            }
+            player = checkSharedCache(name);
+            if (player == null) {
+                player = servingStale(name);
+            }
+            if (player != null) {
+                return player.getBanList(service);
+            }
+            try {
+                return fetchBans(name, service);
+            } catch (IOException ex) {
+                return staleOrThrow(name, ex).getBanList(service);
+            }
+        }
+        return fetchBans(name, service);
+    }
+
+    private static List<Ban> fetchBans(String name, BanServices service) throws IOException, NoSuchUserException {
+        List<Ban> bans = fetchServiceBans(name, service);
+        if (bans != null) {
+            return bans;
+        }
+        return getData(name).getBanList(service);
+    }
+
+    private static List<Ban> serviceBans(UUID uuid, BanServices service, boolean force) throws IOException, NoSuchUUIDException {
+        String key = uuid.toString();
+        if (!force) {
+            FishbansPlayer player = checkCache(key);
+            if (player != null) {
+                return player.getBanList(service);
+            }
+            if (trustedClean(key)) {
+                return FishbansPlayer.noBans();
+            }
+            PartialCache.Record record = partialCache.get(key);
+            List<Ban> bans = record == null ? null : record.getBans(service, System.currentTimeMillis());
+            if (bans != null) {
+                return bans;
+            }
+            player = checkSharedCache(key);
+            if (player == null) {
+                player = servingStale(key);
+            }
+            if (player != null) {
+                return player.getBanList(service);
+            }
+        }
+        try {
+            return serviceBans(nameOf(uuid), service, true);
+        } catch (NoSuchUserException ex) {
+            throw new NoSuchUUIDException(ex);
+        } catch (IOException ex) {
+            if (force) {
+                throw ex;
+            }
+            return staleOrThrow(key, ex).getBanList(service);
+        }
+    }
+
+    /**
+     * Builds a full player out of cached partial results. Services the fresh
+     * counts show to have no bans are never fetched, and a single missing
+     * service is fetched on its own. If more is missing, a full lookup is one
+     * request instead of several, so null is returned.
+     */
+    private static FishbansPlayer assemble(String key) throws IOException, NoSuchUserException {
+        long since = invalidations.get();
+        PartialCache.Record record = partialCache.get(key.toLowerCase());
+        if (record == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        BanStats stats = record.getStats(now);
+        if (stats == null || stats.hasUnknownServices()) {
+            return null;
+        }
+        BanServices missing = null;
+        List<Ban> bans = new ArrayList<Ban>(stats.getTotal());
+        for (BanServices service : BanServices.getBanServices()) {
+            List<Ban> list = record.getBans(service, now);
+            if (list != null) {
+                bans.addAll(list);
+            } else if (missing == null) {
+                missing = service;
+            } else {
+                return null;
+            }
+        }
+        if (missing != null) {
+            List<Ban> list = fetchServiceBans(record.getName(), missing);
+            if (list == null) {
+                return null;
+            }
+            bans.addAll(list);
+        }
+        FishbansPlayer player = new FishbansPlayer(bans, stats.getName(), stats.getUUID());
+        store(player, record.getName(), since);
+        return player;
+    }
+
+    private static BanStats fetchStats(String name) throws IOException, NoSuchUserException {
+        long since = invalidations.get();
+        HttpResponse response = fetch(fishbansLightStats, fishbansApi + "stats/" + name, Collections.<String, String>emptyMap());
+        if (response.getStatus() != 200) {
+            return null;
+        }
+        BanStats stats = BanStats.parse(name, response.getBody());
+        String nameKey = stats.getName().toLowerCase();
+        String uuidKey = stats.getUUID().toString();
+        if (lockKeys(nameKey, uuidKey, since)) {
+            try {
+                partialCache.record(stats.getName(), stats.getUUID()).setStats(stats, System.currentTimeMillis() + ttlPolicy.getTtl((BanServices) null, stats.getTotal()));
+                recordClean(stats.getName(), stats.getUUID(), stats.getTotal() == 0);
+            } finally {
+                unlockKeys(nameKey, uuidKey);
+            }
+        }
+        return stats;
+    }
+
+    private static List<Ban> fetchServiceBans(String name, BanServices service) throws IOException, NoSuchUserException {
+        long since = invalidations.get();
+        HttpResponse response = fetch(fishbansLightStats, fishbansApi + "bans/" + name + "/" + service.getName().toLowerCase(), Collections.<String, String>emptyMap());
+        if (response.getStatus() != 200) {
+            return null;
+        }
+        FishbansPlayer part = CompactBans.parse(name, response.getBody());
+        if (part == null) {
+            return null;
+        }
+        List<Ban> bans = part.getBanList(service);
+        String nameKey = part.getName().toLowerCase();
+        String uuidKey = part.getUUID().toString();
+        if (lockKeys(nameKey, uuidKey, since)) {
+            try {
+                partialCache.record(part.getName(), part.getUUID()).setBans(service, bans, System.currentTimeMillis() + ttlPolicy.getTtl(service, bans.size()));
+            } finally {
+                unlockKeys(nameKey, uuidKey);
+            }
+        }
+        return bans;
+    }
+
+    private static String nameOf(UUID uuid) throws IOException, NoSuchUUIDException {
+        String name = getUsernameFromUUID(uuid);
+        if (name == null) {
+            throw new NoSuchUUIDException(uuid);
+        }
+        return name;
+    }
+
+    private static FishbansPlayer getData(UUID uuid, boolean force) throws IOException, NoSuchUUIDException {
+        if (sidecarApi) {
+            try {
+                return fetchPlayer(uuid.toString(), fishbansApi + "bans/" + uuid.toString());
+            } catch (NoSuchUserException ex) {
+                throw new NoSuchUUIDException(ex);
+            }
+        }
+        String name = getUsernameFromUUID(uuid);
+        if (name == null) {
+            throw new NoSuchUUIDException(uuid);
+        }
+        try {
+            return getData(name, force);
+        } catch (NoSuchUserException ex) {
+            throw new NoSuchUUIDException(ex);
+        }
+    }
+
+    private static HttpResponse fetch(UpstreamStats upstream, String url, Map<String, String> headers) throws IOException {
+        long start = upstream.start();
+        boolean failed = true;
+        try {
+            HttpResponse response = transport.get(url, headers);
+            failed = response.getStatus() >= 500 || response.getStatus() == 429;
+            return response;
+        } finally {
+            upstream.finish(start, failed);
+        }
+    }
+
+    private static FishbansPlayer getData(String name) throws IOException, NoSuchUserException {
+        return getData(name, false);
+    }
+
+    private static FishbansPlayer getData(String name, boolean force) throws IOException, NoSuchUserException {
+        ClusterNode node = clusterNode;
+        if (node != null) {
+            long since = invalidations.get();
+            FishbansPlayer player = node.fetch(name, force);
+            if (player != null) {
+                store(player, name, since);
+                return player;
+            }
+        }
+        return fetchPlayer(name, fishbansApi + "bans/" + name);
+    }
+
+    private static FishbansPlayer fetchPlayer(String name, String url) throws IOException, NoSuchUserException {
+        if (!coalescing) {
+            return dispatchPlayer(name, url, invalidations.get());
+        }
+        String key = name.toLowerCase();
+        while (true) {
+            long since = invalidations.get();
+            Fetch fetch = inFlight.get(key);
+            if (fetch != null && fetch.since >= since) {
+                return fetch.await();
+            }
+            Fetch created = new Fetch(name, url, since);
+            if (fetch == null ? inFlight.putIfAbsent(key, created) == null : inFlight.replace(key, fetch, created)) {
+                try {
+                    created.run();
+                } finally {
+                    inFlight.remove(key, created);
+                }
+                return created.await();
+            }
+        }
+    }
+
+    private static FishbansPlayer dispatchPlayer(String name, String url, long since) throws IOException, NoSuchUserException {
+        return batchWindow > 0 ? batchPlayer(name, url, since) : requestPlayer(name, url, since);
+    }
+
+    /**
+     * Adds a lookup to the open batch, opening one if needed, and waits for
+     * it. A lookup of a player already in the batch shares its request,
+     * unless the player was invalidated after that request was added.
+     */
+    private static FishbansPlayer batchPlayer(String name, String url, long since) throws IOException, NoSuchUserException {
+        String key = name.toLowerCase();
+        Fetch fetch;
+        Batch full = null;
+        synchronized (batchLock) {
+            Batch batch = openBatch;
+            if (batch == null) {
+                batch = new Batch();
+                openBatch = batch;
+                scheduler.schedule(batch, batchWindow, TimeUnit.NANOSECONDS);
+            }
+            fetch = batch.byKey.get(key);
+            if (fetch == null || fetch.since < since) {
+                PlayerRequest request = new PlayerRequest(name, url, since);
+                fetch = new Fetch(request, since);
+                batch.byKey.put(key, fetch);
+                batch.requests.add(request);
+                batch.fetches.add(fetch);
+            }
+            if (batch.requests.size() >= batchSize) {
+                openBatch = null;
+                full = batch;
+            }
+        }
+        if (full != null) {
+            full.run();
+        }
+        return fetch.await();
+    }
+
+    private static FishbansPlayer requestPlayer(String name, String url, long since) throws IOException, NoSuchUserException {
+        BanCache previous = banCache.get(name.toLowerCase());
+        HttpResponse response = fetch(fishbansStats, url, conditions(previous));
+        return readPlayer(name, url, since, previous, response);
+    }
+
+    private static Map<String, String> conditions(BanCache previous) {
+        Validator known = previous == null ? null : previous.getValidator();
+        return known == null ? Collections.<String, String>emptyMap() : known.getHeaders();
+    }
+
+    /**
+     * Turns a response from Fishbans into a player and caches it, or keeps
+     * the cached player if the response shows it has not changed.
+     */
+    private static FishbansPlayer readPlayer(String name, String url, long since, BanCache previous, HttpResponse response) throws IOException, NoSuchUserException {
+        Validator known = previous == null ? null : previous.getValidator();
+        if (response.getStatus() == 304 && known != null) {
+            if (renew(previous, since)) {
+                return previous.getBans();
+            }
+            response = fetch(fishbansStats, url, Collections.<String, String>emptyMap());
+        }
+        long hash = Validator.hash(response.getBody());
+        if (known != null && response.getStatus() == 200 && known.getHash() == hash && renew(previous, since)) {
+            return previous.getBans();
+        }
+        if (response.getStatus() != 200) {
+            throw new IOException("Fishbans returned HTTP " + response.getStatus() + " for " + name);
+        }
+        FishbansPlayer playerBans;
+        if (lazyDecoding) {
+            playerBans = CompactBans.parse(name, response.getBody());
+        } else {
+            playerBans = ResponseDecoder.decodePlayer(name, response.getBody());
+        }
+        if (playerBans == null) {
+            return null;
+        }
+        if (keepResponses) {
+            playerBans.setResponse(response.getBody());
+        }
+        store(playerBans, playerBans.getUUID().toString().equals(name) ? playerBans.getName() : name, since, new Validator(response, hash));
+        return playerBans;
+    }
+
+    /**
+     * Converts a String with no -s into a UUID. Exists to convert Mojang UUID
+     * to Java {@link UUID}.
+     *
+     * @param input UUID in String form
+     *
+     * @return Converted UUID
+     *
+     * @since 1.0
+     */
+    public static UUID convertToUUID(String input) {
+        String converted = uuidConvertor.matcher(input).replaceAll("$1-$2-$3-$4-$5");
+        return UUID.fromString(converted);
+    }
+
+    /**
+     * Gets the username for a particular UUID by asking the
+     * https://sessionserver.mojang.com server for the information. This only
+     * exists to permit UUID support as Fishbans does not accept it at the time
+     * of 1.0 release.
+     *
+     * @param uuid The UUID to convert
+     * @return The username, or null if no username
+     * @since 1.0
+     * @throws IOException Thrown when communication to the Mojang server
+     * fails, including when Mojang answers with an error such as a rate limit
+     */
+    public static String getUsernameFromUUID(UUID uuid) throws IOException {
+        HttpResponse reply = fetch(mojangStats, "https://sessionserver.mojang.com/session/minecraft/profile/" + uuid.toString().replace("-", ""), mojangHeaders);
+        int status = reply.getStatus();
+        if (status == 204 || status == 404) {
+            return null;
+        }
+        if (status != 200) {
+            throw new IOException("Mojang returned HTTP " + status + " for " + uuid);
+        }
+        if (reply.getBody().length == 0) {
+            return null;
+        }
+        return ResponseDecoder.decodeProfileName(reply.getBody());
+    }
+
+    /**
+     * Sets the {@link HttpTransport} used to send requests to Fishbans and
+     * Mojang. By default this is the best transport for the running JVM, see
+     * {@link Transports#createDefault()}.
+     *
+     * @param httpTransport Transport to use
+     *
+     * @since 1.1
+     */
+    public static void setTransport(HttpTransport httpTransport) {
+        if (httpTransport == null) {
+            throw new IllegalArgumentException("HttpTransport cannot be null");
+        }
+        transport = httpTransport;
+    }
+
+    public static HttpTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets whether lookups decode {@link Ban}s lazily. When enabled, which is
+     * the default, a response is only scanned for where each service's bans
+     * are and how many there are. The bans are decoded the first time they are
+     * asked for, so lookups which only need ban counts never create them.
+     *
+     * @param lazy True to decode bans lazily, false to decode them up front
+     *
+     * @since 1.1
+     */
+    public static void setLazyDecoding(boolean lazy) {
+        lazyDecoding = lazy;
+    }
+
+    public static boolean isLazyDecoding() {
+        return lazyDecoding;
+    }
+
+    /**
+     * Sets the base URL requests to Fishbans are sent to, such as a mirror.
+     * Defaults to http://api.fishbans.com/. This turns off sidecar mode, see
+     * {@link #useSidecar(java.lang.String)}.
+     *
+     * @param url Base URL of the Fishbans API
+     *
+     * @since 1.1
+     */
+    public static void setApiUrl(String url) {
+        if (url == null) {
+            throw new IllegalArgumentException("API url cannot be null");
+        }
+        fishbansApi = url.endsWith("/") ? url : url + "/";
+        sidecarApi = false;
+    }
+
+    public static String getApiUrl() {
+        return fishbansApi;
+    }
+
+    /**
+     * Sends every lookup to a
+     * {@link net.ae97.fishbans.api.sidecar.SidecarServer} instead of to
+     * Fishbans, so that all processes on a machine share its cache and its
+     * requests to Fishbans. Players looked up by {@link UUID} are resolved by
+     * the sidecar as well, rather than by asking Mojang for their name.
+     * <p>
+     * Use {@link #setApiUrl(java.lang.String)} with
+     * http://api.fishbans.com/ to go back to asking Fishbans directly.
+     *
+     * @param url Base URL of the sidecar, such as http://127.0.0.1:8095/
+     *
+     * @since 1.1
+     */
+    public static void useSidecar(String url) {
+        setApiUrl(url);
+        sidecarApi = true;
+    }
+
+    /**
+     * Sets whether players keep the Fishbans response they were decoded from,
+     * so it can be passed on without encoding it again, see
+     * {@link FishbansPlayer#getResponse()}. This roughly doubles the memory
+     * used by cached players, so it is off by default.
+     *
+     * @param keep True to keep responses, false otherwise
+     *
+     * @since 1.1
+     */
+    public static void setKeepResponses(boolean keep) {
+        keepResponses = keep;
+    }
+
+    public static boolean isKeepResponses() {
+        return keepResponses;
+    }
+
+    /**
+     * Sets whether concurrent lookups of the same player share one request
+     * to Fishbans. A lookup only joins a request which started after the
+     * last invalidation, so joining never returns data older than an
+     * {@link #invalidate(java.lang.String)} which finished first. Disabled by
+     * default.
+     *
+     * @param coalesce True to share requests, false to send one per lookup
+     *
+     * @since 1.1
+     */
+    public static void setCoalescing(boolean coalesce) {
+        coalescing = coalesce;
+    }
+
+    public static boolean isCoalescing() {
+        return coalescing;
+    }
+
+    /**
+     * Sets how long expired players are kept for use when Fishbans cannot be
+     * reached. While a lookup fails with an {@link IOException}, a player
+     * which expired less than this long ago is returned instead, marked with
+     * {@link FishbansPlayer#isStale()}, and refreshed in the background.
+     * Until a refresh succeeds, further lookups of that player are answered
+     * from the stale entry without waiting on Fishbans; failed refreshes are
+     * retried with a growing delay, up to a minute apart. A window of 0, the
+     * default, disables this.
+     *
+     * @param window Longest time after expiring a player may be served
+     * @param unit Unit of the window
+     *
+     * @since 1.1
+     */
+    public static void setStaleIfError(long window, TimeUnit unit) {
+        staleIfError = unit.toMillis(window);
+    }
+
+    public static long getStaleIfError(TimeUnit unit) {
+        return unit.convert(staleIfError, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Groups lookups which miss the cache close together into batches. The
+     * first miss opens a batch, which is sent once the window passes or it
+     * holds the maximum number of players. Lookups of the same player in a
+     * batch share one request, and the requests of a batch are all started
+     * at once through {@link HttpTransport#getAsync(java.lang.String, java.util.Map)},
+     * so they share the connections of the transport. Each lookup returns as
+     * soon as its own response is in. A window of 0, the default, sends
+     * every miss on its own.
+     *
+     * @param window Longest time a miss waits for others to join it
+     * @param unit Unit of the window
+     * @param maxSize Most players in one batch
+     *
+     * @since 1.1
+     */
+    public static void setBatching(long window, TimeUnit unit, int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        batchSize = maxSize;
+        batchWindow = unit.toNanos(window);
+    }
+
+    public static long getBatchWindow(TimeUnit unit) {
+        return unit.convert(batchWindow, TimeUnit.NANOSECONDS);
+    }
+
+    public static int getBatchSize() {
+        return batchSize;
+    }
+
+    private static class BanCache {
+
+        private final FishbansPlayer banlist;
+        private volatile long storageTime;
+        private volatile long expiry;
+        private final long stableSince;
+        private final Validator validator;
+
+        private BanCache(FishbansPlayer banlist, long storageTime, long expiry, long stableSince, Validator validator) {
+            this.banlist = banlist;
+            this.storageTime = storageTime;
+            this.expiry = expiry;
+            this.stableSince = stableSince;
+            this.validator = validator;
+        }
+
+        private void renew(long storageTime, long expiry) {
+            this.expiry = expiry;
+            this.storageTime = storageTime;
+        }
+
+        protected Validator getValidator() {
+            return validator;
+        }
+
+        protected long getCacheTime() {
+            return storageTime;
+        }
+
+        protected long getExpiry() {
+            return expiry;
+        }
+
+        protected long getStableSince() {
+            return stableSince;
+        }
+
+        protected FishbansPlayer getBans() {
+            return banlist;
+        }
+    }
+
+    /**
+     * What Fishbans said identifies a response, so an expired player can be
+     * checked for changes without downloading and decoding it again. A hash
+     * of the body is kept too, for when Fishbans sends neither header.
+     */
+    private static class Validator {
+
+        private final Map<String, String> headers;
+        private final long hash;
+
+        private Validator(HttpResponse response, long hash) {
+            Map<String, String> conditions = new HashMap<String, String>(4);
+            String etag = response.getHeader("ETag");
+            String lastModified = response.getHeader("Last-Modified");
+            if (etag != null) {
+                conditions.put("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                conditions.put("If-Modified-Since", lastModified);
+            }
+            this.headers = conditions.isEmpty() ? Collections.<String, String>emptyMap() : Collections.unmodifiableMap(conditions);
+            this.hash = hash;
+        }
+
+        private Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        private long getHash() {
+            return hash;
+        }
+
+        private static long hash(byte[] body) {
+            long hash = 0xCBF29CE484222325L;
+            for (byte b : body) {
+                hash ^= b & 0xFF;
+                hash *= 0x100000001B3L;
+            }
+            return hash ^ body.length;
+        }
+    }
+
+    /**
+     * A request to Fishbans which lookups of the same player can wait on
+     * instead of sending their own.
+     */
+    private static class Fetch extends FutureTask<FishbansPlayer> {
+
+        private final long since;
+
+        private Fetch(final String name, final String url, final long since) {
+            this(new Callable<FishbansPlayer>() {
+                @Override
+                public FishbansPlayer call() throws Exception {
+                    return dispatchPlayer(name, url, since);
+                }
+            }, since);
+        }
+
+        private Fetch(Callable<FishbansPlayer> task, long since) {
+            super(task);
+            this.since = since;
+        }
+
+        private FishbansPlayer await() throws IOException, NoSuchUserException {
+            try {
+                return get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for Fishbans");
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof NoSuchUserException) {
+                    throw (NoSuchUserException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    /**
+     * Lookups gathered during one batching window. Running the batch starts
+     * all of its requests, then reads each response on its own thread.
+     */
+    private static class Batch implements Runnable {
+
+        private final Map<String, Fetch> byKey = new HashMap<String, Fetch>();
+        private final List<PlayerRequest> requests = new ArrayList<PlayerRequest>();
+        private final List<Fetch> fetches = new ArrayList<Fetch>();
+        private boolean sent;
+
+        @Override
+        public void run() {
+            synchronized (batchLock) {
+                if (sent) {
+                    return;
+                }
+                sent = true;
+                if (openBatch == this) {
+                    openBatch = null;
+                }
+            }
+            batches.incrementAndGet();
+            batchedLookups.addAndGet(requests.size());
+            for (PlayerRequest request : requests) {
+                request.send();
+            }
+            for (Fetch fetch : fetches) {
+                lookupExecutor.execute(fetch);
+            }
+        }
+    }
+
+    /**
+     * One request of a {@link Batch}, sent without waiting and read later.
+     */
+    private static class PlayerRequest implements Callable<FishbansPlayer> {
+
+        private final String name;
+        private final String url;
+        private final long since;
+        private BanCache previous;
+        private volatile Future<HttpResponse> response;
+        private volatile boolean cancelled;
+        private RuntimeException error;
+        private long started;
+
+        private PlayerRequest(String name, String url, long since) {
+            this.name = name;
+            this.url = url;
+            this.since = since;
+        }
+
+        private void send() {
+            previous = banCache.get(name.toLowerCase());
+            started = fishbansStats.start();
+            try {
+                response = transport.getAsync(url, conditions(previous));
+            } catch (RuntimeException ex) {
+                error = ex;
+            }
+            if (cancelled) {
+                cancel();
+            }
+        }
+
+        /**
+         * Abandons the request through the transport, if it was sent.
+         */
+        private void cancel() {
+            cancelled = true;
+            Future<HttpResponse> sent = response;
+            if (sent != null) {
+                sent.cancel(true);
+            }
+        }
+
+        @Override
+        public FishbansPlayer call() throws IOException, NoSuchUserException {
+            HttpResponse reply;
+            boolean failed = true;
+            try {
+                if (error != null) {
+                    throw error;
+                }
+                reply = response.get();
+                failed = reply.getStatus() >= 500 || reply.getStatus() == 429;
+            } catch (InterruptedException ex) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for Fishbans");
+            } catch (CancellationException ex) {
+                throw new InterruptedIOException("Request to Fishbans was cancelled");
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                throw new IOException(ex.getCause());
+            } finally {
+                fishbansStats.finish(started, failed);
+            }
+            return readPlayer(name, url, since, previous, reply);
+        }
+    }
+
+    /**
+     * One request of a lookup with a timeout, the first or the hedged one.
+     * It is sent through {@link HttpTransport#getAsync(String, Map)} on its
+     * own, never joining a lookup already in flight or a batch, so that the
+     * request which loses can be abandoned through the transport instead of
+     * only interrupting a thread blocked on a socket.
+     */
+    private static class DeadlineRequest implements Callable<FishbansPlayer> {
+
+        private final String key;
+        private final UUID uuid;
+        private final boolean checkShared;
+        private volatile PlayerRequest request;
+        private volatile boolean cancelled;
+
+        private DeadlineRequest(String key, UUID uuid, boolean checkShared) {
+            this.key = key;
+            this.uuid = uuid;
+            this.checkShared = checkShared;
+        }
+
+        @Override
+        public FishbansPlayer call() throws IOException, NoSuchUserException, NoSuchUUIDException {
+            if (checkShared) {
+                FishbansPlayer shared = checkSharedCache(key);
+                if (shared != null) {
+                    return shared;
+                }
+            }
+            String name = uuid == null || sidecarApi ? key : nameOf(uuid);
+            PlayerRequest sent = new PlayerRequest(name, fishbansApi + "bans/" + name, invalidations.get());
+            request = sent;
+            if (cancelled) {
+                throw new InterruptedIOException("Request to Fishbans was cancelled");
+            }
+            sent.send();
+            try {
+                return sent.call();
+            } catch (NoSuchUserException ex) {
+                if (uuid == null) {
+                    throw ex;
+                }
+                throw new NoSuchUUIDException(ex);
+            }
+        }
+
+        private void cancel() {
+            cancelled = true;
+            PlayerRequest sent = request;
+            if (sent != null) {
+                sent.cancel();
+            }
+        }
+    }
+
+    /**
+     * Refreshes a player which was served stale, retrying with a growing delay
+     * until Fishbans answers or the stale entry is no longer usable.
+     */
+    private static class Refresh implements Runnable {
+
+        private final String name;
+        private final String key;
+        private int attempts;
+
+        private Refresh(String name, String key) {
+            this.name = name;
+            this.key = key;
+        }
+
+        private void schedule() {
+            long delay = Math.min(refreshBackoffMax, refreshBackoffMin << Math.min(attempts, 16));
+            delay += (long) (Math.random() * delay / 4);
+            attempts++;
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    lookupExecutor.execute(Refresh.this);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            if (refreshes.get(key) != this) {
+                return;
+            }
+            try {
+                getData(name);
+            } catch (IOException ex) {
+                if (staleIfError > 0 && staleEntry(key) != null) {
+                    schedule();
+                    return;
+                }
+            } catch (NoSuchUserException ex) {
+            } catch (RuntimeException ex) {
+            }
+            refreshes.remove(key, this);
         }
     }
 }
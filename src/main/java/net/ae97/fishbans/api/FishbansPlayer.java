@@ -18,17 +18,23 @@
  */
 package net.ae97.fishbans.api;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import net.ae97.fishbans.api.list.ImmutableArrayList;
 import org.apache.commons.lang3.StringUtils;
 
 /**
  * This is the ban record for a user. It contains the list of bans this user
  * (determined by UUID or username) in no particular order.
+ * <p>
+ * Players looked up with lazy decoding enabled (see
+ * {@link Fishbans#setLazyDecoding(boolean)}) keep their bans undecoded until
+ * they are first asked for. Ban counts never require decoding.
  *
  * @since 1.1
  *
@@ -36,26 +42,83 @@ import org.apache.commons.lang3.StringUtils;
  */
 public class FishbansPlayer {
 
-    private final ImmutableArrayList<Ban> banlist;
-    private final Map<BanServices, List<Ban>> counts = new HashMap<BanServices, List<Ban>>();
+    private static final List<Ban> noBans = new ImmutableArrayList<Ban>(new ArrayList<Ban>());
+    private volatile ImmutableArrayList<Ban> banlist;
+    private volatile List<Ban>[] serviceLists;
+    private final CompactBans compact;
     private final String playerName;
     private final UUID playerUUID;
+    private volatile long fingerprint;
+    private volatile boolean hasFingerprint;
+    private final int[] serviceCounts;
+    private final int banCount;
+    private volatile PolicyVerdict verdict;
+    private volatile byte[] response;
+    private final long expiredAt;
 
     protected FishbansPlayer(List<Ban> banlist, String name, UUID uuid) {
         this.banlist = new ImmutableArrayList<Ban>(banlist);
-        for (BanServices service : BanServices.getBanServices()) {
-            counts.put(service, new LinkedList<Ban>());
-        }
+        this.compact = null;
+        this.banCount = banlist.size();
+        this.serviceCounts = new int[maxOrdinal() + 1];
         for (Ban ban : this.banlist) {
             if (ban.getService() != null) {
-                counts.get(ban.getService()).add(ban);
+                serviceCounts[ban.getService().getOrdinal()]++;
             }
         }
-        for (BanServices service : BanServices.getBanServices()) {
-            counts.put(service, new ImmutableArrayList<Ban>(counts.remove(service)));
+        this.fingerprint = computeFingerprint(this.banlist);
+        this.hasFingerprint = true;
+        this.playerName = name;
+        this.playerUUID = uuid;
+        this.expiredAt = 0;
+    }
+
+    /**
+     * Creates a player whose {@link Ban}s stay undecoded until they are first
+     * asked for. Counts are known up front, so count-only checks never decode
+     * anything.
+     *
+     * @param compact Undecoded bans
+     * @param name Username
+     * @param uuid UUID
+     */
+    FishbansPlayer(CompactBans compact, String name, UUID uuid) {
+        this.compact = compact;
+        this.banCount = compact.getTotalCount();
+        this.serviceCounts = new int[maxOrdinal() + 1];
+        for (int i = 0; i < compact.getSections(); i++) {
+            BanServices service = compact.getService(i);
+            if (service != null) {
+                serviceCounts[service.getOrdinal()] += compact.getCount(i);
+            }
         }
         this.playerName = name;
         this.playerUUID = uuid;
+        this.expiredAt = 0;
+    }
+
+    /**
+     * Creates a copy of a player which is marked as served stale. The copy
+     * shares the bans of the original and anything already decoded from
+     * them; the original is not changed.
+     *
+     * @param player Player to copy
+     * @param expiredAt When the player expired, in milliseconds since the
+     * epoch
+     */
+    FishbansPlayer(FishbansPlayer player, long expiredAt) {
+        this.compact = player.compact;
+        this.banlist = player.banlist;
+        this.serviceLists = player.serviceLists;
+        this.hasFingerprint = player.hasFingerprint;
+        this.fingerprint = player.fingerprint;
+        this.serviceCounts = player.serviceCounts;
+        this.banCount = player.banCount;
+        this.verdict = player.verdict;
+        this.response = player.response;
+        this.playerName = player.playerName;
+        this.playerUUID = player.playerUUID;
+        this.expiredAt = expiredAt;
     }
 
     /**
@@ -65,7 +128,21 @@ public class FishbansPlayer {
      * @return List of Bans for this player, never null.
      */
     public List<Ban> getBanList() {
-        return banlist;
+        ImmutableArrayList<Ban> list = banlist;
+        if (list == null) {
+            synchronized (this) {
+                list = banlist;
+                if (list == null) {
+                    List<Ban> bans = new ArrayList<Ban>(banCount);
+                    for (int i = 0; i < compact.getSections(); i++) {
+                        compact.decode(i, bans);
+                    }
+                    list = new ImmutableArrayList<Ban>(bans);
+                    banlist = list;
+                }
+            }
+        }
+        return list;
     }
 
     /**
@@ -77,7 +154,71 @@ public class FishbansPlayer {
      * @return List of Bans from that service, never null
      */
     public List<Ban> getBanList(BanServices service) {
-        return counts.get(service);
+        int ordinal = service.getOrdinal();
+        if (getBanCount(ordinal) == 0) {
+            return noBans;
+        }
+        List<Ban>[] lists = serviceLists;
+        if (lists != null && ordinal < lists.length && lists[ordinal] != null) {
+            return lists[ordinal];
+        }
+        synchronized (this) {
+            lists = serviceLists;
+            if (lists != null && ordinal < lists.length && lists[ordinal] != null) {
+                return lists[ordinal];
+            }
+            List<Ban> bans = new ArrayList<Ban>(getBanCount(ordinal));
+            if (banlist == null) {
+                for (int i = 0; i < compact.getSections(); i++) {
+                    if (service.equals(compact.getService(i))) {
+                        compact.decode(i, bans);
+                    }
+                }
+            } else {
+                for (Ban ban : banlist) {
+                    if (service.equals(ban.getService())) {
+                        bans.add(ban);
+                    }
+                }
+            }
+            List<Ban> list = new ImmutableArrayList<Ban>(bans);
+            List<Ban>[] updated = lists == null ? newListArray(Math.max(serviceCounts.length, ordinal + 1)) : Arrays.copyOf(lists, Math.max(lists.length, ordinal + 1));
+            updated[ordinal] = list;
+            serviceLists = updated;
+            return list;
+        }
+    }
+
+    /**
+     * Get the servers which banned this player on a given {@link BanService}.
+     * Bans which were not decoded yet stay undecoded, so this is cheaper than
+     * {@link #getBanList(BanServices)} when only the servers are needed.
+     *
+     * @param service Service to retrieve servers from
+     *
+     * @return List of servers, never null
+     *
+     * @since 1.1
+     */
+    public List<String> getServers(BanServices service) {
+        int ordinal = service.getOrdinal();
+        if (getBanCount(ordinal) == 0) {
+            return Collections.emptyList();
+        }
+        List<String> servers = new ArrayList<String>(getBanCount(ordinal));
+        List<Ban>[] lists = serviceLists;
+        if (banlist == null && (lists == null || ordinal >= lists.length || lists[ordinal] == null)) {
+            for (int i = 0; i < compact.getSections(); i++) {
+                if (service.equals(compact.getService(i))) {
+                    compact.servers(i, servers);
+                }
+            }
+        } else {
+            for (Ban ban : getBanList(service)) {
+                servers.add(ban.getServer());
+            }
+        }
+        return Collections.unmodifiableList(servers);
     }
 
     /**
@@ -86,7 +227,7 @@ public class FishbansPlayer {
      * @return Number of bans
      */
     public int getBanCount() {
-        return banlist.size();
+        return banCount;
     }
 
     /**
@@ -98,7 +239,7 @@ public class FishbansPlayer {
      * @return Number of bans
      */
     public int getBanCount(BanServices service) {
-        return counts.get(service).size();
+        return getBanCount(service.getOrdinal());
     }
 
     /**
@@ -119,8 +260,147 @@ public class FishbansPlayer {
         return playerName;
     }
 
+    /**
+     * Returns a fingerprint of the bans on this player. Two players with the
+     * same set of {@link Ban}s, in any order, have the same fingerprint, so
+     * comparing fingerprints is a cheap way to tell whether a refreshed record
+     * differs from an older one.
+     *
+     * @return Fingerprint of the bans on this player
+     *
+     * @since 1.1
+     */
+    public long getFingerprint() {
+        if (!hasFingerprint) {
+            fingerprint = computeFingerprint(getBanList());
+            hasFingerprint = true;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Returns the Fishbans response this player was decoded from. Responses
+     * are only kept while {@link Fishbans#setKeepResponses(boolean)} is
+     * enabled, and never for players which were assembled from several
+     * responses or read back from a {@link net.ae97.fishbans.api.cache.SharedCache}
+     * or {@link net.ae97.fishbans.api.cache.OffHeapCache}.
+     *
+     * @return Read-only view of the response, or null if it was not kept
+     *
+     * @since 1.1
+     */
+    public ByteBuffer getResponse() {
+        byte[] current = response;
+        return current == null ? null : ByteBuffer.wrap(current).asReadOnlyBuffer();
+    }
+
+    void setResponse(byte[] response) {
+        this.response = response;
+    }
+
+    /**
+     * Returns whether this player was served from the cache after it expired,
+     * because Fishbans could not be reached. See
+     * {@link Fishbans#setStaleIfError(long, TimeUnit)}.
+     *
+     * @return True if the bans may be out of date
+     *
+     * @since 1.1
+     */
+    public boolean isStale() {
+        return expiredAt != 0;
+    }
+
+    /**
+     * Returns how long ago this player expired, if it was served stale.
+     *
+     * @param unit Unit to return the age in
+     *
+     * @return Time since the player expired, or 0 if it was not served stale
+     *
+     * @since 1.1
+     */
+    public long getStaleness(TimeUnit unit) {
+        long expired = expiredAt;
+        if (expired == 0) {
+            return 0;
+        }
+        return unit.convert(Math.max(0, System.currentTimeMillis() - expired), TimeUnit.MILLISECONDS);
+    }
+
+    static List<Ban> noBans() {
+        return noBans;
+    }
+
+    int getBanCount(int ordinal) {
+        return ordinal < serviceCounts.length ? serviceCounts[ordinal] : 0;
+    }
+
+    /**
+     * Gets the verdict remembered for a policy. Only the verdict of the last
+     * policy which evaluated this player is kept, so rebuilding policies
+     * never makes cached players larger.
+     *
+     * @param policy Policy which evaluated the player
+     *
+     * @return The verdict, or null if the policy has not evaluated this
+     * player or another policy evaluated it since
+     */
+    Verdict getVerdict(BanPolicy policy) {
+        PolicyVerdict memo = verdict;
+        return memo != null && memo.policy == policy ? memo.verdict : null;
+    }
+
+    void setVerdict(BanPolicy policy, Verdict verdict) {
+        this.verdict = new PolicyVerdict(policy, verdict);
+    }
+
+    private static long computeFingerprint(List<Ban> bans) {
+        long hash = 0;
+        for (Ban ban : bans) {
+            hash += mix(ban.hashCode());
+        }
+        return hash ^ bans.size();
+    }
+
+    private static int maxOrdinal() {
+        int maxOrdinal = -1;
+        for (BanServices service : BanServices.getBanServices()) {
+            maxOrdinal = Math.max(maxOrdinal, service.getOrdinal());
+        }
+        return maxOrdinal;
+    }
+
+    /**
+     * Creates an array of ban lists. Arrays of a generic type cannot be
+     * created directly, so an array of wildcard lists is cast, which is safe
+     * as only ban lists are ever stored in it.
+     */
+    @SuppressWarnings("unchecked")
+    static List<Ban>[] newListArray(int length) {
+        return (List<Ban>[]) new List<?>[length];
+    }
+
+    private static long mix(long value) {
+        value *= 0x9E3779B97F4A7C15L;
+        value ^= value >>> 32;
+        value *= 0xBF58476D1CE4E5B9L;
+        return value ^ (value >>> 29);
+    }
+
     @Override
     public String toString() {
-        return "FishbansPlayer{name=" + playerName + ", uuid=" + playerUUID.toString() + ", banlist={" + StringUtils.join(banlist, ", ") + "}";
+        return "FishbansPlayer{name=" + playerName + ", uuid=" + playerUUID.toString() + ", banlist={" + StringUtils.join(getBanList(), ", ") + "}";
+    }
+
+    private static final class PolicyVerdict {
+
+        private final BanPolicy policy;
+        private final Verdict verdict;
+
+        private PolicyVerdict(BanPolicy policy, Verdict verdict) {
+            this.policy = policy;
+            this.verdict = verdict;
+        }
     }
 }
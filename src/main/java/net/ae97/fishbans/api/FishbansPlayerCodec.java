@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import net.ae97.fishbans.api.list.ImmutableArrayList;
+
+/**
+ * A compact, versioned binary encoding of {@link FishbansPlayer}, used
+ * wherever a player is stored or sent outside of this JVM.
+ * <p>
+ * The {@link UUID} is stored as two longs, services by their
+ * {@link BanServices#getOrdinal() ordinal}, and each distinct server and
+ * reason string is written once per record and referenced by index. Bans are
+ * grouped by service with the length of each group written first, so
+ * {@link #decodeBans(byte[], BanServices)} can read one service's bans
+ * without decoding the rest of the record.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public final class FishbansPlayerCodec {
+
+    /**
+     * The version of the encoding written by this class.
+     */
+    public static final int VERSION = 2;
+    private static final int NO_SERVICE = 0;
+
+    private FishbansPlayerCodec() {
+    }
+
+    /**
+     * Encodes a player.
+     *
+     * @param player Player to encode
+     * @param timestamp Time the player was retrieved from Fishbans, in
+     * milliseconds since the epoch
+     *
+     * @return Encoded player
+     */
+    public static byte[] encode(FishbansPlayer player, long timestamp) {
+        Map<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+        Map<Integer, List<Ban>> sections = new LinkedHashMap<Integer, List<Ban>>();
+        for (Ban ban : player.getBanList()) {
+            int code = ban.getService() == null ? NO_SERVICE : ban.getService().getOrdinal() + 1;
+            List<Ban> section = sections.get(code);
+            if (section == null) {
+                section = new ArrayList<Ban>();
+                sections.put(code, section);
+            }
+            section.add(ban);
+            index(dictionary, ban.getServer());
+            index(dictionary, ban.getReason());
+        }
+        Writer out = new Writer(32 + player.getBanCount() * 24);
+        out.writeByte(VERSION);
+        out.writeVarLong(timestamp);
+        out.writeLong(player.getUUID().getMostSignificantBits());
+        out.writeLong(player.getUUID().getLeastSignificantBits());
+        out.writeString(player.getName());
+        out.writeVarInt(dictionary.size());
+        for (String value : dictionary.keySet()) {
+            out.writeString(value);
+        }
+        out.writeVarInt(sections.size());
+        Writer body = new Writer(16);
+        for (Map.Entry<Integer, List<Ban>> section : sections.entrySet()) {
+            body.reset();
+            body.writeVarInt(section.getValue().size());
+            for (Ban ban : section.getValue()) {
+                body.writeVarInt(reference(dictionary, ban.getServer()));
+                body.writeVarInt(reference(dictionary, ban.getReason()));
+            }
+            out.writeVarInt(section.getKey());
+            out.writeVarInt(body.size());
+            out.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a player.
+     *
+     * @param data Encoded player
+     *
+     * @return The decoded player
+     *
+     * @throws IOException Thrown if the data is not a valid encoded player
+     */
+    public static FishbansPlayer decode(byte[] data) throws IOException {
+        Reader in = new Reader(data);
+        Header header = readHeader(in);
+        int sectionCount = in.readCount(2);
+        LinkedList<Ban> bans = new LinkedList<Ban>();
+        for (int i = 0; i < sectionCount; i++) {
+            BanServices service = service(in.readVarInt());
+            int end = in.readLength() + in.position();
+            readSection(in, header, service, bans);
+            if (in.position() != end) {
+                throw new IOException("Ban section length does not match its contents");
+            }
+        }
+        return new FishbansPlayer(bans, header.name, header.uuid);
+    }
+
+    /**
+     * Decodes only the bans from one service, skipping everything else in the
+     * record.
+     *
+     * @param data Encoded player
+     * @param service Service to decode bans from
+     *
+     * @return List of Bans from that service, never null
+     *
+     * @throws IOException Thrown if the data is not a valid encoded player
+     */
+    public static List<Ban> decodeBans(byte[] data, BanServices service) throws IOException {
+        Reader in = new Reader(data);
+        Header header = readHeader(in);
+        int wanted = service.getOrdinal() + 1;
+        int sectionCount = in.readCount(2);
+        LinkedList<Ban> bans = new LinkedList<Ban>();
+        for (int i = 0; i < sectionCount; i++) {
+            int code = in.readVarInt();
+            int length = in.readLength();
+            if (code == wanted) {
+                readSection(in, header, service, bans);
+            } else {
+                in.skip(length);
+            }
+        }
+        return new ImmutableArrayList<Ban>(bans);
+    }
+
+    /**
+     * Reads the time the player was retrieved from Fishbans, as given to
+     * {@link #encode(FishbansPlayer, long)}.
+     *
+     * @param data Encoded player
+     *
+     * @return Time the player was retrieved, in milliseconds since the epoch
+     *
+     * @throws IOException Thrown if the data is not a valid encoded player
+     */
+    public static long decodeTimestamp(byte[] data) throws IOException {
+        Reader in = new Reader(data);
+        checkVersion(in);
+        return in.readVarLong();
+    }
+
+    private static void checkVersion(Reader in) throws IOException {
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported player encoding version " + version);
+        }
+    }
+
+    private static Header readHeader(Reader in) throws IOException {
+        checkVersion(in);
+        Header header = new Header();
+        in.readVarLong();
+        header.uuid = new UUID(in.readLong(), in.readLong());
+        header.name = in.readString();
+        int size = in.readCount(1);
+        header.offsets = new int[size];
+        for (int i = 0; i < size; i++) {
+            header.offsets[i] = in.position();
+            in.skip(in.readLength());
+        }
+        header.strings = new String[size];
+        header.reader = in;
+        return header;
+    }
+
+    private static void readSection(Reader in, Header header, BanServices service, List<Ban> bans) throws IOException {
+        int count = in.readCount(2);
+        for (int i = 0; i < count; i++) {
+            String server = header.string(in.readVarInt());
+            String reason = header.string(in.readVarInt());
+            bans.add(new Ban(service, server, reason));
+        }
+    }
+
+    private static BanServices service(int code) {
+        return code == NO_SERVICE ? null : BanServices.getService(code - 1);
+    }
+
+    private static void index(Map<String, Integer> dictionary, String value) {
+        if (value != null && !dictionary.containsKey(value)) {
+            dictionary.put(value, dictionary.size());
+        }
+    }
+
+    private static int reference(Map<String, Integer> dictionary, String value) {
+        return value == null ? 0 : dictionary.get(value) + 1;
+    }
+
+    private static class Header {
+
+        private UUID uuid;
+        private String name;
+        private int[] offsets;
+        private String[] strings;
+        private Reader reader;
+
+        private String string(int reference) throws IOException {
+            if (reference == 0) {
+                return null;
+            }
+            int index = reference - 1;
+            if (index >= offsets.length) {
+                throw new IOException("String reference " + reference + " out of range");
+            }
+            if (strings[index] == null) {
+                strings[index] = reader.readStringAt(offsets[index]);
+            }
+            return strings[index];
+        }
+    }
+
+    private static class Writer {
+
+        private byte[] buffer;
+        private int size;
+
+        private Writer(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+
+        private void writeByte(int value) {
+            ensure(1);
+            buffer[size++] = (byte) value;
+        }
+
+        private void writeLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        private void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        private void writeString(String value) {
+            byte[] bytes;
+            try {
+                bytes = value.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException ex) {
+                throw new IllegalStateException(ex);
+            }
+            writeVarInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private void write(Writer other) {
+            ensure(other.size);
+            System.arraycopy(other.buffer, 0, buffer, size, other.size);
+            size += other.size;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private void reset() {
+            size = 0;
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    private static class Reader {
+
+        private final byte[] data;
+        private int position;
+
+        private Reader(byte[] data) {
+            this.data = data;
+        }
+
+        private int position() {
+            return position;
+        }
+
+        private void require(int count) throws IOException {
+            if (count < 0 || count > data.length - position) {
+                throw new IOException("Encoded player is truncated");
+            }
+        }
+
+        private int readByte() throws IOException {
+            require(1);
+            return data[position++] & 0xFF;
+        }
+
+        private long readLong() throws IOException {
+            require(8);
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (data[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed variable length number");
+        }
+
+        private int readVarInt() throws IOException {
+            long value = readVarLong();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new IOException("Number out of range: " + value);
+            }
+            return (int) value;
+        }
+
+        private int readLength() throws IOException {
+            int length = readVarInt();
+            require(length);
+            return length;
+        }
+
+        private int readCount(int minimumSize) throws IOException {
+            int count = readVarInt();
+            if (count > (data.length - position) / minimumSize) {
+                throw new IOException("Count " + count + " exceeds remaining data");
+            }
+            return count;
+        }
+
+        private void skip(int count) throws IOException {
+            require(count);
+            position += count;
+        }
+
+        private String readString() throws IOException {
+            int length = readLength();
+            String value = new String(data, position, length, "UTF-8");
+            position += length;
+            return value;
+        }
+
+        private String readStringAt(int offset) throws IOException {
+            int saved = position;
+            position = offset;
+            try {
+                return readString();
+            } finally {
+                position = saved;
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import net.ae97.fishbans.api.util.UpstreamStats;
+
+/**
+ * A snapshot of the state of the {@link Fishbans} cache and of the upstream
+ * services it talks to. Taking a snapshot does not block lookups, so values
+ * taken from different parts of the cache may be a few moments apart.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public final class FishbansStatistics {
+
+    long capturedAt;
+    int cachedPlayers;
+    int freshPlayers;
+    long newestAge = -1;
+    long medianAge = -1;
+    long oldestAge = -1;
+    long cacheHits;
+    long cacheMisses;
+    int partialKeys;
+    long staleServed;
+    long notModified;
+    long batches;
+    long batchedLookups;
+    int refreshing;
+    int offHeapEntries = -1;
+    long offHeapUsed = -1;
+    long offHeapCapacity = -1;
+    long offHeapEvictions = -1;
+    long cleanFilterMemory = -1;
+    Map<String, Long> hotKeys = Collections.emptyMap();
+    final List<Upstream> upstreams = new ArrayList<Upstream>();
+
+    FishbansStatistics() {
+    }
+
+    /**
+     * Returns when this snapshot was taken.
+     *
+     * @return Time in milliseconds since the epoch
+     */
+    public long getCapturedAt() {
+        return capturedAt;
+    }
+
+    /**
+     * Returns the number of players cached on the heap, fresh or expired.
+     *
+     * @return Number of players
+     */
+    public int getCachedPlayers() {
+        return cachedPlayers;
+    }
+
+    public int getFreshPlayers() {
+        return freshPlayers;
+    }
+
+    /**
+     * Returns the age of the most recently stored player on the heap.
+     *
+     * @return Age in milliseconds, or -1 if nothing is cached
+     */
+    public long getNewestAge() {
+        return newestAge;
+    }
+
+    public long getMedianAge() {
+        return medianAge;
+    }
+
+    public long getOldestAge() {
+        return oldestAge;
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /**
+     * Returns the number of names and UUIDs with partial results cached, such
+     * as ban counts.
+     *
+     * @return Number of keys
+     */
+    public int getPartialKeys() {
+        return partialKeys;
+    }
+
+    /**
+     * Returns the number of lookups answered with an expired player because
+     * Fishbans could not be reached.
+     *
+     * @return Number of lookups
+     */
+    public long getStaleServed() {
+        return staleServed;
+    }
+
+    /**
+     * Returns the number of expired players kept because Fishbans confirmed
+     * they had not changed, by answering 304 Not Modified or sending the same
+     * response again.
+     *
+     * @return Number of players
+     */
+    public long getNotModified() {
+        return notModified;
+    }
+
+    /**
+     * Returns the number of batches of lookups sent. See
+     * {@link Fishbans#setBatching(long, java.util.concurrent.TimeUnit, int)}.
+     *
+     * @return Number of batches
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * Returns the number of requests sent in batches. Lookups which shared a
+     * request are counted once.
+     *
+     * @return Number of requests
+     */
+    public long getBatchedLookups() {
+        return batchedLookups;
+    }
+
+    /**
+     * Returns the number of stale players waiting to be refreshed in the
+     * background.
+     *
+     * @return Number of players
+     */
+    public int getRefreshing() {
+        return refreshing;
+    }
+
+    /**
+     * Returns the number of players in the off-heap cache.
+     *
+     * @return Number of players, or -1 if there is no off-heap cache
+     */
+    public int getOffHeapEntries() {
+        return offHeapEntries;
+    }
+
+    public long getOffHeapUsed() {
+        return offHeapUsed;
+    }
+
+    public long getOffHeapCapacity() {
+        return offHeapCapacity;
+    }
+
+    public long getOffHeapEvictions() {
+        return offHeapEvictions;
+    }
+
+    /**
+     * Returns the memory used by the clean filter.
+     *
+     * @return Memory in bytes, or -1 if there is no clean filter
+     */
+    public long getCleanFilterMemory() {
+        return cleanFilterMemory;
+    }
+
+    /**
+     * Returns the most frequently looked up keys, most frequent first, with
+     * estimated lookup counts.
+     *
+     * @return Keys and counts
+     */
+    public Map<String, Long> getHotKeys() {
+        return hotKeys;
+    }
+
+    public List<Upstream> getUpstreams() {
+        return Collections.unmodifiableList(upstreams);
+    }
+
+    /**
+     * Request counts and latencies of one upstream service.
+     */
+    public static final class Upstream {
+
+        private final String name;
+        private final long requests;
+        private final long errors;
+        private final int inFlight;
+        private final long[] latency;
+
+        Upstream(UpstreamStats stats) {
+            this.name = stats.getName();
+            this.requests = stats.getRequests();
+            this.errors = stats.getErrors();
+            this.inFlight = stats.getInFlight();
+            this.latency = stats.getLatency().getPercentiles(50, 90, 99, 100);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        /**
+         * Returns a percentile of the latency of recent successful requests.
+         * Only the 50th, 90th, 99th and 100th percentiles are kept.
+         *
+         * @param percentile 50, 90, 99 or 100
+         *
+         * @return Latency in nanoseconds, or -1 if there were no requests
+         */
+        public long getLatency(int percentile) {
+            switch (percentile) {
+                case 50:
+                    return latency[0];
+                case 90:
+                    return latency[1];
+                case 99:
+                    return latency[2];
+                case 100:
+                    return latency[3];
+                default:
+                    throw new IllegalArgumentException("Only the 50th, 90th, 99th and 100th percentiles are kept");
+            }
+        }
+    }
+}
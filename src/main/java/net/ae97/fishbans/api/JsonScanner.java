@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.io.IOException;
+
+/**
+ * Reads JSON directly from UTF-8 bytes, one token at a time. Values which are
+ * not needed can be skipped, and object keys can be matched against expected
+ * names, without creating any objects.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+final class JsonScanner {
+
+    private final byte[] data;
+    private final int end;
+    private int pos;
+    private char[] chars = new char[32];
+
+    JsonScanner(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    JsonScanner(byte[] data, int start, int end) {
+        this.data = data;
+        this.pos = start;
+        this.end = end;
+    }
+
+    /**
+     * Converts key names to the ASCII bytes {@link #readKey(byte[][])}
+     * matches against.
+     *
+     * @param names Key names, which must be ASCII
+     *
+     * @return The keys, in the same order
+     */
+    static byte[][] keys(String... names) {
+        byte[][] keys = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            keys[i] = new byte[names[i].length()];
+            for (int j = 0; j < keys[i].length; j++) {
+                keys[i][j] = (byte) names[i].charAt(j);
+            }
+        }
+        return keys;
+    }
+
+    int position() {
+        return pos;
+    }
+
+    /**
+     * Returns the next non-whitespace character without consuming it.
+     *
+     * @return The next character, or -1 at the end of the input
+     */
+    int peek() {
+        while (pos < end) {
+            byte b = data[pos];
+            if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                pos++;
+            } else {
+                return b & 0xFF;
+            }
+        }
+        return -1;
+    }
+
+    void expect(char c) throws IOException {
+        if (peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    boolean consume(char c) {
+        if (peek() == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves to the next field of an object. Call after the opening brace has
+     * been consumed, and before every field.
+     *
+     * @return True if there is another field, false if the object ended
+     *
+     * @throws IOException Thrown if the input is not valid JSON
+     */
+    boolean nextField(boolean first) throws IOException {
+        int c = peek();
+        if (c == '}') {
+            pos++;
+            return false;
+        }
+        if (!first) {
+            expect(',');
+        }
+        return true;
+    }
+
+    /**
+     * Reads an object key and the colon after it, and returns which of the
+     * expected keys it is. Keys without escapes are compared byte by byte, so
+     * nothing is allocated.
+     *
+     * @param keys Expected keys, as ASCII bytes
+     *
+     * @return Index of the matching key, or -1 if it matched none
+     *
+     * @throws IOException Thrown if the input is not valid JSON
+     */
+    int readKey(byte[][] keys) throws IOException {
+        expect('"');
+        int start = pos;
+        boolean escaped = false;
+        while (true) {
+            if (pos >= end) {
+                throw error("Unterminated string");
+            }
+            byte b = data[pos];
+            if (b == '"') {
+                break;
+            }
+            if (b == '\\') {
+                escaped = true;
+                pos++;
+            }
+            pos++;
+        }
+        int length = pos - start;
+        pos++;
+        expect(':');
+        if (escaped) {
+            String key = readStringAt(start - 1);
+            for (int i = 0; i < keys.length; i++) {
+                if (key.equals(new String(keys[i], "US-ASCII"))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            byte[] key = keys[i];
+            if (key.length != length) {
+                continue;
+            }
+            boolean match = true;
+            for (int j = 0; j < length; j++) {
+                if (data[start + j] != key[j]) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads an object key and the colon after it.
+     *
+     * @return The key
+     *
+     * @throws IOException Thrown if the input is not valid JSON
+     */
+    String readKey() throws IOException {
+        String key = readString();
+        expect(':');
+        return key;
+    }
+
+    boolean readBoolean() throws IOException {
+        int c = peek();
+        if (c == 't' && matches("true")) {
+            pos += 4;
+            return true;
+        }
+        if (c == 'f' && matches("false")) {
+            pos += 5;
+            return false;
+        }
+        throw error("Expected a boolean");
+    }
+
+    /**
+     * Reads an integer value. Numbers written as strings are accepted too, as
+     * Fishbans is not consistent about which it sends.
+     *
+     * @return The value
+     *
+     * @throws IOException Thrown if the value is not an integer
+     */
+    int readInt() throws IOException {
+        boolean quoted = consume('"');
+        boolean negative = peek() == '-';
+        if (negative) {
+            pos++;
+        }
+        int start = pos;
+        int value = 0;
+        while (pos < end && data[pos] >= '0' && data[pos] <= '9') {
+            value = value * 10 + (data[pos++] - '0');
+        }
+        if (pos == start || (quoted && !consume('"'))) {
+            throw error("Expected an integer");
+        }
+        return negative ? -value : value;
+    }
+
+    boolean readNull() {
+        if (peek() == 'n' && matches("null")) {
+            pos += 4;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads a string value, decoding escapes and UTF-8.
+     *
+     * @return The string
+     *
+     * @throws IOException Thrown if the input is not a valid string
+     */
+    String readString() throws IOException {
+        if (peek() != '"') {
+            throw error("Expected a string");
+        }
+        return readStringAt(pos);
+    }
+
+    /**
+     * Reads any value as a string: strings are decoded, and other values are
+     * returned as their JSON text. Null is returned as null.
+     *
+     * @return The value
+     *
+     * @throws IOException Thrown if the input is not valid JSON
+     */
+    String readValueAsString() throws IOException {
+        int c = peek();
+        if (c == '"') {
+            return readString();
+        }
+        if (readNull()) {
+            return null;
+        }
+        int start = pos;
+        skipValue();
+        return new String(data, start, pos - start, "UTF-8");
+    }
+
+    /**
+     * Skips over one value of any type, including nested objects and arrays.
+     *
+     * @throws IOException Thrown if the input is not valid JSON
+     */
+    void skipValue() throws IOException {
+        int c = peek();
+        switch (c) {
+            case '"':
+                skipString();
+                return;
+            case '{':
+            case '[':
+                skipContainer();
+                return;
+            case -1:
+                throw error("Unexpected end of input");
+            default:
+                int start = pos;
+                while (pos < end) {
+                    byte b = data[pos];
+                    if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                        break;
+                    }
+                    pos++;
+                }
+                if (pos == start) {
+                    throw error("Unexpected character '" + (char) c + "'");
+                }
+        }
+    }
+
+    IOException error(String message) {
+        return new IOException(message + " at byte " + pos);
+    }
+
+    private void skipString() throws IOException {
+        pos++;
+        while (pos < end) {
+            byte b = data[pos++];
+            if (b == '"') {
+                return;
+            }
+            if (b == '\\') {
+                pos++;
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private void skipContainer() throws IOException {
+        int depth = 0;
+        while (pos < end) {
+            byte b = data[pos];
+            if (b == '"') {
+                skipString();
+                continue;
+            }
+            pos++;
+            if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                depth--;
+                if (depth == 0) {
+                    return;
+                }
+            }
+        }
+        throw error("Unterminated object or array");
+    }
+
+    private boolean matches(String literal) {
+        if (end - pos < literal.length()) {
+            return false;
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (data[pos + i] != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readStringAt(int quote) throws IOException {
+        pos = quote + 1;
+        int length = 0;
+        while (true) {
+            if (pos >= end) {
+                throw error("Unterminated string");
+            }
+            int b = data[pos++] & 0xFF;
+            if (b == '"') {
+                return new String(chars, 0, length);
+            }
+            if (length + 2 > chars.length) {
+                char[] grown = new char[chars.length * 2];
+                System.arraycopy(chars, 0, grown, 0, length);
+                chars = grown;
+            }
+            if (b == '\\') {
+                if (pos >= end) {
+                    throw error("Unterminated escape");
+                }
+                int e = data[pos++];
+                switch (e) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        chars[length++] = (char) e;
+                        break;
+                    case 'b':
+                        chars[length++] = '\b';
+                        break;
+                    case 'f':
+                        chars[length++] = '\f';
+                        break;
+                    case 'n':
+                        chars[length++] = '\n';
+                        break;
+                    case 'r':
+                        chars[length++] = '\r';
+                        break;
+                    case 't':
+                        chars[length++] = '\t';
+                        break;
+                    case 'u':
+                        if (end - pos < 4) {
+                            throw error("Truncated unicode escape");
+                        }
+                        int value = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(data[pos++], 16);
+                            if (digit < 0) {
+                                throw error("Invalid unicode escape");
+                            }
+                            value = (value << 4) | digit;
+                        }
+                        chars[length++] = (char) value;
+                        break;
+                    default:
+                        throw error("Invalid escape '\\" + (char) e + "'");
+                }
+            } else if (b < 0x80) {
+                chars[length++] = (char) b;
+            } else if ((b & 0xE0) == 0xC0) {
+                chars[length++] = (char) (((b & 0x1F) << 6) | continuation());
+            } else if ((b & 0xF0) == 0xE0) {
+                int high = continuation();
+                chars[length++] = (char) (((b & 0x0F) << 12) | (high << 6) | continuation());
+            } else if ((b & 0xF8) == 0xF0) {
+                int codePoint = ((b & 0x07) << 18) | (continuation() << 12) | (continuation() << 6) | continuation();
+                if (codePoint < 0x10000 || codePoint > Character.MAX_CODE_POINT) {
+                    throw error("Invalid UTF-8 sequence");
+                }
+                codePoint -= 0x10000;
+                chars[length++] = (char) (0xD800 + (codePoint >> 10));
+                chars[length++] = (char) (0xDC00 + (codePoint & 0x3FF));
+            } else {
+                throw error("Invalid UTF-8 sequence");
+            }
+        }
+    }
+
+    private int continuation() throws IOException {
+        if (pos >= end) {
+            throw error("Truncated UTF-8 sequence");
+        }
+        int b = data[pos++] & 0xFF;
+        if ((b & 0xC0) != 0x80) {
+            throw error("Invalid UTF-8 sequence");
+        }
+        return b & 0x3F;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+/**
+ * The outcome of looking up one player, used where lookups are reported
+ * instead of thrown, such as when many players are looked up at once.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public class LookupResult {
+
+    private final String key;
+    private final FishbansPlayer player;
+    private final Exception error;
+    private final Status status;
+
+    public LookupResult(String key, FishbansPlayer player) {
+        this(key, player, null, Status.FRESH);
+    }
+
+    public LookupResult(String key, Exception error) {
+        this(key, null, error, Status.FAILED);
+    }
+
+    LookupResult(String key, FishbansPlayer player, Exception error, Status status) {
+        this.key = key;
+        this.player = player;
+        this.error = error;
+        this.status = status;
+    }
+
+    /**
+     * Returns the username or UUID which was looked up.
+     *
+     * @return Key which was looked up
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the player which was found.
+     *
+     * @return The player, or null if the lookup failed
+     */
+    public FishbansPlayer getPlayer() {
+        return player;
+    }
+
+    /**
+     * Returns why the lookup failed.
+     *
+     * @return The failure, or null if the lookup succeeded
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    /**
+     * Returns how current the player in this result is.
+     *
+     * @return Status of this result
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isSuccess() {
+        return player != null;
+    }
+
+    @Override
+    public String toString() {
+        return "LookupResult{key=" + key + ", status=" + status + ", player=" + player + ", error=" + error + "}";
+    }
+
+    /**
+     * How current the player in a {@link LookupResult} is.
+     *
+     * @since 1.1
+     */
+    public static enum Status {
+
+        /**
+         * The player is up to date, either retrieved from Fishbans or from a
+         * cache entry which has not expired.
+         */
+        FRESH,
+        /**
+         * The player came from an expired cache entry, because no up to date
+         * record could be retrieved in time.
+         */
+        STALE,
+        /**
+         * No record could be retrieved in time and none was cached.
+         */
+        TIMEOUT,
+        /**
+         * The lookup failed, see {@link LookupResult#getError()}.
+         */
+        FAILED;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the results of the lighter Fishbans endpoints: ban counts from /stats
+ * and the bans of single services. Each piece expires on its own, after the
+ * time given by the {@link net.ae97.fishbans.api.cache.TtlPolicy}. When a full
+ * player is needed, whatever is still fresh here is reused and only the
+ * missing services are fetched.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+final class PartialCache {
+
+    private static final int sweepInterval = 256;
+    private final ConcurrentHashMap<String, Record> records = new ConcurrentHashMap<String, Record>();
+    private final AtomicInteger created = new AtomicInteger();
+
+    /**
+     * Gets the record for a name or UUID key.
+     *
+     * @param key Lowercase name or UUID string
+     *
+     * @return The record, or null if there is none
+     */
+    Record get(String key) {
+        return records.get(key);
+    }
+
+    /**
+     * Gets the record for a player, creating it if needed. The record is
+     * stored under both the name and the UUID of the player.
+     *
+     * @param name Name of the player
+     * @param uuid UUID of the player
+     *
+     * @return The record
+     */
+    Record record(String name, UUID uuid) {
+        String nameKey = name.toLowerCase();
+        Record record = records.get(nameKey);
+        if (record == null) {
+            record = new Record(name, uuid);
+            Record existing = records.putIfAbsent(nameKey, record);
+            if (existing != null) {
+                record = existing;
+            } else if (created.incrementAndGet() % sweepInterval == 0) {
+                sweep(System.currentTimeMillis());
+            }
+        }
+        records.put(uuid.toString(), record);
+        return record;
+    }
+
+    /**
+     * Removes the record stored under a key, under both of its keys.
+     *
+     * @param key Lowercase name or UUID string
+     */
+    void remove(String key) {
+        Record record = records.remove(key);
+        if (record != null) {
+            records.remove(record.getName().toLowerCase(), record);
+            records.remove(record.getUUID().toString(), record);
+        }
+    }
+
+    void clear() {
+        records.clear();
+    }
+
+    int size() {
+        return records.size();
+    }
+
+    private void sweep(long now) {
+        Iterator<Map.Entry<String, Record>> it = records.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue().isExpired(now)) {
+                it.remove();
+            }
+        }
+    }
+
+    final class Record {
+
+        private final String name;
+        private final UUID uuid;
+        private BanStats stats;
+        private long statsExpire;
+        private List<Ban>[] bans;
+        private long[] bansExpire;
+
+        private Record(String name, UUID uuid) {
+            this.name = name;
+            this.uuid = uuid;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        UUID getUUID() {
+            return uuid;
+        }
+
+        /**
+         * Gets the ban counts, if they are still fresh.
+         *
+         * @param now Current time
+         *
+         * @return The counts, or null if there are none or they expired
+         */
+        synchronized BanStats getStats(long now) {
+            return stats != null && statsExpire > now ? stats : null;
+        }
+
+        synchronized void setStats(BanStats stats, long expiresAt) {
+            this.stats = stats;
+            this.statsExpire = expiresAt;
+        }
+
+        /**
+         * Gets the bans from one service, if they are still fresh. A service
+         * which the fresh counts show has no bans gives an empty list without
+         * ever being fetched.
+         *
+         * @param service Service to get bans from
+         * @param now Current time
+         *
+         * @return The bans, or null if they are not known
+         */
+        synchronized List<Ban> getBans(BanServices service, long now) {
+            int ordinal = service.getOrdinal();
+            if (bans != null && ordinal < bans.length && bans[ordinal] != null && bansExpire[ordinal] > now) {
+                return bans[ordinal];
+            }
+            BanStats current = getStats(now);
+            if (current != null && current.getCount(service) == 0) {
+                return FishbansPlayer.noBans();
+            }
+            return null;
+        }
+
+        synchronized void setBans(BanServices service, List<Ban> list, long expiresAt) {
+            int ordinal = service.getOrdinal();
+            if (bans == null) {
+                bans = FishbansPlayer.newListArray(ordinal + 1);
+                bansExpire = new long[ordinal + 1];
+            } else if (ordinal >= bans.length) {
+                bans = Arrays.copyOf(bans, ordinal + 1);
+                bansExpire = Arrays.copyOf(bansExpire, ordinal + 1);
+            }
+            bans[ordinal] = list;
+            bansExpire[ordinal] = expiresAt;
+        }
+
+        private synchronized boolean isExpired(long now) {
+            if (statsExpire > now) {
+                return false;
+            }
+            if (bansExpire != null) {
+                for (long expire : bansExpire) {
+                    if (expire > now) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
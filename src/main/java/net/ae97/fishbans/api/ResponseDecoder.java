@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import net.ae97.fishbans.api.exceptions.NoSuchUserException;
+
+/**
+ * Decodes the two responses the library reads, the Fishbans /bans reply and
+ * the Mojang profile reply, straight from their UTF-8 bytes. Only the fields
+ * of those schemas are decoded; anything else is skipped without creating
+ * objects. This is what lets the library run without a JSON library. The
+ * /bans reply is walked by {@link BanSections}, the same as for
+ * {@link CompactBans}.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+final class ResponseDecoder {
+
+    private static final byte[][] profileKeys = JsonScanner.keys("name", "error");
+
+    private ResponseDecoder() {
+    }
+
+    /**
+     * Decodes a /bans response into a player with all of its {@link Ban}s.
+     *
+     * @param name Name the player was looked up by, used in errors
+     * @param body Response body
+     *
+     * @return The player, or null if the response was null
+     *
+     * @throws IOException Thrown if the response is malformed
+     * @throws NoSuchUserException Thrown if Fishbans does not know the user
+     */
+    static FishbansPlayer decodePlayer(String name, byte[] body) throws IOException, NoSuchUserException {
+        BanSections layout = BanSections.read(name, body);
+        if (layout == null) {
+            return null;
+        }
+        int total = 0;
+        for (int i = 0; i < layout.sections; i++) {
+            total += layout.counts[i];
+        }
+        List<Ban> bans = new ArrayList<Ban>(total);
+        for (int i = 0; i < layout.sections; i++) {
+            BanSections.decode(new JsonScanner(body, layout.starts[i], layout.ends[i]), layout.services[i], bans);
+        }
+        return new FishbansPlayer(bans, layout.username, Fishbans.convertToUUID(layout.uuid));
+    }
+
+    /**
+     * Decodes a Mojang profile reply into the name of the player.
+     *
+     * @param body Response body
+     *
+     * @return The name, or null if the reply is empty, not an object, or an
+     * error
+     *
+     * @throws IOException Thrown if the reply is malformed
+     */
+    static String decodeProfileName(byte[] body) throws IOException {
+        JsonScanner scanner = new JsonScanner(body);
+        if (scanner.peek() != '{') {
+            return null;
+        }
+        scanner.expect('{');
+        String name = null;
+        boolean error = false;
+        for (boolean first = true; scanner.nextField(first); first = false) {
+            switch (scanner.readKey(profileKeys)) {
+                case 0:
+                    name = scanner.readValueAsString();
+                    break;
+                case 1:
+                    error = true;
+                    scanner.skipValue();
+                    break;
+                default:
+                    scanner.skipValue();
+            }
+        }
+        return error ? null : name;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.cache;
+
+import net.ae97.fishbans.api.FishbansPlayer;
+
+/**
+ * Listener notified as players enter and leave the cache of
+ * {@link net.ae97.fishbans.api.Fishbans}. This is called on the thread which
+ * changed the cache, while the player's cache entry is locked, so the changes
+ * to one player arrive in the order they were made. Implementations should be
+ * quick and must not look up or invalidate other players.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ *
+ * @see net.ae97.fishbans.api.Fishbans#addCacheListener(CacheListener)
+ */
+public interface CacheListener {
+
+    /**
+     * Called when a player was added to the cache, including when a newer
+     * record replaces an older one.
+     *
+     * @param player The player which was added
+     */
+    public void entryAdded(FishbansPlayer player);
+
+    /**
+     * Called when a player is no longer in the cache, either because it was
+     * invalidated or because a newer record replaced it. With an
+     * {@link OffHeapCache} this is a copy of the record given to
+     * {@link #entryAdded(FishbansPlayer)}, with the same {@link java.util.UUID}
+     * and bans but not the same object.
+     *
+     * @param player The player which was removed
+     */
+    public void entryRemoved(FishbansPlayer player);
+
+    /**
+     * Called when the whole cache was cleared.
+     */
+    public void cacheCleared();
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.cache;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.ae97.fishbans.api.Fishbans;
+import net.ae97.fishbans.api.FishbansPlayer;
+import net.ae97.fishbans.api.LookupResult;
+import net.ae97.fishbans.api.util.LookupExecutors;
+import net.ae97.fishbans.api.util.PlayerKeys;
+
+/**
+ * Fills the cache of {@link Fishbans} with players who are expected to join
+ * soon, such as the players who were online before a restart. Players are
+ * prefetched in the background at a limited rate, players given to
+ * {@link #addAll(java.util.Collection)} first and then the most recently seen,
+ * until all are done, the time budget runs out, real lookups start, or
+ * {@link #stop()} is called. Lookups which are still running when the warmer
+ * stops are cancelled.
+ * <p>
+ * A roster file has one username or {@link java.util.UUID} per line, optionally
+ * followed by a comma and the time the player was last seen in milliseconds
+ * since the epoch. Blank lines and lines starting with # are ignored.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public class CacheWarmer {
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final Set<String> warming = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile boolean stopped = false;
+    private volatile boolean stopOnTraffic = true;
+    private int threads = 4;
+    private long requestSpacing = TimeUnit.SECONDS.toNanos(1) / 10;
+    private long timeBudget = TimeUnit.MINUTES.toNanos(2);
+    private volatile long deadline;
+    private WarmupListener listener;
+    private Thread dispatcher;
+    private ExecutorService executor;
+
+    /**
+     * Adds a player to prefetch.
+     *
+     * @param player Username or UUID of the player
+     * @param lastSeen Time the player was last seen in milliseconds since the
+     * epoch, or 0 if unknown
+     */
+    public synchronized void add(String player, long lastSeen) {
+        entries.add(new Entry(player.trim(), lastSeen, false, entries.size()));
+    }
+
+    /**
+     * Adds players to prefetch, such as the current online list. These are
+     * prefetched before every player added with
+     * {@link #add(java.lang.String, long)} or from a roster, in the order
+     * given.
+     *
+     * @param players Usernames or UUIDs of the players
+     */
+    public synchronized void addAll(Collection<String> players) {
+        for (String player : players) {
+            entries.add(new Entry(player.trim(), 0, true, entries.size()));
+        }
+    }
+
+    /**
+     * Adds every player in a roster file.
+     *
+     * @param roster File to read
+     *
+     * @throws IOException Thrown if the file cannot be read
+     */
+    public void load(File roster) throws IOException {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(roster), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int split = line.indexOf(',');
+                long lastSeen = 0;
+                if (split != -1) {
+                    try {
+                        lastSeen = Long.parseLong(line.substring(split + 1).trim());
+                    } catch (NumberFormatException ex) {
+                    }
+                    line = line.substring(0, split);
+                }
+                add(line, lastSeen);
+            }
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets how many lookups may run at the same time. Defaults to 4.
+     *
+     * @param threads Number of concurrent lookups
+     */
+    public void setThreads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Threads must be positive");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Sets how many lookups may be started per second. Defaults to 10.
+     *
+     * @param requestsPerSecond Lookups started per second
+     */
+    public void setRate(double requestsPerSecond) {
+        if (requestsPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive");
+        }
+        this.requestSpacing = (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+    }
+
+    /**
+     * Sets how long the warmer may run before it stops on its own, including
+     * the lookups still running when the time is up. Defaults to 2 minutes.
+     *
+     * @param budget Maximum time to run
+     * @param unit Unit of the budget
+     */
+    public void setTimeBudget(long budget, TimeUnit unit) {
+        this.timeBudget = unit.toNanos(budget);
+    }
+
+    /**
+     * Sets whether the warmer stops on its own once a player it is not warming
+     * is added to the cache, which means real lookups have started. Defaults
+     * to true.
+     *
+     * @param stop True to stop when real lookups start
+     */
+    public void setStopOnTraffic(boolean stop) {
+        this.stopOnTraffic = stop;
+    }
+
+    public void setListener(WarmupListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts prefetching in the background. Calling this on a warmer which was
+     * already started does nothing.
+     */
+    public synchronized void start() {
+        if (dispatcher != null) {
+            return;
+        }
+        final List<Entry> queue = new ArrayList<Entry>(entries);
+        Collections.sort(queue, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                if (a.online != b.online) {
+                    return a.online ? -1 : 1;
+                }
+                if (a.lastSeen != b.lastSeen) {
+                    return a.lastSeen > b.lastSeen ? -1 : 1;
+                }
+                return a.order - b.order;
+            }
+        });
+        executor = Executors.newFixedThreadPool(threads, LookupExecutors.newThreadFactory("Warmup"));
+        final TrafficListener traffic = stopOnTraffic ? new TrafficListener() : null;
+        if (traffic != null) {
+            Fishbans.addCacheListener(traffic);
+        }
+        dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    dispatch(queue);
+                } finally {
+                    if (traffic != null) {
+                        Fishbans.removeCacheListener(traffic);
+                    }
+                }
+            }
+        }, "FishbansAPI-Warmup");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Stops prefetching. No new lookups are started and the ones which are
+     * still running are cancelled. Call this once the server starts accepting
+     * players, so warm-up does not compete with real lookups.
+     */
+    public void stop() {
+        stopped = true;
+        Thread current;
+        synchronized (this) {
+            current = dispatcher;
+        }
+        if (current != null) {
+            current.interrupt();
+        }
+    }
+
+    /**
+     * Waits for the warmer to finish.
+     *
+     * @param timeout Maximum time to wait
+     * @param unit Unit of the timeout
+     *
+     * @return True if the warmer finished, false if the timeout passed first
+     *
+     * @throws InterruptedException Thrown if interrupted while waiting
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        Thread current;
+        synchronized (this) {
+            current = dispatcher;
+        }
+        if (current == null) {
+            return true;
+        }
+        current.join(Math.max(1, unit.toMillis(timeout)));
+        return !current.isAlive();
+    }
+
+    public int getCompleted() {
+        return completed.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public synchronized int getTotal() {
+        return entries.size();
+    }
+
+    private void dispatch(List<Entry> queue) {
+        deadline = System.nanoTime() + timeBudget;
+        Semaphore slots = new Semaphore(threads);
+        long next = System.nanoTime();
+        try {
+            for (final Entry entry : queue) {
+                long now = System.nanoTime();
+                if (stopped || now - deadline >= 0) {
+                    break;
+                }
+                if (next - now > 0) {
+                    TimeUnit.NANOSECONDS.sleep(next - now);
+                }
+                next = Math.max(now, next) + requestSpacing;
+                if (!slots.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) || stopped) {
+                    break;
+                }
+                warming.add(normalize(entry.player));
+                final Semaphore release = slots;
+                final int total = queue.size();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            prefetch(entry, total);
+                        } finally {
+                            release.release();
+                        }
+                    }
+                });
+            }
+            slots.tryAcquire(threads, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+        } finally {
+            stopped = true;
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+            }
+            WarmupListener current = listener;
+            if (current != null) {
+                current.onComplete(completed.get(), failed.get(), queue.size());
+            }
+        }
+    }
+
+    private void prefetch(Entry entry, int total) {
+        if (stopped) {
+            return;
+        }
+        boolean success;
+        try {
+            long remaining = deadline - System.nanoTime();
+            LookupResult result;
+            if (PlayerKeys.isUUID(entry.player)) {
+                result = Fishbans.getFishbanPlayer(PlayerKeys.toUUID(entry.player), remaining, TimeUnit.NANOSECONDS);
+            } else {
+                result = Fishbans.getFishbanPlayer(entry.player, remaining, TimeUnit.NANOSECONDS);
+            }
+            success = result.getStatus() == LookupResult.Status.FRESH;
+            if (!success && (stopped || result.getStatus() == LookupResult.Status.TIMEOUT)) {
+                return;
+            }
+        } catch (RuntimeException ex) {
+            success = false;
+        }
+        if (!success) {
+            failed.incrementAndGet();
+        }
+        int done = completed.incrementAndGet();
+        WarmupListener current = listener;
+        if (current != null) {
+            current.onProgress(done, failed.get(), total);
+        }
+    }
+
+    private static String normalize(String player) {
+        return PlayerKeys.isUUID(player) ? PlayerKeys.toUUID(player).toString() : player.toLowerCase();
+    }
+
+    private static class Entry {
+
+        private final String player;
+        private final long lastSeen;
+        private final boolean online;
+        private final int order;
+
+        private Entry(String player, long lastSeen, boolean online, int order) {
+            this.player = player;
+            this.lastSeen = lastSeen;
+            this.online = online;
+            this.order = order;
+        }
+    }
+
+    /**
+     * Stops the warmer when a player it did not ask for is added to the cache.
+     */
+    private class TrafficListener implements CacheListener {
+
+        @Override
+        public void entryAdded(FishbansPlayer player) {
+            UUID uuid = player.getUUID();
+            if (warming.contains(player.getName().toLowerCase()) || (uuid != null && warming.contains(uuid.toString()))) {
+                return;
+            }
+            stop();
+        }
+
+        @Override
+        public void entryRemoved(FishbansPlayer player) {
+        }
+
+        @Override
+        public void cacheCleared() {
+        }
+    }
+}
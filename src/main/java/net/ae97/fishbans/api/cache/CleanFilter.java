@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A compact record of players recently verified to have no bans. Each player
+ * takes a few bits instead of a full cache entry, so millions of players fit
+ * in a few megabytes.
+ * <p>
+ * This is a generational Bloom filter. The lifetime is split into generations;
+ * players are added to the newest one, and the oldest is dropped as time
+ * passes, so a player is forgotten between one generation short of the
+ * lifetime and the full lifetime after being added. A generation which fills
+ * up early is also rotated early, so adding more players than expected makes
+ * the oldest ones be forgotten sooner rather than raising the false positive
+ * rate. Like any Bloom filter it
+ * can answer that a player is clean when they were never added, at roughly the
+ * configured false positive rate, but never the other way around.
+ * <p>
+ * Bits cannot be removed from a Bloom filter, so {@link #remove(String)} keeps
+ * a small list of players which must not be reported clean until the
+ * generations they were added in have expired.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public class CleanFilter {
+
+    private static final int defaultGenerations = 4;
+    private final AtomicLongArray[] generations;
+    private final int bits;
+    private final int hashes;
+    private final int capacity;
+    private final AtomicInteger added = new AtomicInteger();
+    private final long generationLength;
+    private final double falsePositiveRate;
+    private final ConcurrentHashMap<Long, Long> removed = new ConcurrentHashMap<Long, Long>();
+    private volatile int current;
+    private volatile long currentStart;
+
+    /**
+     * Creates a filter with four generations.
+     *
+     * @param expectedPlayers Number of players to remember at once
+     * @param falsePositiveRate Acceptable chance of reporting a player clean
+     * who was never added, such as 0.001
+     * @param lifetime How long a player is remembered
+     * @param unit Unit of the lifetime
+     */
+    public CleanFilter(int expectedPlayers, double falsePositiveRate, long lifetime, TimeUnit unit) {
+        this(expectedPlayers, falsePositiveRate, lifetime, unit, defaultGenerations);
+    }
+
+    /**
+     * Creates a filter.
+     *
+     * @param expectedPlayers Number of players to remember at once
+     * @param falsePositiveRate Acceptable chance of reporting a player clean
+     * who was never added, such as 0.001
+     * @param lifetime How long a player is remembered
+     * @param unit Unit of the lifetime
+     * @param generationCount Number of generations to split the lifetime
+     * into. More generations forget players closer to the lifetime, at the
+     * cost of more memory.
+     */
+    public CleanFilter(int expectedPlayers, double falsePositiveRate, long lifetime, TimeUnit unit, int generationCount) {
+        if (expectedPlayers <= 0) {
+            throw new IllegalArgumentException("Expected players must be positive");
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+        }
+        if (generationCount < 2) {
+            throw new IllegalArgumentException("At least two generations are needed");
+        }
+        // All but the newest generation are full at any time, and a lookup
+        // checks every generation, so each gets its share of the false
+        // positive rate.
+        double perGeneration = Math.ceil((double) expectedPlayers / (generationCount - 1));
+        double rate = falsePositiveRate / generationCount;
+        long size = (long) Math.ceil(-perGeneration * Math.log(rate) / (Math.log(2) * Math.log(2)));
+        size = Math.max(64, (size + 63) / 64 * 64);
+        if (size > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("Filter would be too large");
+        }
+        this.bits = (int) size;
+        this.hashes = Math.max(1, (int) Math.round(size / perGeneration * Math.log(2)));
+        this.capacity = (int) perGeneration;
+        this.falsePositiveRate = falsePositiveRate;
+        this.generations = new AtomicLongArray[generationCount];
+        for (int i = 0; i < generationCount; i++) {
+            generations[i] = new AtomicLongArray(bits / 64);
+        }
+        this.generationLength = Math.max(1, unit.toMillis(lifetime) / generationCount);
+        this.currentStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Records a player as having no bans.
+     *
+     * @param key Username or UUID of the player
+     */
+    public void add(String key) {
+        long hash = hash(key);
+        long now = System.currentTimeMillis();
+        rotate(now);
+        if (added.incrementAndGet() > capacity) {
+            synchronized (this) {
+                if (added.get() > capacity) {
+                    advance(now);
+                    added.set(1);
+                }
+            }
+        }
+        if (!removed.isEmpty()) {
+            removed.remove(hash);
+        }
+        AtomicLongArray generation = generations[current];
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashes; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+            int word = bit >>> 6;
+            long mask = 1L << bit;
+            while (true) {
+                long value = generation.get(word);
+                if ((value & mask) != 0 || generation.compareAndSet(word, value, value | mask)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether a player was recently recorded as having no bans. False
+     * positives are possible at about the configured rate; false negatives
+     * are not.
+     *
+     * @param key Username or UUID of the player
+     *
+     * @return True if the player is probably clean
+     */
+    public boolean isClean(String key) {
+        long hash = hash(key);
+        long now = System.currentTimeMillis();
+        rotate(now);
+        if (!removed.isEmpty()) {
+            Long until = removed.get(hash);
+            if (until != null && until > now) {
+                return false;
+            }
+        }
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (AtomicLongArray generation : generations) {
+            boolean found = true;
+            for (int i = 0; i < hashes && found; i++) {
+                int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+                found = (generation.get(bit >>> 6) & (1L << bit)) != 0;
+            }
+            if (found) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops reporting a player as clean, such as when they are known to have
+     * been banned.
+     *
+     * @param key Username or UUID of the player
+     */
+    public void remove(String key) {
+        removed.put(hash(key), System.currentTimeMillis() + generationLength * generations.length);
+    }
+
+    /**
+     * Forgets every player.
+     */
+    public synchronized void clear() {
+        for (AtomicLongArray generation : generations) {
+            for (int i = 0; i < generation.length(); i++) {
+                generation.set(i, 0);
+            }
+        }
+        removed.clear();
+        added.set(0);
+    }
+
+    /**
+     * Returns the false positive rate this filter was sized for.
+     *
+     * @return The false positive rate
+     */
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * Returns the memory used by the bits of this filter.
+     *
+     * @return Memory used, in bytes
+     */
+    public long getMemoryUsage() {
+        return (long) generations.length * bits / 8;
+    }
+
+    private void rotate(long now) {
+        if (now - currentStart < generationLength) {
+            return;
+        }
+        synchronized (this) {
+            int steps = 0;
+            while (now - currentStart >= generationLength && steps < generations.length) {
+                advance(currentStart + generationLength);
+                steps++;
+            }
+            if (now - currentStart >= generationLength) {
+                currentStart = now;
+            }
+            Iterator<Map.Entry<Long, Long>> it = removed.entrySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().getValue() <= now) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private void advance(long start) {
+        int next = (current + 1) % generations.length;
+        AtomicLongArray generation = generations[next];
+        for (int i = 0; i < generation.length(); i++) {
+            generation.set(i, 0);
+        }
+        current = next;
+        currentStart = start;
+        added.set(0);
+    }
+
+    private static long hash(String key) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= Character.toLowerCase(key.charAt(i));
+            hash *= 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+}
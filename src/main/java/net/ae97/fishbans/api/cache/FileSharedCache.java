@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import net.ae97.fishbans.api.util.LookupExecutors;
+
+/**
+ * A {@link SharedCache} which stores each entry as a file in a directory.
+ * Pointing every server on a machine, or on a shared network drive, at the
+ * same directory lets them share lookups. Entries are written to a temporary
+ * file and then renamed into place, so readers never see a partial entry.
+ * A key with no entry file is answered at once without reading anything, so
+ * players which were never shared do not wait on the cache threads.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public class FileSharedCache implements SharedCache {
+
+    private static final int MAGIC = 0x46424331;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final Callable<SharedCacheEntry> MISS = new Callable<SharedCacheEntry>() {
+        @Override
+        public SharedCacheEntry call() {
+            return null;
+        }
+    };
+    private final File directory;
+    private final ExecutorService executor;
+
+    /**
+     * Creates a cache stored in the given directory, creating it if needed.
+     *
+     * @param directory Directory to store entries in
+     *
+     * @throws IOException Thrown if the directory cannot be created
+     */
+    public FileSharedCache(File directory) throws IOException {
+        this(directory, 2);
+    }
+
+    /**
+     * Creates a cache stored in the given directory, creating it if needed.
+     *
+     * @param directory Directory to store entries in
+     * @param threads Number of threads used to read and write entries
+     *
+     * @throws IOException Thrown if the directory cannot be created
+     */
+    public FileSharedCache(File directory, int threads) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create cache directory " + directory);
+        }
+        this.directory = directory;
+        this.executor = Executors.newFixedThreadPool(threads, LookupExecutors.newThreadFactory("FileCache"));
+    }
+
+    @Override
+    public Future<SharedCacheEntry> get(final String key) {
+        if (!exists(key)) {
+            FutureTask<SharedCacheEntry> miss = new FutureTask<SharedCacheEntry>(MISS);
+            miss.run();
+            return miss;
+        }
+        return executor.submit(new Callable<SharedCacheEntry>() {
+            @Override
+            public SharedCacheEntry call() throws IOException {
+                return read(key);
+            }
+        });
+    }
+
+    @Override
+    public Future<?> put(final String key, final SharedCacheEntry entry) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                write(key, entry);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Future<?> remove(final String key) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                fileFor(key).delete();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Deletes every expired entry from the directory.
+     *
+     * @return Number of entries deleted
+     */
+    public int purge() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        for (File file : files) {
+            if (!file.getName().endsWith(".entry")) {
+                continue;
+            }
+            try {
+                SharedCacheEntry entry = read(file);
+                if (entry == null || entry.isExpired(now)) {
+                    if (file.delete()) {
+                        removed++;
+                    }
+                }
+            } catch (IOException ex) {
+                file.delete();
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Stops the threads used by this cache. Pending operations are still
+     * completed.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+
+    private boolean exists(String key) {
+        try {
+            return fileFor(key).isFile();
+        } catch (IOException ex) {
+            return true;
+        }
+    }
+
+    private SharedCacheEntry read(String key) throws IOException {
+        File file = fileFor(key);
+        SharedCacheEntry entry;
+        try {
+            entry = read(file);
+        } catch (IOException ex) {
+            file.delete();
+            return null;
+        }
+        if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+            file.delete();
+            return null;
+        }
+        return entry;
+    }
+
+    private SharedCacheEntry read(File file) throws IOException {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (FileNotFoundException ex) {
+            return null;
+        }
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a cache entry: " + file);
+            }
+            long storedAt = in.readLong();
+            long ttl = in.readLong();
+            int length = in.readInt();
+            if (length < 0 || length > file.length()) {
+                throw new IOException("Corrupt cache entry: " + file);
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            return new SharedCacheEntry(payload, storedAt, ttl);
+        } catch (EOFException ex) {
+            throw new IOException("Truncated cache entry: " + file, ex);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private void write(String key, SharedCacheEntry entry) throws IOException {
+        File target = fileFor(key);
+        File temp = File.createTempFile("write", ".tmp", directory);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(entry.getStoredAt());
+            out.writeLong(entry.getTimeToLive());
+            out.writeInt(entry.getPayload().length);
+            out.write(entry.getPayload());
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+            }
+        }
+        if (!temp.renameTo(target)) {
+            target.delete();
+            if (!temp.renameTo(target)) {
+                temp.delete();
+                throw new IOException("Could not store cache entry " + target);
+            }
+        }
+    }
+
+    private File fileFor(String key) throws IOException {
+        byte[] bytes = key.getBytes("UTF-8");
+        char[] name = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            name[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            name[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new File(directory, new String(name) + ".entry");
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import net.ae97.fishbans.api.util.DaemonThreadFactory;
+
+/**
+ * Broadcasts invalidated cache keys to other servers and receives theirs.
+ * Keys published within one batching window are sent together, with
+ * duplicates removed, so a burst of invalidations turns into a single message.
+ * Every key received is applied, even one received moments before: evicting
+ * twice is harmless, while skipping a second invalidation, such as an unban
+ * following a ban, would leave the other servers with the state in between.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ *
+ * @see net.ae97.fishbans.api.Fishbans#setInvalidationChannel(InvalidationChannel)
+ */
+public class InvalidationChannel {
+
+    private final InvalidationTransport transport;
+    private final long window;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Invalidation"));
+    private final LinkedHashSet<String> pending = new LinkedHashSet<String>();
+    private volatile InvalidationListener listener;
+
+    /**
+     * Creates a channel and opens its transport.
+     *
+     * @param transport Transport to send and receive keys with
+     * @param window Time published keys are batched and deduplicated for
+     * @param unit Unit of the window
+     *
+     * @throws IOException Thrown if the transport cannot be opened
+     */
+    public InvalidationChannel(InvalidationTransport transport, long window, TimeUnit unit) throws IOException {
+        this.transport = transport;
+        this.window = unit.toNanos(window);
+        transport.open(new InvalidationListener() {
+            @Override
+            public void onInvalidate(Collection<String> keys) {
+                receive(keys);
+            }
+        });
+    }
+
+    /**
+     * Sets the listener given keys received from other servers.
+     *
+     * @param listener Listener to notify, or null for none
+     */
+    public void setListener(InvalidationListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queues a key to be sent to the other servers with the next batch.
+     *
+     * @param key Lowercase username or dashed UUID to invalidate
+     */
+    public void publish(String key) {
+        boolean schedule;
+        synchronized (pending) {
+            schedule = pending.isEmpty();
+            pending.add(key);
+        }
+        if (schedule) {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, window, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Sends all queued keys now instead of waiting for the batching window.
+     */
+    public void flush() {
+        List<String> batch;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<String>(pending);
+            pending.clear();
+        }
+        try {
+            transport.send(batch);
+        } catch (IOException ex) {
+        }
+    }
+
+    /**
+     * Sends any queued keys and closes the transport.
+     */
+    public void close() {
+        executor.shutdown();
+        flush();
+        transport.close();
+    }
+
+    private void receive(Collection<String> keys) {
+        InvalidationListener current = listener;
+        if (current != null && !keys.isEmpty()) {
+            current.onInvalidate(Collections.unmodifiableList(new ArrayList<String>(new LinkedHashSet<String>(keys))));
+        }
+    }
+}
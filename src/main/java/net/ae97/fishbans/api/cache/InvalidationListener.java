@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.cache;
+
+import java.util.Collection;
+
+/**
+ * Listener notified when cache keys have been invalidated.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public interface InvalidationListener {
+
+    /**
+     * Called when keys have been invalidated.
+     *
+     * @param keys Lowercase usernames or dashed UUIDs which were invalidated
+     */
+    public void onInvalidate(Collection<String> keys);
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.cache;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Carries invalidated cache keys between servers for an
+ * {@link InvalidationChannel}. A transport does not need to filter duplicate
+ * keys, but must not deliver keys it sent itself back to its own receiver.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public interface InvalidationTransport {
+
+    /**
+     * Starts receiving keys from other servers.
+     *
+     * @param receiver Listener given every batch of keys received
+     *
+     * @throws IOException Thrown if the transport cannot be opened
+     */
+    public void open(InvalidationListener receiver) throws IOException;
+
+    /**
+     * Sends a batch of keys to the other servers.
+     *
+     * @param keys Keys to send
+     *
+     * @throws IOException Thrown if the keys could not be sent
+     */
+    public void send(Collection<String> keys) throws IOException;
+
+    /**
+     * Stops receiving and releases any resources held by this transport.
+     */
+    public void close();
+}
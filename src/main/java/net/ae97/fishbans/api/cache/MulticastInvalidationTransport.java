@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * An {@link InvalidationTransport} which sends keys as UDP multicast
+ * datagrams. Every server joined to the same group and port receives the keys
+ * sent by the others. By default datagrams do not leave the local network.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public class MulticastInvalidationTransport implements InvalidationTransport {
+
+    private static final int MAGIC = 0x46424931;
+    private static final int MAX_PACKET = 1400;
+    private final InetAddress group;
+    private final InetSocketAddress groupAddress;
+    private final int port;
+    private final long senderId = new Random().nextLong();
+    private volatile MulticastSocket socket;
+    private int timeToLive = 1;
+
+    /**
+     * Creates a transport for the given multicast group.
+     *
+     * @param group Multicast group address, such as 239.255.97.97
+     * @param port Port to send and receive on
+     */
+    public MulticastInvalidationTransport(InetAddress group, int port) {
+        if (!group.isMulticastAddress()) {
+            throw new IllegalArgumentException(group + " is not a multicast address");
+        }
+        this.group = group;
+        this.groupAddress = new InetSocketAddress(group, port);
+        this.port = port;
+    }
+
+    /**
+     * Sets how many network hops datagrams may take. Defaults to 1, which keeps
+     * them on the local network. Must be called before the transport is opened.
+     *
+     * @param timeToLive Time to live of sent datagrams
+     */
+    public void setTimeToLive(int timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    @Override
+    public void open(final InvalidationListener receiver) throws IOException {
+        final MulticastSocket opened = new MulticastSocket(port);
+        opened.setTimeToLive(timeToLive);
+        opened.joinGroup(groupAddress, null);
+        socket = opened;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[MAX_PACKET];
+                while (!opened.isClosed()) {
+                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    try {
+                        opened.receive(packet);
+                        List<String> keys = decode(packet);
+                        if (keys != null && !keys.isEmpty()) {
+                            receiver.onInvalidate(keys);
+                        }
+                    } catch (IOException ex) {
+                    }
+                }
+            }
+        }, "FishbansAPI-Multicast");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void send(Collection<String> keys) throws IOException {
+        MulticastSocket current = socket;
+        if (current == null) {
+            throw new IOException("Transport is not open");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(MAX_PACKET);
+        List<String> batch = new ArrayList<String>();
+        int size = 14;
+        for (String key : keys) {
+            int keySize = 2 + key.getBytes("UTF-8").length;
+            if (!batch.isEmpty() && size + keySize > MAX_PACKET) {
+                sendPacket(current, bytes, batch);
+                batch.clear();
+                size = 14;
+            }
+            batch.add(key);
+            size += keySize;
+        }
+        if (!batch.isEmpty()) {
+            sendPacket(current, bytes, batch);
+        }
+    }
+
+    @Override
+    public void close() {
+        MulticastSocket current = socket;
+        socket = null;
+        if (current != null) {
+            try {
+                current.leaveGroup(groupAddress, null);
+            } catch (IOException ex) {
+            }
+            current.close();
+        }
+    }
+
+    private void sendPacket(MulticastSocket current, ByteArrayOutputStream bytes, List<String> batch) throws IOException {
+        bytes.reset();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeLong(senderId);
+        out.writeShort(batch.size());
+        for (String key : batch) {
+            out.writeUTF(key);
+        }
+        out.flush();
+        byte[] data = bytes.toByteArray();
+        current.send(new DatagramPacket(data, data.length, group, port));
+    }
+
+    private List<String> decode(DatagramPacket packet) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(packet.getData(), packet.getOffset(), packet.getLength()));
+        if (in.readInt() != MAGIC || in.readLong() == senderId) {
+            return null;
+        }
+        int count = in.readUnsignedShort();
+        List<String> keys = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(in.readUTF());
+        }
+        return keys;
+    }
+}
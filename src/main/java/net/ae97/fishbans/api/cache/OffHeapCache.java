@@ -0,0 +1,592 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.cache;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import net.ae97.fishbans.api.FishbansPlayer;
+import net.ae97.fishbans.api.FishbansPlayerCodec;
+
+/**
+ * A cache of players stored outside of the Java heap, for networks with too
+ * many players to keep as objects without long garbage collection pauses.
+ * <p>
+ * Players are stored in the {@link FishbansPlayerCodec} encoding in direct
+ * {@link ByteBuffer} slabs. Each slab is divided into chunks of one size
+ * class, and an entry takes the smallest chunk it fits in. When every slab is
+ * in use, the slab which was handed out longest ago is emptied and reused.
+ * The index is a table of primitive arrays keyed by the two longs of the
+ * {@link UUID}, plus a 128-bit hash of the lowercase name, so the cache holds
+ * no objects per entry on the heap.
+ * <p>
+ * Entries are decoded only when read, so every read creates a new
+ * {@link FishbansPlayer}. Evicted entries are not reported to
+ * {@link CacheListener}s, and entries already stored are not given to
+ * listeners added later.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public class OffHeapCache {
+
+    private static final int defaultSlabSize = 1024 * 1024;
+    private static final int minChunk = 64;
+    private static final double growthFactor = 1.25;
+    private static final int header = 4 + 8 * 7;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final int slabSize;
+    private final ByteBuffer[] slabs;
+    private final int[] slabClass;
+    private final int[] slabLimit;
+    private final int[] slabQueue;
+    private int queueHead;
+    private int queueSize;
+    private int slabsCreated;
+    private final int[] classSizes;
+    private final int[] currentSlab;
+    private final long[][] freeLists;
+    private final int[] freeCounts;
+    private long[] indexKeys;
+    private long[] indexValues;
+    private int indexSize;
+    private int entries;
+    private long usedMemory;
+    private long evictions;
+
+    /**
+     * Creates a cache with 1 MiB slabs.
+     *
+     * @param maxMemory Most memory to use, in bytes
+     */
+    public OffHeapCache(long maxMemory) {
+        this(maxMemory, defaultSlabSize);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxMemory Most memory to use, in bytes
+     * @param slabSize Size of each slab, in bytes. This is also the largest
+     * entry which can be stored.
+     */
+    public OffHeapCache(long maxMemory, int slabSize) {
+        if (slabSize < minChunk * 2) {
+            throw new IllegalArgumentException("Slab size must be at least " + minChunk * 2 + " bytes");
+        }
+        long count = maxMemory / slabSize;
+        if (count < 1 || count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Memory must be between one slab and " + Integer.MAX_VALUE + " slabs");
+        }
+        this.slabSize = slabSize;
+        this.slabs = new ByteBuffer[(int) count];
+        this.slabClass = new int[slabs.length];
+        this.slabLimit = new int[slabs.length];
+        this.slabQueue = new int[slabs.length];
+        int classes = 0;
+        int[] sizes = new int[64];
+        for (double size = minChunk; size < slabSize / 2 && classes < sizes.length - 1; size *= growthFactor) {
+            sizes[classes++] = ((int) size + 7) & ~7;
+        }
+        sizes[classes++] = slabSize;
+        this.classSizes = new int[classes];
+        System.arraycopy(sizes, 0, classSizes, 0, classes);
+        this.currentSlab = new int[classes];
+        this.freeLists = new long[classes][];
+        this.freeCounts = new int[classes];
+        for (int i = 0; i < classes; i++) {
+            currentSlab[i] = -1;
+            freeLists[i] = new long[16];
+        }
+        this.indexKeys = new long[2048];
+        this.indexValues = new long[1024];
+    }
+
+    /**
+     * Stores a player which never expires, replacing any entry for the same
+     * {@link UUID}.
+     *
+     * @param player Player to store
+     * @param storedAt Time the player was retrieved, in milliseconds since the
+     * epoch
+     *
+     * @return True if the player was stored, false if it is larger than a slab
+     */
+    public boolean put(FishbansPlayer player, long storedAt) {
+        return put(player, storedAt, Long.MAX_VALUE, storedAt);
+    }
+
+    /**
+     * Stores a player, replacing any entry for the same {@link UUID}.
+     *
+     * @param player Player to store
+     * @param storedAt Time the player was retrieved, in milliseconds since the
+     * epoch
+     * @param expiresAt Time the entry stops being fresh
+     * @param stableSince Time the bans of the player last changed, see
+     * {@link TtlPolicy}
+     *
+     * @return True if the player was stored, false if it is larger than a slab
+     */
+    public boolean put(FishbansPlayer player, long storedAt, long expiresAt, long stableSince) {
+        byte[] payload = FishbansPlayerCodec.encode(player, storedAt);
+        int sizeClass = sizeClass(header + payload.length);
+        UUID uuid = player.getUUID();
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        String name = player.getName().toLowerCase();
+        long name1 = hash(name, 0xCBF29CE484222325L);
+        long name2 = hash(name, 0x84222325CBF29CE4L);
+        lock.writeLock().lock();
+        try {
+            int slot = find(msb, lsb);
+            if (slot >= 0) {
+                release(indexValues[slot] - 1);
+            }
+            if (sizeClass < 0) {
+                return false;
+            }
+            long location = allocate(sizeClass);
+            if (location < 0) {
+                return false;
+            }
+            ByteBuffer slab = slabs[(int) (location >>> 32)];
+            int offset = (int) location;
+            slab.putInt(offset, payload.length);
+            slab.putLong(offset + 4, msb);
+            slab.putLong(offset + 12, lsb);
+            slab.putLong(offset + 20, name1);
+            slab.putLong(offset + 28, name2);
+            slab.putLong(offset + 36, expiresAt);
+            slab.putLong(offset + 44, stableSince);
+            slab.putLong(offset + 52, player.getFingerprint());
+            ByteBuffer target = slab.duplicate();
+            target.position(offset + header);
+            target.put(payload);
+            insert(msb, lsb, location);
+            insert(name1, name2, location);
+            entries++;
+            usedMemory += classSizes[sizeClass];
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the encoded player stored under a key, whether or not it expired.
+     *
+     * @param key Lowercase username, or UUID in the form of
+     * {@link UUID#toString()}
+     *
+     * @return The player in the {@link FishbansPlayerCodec} encoding, or null
+     * if it is not cached
+     */
+    public byte[] get(String key) {
+        return get(key, Long.MIN_VALUE);
+    }
+
+    /**
+     * Gets the encoded player stored under a key if it has not expired.
+     *
+     * @param key Lowercase username, or UUID in the form of
+     * {@link UUID#toString()}
+     * @param now Current time, in milliseconds since the epoch
+     *
+     * @return The player in the {@link FishbansPlayerCodec} encoding, or null
+     * if it is not cached or expired
+     */
+    public byte[] get(String key, long now) {
+        lock.readLock().lock();
+        try {
+            long location = locate(key);
+            if (location < 0) {
+                return null;
+            }
+            ByteBuffer slab = slabs[(int) (location >>> 32)].duplicate();
+            int offset = (int) location;
+            if (slab.getLong(offset + 36) <= now) {
+                return null;
+            }
+            byte[] payload = new byte[slab.getInt(offset)];
+            slab.position(offset + header);
+            slab.get(payload);
+            return payload;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the time the entry stored under a key stops being fresh.
+     *
+     * @param key Lowercase username, or UUID in the form of
+     * {@link UUID#toString()}
+     *
+     * @return The time, or {@link Long#MIN_VALUE} if nothing is stored
+     */
+    public long getExpiresAt(String key) {
+        return getLong(key, 36);
+    }
+
+    /**
+     * Gets the time the bans of the player stored under a key last changed.
+     *
+     * @param key Lowercase username, or UUID in the form of
+     * {@link UUID#toString()}
+     *
+     * @return The time, or {@link Long#MIN_VALUE} if nothing is stored
+     */
+    public long getStableSince(String key) {
+        return getLong(key, 44);
+    }
+
+    /**
+     * Gets the {@link FishbansPlayer#getFingerprint() fingerprint} of the
+     * player stored under a key, without decoding it.
+     *
+     * @param key Lowercase username, or UUID in the form of
+     * {@link UUID#toString()}
+     *
+     * @return The fingerprint, or {@link Long#MIN_VALUE} if nothing is stored
+     */
+    public long getFingerprint(String key) {
+        return getLong(key, 52);
+    }
+
+    private long getLong(String key, int field) {
+        lock.readLock().lock();
+        try {
+            long location = locate(key);
+            if (location < 0) {
+                return Long.MIN_VALUE;
+            }
+            return slabs[(int) (location >>> 32)].getLong((int) location + field);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the entry stored under a key, under both its name and its
+     * {@link UUID}.
+     *
+     * @param key Lowercase username, or UUID in the form of
+     * {@link UUID#toString()}
+     */
+    public void remove(String key) {
+        lock.writeLock().lock();
+        try {
+            long location = locate(key);
+            if (location >= 0) {
+                release(location);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes every entry. Slabs stay allocated and are reused.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < slabsCreated; i++) {
+                slabClass[i] = -1;
+                slabLimit[i] = 0;
+            }
+            queueHead = 0;
+            queueSize = 0;
+            for (int i = 0; i < classSizes.length; i++) {
+                currentSlab[i] = -1;
+                freeCounts[i] = 0;
+            }
+            indexKeys = new long[2048];
+            indexValues = new long[1024];
+            indexSize = 0;
+            entries = 0;
+            usedMemory = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the most memory this cache will use.
+     *
+     * @return Capacity, in bytes
+     */
+    public long getCapacity() {
+        return (long) slabs.length * slabSize;
+    }
+
+    /**
+     * Returns the memory which has been allocated for slabs so far. Slabs are
+     * allocated as they are needed and never freed.
+     *
+     * @return Allocated memory, in bytes
+     */
+    public long getAllocatedMemory() {
+        lock.readLock().lock();
+        try {
+            return (long) slabsCreated * slabSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the memory used by the chunks holding entries.
+     *
+     * @return Used memory, in bytes
+     */
+    public long getUsedMemory() {
+        lock.readLock().lock();
+        try {
+            return usedMemory;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getEntryCount() {
+        lock.readLock().lock();
+        try {
+            return entries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of entries removed to make room for others.
+     *
+     * @return Number of evicted entries
+     */
+    public long getEvictionCount() {
+        lock.readLock().lock();
+        try {
+            return evictions;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long locate(String key) {
+        int slot;
+        if (isUUID(key)) {
+            UUID uuid = UUID.fromString(key);
+            slot = find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        } else {
+            slot = find(hash(key, 0xCBF29CE484222325L), hash(key, 0x84222325CBF29CE4L));
+        }
+        return slot < 0 ? -1 : indexValues[slot] - 1;
+    }
+
+    private int sizeClass(int size) {
+        for (int i = 0; i < classSizes.length; i++) {
+            if (classSizes[i] >= size) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private long allocate(int sizeClass) {
+        if (freeCounts[sizeClass] > 0) {
+            return freeLists[sizeClass][--freeCounts[sizeClass]];
+        }
+        int size = classSizes[sizeClass];
+        int slab = currentSlab[sizeClass];
+        if (slab >= 0 && slabLimit[slab] + size <= slabSize) {
+            int offset = slabLimit[slab];
+            slabLimit[slab] += size;
+            return ((long) slab << 32) | offset;
+        }
+        if (slabsCreated < slabs.length) {
+            slab = slabsCreated++;
+            slabs[slab] = ByteBuffer.allocateDirect(slabSize);
+        } else if (queueSize > 0) {
+            slab = slabQueue[queueHead];
+            queueHead = (queueHead + 1) % slabQueue.length;
+            queueSize--;
+            evict(slab);
+        } else {
+            slab = firstUnassigned();
+            if (slab < 0) {
+                return -1;
+            }
+        }
+        slabClass[slab] = sizeClass;
+        slabLimit[slab] = size;
+        currentSlab[sizeClass] = slab;
+        slabQueue[(queueHead + queueSize) % slabQueue.length] = slab;
+        queueSize++;
+        return (long) slab << 32;
+    }
+
+    private int firstUnassigned() {
+        for (int i = 0; i < slabsCreated; i++) {
+            if (slabLimit[i] == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void evict(int slab) {
+        int sizeClass = slabClass[slab];
+        int size = classSizes[sizeClass];
+        ByteBuffer buffer = slabs[slab];
+        for (int offset = 0; offset + size <= slabLimit[slab]; offset += size) {
+            if (buffer.getInt(offset) >= 0) {
+                remove(buffer, ((long) slab << 32) | offset);
+                entries--;
+                usedMemory -= size;
+                evictions++;
+            }
+        }
+        long[] free = freeLists[sizeClass];
+        int kept = 0;
+        for (int i = 0; i < freeCounts[sizeClass]; i++) {
+            if ((int) (free[i] >>> 32) != slab) {
+                free[kept++] = free[i];
+            }
+        }
+        freeCounts[sizeClass] = kept;
+        if (currentSlab[sizeClass] == slab) {
+            currentSlab[sizeClass] = -1;
+        }
+        slabLimit[slab] = 0;
+    }
+
+    private void release(long location) {
+        int slab = (int) (location >>> 32);
+        int offset = (int) location;
+        ByteBuffer buffer = slabs[slab];
+        remove(buffer, location);
+        buffer.putInt(offset, -1);
+        int sizeClass = slabClass[slab];
+        long[] free = freeLists[sizeClass];
+        if (freeCounts[sizeClass] == free.length) {
+            long[] grown = new long[free.length * 2];
+            System.arraycopy(free, 0, grown, 0, free.length);
+            freeLists[sizeClass] = grown;
+            free = grown;
+        }
+        free[freeCounts[sizeClass]++] = location;
+        entries--;
+        usedMemory -= classSizes[sizeClass];
+    }
+
+    private void remove(ByteBuffer buffer, long location) {
+        int offset = (int) location;
+        unindex(buffer.getLong(offset + 4), buffer.getLong(offset + 12), location);
+        unindex(buffer.getLong(offset + 20), buffer.getLong(offset + 28), location);
+    }
+
+    private int slot(long k1, long k2) {
+        long hash = k1 * 0x9E3779B97F4A7C15L + k2;
+        hash ^= hash >>> 29;
+        return (int) hash & (indexValues.length - 1);
+    }
+
+    private int find(long k1, long k2) {
+        int mask = indexValues.length - 1;
+        for (int i = slot(k1, k2); indexValues[i] != 0; i = (i + 1) & mask) {
+            if (indexKeys[i * 2] == k1 && indexKeys[i * 2 + 1] == k2) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(long k1, long k2, long location) {
+        if ((indexSize + 1) * 10 > indexValues.length * 6) {
+            long[] oldKeys = indexKeys;
+            long[] oldValues = indexValues;
+            indexKeys = new long[oldKeys.length * 2];
+            indexValues = new long[oldValues.length * 2];
+            indexSize = 0;
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != 0) {
+                    insert(oldKeys[i * 2], oldKeys[i * 2 + 1], oldValues[i] - 1);
+                }
+            }
+        }
+        int mask = indexValues.length - 1;
+        int i = slot(k1, k2);
+        while (indexValues[i] != 0 && (indexKeys[i * 2] != k1 || indexKeys[i * 2 + 1] != k2)) {
+            i = (i + 1) & mask;
+        }
+        if (indexValues[i] == 0) {
+            indexSize++;
+        }
+        indexKeys[i * 2] = k1;
+        indexKeys[i * 2 + 1] = k2;
+        indexValues[i] = location + 1;
+    }
+
+    private void unindex(long k1, long k2, long location) {
+        int i = find(k1, k2);
+        if (i < 0 || indexValues[i] != location + 1) {
+            return;
+        }
+        // Linear probing needs no tombstones if later entries of the run are
+        // moved back into the hole when their home slot allows it.
+        int mask = indexValues.length - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (indexValues[j] == 0) {
+                break;
+            }
+            int home = slot(indexKeys[j * 2], indexKeys[j * 2 + 1]);
+            boolean between = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!between) {
+                indexKeys[i * 2] = indexKeys[j * 2];
+                indexKeys[i * 2 + 1] = indexKeys[j * 2 + 1];
+                indexValues[i] = indexValues[j];
+                i = j;
+            }
+        }
+        indexValues[i] = 0;
+        indexSize--;
+    }
+
+    private static boolean isUUID(String key) {
+        return key.length() == 36 && key.charAt(8) == '-' && key.charAt(13) == '-' && key.charAt(18) == '-' && key.charAt(23) == '-';
+    }
+
+    private static long hash(String key, long seed) {
+        long hash = seed;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= Character.toLowerCase(key.charAt(i));
+            hash *= 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+}
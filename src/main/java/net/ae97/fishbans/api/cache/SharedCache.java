@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.cache;
+
+import java.util.concurrent.Future;
+
+/**
+ * A cache shared between several JVMs which sits between the local cache of
+ * {@link net.ae97.fishbans.api.Fishbans} and the Fishbans API. When one
+ * server looks up a player, the result is published here so other servers can
+ * use it instead of asking Fishbans again.
+ * <p>
+ * Keys are lowercase usernames or dashed {@link java.util.UUID}s. Both calls
+ * are asynchronous, and lookups only wait a short time on {@link #get} before
+ * falling back to Fishbans, so implementations may be backed by slow storage.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ *
+ * @see net.ae97.fishbans.api.Fishbans#setSharedCache(SharedCache)
+ */
+public interface SharedCache {
+
+    /**
+     * Retrieves an entry from the cache.
+     *
+     * @param key Key of the entry
+     *
+     * @return Future which completes with the entry, or null if there is none
+     */
+    public Future<SharedCacheEntry> get(String key);
+
+    /**
+     * Stores an entry in the cache, replacing any entry with the same key.
+     *
+     * @param key Key of the entry
+     * @param entry Entry to store
+     *
+     * @return Future which completes once the entry is stored
+     */
+    public Future<?> put(String key, SharedCacheEntry entry);
+
+    /**
+     * Removes an entry from the cache, if there is one.
+     *
+     * @param key Key of the entry
+     *
+     * @return Future which completes once the entry is removed
+     */
+    public Future<?> remove(String key);
+}
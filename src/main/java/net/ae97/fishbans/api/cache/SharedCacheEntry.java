@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.cache;
+
+/**
+ * An entry in a {@link SharedCache}. The payload is an encoded
+ * {@link net.ae97.fishbans.api.FishbansPlayer}, which a cache should store
+ * as-is.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public class SharedCacheEntry {
+
+    private final byte[] payload;
+    private final long storedAt;
+    private final long ttl;
+
+    public SharedCacheEntry(byte[] payload, long storedAt, long ttl) {
+        if (payload == null) {
+            throw new IllegalArgumentException("Payload cannot be null");
+        }
+        this.payload = payload;
+        this.storedAt = storedAt;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Returns the encoded player.
+     *
+     * @return Encoded player
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * Returns when the player was retrieved from Fishbans, in milliseconds
+     * since the epoch.
+     *
+     * @return Time the player was retrieved
+     */
+    public long getStoredAt() {
+        return storedAt;
+    }
+
+    /**
+     * Returns how long, in milliseconds, this entry may be used after it was
+     * retrieved.
+     *
+     * @return Time to live of this entry
+     */
+    public long getTimeToLive() {
+        return ttl;
+    }
+
+    /**
+     * Checks whether this entry is too old to be used.
+     *
+     * @param now Current time in milliseconds since the epoch
+     *
+     * @return True if the entry has expired, false otherwise
+     */
+    public boolean isExpired(long now) {
+        return storedAt + ttl <= now;
+    }
+}
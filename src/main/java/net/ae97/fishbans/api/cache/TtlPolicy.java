@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.cache;
+
+import java.util.concurrent.TimeUnit;
+import net.ae97.fishbans.api.BanServices;
+import net.ae97.fishbans.api.FishbansPlayer;
+
+/**
+ * Decides how long each cached player stays fresh. Players whose bans have
+ * not changed for a long time are unlikely to change soon, so the time to live
+ * grows with how long a player's bans have been stable, a fraction of that
+ * time given by the stability factor. Players with no bans, counting only
+ * services which are not legacy, are cached for longer still, and the bans of
+ * legacy services never change so they are cached for the maximum time. A
+ * player whose bans just changed gets the minimum time.
+ * <p>
+ * A player seen for the first time is assumed to have been stable for long
+ * enough to earn the base time to live. Every time to live is kept within the
+ * minimum and maximum.
+ * <p>
+ * {@link net.ae97.fishbans.api.Fishbans} caches every player for five minutes
+ * until a policy with a range is set with
+ * {@link net.ae97.fishbans.api.Fishbans#setTtlPolicy(TtlPolicy)}.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public class TtlPolicy {
+
+    private final long min;
+    private final long max;
+    private volatile long base = TimeUnit.MINUTES.toMillis(5);
+    private volatile double stabilityFactor = 0.1;
+    private volatile double cleanFactor = 2;
+
+    /**
+     * Creates a policy with a base time to live of five minutes.
+     *
+     * @param min Shortest time to live
+     * @param max Longest time to live
+     * @param unit Unit of the times
+     */
+    public TtlPolicy(long min, long max, TimeUnit unit) {
+        if (min <= 0 || max < min) {
+            throw new IllegalArgumentException("Times to live must be positive with min <= max");
+        }
+        this.min = unit.toMillis(min);
+        this.max = unit.toMillis(max);
+        this.base = Math.max(this.min, Math.min(this.max, base));
+    }
+
+    /**
+     * Creates a policy which gives every entry the same time to live.
+     *
+     * @param ttl Time to live
+     * @param unit Unit of the time
+     *
+     * @return The policy
+     */
+    public static TtlPolicy fixed(long ttl, TimeUnit unit) {
+        return new TtlPolicy(ttl, ttl, unit);
+    }
+
+    /**
+     * Sets the time to live of a player seen for the first time.
+     *
+     * @param ttl Base time to live
+     * @param unit Unit of the time
+     *
+     * @return This policy
+     */
+    public TtlPolicy setBaseTtl(long ttl, TimeUnit unit) {
+        base = Math.max(min, Math.min(max, unit.toMillis(ttl)));
+        return this;
+    }
+
+    /**
+     * Sets the fraction of the time a player's bans have been stable which
+     * is used as the time to live. The default is 0.1.
+     *
+     * @param factor Stability factor
+     *
+     * @return This policy
+     */
+    public TtlPolicy setStabilityFactor(double factor) {
+        if (factor <= 0) {
+            throw new IllegalArgumentException("Stability factor must be positive");
+        }
+        stabilityFactor = factor;
+        return this;
+    }
+
+    /**
+     * Sets how many times longer players with no bans are cached. The default
+     * is 2.
+     *
+     * @param factor Clean factor
+     *
+     * @return This policy
+     */
+    public TtlPolicy setCleanFactor(double factor) {
+        if (factor <= 0) {
+            throw new IllegalArgumentException("Clean factor must be positive");
+        }
+        cleanFactor = factor;
+        return this;
+    }
+
+    public long getMinTtl() {
+        return min;
+    }
+
+    public long getMaxTtl() {
+        return max;
+    }
+
+    /**
+     * Returns how long a player seen for the first time is assumed to have
+     * been stable. This is the stability which earns the base time to live.
+     *
+     * @return Assumed stability, in milliseconds
+     */
+    public long getAssumedStability() {
+        return (long) (base / stabilityFactor);
+    }
+
+    /**
+     * Gets the time to live of a player.
+     *
+     * @param player The player
+     * @param stableFor How long the player's bans have not changed, in
+     * milliseconds
+     *
+     * @return Time to live, in milliseconds
+     */
+    public long getTtl(FishbansPlayer player, long stableFor) {
+        boolean clean = true;
+        for (BanServices service : BanServices.getBanServices()) {
+            if (!service.isLegacy() && player.getBanCount(service) > 0) {
+                clean = false;
+                break;
+            }
+        }
+        double ttl = stableFor * stabilityFactor;
+        if (clean) {
+            ttl *= cleanFactor;
+        }
+        return clamp(ttl);
+    }
+
+    /**
+     * Gets the time to live of ban counts or bans fetched without the rest of
+     * the player, where nothing is known about how stable they are.
+     *
+     * @param service Service the bans are from, or null if they are from
+     * every service
+     * @param bans Number of bans
+     *
+     * @return Time to live, in milliseconds
+     */
+    public long getTtl(BanServices service, int bans) {
+        if (service != null && service.isLegacy()) {
+            return max;
+        }
+        return clamp(bans == 0 ? base * cleanFactor : base);
+    }
+
+    private long clamp(double ttl) {
+        return Math.max(min, Math.min(max, (long) ttl));
+    }
+}
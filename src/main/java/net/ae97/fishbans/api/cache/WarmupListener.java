@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.cache;
+
+/**
+ * Listener notified of the progress of a {@link CacheWarmer}.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public interface WarmupListener {
+
+    /**
+     * Called after each player has been prefetched. This is called from the
+     * prefetching threads, so it may be called concurrently.
+     *
+     * @param completed Number of players prefetched so far
+     * @param failed Number of those players whose lookup failed
+     * @param total Number of players to prefetch
+     */
+    public void onProgress(int completed, int failed, int total);
+
+    /**
+     * Called once when the warmer finishes, either because every player was
+     * prefetched or because it was stopped early.
+     *
+     * @param completed Number of players prefetched
+     * @param failed Number of those players whose lookup failed
+     * @param total Number of players which were queued
+     */
+    public void onComplete(int completed, int failed, int total);
+}
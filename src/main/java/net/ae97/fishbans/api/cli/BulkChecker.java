@@ -0,0 +1,462 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.cli;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import net.ae97.fishbans.api.Fishbans;
+import net.ae97.fishbans.api.FishbansPlayer;
+import net.ae97.fishbans.api.cache.FileSharedCache;
+import net.ae97.fishbans.api.cache.OffHeapCache;
+import net.ae97.fishbans.api.exceptions.NoSuchUUIDException;
+import net.ae97.fishbans.api.exceptions.NoSuchUserException;
+import net.ae97.fishbans.api.util.LookupExecutors;
+import net.ae97.fishbans.api.util.PlayerKeys;
+
+/**
+ * Checks a list of players from the command line. This is the main class of
+ * the jar:
+ *
+ * <pre>
+ * java -jar FishbansAPI.jar -i whitelist.txt -o results.csv -c whitelist.ckpt
+ * </pre>
+ *
+ * The input has one username or {@link java.util.UUID} per line and is read
+ * as the lookups go, so it may be of any size. Results are written as they
+ * arrive, in the order the lookups finish, with the input line of each. With
+ * a checkpoint file an interrupted run can be started again with the same
+ * arguments and continues where it stopped, writing each line only once.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public final class BulkChecker {
+
+    private static final String USAGE = "Usage: java -jar FishbansAPI.jar [options]\n"
+            + "  -i, --input <file>       Usernames or UUIDs, one per line (default: stdin)\n"
+            + "  -o, --output <file>      File to write results to (default: stdout)\n"
+            + "  -f, --format <csv|jsonl> Output format (default: csv)\n"
+            + "  -t, --threads <n>        Lookups running at once (default: 4)\n"
+            + "  -r, --rate <n>           Lookups started per second, 0 for no limit (default: 10)\n"
+            + "  -c, --checkpoint <file>  Remember progress in this file and resume from it\n"
+            + "      --cache-dir <dir>    Keep looked up players in this directory across runs\n"
+            + "      --off-heap <MiB>     Cache players off the heap, up to this many MiB\n"
+            + "      --force              Ignore cached players\n"
+            + "  -q, --quiet              Do not print progress\n"
+            + "Exits with 0 when every lookup succeeded, 1 when some failed and 2 on bad arguments.";
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong notFound = new AtomicLong();
+    private final AtomicLong finishedLines = new AtomicLong();
+    private File input;
+    private File output;
+    private File checkpointFile;
+    private File cacheDir;
+    private String format = "csv";
+    private int threads = 4;
+    private double rate = 10;
+    private long offHeap = 0;
+    private boolean force = false;
+    private boolean quiet = false;
+    private volatile boolean stopped = false;
+    private volatile IOException writeError;
+    private ResultWriter writer;
+    private Checkpoint checkpoint;
+
+    private BulkChecker() {
+    }
+
+    public static void main(String[] args) {
+        System.exit(execute(args));
+    }
+
+    /**
+     * Runs a bulk check like {@link #main(String[])}, without exiting.
+     * Interrupting the calling thread stops the run like ending the process
+     * does, so it can be resumed from its checkpoint.
+     *
+     * @param args Command line arguments
+     *
+     * @return The exit status, 0 when every lookup succeeded, 1 when some
+     * failed or the run was stopped and 2 on bad arguments
+     */
+    public static int execute(String... args) {
+        BulkChecker checker = new BulkChecker();
+        int status;
+        try {
+            if (checker.parse(args)) {
+                status = checker.run();
+            } else {
+                System.err.println(USAGE);
+                status = 0;
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            status = 2;
+        } catch (IOException ex) {
+            System.err.println("Bulk check failed: " + ex.getMessage());
+            status = 1;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            status = 1;
+        }
+        return status;
+    }
+
+    private boolean parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-h") || arg.equals("--help")) {
+                return false;
+            } else if (arg.equals("--force")) {
+                force = true;
+            } else if (arg.equals("-q") || arg.equals("--quiet")) {
+                quiet = true;
+            } else if (!arg.startsWith("-")) {
+                throw new IllegalArgumentException("Unexpected argument " + arg);
+            } else if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            } else {
+                String value = args[++i];
+                if (arg.equals("-i") || arg.equals("--input")) {
+                    input = value.equals("-") ? null : new File(value);
+                } else if (arg.equals("-o") || arg.equals("--output")) {
+                    output = value.equals("-") ? null : new File(value);
+                } else if (arg.equals("-f") || arg.equals("--format")) {
+                    format = value;
+                } else if (arg.equals("-t") || arg.equals("--threads")) {
+                    threads = parseNumber(arg, value).intValue();
+                    if (threads <= 0) {
+                        throw new IllegalArgumentException("Threads must be positive");
+                    }
+                } else if (arg.equals("-r") || arg.equals("--rate")) {
+                    rate = parseNumber(arg, value).doubleValue();
+                } else if (arg.equals("-c") || arg.equals("--checkpoint")) {
+                    checkpointFile = new File(value);
+                } else if (arg.equals("--cache-dir")) {
+                    cacheDir = new File(value);
+                } else if (arg.equals("--off-heap")) {
+                    offHeap = parseNumber(arg, value).longValue() * 1024 * 1024;
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+        }
+        if (rate < 0) {
+            throw new IllegalArgumentException("Rate must not be negative");
+        }
+        if (input != null && !input.isFile()) {
+            throw new IllegalArgumentException("Input " + input + " does not exist");
+        }
+        return true;
+    }
+
+    private static Double parseNumber(String option, String value) {
+        try {
+            return Double.valueOf(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Value for " + option + " is not a number: " + value);
+        }
+    }
+
+    private int run() throws IOException, InterruptedException {
+        checkpoint = new Checkpoint(checkpointFile);
+        final long resumeAfter = checkpoint.getLine();
+        final long total = input == null ? -1 : countLines(input);
+        boolean append = checkpoint.isResumed() && output != null && output.length() > 0;
+        if (append && checkpoint.getOutputLength() >= 0 && output.length() > checkpoint.getOutputLength()) {
+            truncate(output, checkpoint.getOutputLength());
+            append = checkpoint.getOutputLength() > 0;
+        }
+        writer = ResultWriter.create(format, new BufferedWriter(new OutputStreamWriter(output == null ? System.out : new FileOutputStream(output, append), "UTF-8")));
+        if (!append) {
+            writer.writeHeader();
+        }
+        if (resumeAfter > 0 && !quiet) {
+            System.err.println("Resuming after line " + resumeAfter);
+        }
+        FileSharedCache sharedCache = null;
+        if (cacheDir != null) {
+            sharedCache = new FileSharedCache(cacheDir);
+            Fishbans.setSharedCache(sharedCache);
+        }
+        if (offHeap > 0) {
+            Fishbans.setOffHeapCache(new OffHeapCache(offHeap));
+        }
+
+        final long started = System.nanoTime();
+        ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor(LookupExecutors.newThreadFactory("BulkProgress"));
+        monitor.scheduleWithFixedDelay(new Runnable() {
+            private int ticks = 0;
+
+            @Override
+            public void run() {
+                saveProgress();
+                if (!quiet && ++ticks % 5 == 0) {
+                    printProgress(System.err, started, resumeAfter, total);
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+        Thread hook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                stopped = true;
+                saveProgress();
+            }
+        }, "FishbansAPI-BulkShutdown");
+        Runtime.getRuntime().addShutdownHook(hook);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, LookupExecutors.newThreadFactory("Bulk"));
+        Semaphore slots = new Semaphore(threads);
+        long spacing = rate == 0 ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        BufferedReader reader = new BufferedReader(open(input));
+        InterruptedException interrupted = null;
+        try {
+            dispatch(reader, executor, slots, spacing);
+            slots.acquire(threads);
+        } catch (InterruptedException ex) {
+            stopped = true;
+            interrupted = ex;
+        } finally {
+            executor.shutdown();
+            awaitUninterruptibly(executor);
+            monitor.shutdownNow();
+            reader.close();
+            saveProgress();
+            if (output == null) {
+                writer.flush();
+            } else {
+                writer.close();
+            }
+            if (sharedCache != null) {
+                sharedCache.close();
+            }
+            Runtime.getRuntime().removeShutdownHook(hook);
+        }
+        if (writeError != null) {
+            throw writeError;
+        }
+        if (interrupted != null) {
+            throw interrupted;
+        }
+        if (!quiet) {
+            printProgress(System.err, started, resumeAfter, total);
+        }
+        return failed.get() == 0 ? 0 : 1;
+    }
+
+    private void dispatch(BufferedReader reader, ExecutorService executor, final Semaphore slots, long spacing) throws IOException, InterruptedException {
+        long next = System.nanoTime();
+        long lineNumber = 0;
+        String line;
+        while (!stopped && (line = reader.readLine()) != null) {
+            final long current = ++lineNumber;
+            if (checkpoint.isDone(current)) {
+                continue;
+            }
+            final String key = line.trim();
+            if (key.isEmpty() || key.startsWith("#")) {
+                checkpoint.complete(current);
+                finishedLines.incrementAndGet();
+                continue;
+            }
+            long now = System.nanoTime();
+            if (next - now > 0) {
+                TimeUnit.NANOSECONDS.sleep(next - now);
+            }
+            next = Math.max(now, next) + spacing;
+            slots.acquire();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        check(current, key);
+                    } finally {
+                        slots.release();
+                    }
+                }
+            });
+        }
+    }
+
+    private void check(long line, String key) {
+        FishbansPlayer player = null;
+        String status = ResultWriter.OK;
+        String error = null;
+        try {
+            player = PlayerKeys.lookup(key, force);
+        } catch (NoSuchUserException ex) {
+            status = ResultWriter.NOT_FOUND;
+        } catch (NoSuchUUIDException ex) {
+            status = ResultWriter.NOT_FOUND;
+        } catch (IOException ex) {
+            status = ResultWriter.ERROR;
+            error = String.valueOf(ex.getMessage());
+        } catch (RuntimeException ex) {
+            status = ResultWriter.ERROR;
+            error = ex.toString();
+        }
+        try {
+            synchronized (writer) {
+                writer.write(line, key, status, player, error);
+                checkpoint.complete(line);
+            }
+        } catch (IOException ex) {
+            writeError = ex;
+            stopped = true;
+            return;
+        }
+        if (status.equals(ResultWriter.ERROR)) {
+            failed.incrementAndGet();
+        } else if (status.equals(ResultWriter.NOT_FOUND)) {
+            notFound.incrementAndGet();
+        }
+        completed.incrementAndGet();
+        finishedLines.incrementAndGet();
+    }
+
+    private void saveProgress() {
+        if (writer == null || writeError != null) {
+            return;
+        }
+        try {
+            // Rows are written and completed under the writer lock, so the
+            // checkpoint saved here matches the output up to this length
+            synchronized (writer) {
+                writer.flush();
+                checkpoint.save(output == null ? -1 : output.length());
+            }
+        } catch (IOException ex) {
+            System.err.println("Could not save progress: " + ex.getMessage());
+        }
+    }
+
+    private void printProgress(PrintStream out, long started, long resumeAfter, long total) {
+        double seconds = Math.max(1, System.nanoTime() - started) / 1e9;
+        long done = completed.get();
+        double perSecond = done / seconds;
+        StringBuilder line = new StringBuilder();
+        line.append(done).append(" checked (").append(notFound.get()).append(" not found, ").append(failed.get()).append(" failed), ");
+        line.append(String.format(Locale.ROOT, "%.1f/s", perSecond));
+        if (total >= 0) {
+            long finished = Math.min(total, resumeAfter + finishedLines.get());
+            long remaining = total - finished;
+            line.append(", ").append(finished).append('/').append(total).append(" lines");
+            if (perSecond > 0 && remaining > 0) {
+                line.append(", ETA ").append(formatDuration((long) (remaining / perSecond)));
+            }
+        }
+        out.println(line);
+    }
+
+    private static String formatDuration(long seconds) {
+        return String.format(Locale.ROOT, "%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    private static void awaitUninterruptibly(ExecutorService executor) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Cuts off rows written after the checkpoint was saved, which the resumed
+     * run writes again.
+     */
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(length);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Reader open(File file) throws IOException {
+        InputStream in = file == null ? System.in : new FileInputStream(file);
+        return new InputStreamReader(in, "UTF-8");
+    }
+
+    private static long countLines(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[65536];
+            long lines = 0;
+            int read;
+            byte last = '\n';
+            while ((read = in.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        lines++;
+                    }
+                }
+                if (read > 0) {
+                    last = buffer[read - 1];
+                }
+            }
+            return last == '\n' ? lines : lines + 1;
+        } finally {
+            in.close();
+        }
+    }
+
+    static String readFully(File file) throws IOException {
+        Reader reader = open(file);
+        try {
+            StringBuilder content = new StringBuilder();
+            char[] buffer = new char[256];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                content.append(buffer, 0, read);
+            }
+            return content.toString();
+        } finally {
+            reader.close();
+        }
+    }
+}
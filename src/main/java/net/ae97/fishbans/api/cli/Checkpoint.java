@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.cli;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Remembers how far through the input a {@link BulkChecker} run has got.
+ * Lookups finish out of order, so the checkpoint is the highest line for
+ * which that line and every line before it is done, plus the lines after it
+ * which are done too. It also remembers how long the output was when it was
+ * saved, so rows written after that can be cut off when resuming; together
+ * this makes a resumed run write every row exactly once.
+ * <p>
+ * The file holds the line on its first line, followed by
+ * <code>output &lt;bytes&gt;</code> and <code>done &lt;line&gt; ...</code>
+ * lines. A file with only the line, from an older version, is still read.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+final class Checkpoint {
+
+    private final File file;
+    private final Set<Long> finished = new HashSet<Long>();
+    private final boolean resumed;
+    private long line;
+    private long outputLength = -1;
+
+    Checkpoint(File file) throws IOException {
+        this.file = file;
+        this.resumed = file != null && file.isFile();
+        if (resumed) {
+            String[] lines = BulkChecker.readFully(file).trim().split("\n");
+            try {
+                line = lines[0].trim().isEmpty() ? 0 : Long.parseLong(lines[0].trim());
+                for (int i = 1; i < lines.length; i++) {
+                    String[] parts = lines[i].trim().split(" ");
+                    if (parts[0].equals("output")) {
+                        outputLength = Long.parseLong(parts[1]);
+                    } else if (parts[0].equals("done")) {
+                        for (int j = 1; j < parts.length; j++) {
+                            finished.add(Long.valueOf(parts[j]));
+                        }
+                    }
+                }
+            } catch (RuntimeException ex) {
+                throw new IOException("Checkpoint " + file + " is corrupt: " + lines[0]);
+            }
+        }
+    }
+
+    /**
+     * Returns whether an earlier run left this checkpoint.
+     */
+    boolean isResumed() {
+        return resumed;
+    }
+
+    synchronized long getLine() {
+        return line;
+    }
+
+    /**
+     * Returns how long the output was when the checkpoint was saved, or -1 if
+     * that is not known.
+     */
+    long getOutputLength() {
+        return outputLength;
+    }
+
+    /**
+     * Returns whether a line was finished, either by this run or by the run
+     * which saved the checkpoint.
+     */
+    synchronized boolean isDone(long number) {
+        return number <= line || finished.contains(number);
+    }
+
+    synchronized void complete(long completed) {
+        if (completed != line + 1) {
+            finished.add(completed);
+            return;
+        }
+        line = completed;
+        while (!finished.isEmpty() && finished.remove(line + 1)) {
+            line++;
+        }
+    }
+
+    /**
+     * Saves the lines finished so far. Every finished line must already be in
+     * the output, which must be the given length.
+     *
+     * @param length Length of the output, or -1 if it is not a file
+     */
+    void save(long length) throws IOException {
+        if (file == null) {
+            return;
+        }
+        long mark;
+        List<Long> done;
+        synchronized (this) {
+            mark = line;
+            done = new ArrayList<Long>(finished);
+        }
+        Collections.sort(done);
+        StringBuilder content = new StringBuilder(32 + done.size() * 8);
+        content.append(mark).append('\n');
+        if (length >= 0) {
+            content.append("output ").append(length).append('\n');
+        }
+        if (!done.isEmpty()) {
+            content.append("done");
+            for (Long number : done) {
+                content.append(' ').append(number);
+            }
+            content.append('\n');
+        }
+        synchronized (file) {
+            File temp = new File(file.getPath() + ".tmp");
+            OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+            try {
+                writer.write(content.toString());
+            } finally {
+                writer.close();
+            }
+            if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+                throw new IOException("Could not replace checkpoint " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.cli;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import net.ae97.fishbans.api.BanServices;
+import net.ae97.fishbans.api.FishbansPlayer;
+
+/**
+ * Writes the result of each lookup of a {@link BulkChecker} run as one line,
+ * in the order the lookups finish.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+abstract class ResultWriter {
+
+    static final String OK = "ok";
+    static final String NOT_FOUND = "not_found";
+    static final String ERROR = "error";
+    protected final Writer out;
+    protected final List<BanServices> services;
+
+    protected ResultWriter(Writer out) {
+        this.out = out;
+        this.services = new ArrayList<BanServices>(BanServices.getBanServices());
+        Collections.sort(services, new Comparator<BanServices>() {
+            @Override
+            public int compare(BanServices a, BanServices b) {
+                return a.getOrdinal() - b.getOrdinal();
+            }
+        });
+    }
+
+    static ResultWriter create(String format, Writer out) {
+        if (format.equalsIgnoreCase("csv")) {
+            return new Csv(out);
+        }
+        if (format.equalsIgnoreCase("jsonl")) {
+            return new JsonLines(out);
+        }
+        throw new IllegalArgumentException("Unknown format " + format + ", expected csv or jsonl");
+    }
+
+    /**
+     * Writes whatever comes before the first result. Only called when the
+     * output is new, not when appending to the output of an earlier run.
+     *
+     * @throws IOException Thrown if the output cannot be written
+     */
+    void writeHeader() throws IOException {
+    }
+
+    /**
+     * Writes one result.
+     *
+     * @param line Line of the input the key was on
+     * @param key Key which was looked up
+     * @param status {@link #OK}, {@link #NOT_FOUND} or {@link #ERROR}
+     * @param player Player found, or null if none was
+     * @param error Reason the lookup failed, or null if it did not
+     *
+     * @throws IOException Thrown if the output cannot be written
+     */
+    abstract void write(long line, String key, String status, FishbansPlayer player, String error) throws IOException;
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    void close() throws IOException {
+        out.close();
+    }
+
+    private static class Csv extends ResultWriter {
+
+        private Csv(Writer out) {
+            super(out);
+        }
+
+        @Override
+        void writeHeader() throws IOException {
+            StringBuilder header = new StringBuilder("line,key,status,name,uuid,bans");
+            for (BanServices service : services) {
+                header.append(',').append(service.getName().toLowerCase());
+            }
+            out.write(header.append(",error\n").toString());
+        }
+
+        @Override
+        void write(long line, String key, String status, FishbansPlayer player, String error) throws IOException {
+            StringBuilder row = new StringBuilder(96);
+            row.append(line).append(',');
+            field(row, key);
+            row.append(',').append(status).append(',');
+            if (player != null) {
+                field(row, player.getName());
+                row.append(',').append(player.getUUID()).append(',').append(player.getBanCount());
+                for (BanServices service : services) {
+                    row.append(',').append(player.getBanCount(service));
+                }
+            } else {
+                row.append(",,");
+                for (int i = 0; i < services.size(); i++) {
+                    row.append(',');
+                }
+            }
+            row.append(',');
+            field(row, error);
+            out.write(row.append('\n').toString());
+        }
+
+        private static void field(StringBuilder row, String value) {
+            if (value == null) {
+                return;
+            }
+            if (value.indexOf(',') == -1 && value.indexOf('"') == -1 && value.indexOf('\n') == -1 && value.indexOf('\r') == -1) {
+                row.append(value);
+            } else {
+                row.append('"').append(value.replace("\"", "\"\"")).append('"');
+            }
+        }
+    }
+
+    private static class JsonLines extends ResultWriter {
+
+        private JsonLines(Writer out) {
+            super(out);
+        }
+
+        @Override
+        void write(long line, String key, String status, FishbansPlayer player, String error) throws IOException {
+            StringBuilder json = new StringBuilder(128);
+            json.append("{\"line\":").append(line).append(",\"key\":");
+            quote(json, key);
+            json.append(",\"status\":\"").append(status).append('"');
+            if (player != null) {
+                json.append(",\"name\":");
+                quote(json, player.getName());
+                json.append(",\"uuid\":\"").append(player.getUUID()).append('"');
+                json.append(",\"bans\":").append(player.getBanCount()).append(",\"services\":{");
+                boolean first = true;
+                for (BanServices service : services) {
+                    int count = player.getBanCount(service);
+                    if (count > 0) {
+                        json.append(first ? "\"" : ",\"").append(service.getName().toLowerCase()).append("\":").append(count);
+                        first = false;
+                    }
+                }
+                json.append('}');
+            }
+            if (error != null) {
+                json.append(",\"error\":");
+                quote(json, error);
+            }
+            out.write(json.append("}\n").toString());
+        }
+
+        private static void quote(StringBuilder json, String value) {
+            if (value == null) {
+                json.append("null");
+                return;
+            }
+            json.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < 0x20) {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+            json.append('"');
+        }
+    }
+}
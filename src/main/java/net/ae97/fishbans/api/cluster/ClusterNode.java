@@ -0,0 +1,550 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import net.ae97.fishbans.api.Fishbans;
+import net.ae97.fishbans.api.FishbansPlayer;
+import net.ae97.fishbans.api.FishbansPlayerCodec;
+import net.ae97.fishbans.api.exceptions.NoSuchUserException;
+import net.ae97.fishbans.api.util.DaemonThreadFactory;
+import net.ae97.fishbans.api.util.LookupExecutors;
+
+/**
+ * One node of a cluster which splits lookups between servers, so each player
+ * is only ever fetched from Fishbans by one of them. Every node is given the
+ * same static list of members, and each username belongs to one member by
+ * consistent hashing. When {@link Fishbans} misses a player another member
+ * owns, it asks that member over a small socket protocol instead of
+ * Fishbans, and caches the answer as if it had fetched it itself.
+ * <p>
+ * A member which cannot be reached is skipped for a while (see
+ * {@link #setRetryDelay(long, TimeUnit)}), and its players are looked up by
+ * the next member on the ring, or locally. Changing the members with
+ * {@link #setPeers(java.util.Collection)} moves only the players next to the
+ * added or removed member. Players looked up by {@link java.util.UUID} are
+ * routed by name once Mojang has given the name.
+ *
+ * <pre>
+ * ClusterNode node = new ClusterNode(new InetSocketAddress("10.0.0.1", 8096), peers);
+ * node.start();
+ * Fishbans.setCluster(node);
+ * </pre>
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public class ClusterNode {
+
+    private static final int OP_LOOKUP = 1;
+    private static final int OP_FORCE = 2;
+    private static final int FOUND = 0;
+    private static final int NO_SUCH_USER = 1;
+    private static final int NOT_FOUND = 2;
+    private static final int ERROR = 3;
+    private static final ThreadLocal<Boolean> servingPeer = new ThreadLocal<Boolean>();
+    private final InetSocketAddress bindAddress;
+    private final Set<InetSocketAddress> peers = new LinkedHashSet<InetSocketAddress>();
+    private final Map<InetSocketAddress, Long> down = new ConcurrentHashMap<InetSocketAddress, Long>();
+    private final ConcurrentHashMap<InetSocketAddress, ConcurrentLinkedQueue<Connection>> idle = new ConcurrentHashMap<InetSocketAddress, ConcurrentLinkedQueue<Connection>>();
+    private final Set<Socket> accepted = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    private final AtomicLong forwarded = new AtomicLong();
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong failovers = new AtomicLong();
+    private volatile HashRing ring;
+    private volatile InetSocketAddress self;
+    private volatile int timeout = 10000;
+    private volatile long retryDelay = 5000;
+    private int virtualNodes = 128;
+    private ServerSocket server;
+    private ExecutorService executor;
+
+    /**
+     * Creates a node. The address should be the one the other members list
+     * for this node.
+     *
+     * @param address Address to listen on, port 0 for any free port
+     * @param peers The other members of the cluster
+     */
+    public ClusterNode(InetSocketAddress address, Collection<InetSocketAddress> peers) {
+        this.bindAddress = address;
+        this.self = address;
+        this.peers.addAll(peers);
+        this.peers.remove(address);
+        rebuild();
+    }
+
+    /**
+     * Sets how many points each member has on the hash ring. More points
+     * spread players more evenly. Defaults to 128, and must be the same on
+     * every member.
+     *
+     * @param virtualNodes Points per member
+     *
+     * @since 1.1
+     */
+    public synchronized void setVirtualNodes(int virtualNodes) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Virtual nodes must be positive");
+        }
+        this.virtualNodes = virtualNodes;
+        rebuild();
+    }
+
+    /**
+     * Sets how long to wait on another member before looking a player up
+     * locally. Should be longer than a lookup from Fishbans takes. Defaults
+     * to 10 seconds.
+     *
+     * @param timeout Time to wait
+     * @param unit Unit of the time
+     *
+     * @since 1.1
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        this.timeout = (int) Math.min(Integer.MAX_VALUE, Math.max(1, unit.toMillis(timeout)));
+    }
+
+    /**
+     * Sets how long a member which could not be reached is skipped for.
+     * Defaults to 5 seconds.
+     *
+     * @param delay Time to skip the member for
+     * @param unit Unit of the time
+     *
+     * @since 1.1
+     */
+    public void setRetryDelay(long delay, TimeUnit unit) {
+        this.retryDelay = unit.toMillis(delay);
+    }
+
+    /**
+     * Starts listening for requests from other members. Calling this on a
+     * running node does nothing.
+     *
+     * @throws IOException Thrown if the address cannot be bound
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        final ServerSocket socket = new ServerSocket();
+        socket.setReuseAddress(true);
+        socket.bind(bindAddress);
+        server = socket;
+        self = new InetSocketAddress(bindAddress.getAddress(), socket.getLocalPort());
+        rebuild();
+        executor = Executors.newCachedThreadPool(LookupExecutors.newThreadFactory("Cluster"));
+        new DaemonThreadFactory("Cluster-Accept").newThread(new Runnable() {
+            @Override
+            public void run() {
+                accept(socket);
+            }
+        }).start();
+    }
+
+    /**
+     * Stops listening and closes every connection. The node can be started
+     * again.
+     */
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        close(server);
+        server = null;
+        for (Socket socket : accepted) {
+            close(socket);
+        }
+        accepted.clear();
+        for (ConcurrentLinkedQueue<Connection> queue : idle.values()) {
+            Connection connection;
+            while ((connection = queue.poll()) != null) {
+                connection.close();
+            }
+        }
+        executor.shutdownNow();
+        executor = null;
+    }
+
+    /**
+     * Returns the address of this node. Once started, this has the port
+     * actually listened on.
+     *
+     * @return The address
+     */
+    public InetSocketAddress getAddress() {
+        return self;
+    }
+
+    /**
+     * Replaces the other members of the cluster. Only players owned by added
+     * or removed members change owner. Players already cached stay cached
+     * until they expire.
+     *
+     * @param members The other members
+     *
+     * @since 1.1
+     */
+    public synchronized void setPeers(Collection<InetSocketAddress> members) {
+        Set<InetSocketAddress> removed = new LinkedHashSet<InetSocketAddress>(peers);
+        peers.clear();
+        peers.addAll(members);
+        peers.remove(self);
+        removed.removeAll(peers);
+        for (InetSocketAddress peer : removed) {
+            down.remove(peer);
+            ConcurrentLinkedQueue<Connection> queue = idle.remove(peer);
+            Connection connection;
+            while (queue != null && (connection = queue.poll()) != null) {
+                connection.close();
+            }
+        }
+        rebuild();
+    }
+
+    public synchronized void addPeer(InetSocketAddress peer) {
+        List<InetSocketAddress> members = new ArrayList<InetSocketAddress>(peers);
+        members.add(peer);
+        setPeers(members);
+    }
+
+    public synchronized void removePeer(InetSocketAddress peer) {
+        List<InetSocketAddress> members = new ArrayList<InetSocketAddress>(peers);
+        members.remove(peer);
+        setPeers(members);
+    }
+
+    public synchronized Set<InetSocketAddress> getPeers() {
+        return Collections.unmodifiableSet(new LinkedHashSet<InetSocketAddress>(peers));
+    }
+
+    /**
+     * Returns the member which looks a player up, skipping members which
+     * recently could not be reached.
+     *
+     * @param name Username of the player
+     *
+     * @return The owning member, which may be this node
+     */
+    public InetSocketAddress getOwner(String name) {
+        InetSocketAddress owner = ring.owner(name.toLowerCase(), down, System.currentTimeMillis());
+        return owner == null ? self : owner;
+    }
+
+    public boolean isOwner(String name) {
+        return getOwner(name).equals(self);
+    }
+
+    /**
+     * Asks the member which owns a player for it. Called by {@link Fishbans}
+     * before it looks a player up itself.
+     *
+     * @param name Username of the player
+     * @param force True if the owner should ignore cached data
+     *
+     * @return The player, or null if this node should look the player up
+     * itself, because it owns the player, the owner could not be reached, or
+     * this is a request from another member
+     *
+     * @throws IOException Thrown if the owner failed to retrieve the data from
+     * Fishbans
+     * @throws NoSuchUserException Thrown if no user with that name exists on
+     * Fishbans
+     */
+    public FishbansPlayer fetch(String name, boolean force) throws IOException, NoSuchUserException {
+        if (servingPeer.get() != null) {
+            return null;
+        }
+        InetSocketAddress owner = getOwner(name);
+        if (owner.equals(self)) {
+            return null;
+        }
+        forwarded.incrementAndGet();
+        int op = force ? OP_FORCE : OP_LOOKUP;
+        Connection connection = null;
+        byte[] payload;
+        try {
+            connection = borrow(owner);
+            try {
+                payload = connection.request(op, name);
+            } catch (IOException ex) {
+                if (!connection.reused || ex instanceof SocketTimeoutException) {
+                    throw ex;
+                }
+                connection.close();
+                connection = new Connection(owner, timeout);
+                payload = connection.request(op, name);
+            }
+        } catch (IOException ex) {
+            if (connection != null) {
+                connection.close();
+            }
+            down.put(owner, System.currentTimeMillis() + retryDelay);
+            failovers.incrementAndGet();
+            return null;
+        }
+        int status = connection.status;
+        release(owner, connection);
+        switch (status) {
+            case FOUND:
+                return FishbansPlayerCodec.decode(payload);
+            case NO_SUCH_USER:
+                throw new NoSuchUserException(name);
+            case NOT_FOUND:
+                return null;
+            default:
+                throw new IOException("Cluster member " + HashRing.id(owner) + " failed to look up " + name + ": " + new String(payload, "UTF-8"));
+        }
+    }
+
+    /**
+     * Looks up a player for another member. Overridden in tests to run
+     * several nodes against one {@link Fishbans} cache.
+     *
+     * @param name Username of the player
+     * @param force True to ignore cached data
+     *
+     * @return The player
+     *
+     * @throws IOException Thrown if the data cannot be retrieved from Fishbans
+     * @throws NoSuchUserException Thrown if no user with that name exists on
+     * Fishbans
+     */
+    protected FishbansPlayer lookup(String name, boolean force) throws IOException, NoSuchUserException {
+        return Fishbans.getFishbanPlayer(name, force);
+    }
+
+    /**
+     * Returns the number of lookups sent to other members.
+     *
+     * @return Number of lookups
+     */
+    public long getForwarded() {
+        return forwarded.get();
+    }
+
+    /**
+     * Returns the number of lookups answered for other members.
+     *
+     * @return Number of lookups
+     */
+    public long getServed() {
+        return served.get();
+    }
+
+    /**
+     * Returns the number of lookups done locally because their owner could
+     * not be reached.
+     *
+     * @return Number of lookups
+     */
+    public long getFailovers() {
+        return failovers.get();
+    }
+
+    private synchronized void rebuild() {
+        List<InetSocketAddress> members = new ArrayList<InetSocketAddress>(peers.size() + 1);
+        members.add(self);
+        members.addAll(peers);
+        ring = new HashRing(members, virtualNodes);
+    }
+
+    private Connection borrow(InetSocketAddress owner) throws IOException {
+        ConcurrentLinkedQueue<Connection> queue = idle.get(owner);
+        Connection connection = queue == null ? null : queue.poll();
+        if (connection != null) {
+            connection.reused = true;
+            return connection;
+        }
+        return new Connection(owner, timeout);
+    }
+
+    private void release(InetSocketAddress owner, Connection connection) {
+        ConcurrentLinkedQueue<Connection> queue = idle.get(owner);
+        if (queue == null) {
+            ConcurrentLinkedQueue<Connection> created = new ConcurrentLinkedQueue<Connection>();
+            queue = idle.putIfAbsent(owner, created);
+            if (queue == null) {
+                queue = created;
+            }
+        }
+        queue.offer(connection);
+    }
+
+    private void accept(ServerSocket socket) {
+        while (!socket.isClosed()) {
+            final Socket client;
+            try {
+                client = socket.accept();
+            } catch (IOException ex) {
+                continue;
+            }
+            ExecutorService current = executor;
+            if (current == null) {
+                close(client);
+                return;
+            }
+            accepted.add(client);
+            current.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(client);
+                    } finally {
+                        accepted.remove(client);
+                        close(client);
+                    }
+                }
+            });
+        }
+    }
+
+    private void serve(Socket client) {
+        try {
+            client.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+            while (true) {
+                int op;
+                try {
+                    op = in.readUnsignedByte();
+                } catch (EOFException ex) {
+                    return;
+                }
+                String name = in.readUTF();
+                served.incrementAndGet();
+                int status;
+                byte[] payload;
+                servingPeer.set(Boolean.TRUE);
+                try {
+                    FishbansPlayer player = lookup(name, op == OP_FORCE);
+                    if (player == null) {
+                        status = NOT_FOUND;
+                        payload = new byte[0];
+                    } else if (player.isStale()) {
+                        status = ERROR;
+                        payload = "Fishbans is unavailable".getBytes("UTF-8");
+                    } else {
+                        status = FOUND;
+                        payload = FishbansPlayerCodec.encode(player, System.currentTimeMillis());
+                    }
+                } catch (NoSuchUserException ex) {
+                    status = NO_SUCH_USER;
+                    payload = new byte[0];
+                } catch (IOException ex) {
+                    status = ERROR;
+                    payload = String.valueOf(ex.getMessage()).getBytes("UTF-8");
+                } catch (RuntimeException ex) {
+                    status = ERROR;
+                    payload = ex.toString().getBytes("UTF-8");
+                } finally {
+                    servingPeer.remove();
+                }
+                out.writeByte(status);
+                out.writeInt(payload.length);
+                out.write(payload);
+                out.flush();
+            }
+        } catch (IOException ex) {
+        }
+    }
+
+    private static void close(ServerSocket socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+        }
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+        }
+    }
+
+    /**
+     * A connection to another member, reused for further lookups once its
+     * reply has been read.
+     */
+    private static class Connection {
+
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private boolean reused;
+        private int status;
+
+        private Connection(InetSocketAddress address, int timeout) throws IOException {
+            socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(timeout);
+                socket.connect(address, timeout);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            } catch (IOException ex) {
+                ClusterNode.close(socket);
+                throw ex;
+            }
+        }
+
+        /**
+         * Sends a lookup and reads the reply. A connection the other member
+         * closed while it was idle fails here, and is replaced by the caller.
+         */
+        private byte[] request(int op, String name) throws IOException {
+            out.writeByte(op);
+            out.writeUTF(name);
+            out.flush();
+            status = in.readUnsignedByte();
+            byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+            return payload;
+        }
+
+        private void close() {
+            ClusterNode.close(socket);
+        }
+    }
+}
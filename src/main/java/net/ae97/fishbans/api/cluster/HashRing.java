@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.cluster;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * A consistent hash ring. Every member is placed on the ring at many points,
+ * its virtual nodes, and a key belongs to the first member found walking
+ * clockwise from the hash of the key. Adding or removing a member only moves
+ * the keys next to its points, and the virtual nodes spread those evenly over
+ * the other members.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+final class HashRing {
+
+    private final long[] points;
+    private final InetSocketAddress[] owners;
+    private final int members;
+
+    HashRing(Collection<InetSocketAddress> members, int virtualNodes) {
+        this.members = members.size();
+        int size = members.size() * virtualNodes;
+        long[] unsorted = new long[size];
+        InetSocketAddress[] unsortedOwners = new InetSocketAddress[size];
+        int index = 0;
+        for (InetSocketAddress member : members) {
+            String id = id(member);
+            for (int i = 0; i < virtualNodes; i++) {
+                unsorted[index] = hash(id + "#" + i);
+                unsortedOwners[index] = member;
+                index++;
+            }
+        }
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        final long[] keys = unsorted;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return keys[a] < keys[b] ? -1 : keys[a] > keys[b] ? 1 : 0;
+            }
+        });
+        points = new long[size];
+        owners = new InetSocketAddress[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = unsorted[order[i]];
+            owners[i] = unsortedOwners[order[i]];
+        }
+    }
+
+    /**
+     * Finds the member a key belongs to, skipping members which are down.
+     *
+     * @param key Key to look up
+     * @param down Members to skip, mapped to when they may be tried again
+     * @param now Current time
+     *
+     * @return The member, or null if every member is down
+     */
+    InetSocketAddress owner(String key, Map<InetSocketAddress, Long> down, long now) {
+        if (points.length == 0) {
+            return null;
+        }
+        int start = Arrays.binarySearch(points, hash(key));
+        if (start < 0) {
+            start = -start - 1;
+        }
+        for (int i = 0; i < points.length; i++) {
+            InetSocketAddress owner = owners[(start + i) % points.length];
+            Long until = down.isEmpty() ? null : down.get(owner);
+            if (until == null || until <= now) {
+                return owner;
+            }
+        }
+        return null;
+    }
+
+    int getMembers() {
+        return members;
+    }
+
+    /**
+     * Gives a member the same name on every node, whether or not its address
+     * was resolved.
+     */
+    static String id(InetSocketAddress address) {
+        String host = address.getAddress() != null ? address.getAddress().getHostAddress() : address.getHostName();
+        return host + ":" + address.getPort();
+    }
+
+    /**
+     * 64 bit FNV-1a over the characters of a string, with a final mix so that
+     * similar keys land far apart on the ring.
+     */
+    static long hash(String key) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.diagnostics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import net.ae97.fishbans.api.Fishbans;
+import net.ae97.fishbans.api.FishbansStatistics;
+import net.ae97.fishbans.api.util.LookupExecutors;
+import net.ae97.fishbans.api.util.PlayerKeys;
+import net.ae97.fishbans.api.watch.BanWatcher;
+
+/**
+ * A small HTTP endpoint for looking inside {@link Fishbans} while it runs,
+ * built on the HTTP server included with the JDK. By default it only listens
+ * on localhost.
+ * <p>
+ * It serves these paths:
+ * <ul>
+ * <li>GET /stats - a {@link FishbansStatistics} snapshot as JSON</li>
+ * <li>GET /stats.txt - the same snapshot as plain text</li>
+ * <li>POST /invalidate?key=name-or-uuid - invalidates one player, see
+ * {@link Fishbans#invalidate(java.lang.String)}</li>
+ * <li>POST /clear - clears the cache, see {@link Fishbans#clearCache()}</li>
+ * </ul>
+ * The admin actions can be turned off with {@link #setAdminEnabled(boolean)}.
+ * Request budgets of {@link BanWatcher}s added with
+ * {@link #addWatcher(java.lang.String, BanWatcher)} are shown too.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public class DiagnosticsServer {
+
+    private final InetSocketAddress address;
+    private final Map<String, BanWatcher> watchers = new LinkedHashMap<String, BanWatcher>();
+    private volatile boolean adminEnabled = true;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Creates a server listening on localhost.
+     *
+     * @param port Port to listen on, or 0 for any free port
+     */
+    public DiagnosticsServer(int port) {
+        this(new InetSocketAddress("127.0.0.1", port));
+    }
+
+    /**
+     * Creates a server listening on the given address. Anyone who can reach
+     * the address can see the cached keys and, unless admin actions are
+     * disabled, clear the cache.
+     *
+     * @param address Address to listen on
+     */
+    public DiagnosticsServer(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * Includes the request budget of a {@link BanWatcher} in the snapshots.
+     *
+     * @param name Name to show the watcher under
+     * @param watcher The watcher
+     */
+    public void addWatcher(String name, BanWatcher watcher) {
+        synchronized (watchers) {
+            watchers.put(name, watcher);
+        }
+    }
+
+    /**
+     * Sets whether the invalidate and clear actions are available. They are
+     * by default.
+     *
+     * @param enabled True to allow admin actions
+     */
+    public void setAdminEnabled(boolean enabled) {
+        adminEnabled = enabled;
+    }
+
+    /**
+     * Starts listening. Calling this on a running server does nothing.
+     *
+     * @throws IOException Thrown if the address cannot be bound
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        HttpServer created = HttpServer.create(address, 0);
+        executor = Executors.newSingleThreadExecutor(LookupExecutors.newThreadFactory("Diagnostics"));
+        created.setExecutor(executor);
+        created.createContext("/", new Handler());
+        created.start();
+        server = created;
+    }
+
+    /**
+     * Stops listening.
+     */
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+        executor = null;
+    }
+
+    /**
+     * Returns the address the server is listening on, which tells the port
+     * when it was started with port 0.
+     *
+     * @return The address, or null if the server is not running
+     */
+    public synchronized InetSocketAddress getAddress() {
+        return server == null ? null : server.getAddress();
+    }
+
+    String renderJson(FishbansStatistics stats) {
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\"capturedAt\":").append(stats.getCapturedAt());
+        json.append(",\"cache\":{\"players\":").append(stats.getCachedPlayers());
+        json.append(",\"fresh\":").append(stats.getFreshPlayers());
+        json.append(",\"hits\":").append(stats.getCacheHits());
+        json.append(",\"misses\":").append(stats.getCacheMisses());
+        json.append(",\"ageMs\":{\"newest\":").append(stats.getNewestAge());
+        json.append(",\"median\":").append(stats.getMedianAge());
+        json.append(",\"oldest\":").append(stats.getOldestAge()).append('}');
+        json.append(",\"partialKeys\":").append(stats.getPartialKeys());
+        json.append(",\"staleServed\":").append(stats.getStaleServed());
+        json.append(",\"refreshing\":").append(stats.getRefreshing());
+        json.append(",\"notModified\":").append(stats.getNotModified());
+        json.append(",\"batches\":").append(stats.getBatches());
+        json.append(",\"batchedLookups\":").append(stats.getBatchedLookups());
+        if (stats.getOffHeapEntries() >= 0) {
+            json.append(",\"offHeap\":{\"entries\":").append(stats.getOffHeapEntries());
+            json.append(",\"usedBytes\":").append(stats.getOffHeapUsed());
+            json.append(",\"capacityBytes\":").append(stats.getOffHeapCapacity());
+            json.append(",\"evictions\":").append(stats.getOffHeapEvictions()).append('}');
+        }
+        if (stats.getCleanFilterMemory() >= 0) {
+            json.append(",\"cleanFilterBytes\":").append(stats.getCleanFilterMemory());
+        }
+        json.append("},\"hotKeys\":[");
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : stats.getHotKeys().entrySet()) {
+            json.append(first ? "" : ",").append("{\"key\":");
+            quote(json, entry.getKey());
+            json.append(",\"count\":").append(entry.getValue()).append('}');
+            first = false;
+        }
+        json.append("],\"upstreams\":[");
+        first = true;
+        for (FishbansStatistics.Upstream upstream : stats.getUpstreams()) {
+            json.append(first ? "" : ",").append("{\"name\":");
+            quote(json, upstream.getName());
+            json.append(",\"requests\":").append(upstream.getRequests());
+            json.append(",\"errors\":").append(upstream.getErrors());
+            json.append(",\"inFlight\":").append(upstream.getInFlight());
+            json.append(",\"latencyMs\":{\"p50\":").append(millis(upstream.getLatency(50)));
+            json.append(",\"p90\":").append(millis(upstream.getLatency(90)));
+            json.append(",\"p99\":").append(millis(upstream.getLatency(99)));
+            json.append(",\"max\":").append(millis(upstream.getLatency(100))).append("}}");
+            first = false;
+        }
+        json.append("],\"rateLimits\":[");
+        first = true;
+        synchronized (watchers) {
+            for (Map.Entry<String, BanWatcher> entry : watchers.entrySet()) {
+                BanWatcher watcher = entry.getValue();
+                json.append(first ? "" : ",").append("{\"name\":");
+                quote(json, entry.getKey());
+                json.append(",\"requestsPerSecond\":").append(String.format(Locale.ROOT, "%.3f", watcher.getRequestRate()));
+                json.append(",\"watched\":").append(watcher.getWatched().size());
+                json.append(",\"backlog\":").append(watcher.getBacklog()).append('}');
+                first = false;
+            }
+        }
+        return json.append("]}").toString();
+    }
+
+    String renderText(FishbansStatistics stats) {
+        StringBuilder text = new StringBuilder(1024);
+        text.append("cache.players ").append(stats.getCachedPlayers()).append('\n');
+        text.append("cache.fresh ").append(stats.getFreshPlayers()).append('\n');
+        text.append("cache.hits ").append(stats.getCacheHits()).append('\n');
+        text.append("cache.misses ").append(stats.getCacheMisses()).append('\n');
+        text.append("cache.age.newest.ms ").append(stats.getNewestAge()).append('\n');
+        text.append("cache.age.median.ms ").append(stats.getMedianAge()).append('\n');
+        text.append("cache.age.oldest.ms ").append(stats.getOldestAge()).append('\n');
+        text.append("cache.partial.keys ").append(stats.getPartialKeys()).append('\n');
+        text.append("cache.stale.served ").append(stats.getStaleServed()).append('\n');
+        text.append("cache.refreshing ").append(stats.getRefreshing()).append('\n');
+        text.append("cache.not.modified ").append(stats.getNotModified()).append('\n');
+        text.append("batch.count ").append(stats.getBatches()).append('\n');
+        text.append("batch.lookups ").append(stats.getBatchedLookups()).append('\n');
+        if (stats.getOffHeapEntries() >= 0) {
+            text.append("offheap.entries ").append(stats.getOffHeapEntries()).append('\n');
+            text.append("offheap.used.bytes ").append(stats.getOffHeapUsed()).append('\n');
+            text.append("offheap.capacity.bytes ").append(stats.getOffHeapCapacity()).append('\n');
+            text.append("offheap.evictions ").append(stats.getOffHeapEvictions()).append('\n');
+        }
+        if (stats.getCleanFilterMemory() >= 0) {
+            text.append("cleanfilter.bytes ").append(stats.getCleanFilterMemory()).append('\n');
+        }
+        for (FishbansStatistics.Upstream upstream : stats.getUpstreams()) {
+            String prefix = "upstream." + upstream.getName() + ".";
+            text.append(prefix).append("requests ").append(upstream.getRequests()).append('\n');
+            text.append(prefix).append("errors ").append(upstream.getErrors()).append('\n');
+            text.append(prefix).append("inflight ").append(upstream.getInFlight()).append('\n');
+            text.append(prefix).append("latency.p50.ms ").append(millis(upstream.getLatency(50))).append('\n');
+            text.append(prefix).append("latency.p90.ms ").append(millis(upstream.getLatency(90))).append('\n');
+            text.append(prefix).append("latency.p99.ms ").append(millis(upstream.getLatency(99))).append('\n');
+            text.append(prefix).append("latency.max.ms ").append(millis(upstream.getLatency(100))).append('\n');
+        }
+        synchronized (watchers) {
+            for (Map.Entry<String, BanWatcher> entry : watchers.entrySet()) {
+                String prefix = "ratelimit." + entry.getKey() + ".";
+                text.append(prefix).append("rps ").append(String.format(Locale.ROOT, "%.3f", entry.getValue().getRequestRate())).append('\n');
+                text.append(prefix).append("backlog ").append(entry.getValue().getBacklog()).append('\n');
+            }
+        }
+        for (Map.Entry<String, Long> entry : stats.getHotKeys().entrySet()) {
+            text.append("hotkey ").append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static String millis(long nanos) {
+        return nanos < 0 ? "null" : String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static void quote(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int split = pair.indexOf('=');
+            if (split > 0 && URLDecoder.decode(pair.substring(0, split), "UTF-8").equals(name)) {
+                return URLDecoder.decode(pair.substring(split + 1), "UTF-8");
+            }
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private class Handler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String path = exchange.getRequestURI().getPath();
+                String method = exchange.getRequestMethod();
+                if (path.equals("/") || path.equals("/stats") || path.equals("/stats.txt")) {
+                    if (!method.equals("GET")) {
+                        respond(exchange, 405, "text/plain", "Use GET\n");
+                    } else if (path.equals("/stats.txt")) {
+                        respond(exchange, 200, "text/plain", renderText(Fishbans.getStatistics()));
+                    } else {
+                        respond(exchange, 200, "application/json", renderJson(Fishbans.getStatistics()));
+                    }
+                } else if (path.equals("/invalidate") || path.equals("/clear")) {
+                    if (!method.equals("POST")) {
+                        respond(exchange, 405, "text/plain", "Use POST\n");
+                    } else if (!adminEnabled) {
+                        respond(exchange, 403, "text/plain", "Admin actions are disabled\n");
+                    } else if (path.equals("/clear")) {
+                        Fishbans.clearCache();
+                        respond(exchange, 200, "text/plain", "Cache cleared\n");
+                    } else {
+                        String key = queryParameter(exchange, "key");
+                        if (key == null || key.trim().isEmpty()) {
+                            respond(exchange, 400, "text/plain", "Missing key\n");
+                        } else {
+                            key = key.trim();
+                            if (PlayerKeys.isUUID(key)) {
+                                UUID uuid = PlayerKeys.toUUID(key);
+                                Fishbans.invalidate(uuid);
+                            } else {
+                                Fishbans.invalidate(key);
+                            }
+                            respond(exchange, 200, "text/plain", "Invalidated " + key + "\n");
+                        }
+                    }
+                } else {
+                    respond(exchange, 404, "text/plain", "Not found\n");
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.http;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Sends the HTTP requests made by {@link net.ae97.fishbans.api.Fishbans}.
+ * This lets the library use the best HTTP client available on the running
+ * JVM, and lets tests answer requests without a network.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ *
+ * @see Transports#createDefault()
+ */
+public interface HttpTransport {
+
+    /**
+     * Sends a GET request and waits for the response.
+     *
+     * @param url URL to request
+     * @param headers Request headers to send, may be empty
+     *
+     * @return The response, including error responses
+     *
+     * @throws IOException Thrown if no response could be received
+     */
+    public HttpResponse get(String url, Map<String, String> headers) throws IOException;
+
+    /**
+     * Sends a GET request without waiting for the response. Cancelling the
+     * returned future abandons the request, closing its connection if it is
+     * still waiting for the response.
+     *
+     * @param url URL to request
+     * @param headers Request headers to send, may be empty
+     *
+     * @return Future which completes with the response
+     */
+    public Future<HttpResponse> getAsync(String url, Map<String, String> headers);
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.http;
+
+/**
+ * Creates the {@link HttpTransport} used by default. On Java 11 and newer the
+ * multi-release jar replaces this class with one which returns a transport
+ * based on {@code java.net.http.HttpClient}.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public final class Transports {
+
+    private Transports() {
+    }
+
+    /**
+     * Creates the best {@link HttpTransport} for the running JVM.
+     *
+     * @return A new transport
+     */
+    public static HttpTransport createDefault() {
+        return new UrlConnectionTransport();
+    }
+}
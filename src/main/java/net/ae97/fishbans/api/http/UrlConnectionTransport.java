@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import net.ae97.fishbans.api.util.LookupExecutors;
+
+/**
+ * A {@link HttpTransport} using {@link HttpURLConnection}, which is available
+ * on every JVM. Asynchronous requests run on a shared thread pool.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(LookupExecutors.newThreadFactory("Http"));
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    public UrlConnectionTransport() {
+        this(10000, 10000);
+    }
+
+    /**
+     * Creates a transport with the given timeouts.
+     *
+     * @param connectTimeout Connect timeout in milliseconds
+     * @param readTimeout Read timeout in milliseconds
+     */
+    public UrlConnectionTransport(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public HttpResponse get(String url, Map<String, String> headers) throws IOException {
+        return read(open(url, headers));
+    }
+
+    private HttpURLConnection open(String url, Map<String, String> headers) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            conn.setRequestProperty(header.getKey(), header.getValue());
+        }
+        return conn;
+    }
+
+    private static HttpResponse read(HttpURLConnection conn) throws IOException {
+        int status = conn.getResponseCode();
+        Map<String, String> responseHeaders = new HashMap<String, String>();
+        for (Map.Entry<String, List<String>> header : conn.getHeaderFields().entrySet()) {
+            if (header.getKey() != null && !header.getValue().isEmpty()) {
+                responseHeaders.put(header.getKey().toLowerCase(), header.getValue().get(0));
+            }
+        }
+        InputStream in = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+        byte[] body = new byte[0];
+        if (in != null) {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(conn.getContentLength(), 256));
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                body = out.toByteArray();
+            } finally {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        return new HttpResponse(status, responseHeaders, body);
+    }
+
+    /**
+     * {@inheritDoc} Blocking socket reads ignore interrupts, so cancelling
+     * disconnects the connection, which fails the read at once.
+     */
+    @Override
+    public Future<HttpResponse> getAsync(String url, Map<String, String> headers) {
+        final Request request = new Request(url, headers);
+        FutureTask<HttpResponse> task = new FutureTask<HttpResponse>(request) {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled) {
+                    request.disconnect();
+                }
+                return cancelled;
+            }
+        };
+        executor.execute(task);
+        return task;
+    }
+
+    private class Request implements Callable<HttpResponse> {
+
+        private final String url;
+        private final Map<String, String> headers;
+        private volatile HttpURLConnection connection;
+        private volatile boolean disconnected;
+
+        private Request(String url, Map<String, String> headers) {
+            this.url = url;
+            this.headers = headers;
+        }
+
+        @Override
+        public HttpResponse call() throws IOException {
+            HttpURLConnection conn = open(url, headers);
+            connection = conn;
+            if (disconnected) {
+                throw new InterruptedIOException("Request to " + url + " was cancelled");
+            }
+            return read(conn);
+        }
+
+        private void disconnect() {
+            disconnected = true;
+            HttpURLConnection conn = connection;
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import net.ae97.fishbans.api.BanServices;
+import net.ae97.fishbans.api.Fishbans;
+import net.ae97.fishbans.api.FishbansPlayer;
+import net.ae97.fishbans.api.cache.CacheListener;
+
+/**
+ * An in-memory index of the bans on every cached player, for answering
+ * questions such as "which cached players are banned on server X" without
+ * walking the whole cache. The index is kept up to date as players enter and
+ * leave the cache once it is registered:
+ *
+ * <pre>
+ * BanIndex index = new BanIndex();
+ * Fishbans.addCacheListener(index);
+ * List&lt;FishbansPlayer&gt; players = index.query(BanQuery.server("example.com"));
+ * </pre>
+ *
+ * Each player is given a small integer id, and every service and server maps
+ * to the set of ids with a ban from it, so queries combine compact sets
+ * instead of looking at individual bans. The index only keeps the UUID,
+ * services and servers of each player, read without decoding its bans, and
+ * {@link #query(BanQuery)} gets the players themselves from the cache.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public class BanIndex implements CacheListener {
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final HashMap<UUID, Integer> ids = new HashMap<UUID, Integer>();
+    private final HashMap<Integer, IdSet> byService = new HashMap<Integer, IdSet>();
+    private final HashMap<String, IdSet> byServer = new HashMap<String, IdSet>();
+    private Entry[] entries = new Entry[64];
+    private int[] freeIds = new int[16];
+    private int freeCount = 0;
+    private int nextId = 0;
+
+    @Override
+    public void entryAdded(FishbansPlayer player) {
+        Entry entry = new Entry(player);
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.get(entry.uuid);
+            if (id == null) {
+                id = allocate();
+                ids.put(entry.uuid, id);
+            } else {
+                unindex(id, entries[id]);
+            }
+            entries[id] = entry;
+            for (int service : entry.services) {
+                set(byService, service).add(id);
+            }
+            for (String server : entry.servers) {
+                set(byServer, server).add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void entryRemoved(FishbansPlayer player) {
+        Entry removed = new Entry(player);
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.get(removed.uuid);
+            if (id == null || !entries[id].sameBans(removed)) {
+                return;
+            }
+            unindex(id, entries[id]);
+            ids.remove(removed.uuid);
+            entries[id] = null;
+            if (freeCount == freeIds.length) {
+                int[] grown = new int[freeIds.length * 2];
+                System.arraycopy(freeIds, 0, grown, 0, freeCount);
+                freeIds = grown;
+            }
+            freeIds[freeCount++] = id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void cacheCleared() {
+        lock.writeLock().lock();
+        try {
+            ids.clear();
+            byService.clear();
+            byServer.clear();
+            entries = new Entry[64];
+            freeCount = 0;
+            nextId = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds every indexed player matching a query. The players are read from
+     * the cache of {@link Fishbans}; a player which left the cache while the
+     * query ran is left out.
+     *
+     * @param query Query to run
+     *
+     * @return List of matching players, never null
+     */
+    public List<FishbansPlayer> query(BanQuery query) {
+        UUID[] matched;
+        lock.readLock().lock();
+        try {
+            BitSet matches = new BitSet();
+            query.evaluate(this, matches);
+            matched = new UUID[matches.cardinality()];
+            int count = 0;
+            for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1)) {
+                matched[count++] = entries[id].uuid;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<FishbansPlayer> result = new ArrayList<FishbansPlayer>(matched.length);
+        for (UUID uuid : matched) {
+            FishbansPlayer player = Fishbans.getCachedPlayer(uuid);
+            if (player != null) {
+                result.add(player);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Counts the indexed players matching a query, without building the list
+     * of players.
+     *
+     * @param query Query to run
+     *
+     * @return Number of matching players
+     */
+    public int count(BanQuery query) {
+        lock.readLock().lock();
+        try {
+            BitSet matches = new BitSet();
+            query.evaluate(this, matches);
+            return matches.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of players in the index.
+     *
+     * @return Number of indexed players
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ids.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void orService(BanServices service, BitSet result) {
+        IdSet set = byService.get(service.getOrdinal());
+        if (set != null) {
+            set.orInto(result);
+        }
+    }
+
+    void orServer(String server, BitSet result) {
+        IdSet set = byServer.get(server.toLowerCase());
+        if (set != null) {
+            set.orInto(result);
+        }
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return freeIds[--freeCount];
+        }
+        if (nextId == entries.length) {
+            entries = Arrays.copyOf(entries, entries.length * 2);
+        }
+        return nextId++;
+    }
+
+    private void unindex(int id, Entry entry) {
+        for (int service : entry.services) {
+            release(byService, service, id);
+        }
+        for (String server : entry.servers) {
+            release(byServer, server, id);
+        }
+    }
+
+    private static <K> IdSet set(HashMap<K, IdSet> map, K key) {
+        IdSet set = map.get(key);
+        if (set == null) {
+            set = new IdSet();
+            map.put(key, set);
+        }
+        return set;
+    }
+
+    private static <K> void release(HashMap<K, IdSet> map, K key, int id) {
+        IdSet set = map.get(key);
+        if (set != null) {
+            set.remove(id);
+            if (set.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+
+    /**
+     * What the index keeps of one player: its UUID, and the services and
+     * servers it is banned on, without any of its bans.
+     */
+    private static final class Entry {
+
+        private final UUID uuid;
+        private final int banCount;
+        private final int[] services;
+        private final String[] servers;
+
+        private Entry(FishbansPlayer player) {
+            uuid = player.getUUID();
+            banCount = player.getBanCount();
+            int[] found = new int[4];
+            int serviceCount = 0;
+            List<String> names = new ArrayList<String>();
+            for (BanServices service : BanServices.getBanServices()) {
+                if (player.getBanCount(service) == 0) {
+                    continue;
+                }
+                if (serviceCount == found.length) {
+                    found = Arrays.copyOf(found, serviceCount * 2);
+                }
+                found[serviceCount++] = service.getOrdinal();
+                for (String server : player.getServers(service)) {
+                    if (server != null) {
+                        names.add(server.toLowerCase());
+                    }
+                }
+            }
+            services = Arrays.copyOf(found, serviceCount);
+            Arrays.sort(services);
+            servers = names.toArray(new String[names.size()]);
+            Arrays.sort(servers);
+        }
+
+        /**
+         * Returns whether a removed player has the bans of this entry.
+         * Players read back from an
+         * {@link net.ae97.fishbans.api.cache.OffHeapCache} are new objects
+         * each time, so they are matched by their services and servers
+         * rather than by identity.
+         */
+        private boolean sameBans(Entry removed) {
+            return banCount == removed.banCount && Arrays.equals(services, removed.services) && Arrays.equals(servers, removed.servers);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.index;
+
+import java.util.BitSet;
+import net.ae97.fishbans.api.BanServices;
+
+/**
+ * A query over a {@link BanIndex}. Queries match players with bans from a
+ * {@link BanServices} or from a server, and can be combined with
+ * {@link #and(BanQuery)} and {@link #or(BanQuery)}.
+ *
+ * <pre>
+ * // Players banned on example.com by either McBans or McBouncer
+ * BanQuery query = BanQuery.server("example.com")
+ *         .and(BanQuery.service(mcbans).or(BanQuery.service(mcbouncer)));
+ * </pre>
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public abstract class BanQuery {
+
+    private BanQuery() {
+    }
+
+    /**
+     * Matches players with at least one ban from a service.
+     *
+     * @param service Service to match
+     *
+     * @return The query
+     */
+    public static BanQuery service(final BanServices service) {
+        if (service == null) {
+            throw new IllegalArgumentException("BanService cannot be null");
+        }
+        return new BanQuery() {
+            @Override
+            void evaluate(BanIndex index, BitSet result) {
+                index.orService(service, result);
+            }
+
+            @Override
+            public String toString() {
+                return "service(" + service.getName() + ")";
+            }
+        };
+    }
+
+    /**
+     * Matches players with at least one ban from a server. Server names are
+     * compared ignoring case.
+     *
+     * @param server Server to match
+     *
+     * @return The query
+     */
+    public static BanQuery server(final String server) {
+        if (server == null) {
+            throw new IllegalArgumentException("Server cannot be null");
+        }
+        return new BanQuery() {
+            @Override
+            void evaluate(BanIndex index, BitSet result) {
+                index.orServer(server, result);
+            }
+
+            @Override
+            public String toString() {
+                return "server(" + server + ")";
+            }
+        };
+    }
+
+    /**
+     * Matches players matched by both this query and another.
+     *
+     * @param other Other query
+     *
+     * @return The combined query
+     */
+    public BanQuery and(final BanQuery other) {
+        final BanQuery self = this;
+        return new BanQuery() {
+            @Override
+            void evaluate(BanIndex index, BitSet result) {
+                BitSet left = new BitSet();
+                self.evaluate(index, left);
+                if (left.isEmpty()) {
+                    return;
+                }
+                BitSet right = new BitSet();
+                other.evaluate(index, right);
+                left.and(right);
+                result.or(left);
+            }
+
+            @Override
+            public String toString() {
+                return "(" + self + " AND " + other + ")";
+            }
+        };
+    }
+
+    /**
+     * Matches players matched by either this query or another.
+     *
+     * @param other Other query
+     *
+     * @return The combined query
+     */
+    public BanQuery or(final BanQuery other) {
+        final BanQuery self = this;
+        return new BanQuery() {
+            @Override
+            void evaluate(BanIndex index, BitSet result) {
+                self.evaluate(index, result);
+                other.evaluate(index, result);
+            }
+
+            @Override
+            public String toString() {
+                return "(" + self + " OR " + other + ")";
+            }
+        };
+    }
+
+    /**
+     * Adds the ids of every matching player to the result.
+     *
+     * @param index Index to evaluate against, with its read lock held
+     * @param result Set to add matching ids to
+     */
+    abstract void evaluate(BanIndex index, BitSet result);
+}
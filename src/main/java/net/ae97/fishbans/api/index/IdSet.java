@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.index;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A set of player ids. Small sets are kept as a sorted int array, and sets
+ * which grow past {@link #ARRAY_LIMIT} switch to a {@link BitSet}, so a
+ * server with two banned players costs a few bytes while a service with half
+ * a million costs one bit per player.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+final class IdSet {
+
+    private static final int ARRAY_LIMIT = 2048;
+    private int[] ids = new int[4];
+    private int size;
+    private BitSet bits;
+
+    void add(int id) {
+        if (bits != null) {
+            if (!bits.get(id)) {
+                bits.set(id);
+                size++;
+            }
+            return;
+        }
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        if (index >= 0) {
+            return;
+        }
+        index = -index - 1;
+        if (size == ARRAY_LIMIT) {
+            bits = new BitSet();
+            for (int i = 0; i < size; i++) {
+                bits.set(ids[i]);
+            }
+            bits.set(id);
+            ids = null;
+            size++;
+            return;
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        System.arraycopy(ids, index, ids, index + 1, size - index);
+        ids[index] = id;
+        size++;
+    }
+
+    void remove(int id) {
+        if (bits != null) {
+            if (bits.get(id)) {
+                bits.clear(id);
+                size--;
+            }
+            return;
+        }
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        if (index >= 0) {
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void orInto(BitSet target) {
+        if (bits != null) {
+            target.or(bits);
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            target.set(ids[i]);
+        }
+    }
+}
@@ -20,12 +20,13 @@ package net.ae97.fishbans.api.list;
 
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.Stack;
+import java.util.NoSuchElementException;
 import org.apache.commons.lang3.StringUtils;
 
 /**
  * A {@link Iterator} implentation which does not permit editing of the
- * {@link Collection} that is being iterated.
+ * {@link Collection} that is being iterated. Iterating an
+ * {@link ImmutableArrayList} reads its backing array directly.
  *
  * @since 1.1
  *
@@ -33,23 +34,24 @@ import org.apache.commons.lang3.StringUtils;
  */
 public class ImmutableIterator<T extends Object> implements Iterator<T> {
 
-    private final Stack<T> objects;
+    private final Object[] objects;
+    private int nextIndex = 0;
 
     public ImmutableIterator(Collection<T> collection) {
-        objects = new Stack<T>();
-        for (T o : (T[]) collection.toArray()) {
-            objects.push(o);
-        }
+        objects = collection.toArray();
     }
 
     @Override
     public boolean hasNext() {
-        return !objects.empty();
+        return nextIndex < objects.length;
     }
 
     @Override
     public T next() {
-        return objects.pop();
+        if (nextIndex >= objects.length) {
+            throw new NoSuchElementException();
+        }
+        return (T) objects[nextIndex++];
     }
 
     @Override
@@ -59,6 +61,6 @@ public class ImmutableIterator<T extends Object> implements Iterator<T> {
 
     @Override
     public String toString() {
-        return "ImmutableArrayList{id=" + super.toString() + ", stack={" + StringUtils.join(this, ", ") + "}}";
+        return "ImmutableArrayList{id=" + super.toString() + ", nextIndex=" + nextIndex + ", elements={" + StringUtils.join(objects, ", ") + "}}";
     }
 }
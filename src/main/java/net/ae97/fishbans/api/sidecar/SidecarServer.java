@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.sidecar;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import net.ae97.fishbans.api.Ban;
+import net.ae97.fishbans.api.BanServices;
+import net.ae97.fishbans.api.Fishbans;
+import net.ae97.fishbans.api.FishbansPlayer;
+import net.ae97.fishbans.api.cache.FileSharedCache;
+import net.ae97.fishbans.api.cache.OffHeapCache;
+import net.ae97.fishbans.api.exceptions.NoSuchUUIDException;
+import net.ae97.fishbans.api.exceptions.NoSuchUserException;
+import net.ae97.fishbans.api.util.LookupExecutors;
+import net.ae97.fishbans.api.util.PlayerKeys;
+
+/**
+ * Serves the Fishbans API from the cache of this process, so that several
+ * processes on one machine share one cache and one set of requests to
+ * Fishbans. Clients point {@link Fishbans#useSidecar(java.lang.String)} at
+ * it. By default it only listens on localhost.
+ * <p>
+ * It answers GET /bans/{name}, /bans/{name}/{service} and /stats/{name}
+ * in the format Fishbans uses, and also accepts a {@link java.util.UUID} in
+ * place of the name. Concurrent requests for the same player share one
+ * lookup. Starting the sidecar enables
+ * {@link Fishbans#setKeepResponses(boolean)}, so full lookups are answered
+ * with the bytes Fishbans sent rather than encoded again.
+ * <p>
+ * It can also be run on its own:
+ *
+ * <pre>
+ * java -cp FishbansAPI.jar net.ae97.fishbans.api.sidecar.SidecarServer --port 8095 --cache-dir cache
+ * </pre>
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public class SidecarServer {
+
+    private static final String USAGE = "Usage: java -cp FishbansAPI.jar net.ae97.fishbans.api.sidecar.SidecarServer [options]\n"
+            + "  --bind <address>     Address to listen on (default: 127.0.0.1)\n"
+            + "  --port <n>           Port to listen on (default: 8095)\n"
+            + "  --threads <n>        Requests handled at once (default: 32)\n"
+            + "  --cache-dir <dir>    Keep looked up players in this directory across restarts\n"
+            + "  --off-heap <MiB>     Cache players off the heap, up to this many MiB\n"
+            + "  --upstream <url>     Fishbans API to ask (default: http://api.fishbans.com/)";
+    private static final byte[] notFound = bytes("{\"success\":false,\"error\":\"No user found\"}");
+    private final InetSocketAddress address;
+    private final ConcurrentHashMap<String, FutureTask<FishbansPlayer>> inFlight = new ConcurrentHashMap<String, FutureTask<FishbansPlayer>>();
+    private final List<BanServices> services;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong passedThrough = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private int threads = 32;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Creates a sidecar listening on localhost.
+     *
+     * @param port Port to listen on, or 0 for any free port
+     */
+    public SidecarServer(int port) {
+        this(new InetSocketAddress("127.0.0.1", port));
+    }
+
+    /**
+     * Creates a sidecar listening on the given address.
+     *
+     * @param address Address to listen on
+     */
+    public SidecarServer(InetSocketAddress address) {
+        this.address = address;
+        this.services = new ArrayList<BanServices>(BanServices.getBanServices());
+        Collections.sort(services, new Comparator<BanServices>() {
+            @Override
+            public int compare(BanServices a, BanServices b) {
+                return a.getOrdinal() - b.getOrdinal();
+            }
+        });
+    }
+
+    /**
+     * Sets how many requests are handled at the same time. Defaults to 32.
+     * Takes effect the next time the sidecar is started.
+     *
+     * @param threads Number of requests handled at once
+     */
+    public void setThreads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Threads must be positive");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Starts listening. Calling this on a running sidecar does nothing.
+     *
+     * @throws IOException Thrown if the address cannot be bound
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        Fishbans.setKeepResponses(true);
+        HttpServer created = HttpServer.create(address, 0);
+        executor = Executors.newFixedThreadPool(threads, LookupExecutors.newThreadFactory("Sidecar"));
+        created.setExecutor(executor);
+        created.createContext("/", new Handler());
+        created.start();
+        server = created;
+    }
+
+    /**
+     * Stops listening.
+     */
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+        executor = null;
+    }
+
+    /**
+     * Returns the address the sidecar is listening on, which tells the port
+     * when it was started with port 0.
+     *
+     * @return The address, or null if the sidecar is not running
+     */
+    public synchronized InetSocketAddress getAddress() {
+        return server == null ? null : server.getAddress();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Returns how many requests waited for a lookup another request had
+     * already started, instead of starting their own.
+     *
+     * @return Number of coalesced requests
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * Returns how many requests were answered with the response kept from
+     * Fishbans, without encoding it again.
+     *
+     * @return Number of passed through responses
+     */
+    public long getPassedThrough() {
+        return passedThrough.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    private FishbansPlayer lookup(final String key) throws IOException, NoSuchUserException, NoSuchUUIDException {
+        String normalized = key.toLowerCase();
+        FutureTask<FishbansPlayer> task = inFlight.get(normalized);
+        if (task != null) {
+            coalesced.incrementAndGet();
+        } else {
+            FutureTask<FishbansPlayer> created = new FutureTask<FishbansPlayer>(new Callable<FishbansPlayer>() {
+                @Override
+                public FishbansPlayer call() throws Exception {
+                    return PlayerKeys.lookup(key, false);
+                }
+            });
+            task = inFlight.putIfAbsent(normalized, created);
+            if (task == null) {
+                task = created;
+                try {
+                    created.run();
+                } finally {
+                    inFlight.remove(normalized, created);
+                }
+            } else {
+                coalesced.incrementAndGet();
+            }
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + key);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof NoSuchUserException) {
+                throw (NoSuchUserException) cause;
+            } else if (cause instanceof NoSuchUUIDException) {
+                throw (NoSuchUUIDException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private byte[] render(FishbansPlayer player, BanServices only) throws IOException {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"success\":true,\"bans\":{\"username\":");
+        quote(json, player.getName());
+        json.append(",\"uuid\":\"").append(player.getUUID().toString().replace("-", "")).append('"');
+        json.append(",\"totalbans\":").append(only == null ? player.getBanCount() : player.getBanCount(only));
+        json.append(",\"service\":{");
+        boolean first = true;
+        for (BanServices service : services) {
+            if (only != null && !only.equals(service)) {
+                continue;
+            }
+            json.append(first ? "" : ",");
+            quote(json, service.getName().toLowerCase());
+            json.append(":{\"bans\":").append(player.getBanCount(service)).append(",\"ban_info\":");
+            List<Ban> bans = player.getBanList(service);
+            if (bans.isEmpty()) {
+                json.append("[]}");
+            } else {
+                json.append('{');
+                for (int i = 0; i < bans.size(); i++) {
+                    json.append(i == 0 ? "" : ",");
+                    quote(json, bans.get(i).getServer());
+                    json.append(':');
+                    quote(json, bans.get(i).getReason());
+                }
+                json.append("}}");
+            }
+            first = false;
+        }
+        return json.append("}}}").toString().getBytes("UTF-8");
+    }
+
+    private byte[] renderStats(FishbansPlayer player) throws IOException {
+        StringBuilder json = new StringBuilder(192);
+        json.append("{\"success\":true,\"stats\":{\"username\":");
+        quote(json, player.getName());
+        json.append(",\"uuid\":\"").append(player.getUUID().toString().replace("-", "")).append('"');
+        json.append(",\"totalbans\":").append(player.getBanCount()).append(",\"service\":{");
+        for (int i = 0; i < services.size(); i++) {
+            json.append(i == 0 ? "" : ",");
+            quote(json, services.get(i).getName().toLowerCase());
+            json.append(':').append(player.getBanCount(services.get(i)));
+        }
+        return json.append("}}}").toString().getBytes("UTF-8");
+    }
+
+    private static void quote(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    private static byte[] bytes(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, ByteBuffer body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.remaining());
+        OutputStream out = exchange.getResponseBody();
+        try {
+            Channels.newChannel(out).write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    private class Handler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                requests.incrementAndGet();
+                if (!exchange.getRequestMethod().equals("GET")) {
+                    respond(exchange, 405, ByteBuffer.wrap(bytes("{\"success\":false,\"error\":\"Use GET\"}")));
+                    return;
+                }
+                String[] parts = exchange.getRequestURI().getPath().split("/");
+                boolean stats = parts.length == 3 && parts[1].equals("stats");
+                boolean bans = (parts.length == 3 || parts.length == 4) && parts[1].equals("bans");
+                BanServices service = parts.length == 4 ? BanServices.getService(parts[3]) : null;
+                if ((!stats && !bans) || parts[2].isEmpty() || (parts.length == 4 && service == null)) {
+                    respond(exchange, 404, ByteBuffer.wrap(bytes("{\"success\":false,\"error\":\"Not found\"}")));
+                    return;
+                }
+                FishbansPlayer player;
+                try {
+                    player = lookup(parts[2]);
+                } catch (NoSuchUserException ex) {
+                    respond(exchange, 200, ByteBuffer.wrap(notFound));
+                    return;
+                } catch (NoSuchUUIDException ex) {
+                    respond(exchange, 200, ByteBuffer.wrap(notFound));
+                    return;
+                } catch (IOException ex) {
+                    failures.incrementAndGet();
+                    respond(exchange, 502, ByteBuffer.wrap(bytes("{\"success\":false,\"error\":\"Upstream lookup failed\"}")));
+                    return;
+                }
+                if (player == null) {
+                    respond(exchange, 200, ByteBuffer.wrap(bytes("null")));
+                } else if (stats) {
+                    respond(exchange, 200, ByteBuffer.wrap(renderStats(player)));
+                } else if (service != null) {
+                    respond(exchange, 200, ByteBuffer.wrap(render(player, service)));
+                } else {
+                    ByteBuffer response = player.getResponse();
+                    if (response != null) {
+                        passedThrough.incrementAndGet();
+                    }
+                    respond(exchange, 200, response != null ? response : ByteBuffer.wrap(render(player, null)));
+                }
+            } catch (RuntimeException ex) {
+                failures.incrementAndGet();
+                respond(exchange, 500, ByteBuffer.wrap(bytes("{\"success\":false,\"error\":\"Internal error\"}")));
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String bind = "127.0.0.1";
+        int port = 8095;
+        int threads = 32;
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing value for " + args[i]);
+                }
+                String value = args[i + 1];
+                if (args[i].equals("--bind")) {
+                    bind = value;
+                } else if (args[i].equals("--port")) {
+                    port = Integer.parseInt(value);
+                } else if (args[i].equals("--threads")) {
+                    threads = Integer.parseInt(value);
+                } else if (args[i].equals("--cache-dir")) {
+                    Fishbans.setSharedCache(new FileSharedCache(new File(value)));
+                } else if (args[i].equals("--off-heap")) {
+                    Fishbans.setOffHeapCache(new OffHeapCache(Long.parseLong(value) * 1024 * 1024));
+                } else if (args[i].equals("--upstream")) {
+                    Fishbans.setApiUrl(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        final SidecarServer sidecar = new SidecarServer(new InetSocketAddress(bind, port));
+        sidecar.setThreads(threads);
+        sidecar.start();
+        final CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sidecar.stop();
+                stopped.countDown();
+            }
+        }, "FishbansAPI-SidecarShutdown"));
+        System.err.println("Fishbans sidecar listening on " + sidecar.getAddress());
+        stopped.await();
+    }
+}
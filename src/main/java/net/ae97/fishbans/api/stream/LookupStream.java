@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.stream;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import net.ae97.fishbans.api.LookupResult;
+import net.ae97.fishbans.api.util.LookupExecutors;
+import net.ae97.fishbans.api.util.PlayerKeys;
+
+/**
+ * Looks up a large sequence of usernames or UUIDs and streams the results to a
+ * {@link LookupSubscriber} as they finish, without holding the whole input or
+ * all results in memory.
+ * <p>
+ * Lookups are only started for results the subscriber has requested, and no
+ * more than a fixed number run at once, so memory use stays the same however
+ * large the input is:
+ *
+ * <pre>
+ * new LookupStream(names.iterator(), 8).subscribe(new LookupSubscriber() {
+ *     private LookupSubscription subscription;
+ *
+ *     public void onSubscribe(LookupSubscription subscription) {
+ *         this.subscription = subscription;
+ *         subscription.request(16);
+ *     }
+ *
+ *     public void onNext(LookupResult result) {
+ *         write(result);
+ *         subscription.request(1);
+ *     }
+ *     ...
+ * });
+ * </pre>
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public class LookupStream {
+
+    private final Iterator<String> keys;
+    private final int maxInFlight;
+    private boolean subscribed = false;
+
+    /**
+     * Creates a stream over the given keys. The iterator is only read as
+     * results are requested, so it may produce keys lazily, such as from a
+     * file being read.
+     *
+     * @param keys Usernames or UUIDs to look up
+     * @param maxInFlight Maximum number of lookups running at once
+     */
+    public LookupStream(Iterator<String> keys, int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        this.keys = keys;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public LookupStream(Iterable<String> keys, int maxInFlight) {
+        this(keys.iterator(), maxInFlight);
+    }
+
+    public LookupStream(String[] keys, int maxInFlight) {
+        this(Arrays.asList(keys), maxInFlight);
+    }
+
+    /**
+     * Starts the stream. A stream can only be subscribed to once.
+     *
+     * @param subscriber Subscriber to deliver results to
+     */
+    public void subscribe(LookupSubscriber subscriber) {
+        synchronized (this) {
+            if (subscribed) {
+                throw new IllegalStateException("LookupStream can only be subscribed to once");
+            }
+            subscribed = true;
+        }
+        Subscription subscription = new Subscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.drain();
+    }
+
+    private class Subscription implements LookupSubscription {
+
+        private final LookupSubscriber subscriber;
+        private final ArrayDeque<LookupResult> ready = new ArrayDeque<LookupResult>();
+        private final ExecutorService executor = Executors.newFixedThreadPool(maxInFlight, LookupExecutors.newThreadFactory("Stream"));
+        private final Object lock = new Object();
+        private long requested = 0;
+        private int inFlight = 0;
+        private boolean exhausted = false;
+        private boolean demanded = false;
+        private boolean cancelled = false;
+        private boolean draining = false;
+        private boolean again = false;
+        private Throwable failure = null;
+
+        private Subscription(LookupSubscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long count) {
+            synchronized (lock) {
+                if (count <= 0) {
+                    if (failure == null) {
+                        failure = new IllegalArgumentException("Requested count must be positive, was " + count);
+                    }
+                } else {
+                    requested = requested + count < 0 ? Long.MAX_VALUE : requested + count;
+                    demanded = true;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (lock) {
+                cancelled = true;
+                ready.clear();
+            }
+            executor.shutdown();
+        }
+
+        private void drain() {
+            synchronized (lock) {
+                if (draining) {
+                    again = true;
+                    return;
+                }
+                draining = true;
+            }
+            while (true) {
+                LookupResult next = null;
+                Throwable error = null;
+                boolean complete = false;
+                synchronized (lock) {
+                    if (cancelled) {
+                        draining = false;
+                        return;
+                    }
+                    launch();
+                    if (failure != null) {
+                        error = failure;
+                        cancelled = true;
+                    } else if (requested > 0 && !ready.isEmpty()) {
+                        next = ready.poll();
+                        requested--;
+                    } else if (exhausted && inFlight == 0 && ready.isEmpty()) {
+                        complete = true;
+                        cancelled = true;
+                    } else if (again) {
+                        again = false;
+                        continue;
+                    } else {
+                        draining = false;
+                        return;
+                    }
+                }
+                if (error != null) {
+                    executor.shutdown();
+                    subscriber.onError(error);
+                    return;
+                }
+                if (complete) {
+                    executor.shutdown();
+                    subscriber.onComplete();
+                    return;
+                }
+                subscriber.onNext(next);
+            }
+        }
+
+        private void launch() {
+            while (!exhausted && failure == null && inFlight < maxInFlight && requested - ready.size() - inFlight > 0) {
+                final String key;
+                try {
+                    if (!keys.hasNext()) {
+                        exhausted = true;
+                        return;
+                    }
+                    key = keys.next();
+                } catch (RuntimeException ex) {
+                    failure = ex;
+                    return;
+                }
+                inFlight++;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        LookupResult result;
+                        try {
+                            result = new LookupResult(key, PlayerKeys.lookup(key, false));
+                        } catch (Exception ex) {
+                            result = new LookupResult(key, ex);
+                        }
+                        synchronized (lock) {
+                            inFlight--;
+                            if (!cancelled) {
+                                ready.add(result);
+                            }
+                        }
+                        drain();
+                    }
+                });
+            }
+            if (!exhausted && failure == null && demanded && inFlight == 0 && ready.isEmpty()) {
+                // Every requested result was delivered, check whether that was
+                // the last of the input so onComplete does not wait for more
+                // demand
+                try {
+                    exhausted = !keys.hasNext();
+                } catch (RuntimeException ex) {
+                    failure = ex;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.stream;
+
+import net.ae97.fishbans.api.LookupResult;
+
+/**
+ * Receives the results of a {@link LookupStream}. This follows the same rules
+ * as a Reactive Streams subscriber: nothing is delivered until results are
+ * requested through the {@link LookupSubscription}, and calls to this
+ * subscriber never overlap.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public interface LookupSubscriber {
+
+    /**
+     * Called once before any other method, with the subscription used to
+     * request results.
+     *
+     * @param subscription Subscription of this subscriber
+     */
+    public void onSubscribe(LookupSubscription subscription);
+
+    /**
+     * Called with each result, in the order lookups finish. Lookups which
+     * failed are delivered here too, with {@link LookupResult#getError()} set.
+     *
+     * @param result Result of one lookup
+     */
+    public void onNext(LookupResult result);
+
+    /**
+     * Called if the stream failed as a whole, such as when reading the input
+     * threw. No other method is called afterwards.
+     *
+     * @param error The failure
+     */
+    public void onError(Throwable error);
+
+    /**
+     * Called once every input has been looked up and delivered.
+     */
+    public void onComplete();
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.stream;
+
+/**
+ * Lets a {@link LookupSubscriber} control how many results it is sent.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public interface LookupSubscription {
+
+    /**
+     * Requests more results. Lookups are only started for results which have
+     * been requested, so a subscriber which processes results slowly also
+     * slows down the lookups.
+     *
+     * @param count Number of additional results wanted, must be positive
+     */
+    public void request(long count);
+
+    /**
+     * Stops the stream. Lookups already running are finished, but their
+     * results are not delivered.
+     */
+    public void cancel();
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds the most frequently seen keys using a sample of them. Sampled keys are
+ * counted with the Space-Saving algorithm: a fixed number of counters, where
+ * a new key takes over the counter of the least counted key. Keys seen often
+ * enough are always found, and counts are estimates.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public class HotKeys {
+
+    private final int capacity;
+    private final int sampleMask;
+    private final AtomicInteger seen = new AtomicInteger();
+    private final Map<String, long[]> counters;
+
+    /**
+     * Creates a tracker.
+     *
+     * @param capacity Number of keys to count
+     * @param sampleRate One in this many keys is counted, rounded up to a
+     * power of two
+     */
+    public HotKeys(int capacity, int sampleRate) {
+        this.capacity = capacity;
+        this.sampleMask = Integer.highestOneBit(Math.max(1, sampleRate * 2 - 1)) - 1;
+        this.counters = new HashMap<String, long[]>(capacity * 2);
+    }
+
+    /**
+     * Records that a key was seen.
+     *
+     * @param key The key
+     */
+    public void record(String key) {
+        if ((seen.incrementAndGet() & sampleMask) != 0) {
+            return;
+        }
+        synchronized (counters) {
+            long[] counter = counters.get(key);
+            if (counter != null) {
+                counter[0]++;
+                return;
+            }
+            if (counters.size() < capacity) {
+                counters.put(key, new long[]{1});
+                return;
+            }
+            String smallest = null;
+            long min = Long.MAX_VALUE;
+            for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+                if (entry.getValue()[0] < min) {
+                    min = entry.getValue()[0];
+                    smallest = entry.getKey();
+                }
+            }
+            counter = counters.remove(smallest);
+            counter[0]++;
+            counters.put(key, counter);
+        }
+    }
+
+    /**
+     * Returns the most frequently seen keys with their estimated counts, most
+     * frequent first. Counts are scaled up by the sample rate.
+     *
+     * @param limit Most keys to return
+     *
+     * @return Keys and counts
+     */
+    public Map<String, Long> getTop(int limit) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>();
+        synchronized (counters) {
+            Map<String, Long> copy = new HashMap<String, Long>();
+            for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+                copy.put(entry.getKey(), entry.getValue()[0] * (sampleMask + 1));
+            }
+            entries.addAll(copy.entrySet());
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return b.getValue().compareTo(a.getValue());
+            }
+        });
+        Map<String, Long> top = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < entries.size() && i < limit; i++) {
+            top.put(entries.get(i).getKey(), entries.get(i).getValue());
+        }
+        return top;
+    }
+
+    public void clear() {
+        synchronized (counters) {
+            counters.clear();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.util;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latencies of an operation, so percentiles of recent
+ * behaviour can be computed.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public class LatencyTracker {
+
+    private final long[] samples;
+    private int next = 0;
+    private int count = 0;
+
+    /**
+     * Creates a tracker keeping the given number of recent samples.
+     *
+     * @param size Number of samples to keep
+     */
+    public LatencyTracker(int size) {
+        samples = new long[size];
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos Latency in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+    }
+
+    /**
+     * Returns the number of samples currently kept.
+     *
+     * @return Number of samples
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Computes a percentile of the recent samples.
+     *
+     * @param percentile Percentile between 0 and 100
+     *
+     * @return The latency in nanoseconds, or -1 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        return getPercentiles(percentile)[0];
+    }
+
+    /**
+     * Computes several percentiles of the recent samples at once.
+     *
+     * @param percentiles Percentiles between 0 and 100
+     *
+     * @return The latencies in nanoseconds, in the same order, or -1 for each
+     * if nothing was recorded
+     */
+    public long[] getPercentiles(double... percentiles) {
+        long[] result = new long[percentiles.length];
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(samples, count);
+        }
+        if (sorted.length == 0) {
+            Arrays.fill(result, -1);
+            return result;
+        }
+        Arrays.sort(sorted);
+        for (int i = 0; i < percentiles.length; i++) {
+            int index = (int) Math.ceil(percentiles[i] / 100 * sorted.length) - 1;
+            result[i] = sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.util;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the threads which run blocking lookups. On Java 11 and newer the
+ * multi-release jar replaces this class with one which uses virtual threads
+ * when the JVM supports them.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public final class LookupExecutors {
+
+    private LookupExecutors() {
+    }
+
+    /**
+     * Creates a {@link ThreadFactory} for threads which spend most of their
+     * time waiting on the network.
+     *
+     * @param name Name used for the threads
+     *
+     * @return A new thread factory
+     */
+    public static ThreadFactory newThreadFactory(String name) {
+        return new DaemonThreadFactory(name);
+    }
+
+    /**
+     * Returns whether threads created by this class are virtual threads.
+     *
+     * @return True if virtual threads are used, false otherwise
+     */
+    public static boolean isVirtual() {
+        return false;
+    }
+}
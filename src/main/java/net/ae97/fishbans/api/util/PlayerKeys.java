@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.util;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import net.ae97.fishbans.api.Fishbans;
+import net.ae97.fishbans.api.FishbansPlayer;
+import net.ae97.fishbans.api.exceptions.NoSuchUUIDException;
+import net.ae97.fishbans.api.exceptions.NoSuchUserException;
+
+/**
+ * Helpers for strings which may hold either a username or a {@link UUID},
+ * such as lines of a roster file.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public final class PlayerKeys {
+
+    private static final Pattern uuidPattern = Pattern.compile("[0-9a-fA-F]{8}-?[0-9a-fA-F]{4}-?[0-9a-fA-F]{4}-?[0-9a-fA-F]{4}-?[0-9a-fA-F]{12}");
+
+    private PlayerKeys() {
+    }
+
+    /**
+     * Checks whether a key is a {@link UUID}, with or without dashes.
+     *
+     * @param key Key to check
+     *
+     * @return True if the key is a UUID, false if it is a username
+     */
+    public static boolean isUUID(String key) {
+        return uuidPattern.matcher(key).matches();
+    }
+
+    /**
+     * Converts a key which {@link #isUUID(java.lang.String) is a UUID} to a
+     * {@link UUID}.
+     *
+     * @param key Key to convert
+     *
+     * @return The UUID
+     */
+    public static UUID toUUID(String key) {
+        return key.indexOf('-') == -1 ? Fishbans.convertToUUID(key) : UUID.fromString(key);
+    }
+
+    /**
+     * Looks up a player by username or UUID.
+     *
+     * @param key Username or UUID of the player
+     * @param force True to ignore cached data, false to permit cached data
+     *
+     * @return The player
+     *
+     * @throws IOException Thrown if the data cannot be retrieved from Fishbans
+     * @throws NoSuchUserException Thrown if no user with that name exists on
+     * Fishbans
+     * @throws NoSuchUUIDException Thrown if no UUID exists on Fishbans
+     */
+    public static FishbansPlayer lookup(String key, boolean force) throws IOException, NoSuchUserException, NoSuchUUIDException {
+        if (isUUID(key)) {
+            return Fishbans.getFishbanPlayer(toUUID(key), force);
+        }
+        return Fishbans.getFishbanPlayer(key, force);
+    }
+}
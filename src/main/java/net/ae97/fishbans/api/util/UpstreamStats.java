@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts requests to one upstream service, how many failed and how many are
+ * in flight, and keeps their recent latencies.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public class UpstreamStats {
+
+    private final String name;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LatencyTracker latency;
+
+    public UpstreamStats(String name, int samples) {
+        this.name = name;
+        this.latency = new LatencyTracker(samples);
+    }
+
+    /**
+     * Records the start of a request.
+     *
+     * @return Start time to pass to {@link #finish(long, boolean)}
+     */
+    public long start() {
+        requests.incrementAndGet();
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the end of a request.
+     *
+     * @param start Time returned by {@link #start()}
+     * @param failed True if the request failed
+     */
+    public void finish(long start, boolean failed) {
+        inFlight.decrementAndGet();
+        if (failed) {
+            errors.incrementAndGet();
+        } else {
+            latency.record(System.nanoTime() - start);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Returns the latencies of recent successful requests.
+     *
+     * @return Latency tracker
+     */
+    public LatencyTracker getLatency() {
+        return latency;
+    }
+}
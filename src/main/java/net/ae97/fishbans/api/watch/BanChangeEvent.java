@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.watch;
+
+import java.util.List;
+import net.ae97.fishbans.api.Ban;
+import net.ae97.fishbans.api.FishbansPlayer;
+
+/**
+ * Describes a change in the {@link Ban}s on a watched player between two polls.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public class BanChangeEvent {
+
+    private final String key;
+    private final FishbansPlayer previous;
+    private final FishbansPlayer current;
+    private final List<Ban> added;
+    private final List<Ban> removed;
+
+    protected BanChangeEvent(String key, FishbansPlayer previous, FishbansPlayer current, List<Ban> added, List<Ban> removed) {
+        this.key = key;
+        this.previous = previous;
+        this.current = current;
+        this.added = added;
+        this.removed = removed;
+    }
+
+    /**
+     * Returns the name or {@link java.util.UUID} this player was registered
+     * with on the watcher.
+     *
+     * @return Key the player is watched under
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the record from the previous poll.
+     *
+     * @return Previous record of the player
+     */
+    public FishbansPlayer getPrevious() {
+        return previous;
+    }
+
+    /**
+     * Returns the record from the poll which detected this change.
+     *
+     * @return Current record of the player
+     */
+    public FishbansPlayer getPlayer() {
+        return current;
+    }
+
+    /**
+     * Returns the {@link Ban}s which are new since the previous poll.
+     *
+     * @return List of added Bans, never null
+     */
+    public List<Ban> getAddedBans() {
+        return added;
+    }
+
+    /**
+     * Returns the {@link Ban}s which are no longer present since the previous
+     * poll.
+     *
+     * @return List of removed Bans, never null
+     */
+    public List<Ban> getRemovedBans() {
+        return removed;
+    }
+
+    @Override
+    public String toString() {
+        return "BanChangeEvent{key=" + key + ", added=" + added + ", removed=" + removed + "}";
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.watch;
+
+/**
+ * Listener notified by a {@link BanWatcher} when the bans on a watched player
+ * change.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public interface BanChangeListener {
+
+    /**
+     * Called when a poll of a watched player found {@link net.ae97.fishbans.api.Ban}s
+     * which were added or removed since the last poll. This is called on the
+     * watcher thread, so long running work should be handed off elsewhere.
+     *
+     * @param event The change which was detected
+     */
+    public void onBanChange(BanChangeEvent event);
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.watch;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import net.ae97.fishbans.api.Ban;
+import net.ae97.fishbans.api.Fishbans;
+import net.ae97.fishbans.api.FishbansPlayer;
+import net.ae97.fishbans.api.exceptions.NoSuchUUIDException;
+import net.ae97.fishbans.api.exceptions.NoSuchUserException;
+import net.ae97.fishbans.api.list.ImmutableArrayList;
+
+/**
+ * Periodically re-checks a list of players on Fishbans and notifies
+ * {@link BanChangeListener}s when their bans change. Players are polled on a
+ * fixed interval with a random jitter so polls spread out over time, and all
+ * polls share one request budget so a large watch list cannot flood Fishbans.
+ * <p>
+ * Polls after the first go through {@link Fishbans#revalidate(java.lang.String)},
+ * so a player Fishbans reports unchanged keeps its cached record and is not
+ * decoded again. Each poll is compared to the previous one using
+ * {@link FishbansPlayer#getFingerprint()}, and the added and removed
+ * {@link Ban}s are only worked out when the fingerprints differ.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public class BanWatcher {
+
+    private final ConcurrentHashMap<String, WatchEntry> watched = new ConcurrentHashMap<String, WatchEntry>();
+    private final DelayQueue<WatchEntry> queue = new DelayQueue<WatchEntry>();
+    private final List<BanChangeListener> listeners = new CopyOnWriteArrayList<BanChangeListener>();
+    private final Random random = new Random();
+    private final long interval;
+    private volatile double jitter = 0.1;
+    private volatile long requestSpacing = 0;
+    private final Object budgetLock = new Object();
+    private long nextRequest = System.nanoTime();
+    private volatile int generation;
+    private Thread thread;
+
+    /**
+     * Creates a new watcher which polls each watched player once per interval.
+     * The watcher does not poll until {@link #start()} is called.
+     *
+     * @param interval Time between polls of the same player
+     * @param unit Unit of the interval
+     */
+    public BanWatcher(long interval, TimeUnit unit) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        this.interval = unit.toNanos(interval);
+    }
+
+    /**
+     * Sets how far each poll may be moved from the interval, as a fraction of
+     * the interval. A jitter of 0.1 polls each player somewhere between 90% and
+     * 110% of the interval after the last poll. Defaults to 0.1.
+     *
+     * @param jitter Fraction of the interval, between 0 and 1
+     */
+    public void setJitter(double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Jitter must be between 0 and 1");
+        }
+        this.jitter = jitter;
+    }
+
+    /**
+     * Limits how many requests this watcher may send to Fishbans over a period
+     * of time, across all watched players. When the budget is used up, polls
+     * wait for it instead of being skipped. By default there is no limit.
+     *
+     * @param requests Number of requests permitted per period, or 0 to remove
+     * the limit
+     * @param period Length of the period
+     * @param unit Unit of the period
+     */
+    public void setRequestBudget(int requests, long period, TimeUnit unit) {
+        if (requests < 0) {
+            throw new IllegalArgumentException("Request budget cannot be negative");
+        }
+        requestSpacing = requests == 0 ? 0 : unit.toNanos(period) / requests;
+    }
+
+    /**
+     * Returns the request budget as requests per second.
+     *
+     * @return Requests per second, or 0 if there is no limit
+     */
+    public double getRequestRate() {
+        long spacing = requestSpacing;
+        return spacing == 0 ? 0 : (double) TimeUnit.SECONDS.toNanos(1) / spacing;
+    }
+
+    /**
+     * Returns the number of polls which are due but have not started, such as
+     * while waiting for the request budget.
+     *
+     * @return Number of overdue polls
+     */
+    public int getBacklog() {
+        int due = 0;
+        for (WatchEntry entry : queue) {
+            if (entry.getDelay(TimeUnit.NANOSECONDS) <= 0) {
+                due++;
+            }
+        }
+        return due;
+    }
+
+    public void addListener(BanChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(BanChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Adds a player to the watch list. The first poll happens as soon as
+     * possible and only records the current bans, later polls report changes
+     * against the previous one.
+     *
+     * @param name Username of the player
+     */
+    public void watch(String name) {
+        add(new WatchEntry(name.toLowerCase(), name, null));
+    }
+
+    /**
+     * Adds a player to the watch list by {@link UUID}.
+     *
+     * @param uuid UUID of the player
+     *
+     * @see #watch(java.lang.String)
+     */
+    public void watch(UUID uuid) {
+        add(new WatchEntry(uuid.toString(), null, uuid));
+    }
+
+    public boolean unwatch(String name) {
+        return watched.remove(name.toLowerCase()) != null;
+    }
+
+    public boolean unwatch(UUID uuid) {
+        return watched.remove(uuid.toString()) != null;
+    }
+
+    /**
+     * Returns the keys of all watched players. Names are lowercase and UUIDs
+     * are in their dashed form.
+     *
+     * @return Set of watched keys
+     */
+    public Set<String> getWatched() {
+        return Collections.unmodifiableSet(watched.keySet());
+    }
+
+    /**
+     * Starts the watcher thread. Calling this on a running watcher does
+     * nothing.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        final int current = ++generation;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pollLoop(current);
+            }
+        }, "FishbansAPI-Watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the watcher thread. The watch list is kept, so the watcher may be
+     * started again later. A poll already sending its request is finished,
+     * but the thread polls nothing after it, even if the watcher was started
+     * again in the meantime.
+     */
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        generation++;
+        thread.interrupt();
+        thread = null;
+    }
+
+    private void add(WatchEntry entry) {
+        if (watched.putIfAbsent(entry.key, entry) == null) {
+            entry.due = System.nanoTime();
+            queue.offer(entry);
+        }
+    }
+
+    /**
+     * Polls due players until the watcher is stopped. Each loop belongs to one
+     * call to {@link #start()}, and hands the player it holds back to the
+     * queue once a newer loop replaces it, so a player is never polled by two
+     * loops at once.
+     */
+    private void pollLoop(int loop) {
+        while (generation == loop) {
+            WatchEntry entry;
+            try {
+                entry = queue.take();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            if (watched.get(entry.key) != entry) {
+                continue;
+            }
+            try {
+                if (generation != loop) {
+                    return;
+                }
+                throttle();
+                poll(entry);
+                entry.due = System.nanoTime() + nextDelay();
+            } catch (InterruptedException ex) {
+                return;
+            } finally {
+                if (watched.get(entry.key) == entry) {
+                    queue.offer(entry);
+                }
+            }
+        }
+    }
+
+    private void throttle() throws InterruptedException {
+        long spacing = requestSpacing;
+        if (spacing == 0) {
+            return;
+        }
+        long wait;
+        synchronized (budgetLock) {
+            long now = System.nanoTime();
+            long start = nextRequest - now > 0 ? nextRequest : now;
+            nextRequest = start + spacing;
+            wait = start - now;
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private long nextDelay() {
+        double offset = jitter * (random.nextDouble() * 2 - 1);
+        return (long) (interval * (1 + offset));
+    }
+
+    private void poll(WatchEntry entry) {
+        FishbansPlayer current;
+        try {
+            if (entry.previous == null) {
+                current = entry.uuid != null ? Fishbans.getFishbanPlayer(entry.uuid) : Fishbans.getFishbanPlayer(entry.name);
+            } else {
+                current = entry.uuid != null ? Fishbans.revalidate(entry.uuid) : Fishbans.revalidate(entry.name);
+            }
+        } catch (IOException ex) {
+            return;
+        } catch (NoSuchUserException ex) {
+            return;
+        } catch (NoSuchUUIDException ex) {
+            return;
+        }
+        FishbansPlayer previous = entry.previous;
+        entry.previous = current;
+        if (previous == null || current == null || previous.getFingerprint() == current.getFingerprint()) {
+            return;
+        }
+        List<Ban> added = difference(current.getBanList(), previous.getBanList());
+        List<Ban> removed = difference(previous.getBanList(), current.getBanList());
+        if (added.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        BanChangeEvent event = new BanChangeEvent(entry.key, previous, current, added, removed);
+        for (BanChangeListener listener : listeners) {
+            try {
+                listener.onBanChange(event);
+            } catch (RuntimeException ex) {
+            }
+        }
+    }
+
+    private static List<Ban> difference(List<Ban> from, List<Ban> minus) {
+        HashMap<Ban, Integer> remaining = new HashMap<Ban, Integer>();
+        for (Ban ban : minus) {
+            Integer count = remaining.get(ban);
+            remaining.put(ban, count == null ? 1 : count + 1);
+        }
+        LinkedList<Ban> result = new LinkedList<Ban>();
+        for (Ban ban : from) {
+            Integer count = remaining.get(ban);
+            if (count == null) {
+                result.add(ban);
+            } else if (count == 1) {
+                remaining.remove(ban);
+            } else {
+                remaining.put(ban, count - 1);
+            }
+        }
+        return new ImmutableArrayList<Ban>(result);
+    }
+
+    private static class WatchEntry implements Delayed {
+
+        private final String key;
+        private final String name;
+        private final UUID uuid;
+        private volatile long due;
+        private FishbansPlayer previous;
+
+        private WatchEntry(String key, String name, UUID uuid) {
+            this.key = key;
+            this.name = name;
+            this.uuid = uuid;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            long diff = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+    }
+}
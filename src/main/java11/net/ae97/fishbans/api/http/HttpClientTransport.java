@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import net.ae97.fishbans.api.util.LookupExecutors;
+
+/**
+ * A {@link HttpTransport} using {@link HttpClient}. Requests to the same host
+ * share connections, using HTTP/2 over https where the server supports it,
+ * and asynchronous requests do not tie up a thread while waiting.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public class HttpClientTransport implements HttpTransport {
+
+    private final HttpClient client;
+    private final Duration timeout;
+
+    public HttpClientTransport() {
+        this(Duration.ofSeconds(10));
+    }
+
+    /**
+     * Creates a transport with the given timeout.
+     *
+     * @param timeout Connect and response timeout
+     */
+    public HttpClientTransport(Duration timeout) {
+        this.timeout = timeout;
+        this.client = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(timeout)
+                .executor(Executors.newCachedThreadPool(LookupExecutors.newThreadFactory("HttpClient")))
+                .build();
+    }
+
+    @Override
+    public HttpResponse get(String url, Map<String, String> headers) throws IOException {
+        try {
+            return convert(client.send(request(url, headers), java.net.http.HttpResponse.BodyHandlers.ofByteArray()));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while requesting " + url);
+        }
+    }
+
+    /**
+     * {@inheritDoc} Cancelling the future cancels the exchange itself, not
+     * only the conversion of its response.
+     */
+    @Override
+    public Future<HttpResponse> getAsync(String url, Map<String, String> headers) {
+        CompletableFuture<java.net.http.HttpResponse<byte[]>> exchange = client.sendAsync(request(url, headers), java.net.http.HttpResponse.BodyHandlers.ofByteArray());
+        CompletableFuture<HttpResponse> response = exchange.thenApply(HttpClientTransport::convert);
+        response.whenComplete((converted, error) -> {
+            if (error instanceof CancellationException) {
+                exchange.cancel(true);
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Builds a request. Plain http is sent as HTTP/1.1, since asking for
+     * HTTP/2 there makes every new connection attempt an h2c upgrade; https
+     * negotiates HTTP/2 while connecting.
+     */
+    private HttpRequest request(String url, Map<String, String> headers) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url)).timeout(timeout).GET();
+        if (url.regionMatches(true, 0, "http:", 0, 5)) {
+            builder.version(HttpClient.Version.HTTP_1_1);
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        return builder.build();
+    }
+
+    private static HttpResponse convert(java.net.http.HttpResponse<byte[]> response) {
+        Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+            if (!header.getValue().isEmpty()) {
+                headers.put(header.getKey().toLowerCase(), header.getValue().get(0));
+            }
+        }
+        return new HttpResponse(response.statusCode(), headers, response.body());
+    }
+}
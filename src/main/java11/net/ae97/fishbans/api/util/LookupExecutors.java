@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the threads which run blocking lookups. This is the Java 11
+ * version of this class, which uses virtual threads when the JVM supports
+ * them (Java 21 and newer) and platform daemon threads otherwise.
+ *
+ * @since 1.1
+ *
+ * @author Lord_Ralex
+ */
+public final class LookupExecutors {
+
+    private static final Method ofVirtual;
+    private static final Method name;
+    private static final Method factory;
+
+    static {
+        Method virtual = null;
+        Method naming = null;
+        Method building = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            virtual = Thread.class.getMethod("ofVirtual");
+            naming = builder.getMethod("name", String.class, long.class);
+            building = builder.getMethod("factory");
+            building.invoke(naming.invoke(virtual.invoke(null), "FishbansAPI-Probe-", 0L));
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            virtual = null;
+        }
+        ofVirtual = virtual;
+        name = naming;
+        factory = building;
+    }
+
+    private LookupExecutors() {
+    }
+
+    /**
+     * Creates a {@link ThreadFactory} for threads which spend most of their
+     * time waiting on the network.
+     *
+     * @param threadName Name used for the threads
+     *
+     * @return A new thread factory
+     */
+    public static ThreadFactory newThreadFactory(String threadName) {
+        if (ofVirtual != null) {
+            try {
+                return (ThreadFactory) factory.invoke(name.invoke(ofVirtual.invoke(null), "FishbansAPI-" + threadName + "-", 1L));
+            } catch (ReflectiveOperationException ex) {
+            }
+        }
+        return new DaemonThreadFactory(threadName);
+    }
+
+    /**
+     * Returns whether threads created by this class are virtual threads.
+     *
+     * @return True if virtual threads are used, false otherwise
+     */
+    public static boolean isVirtual() {
+        return ofVirtual != null;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import net.ae97.fishbans.api.index.BanIndex;
+import net.ae97.fishbans.api.index.BanQuery;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for {@link BanIndex} and {@link BanQuery}, including the time a query
+ * takes over a large index.
+ *
+ * @author Lord_Ralex
+ */
+public class BanIndexTest {
+
+    private static final BanServices MCBANS = BanServices.getService("MCBANS");
+    private static final BanServices GLIZER = BanServices.getService("GLIZER");
+    private static final int LARGE_INDEX = 500000;
+    private static final long QUERY_BUDGET_NANOS = 1000000;
+    private static HttpTransport previousTransport;
+    private final Map<String, String> services = new ConcurrentHashMap<String, String>();
+    private final BanIndex index = new BanIndex();
+
+    @BeforeClass
+    public static void setUpClass() {
+        previousTransport = Fishbans.getTransport();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Fishbans.setTransport(previousTransport);
+    }
+
+    @Before
+    public void setUp() {
+        Fishbans.setTransport(new StubTransport() {
+            @Override
+            protected HttpResponse answer(String url, Map<String, String> headers) throws IOException {
+                String name = lastSegment(url);
+                return respond(player(name, uuidOf(name), services.get(name)));
+            }
+        });
+        Fishbans.clearCache();
+        Fishbans.addCacheListener(index);
+    }
+
+    @After
+    public void tearDown() {
+        Fishbans.removeCacheListener(index);
+        Fishbans.setLazyDecoding(false);
+        Fishbans.clearCache();
+    }
+
+    @Test
+    public void testQueriesByServiceAndServer() throws Exception {
+        cache("Notch", "\"mcbans\":{\"bans\":1,\"ban_info\":{\"a.example\":\"grief\"}}");
+        cache("jeb_", "\"mcbans\":{\"bans\":1,\"ban_info\":{\"B.example\":\"xray\"}},\"glizer\":{\"bans\":1,\"ban_info\":{\"c.example\":\"spam\"}}");
+        cache("Dinnerbone", "\"glizer\":{\"bans\":1,\"ban_info\":{\"b.example\":\"grief\"}}");
+        cache("Clean", "");
+        Assert.assertEquals(4, index.size());
+        Assert.assertEquals(names("Notch", "jeb_"), names(index.query(BanQuery.service(MCBANS))));
+        Assert.assertEquals(names("jeb_", "Dinnerbone"), names(index.query(BanQuery.server("b.EXAMPLE"))));
+        Assert.assertEquals(names("jeb_"), names(index.query(BanQuery.service(MCBANS).and(BanQuery.service(GLIZER)))));
+        Assert.assertEquals(3, index.count(BanQuery.server("a.example").or(BanQuery.service(GLIZER))));
+        Assert.assertEquals(0, index.count(BanQuery.server("unknown.example")));
+    }
+
+    @Test
+    public void testQueriesReturnCachedPlayers() throws Exception {
+        FishbansPlayer notch = cache("Notch", "\"mcbans\":{\"bans\":1,\"ban_info\":{\"a.example\":\"grief\"}}");
+        Assert.assertSame(notch, index.query(BanQuery.service(MCBANS)).get(0));
+        Fishbans.invalidate("Notch");
+        Assert.assertEquals(0, index.size());
+        index.entryAdded(notch);
+        Assert.assertEquals("Players which left the cache are left out", 0, index.query(BanQuery.service(MCBANS)).size());
+    }
+
+    @Test
+    public void testLazyPlayersAreIndexedLikeDecodedOnes() throws Exception {
+        String json = "\"mcbans\":{\"bans\":2,\"ban_info\":{\"a.example\":\"grief\",\"B.example\":\"xray\"}},"
+                + "\"glizer\":{\"bans\":1,\"ban_info\":{\"c.example\":\"spam\"}}";
+        Fishbans.setLazyDecoding(true);
+        FishbansPlayer lazy = cache("Notch", json);
+        FishbansPlayer decoded = ResponseDecoder.decodePlayer("Notch", StubTransport.utf8(StubTransport.player("Notch", StubTransport.uuidOf("Notch"), json)));
+        Assert.assertEquals(decoded.getServers(MCBANS), lazy.getServers(MCBANS));
+        Assert.assertEquals(Arrays.asList("c.example"), lazy.getServers(GLIZER));
+        Assert.assertEquals(1, index.count(BanQuery.server("b.example").and(BanQuery.service(GLIZER))));
+        index.entryRemoved(decoded);
+        Assert.assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testReplacementIsReindexed() {
+        FishbansPlayer old = player("Notch", new Ban(MCBANS, "a.example", "grief"));
+        FishbansPlayer updated = player("Notch", new Ban(GLIZER, "b.example", "grief"));
+        index.entryAdded(old);
+        index.entryAdded(updated);
+        Assert.assertEquals(1, index.size());
+        Assert.assertEquals(0, index.count(BanQuery.server("a.example")));
+        Assert.assertEquals(1, index.count(BanQuery.server("b.example")));
+        // The removal of the replaced record arrives after the replacement
+        index.entryRemoved(old);
+        Assert.assertEquals(1, index.count(BanQuery.server("b.example")));
+        index.entryRemoved(player("Notch", new Ban(GLIZER, "b.example", "grief")));
+        Assert.assertEquals(0, index.size());
+        Assert.assertEquals(0, index.count(BanQuery.service(GLIZER)));
+    }
+
+    @Test
+    public void testIdsAreReusedAndClearEmpties() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            cache("player" + i, "\"mcbans\":{\"bans\":1,\"ban_info\":{\"s" + (i % 3) + ".example\":\"grief\"}}");
+        }
+        for (int i = 0; i < 200; i += 2) {
+            Fishbans.invalidate("player" + i);
+        }
+        Assert.assertEquals(100, index.count(BanQuery.service(MCBANS)));
+        for (FishbansPlayer player : index.query(BanQuery.service(MCBANS))) {
+            Assert.assertTrue(player.getName(), Integer.parseInt(player.getName().substring(6)) % 2 == 1);
+        }
+        for (int i = 0; i < 200; i += 2) {
+            Fishbans.getFishbanPlayer("player" + i);
+        }
+        Assert.assertEquals(200, index.count(BanQuery.service(MCBANS)));
+        Assert.assertEquals(200, index.query(BanQuery.service(MCBANS)).size());
+        Fishbans.clearCache();
+        Assert.assertEquals(0, index.size());
+        Assert.assertTrue(index.query(BanQuery.service(MCBANS)).isEmpty());
+    }
+
+    @Test
+    public void testQueriesOnLargeIndexStayUnderBudget() throws Exception {
+        Ban[] common = {new Ban(MCBANS, "big1.example", "grief"), new Ban(GLIZER, "big2.example", "xray")};
+        for (int i = 0; i < LARGE_INDEX; i++) {
+            if (i % 10000 == 0) {
+                cache("player" + i, "\"mcbans\":{\"bans\":2,\"ban_info\":{\"big1.example\":\"grief\",\"rare.example\":\"grief\"}}");
+            } else {
+                index.entryAdded(new FishbansPlayer(Collections.singletonList(common[i % 2]), "player" + i, new UUID(0, i)));
+            }
+        }
+        Assert.assertEquals(LARGE_INDEX, index.size());
+        long service = median(index, BanQuery.service(MCBANS), false);
+        long combined = median(index, BanQuery.service(MCBANS).or(BanQuery.server("big2.example")), false);
+        long selective = median(index, BanQuery.server("rare.example").and(BanQuery.service(MCBANS)), true);
+        Assert.assertEquals(LARGE_INDEX / 10000, index.query(BanQuery.server("rare.example")).size());
+        Assert.assertTrue("Service count took " + service + " ns", service < QUERY_BUDGET_NANOS);
+        Assert.assertTrue("Combined count took " + combined + " ns", combined < QUERY_BUDGET_NANOS);
+        Assert.assertTrue("Selective query took " + selective + " ns", selective < QUERY_BUDGET_NANOS);
+    }
+
+    /**
+     * Runs a query until the JIT has compiled it, then returns the median of
+     * further runs.
+     */
+    private static long median(BanIndex index, BanQuery query, boolean list) {
+        int expected = list ? index.query(query).size() : index.count(query);
+        for (int i = 0; i < 2000; i++) {
+            Assert.assertEquals(expected, list ? index.query(query).size() : index.count(query));
+        }
+        long[] times = new long[201];
+        for (int i = 0; i < times.length; i++) {
+            long start = System.nanoTime();
+            int found = list ? index.query(query).size() : index.count(query);
+            times[i] = System.nanoTime() - start;
+            Assert.assertEquals(expected, found);
+        }
+        Arrays.sort(times);
+        return times[times.length / 2];
+    }
+
+    /**
+     * Looks up a player, with the given JSON as its service object, which
+     * adds it to the cache and so to the index.
+     */
+    private FishbansPlayer cache(String name, String json) throws Exception {
+        services.put(name, json);
+        return Fishbans.getFishbanPlayer(name);
+    }
+
+    private static FishbansPlayer player(String name, Ban... bans) {
+        return new FishbansPlayer(Arrays.asList(bans), name, StubTransport.uuidOf(name));
+    }
+
+    private static List<String> names(String... names) {
+        List<String> sorted = new ArrayList<String>(Arrays.asList(names));
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static List<String> names(List<FishbansPlayer> players) {
+        List<String> sorted = new ArrayList<String>();
+        for (FishbansPlayer player : players) {
+            sorted.add(player.getName());
+        }
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
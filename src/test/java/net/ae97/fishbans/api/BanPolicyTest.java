@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the rules of {@link BanPolicy} and how its verdicts are remembered.
+ *
+ * @author Lord_Ralex
+ */
+public class BanPolicyTest {
+
+    private static final BanServices MCBANS = BanServices.getService("mcbans");
+    private static final BanServices MINEBANS = BanServices.getService("minebans");
+    private static final BanServices MCBLOCKIT = BanServices.getService("mcblockit");
+
+    @Test
+    public void testDefaultAllowsEveryone() {
+        BanPolicy policy = BanPolicy.builder().build();
+        Assert.assertEquals(Verdict.ALLOW, policy.evaluate(player(MCBANS, "a", MCBANS, "b", MINEBANS, "c")));
+        Assert.assertEquals(Verdict.ALLOW, policy.evaluate(player()));
+    }
+
+    @Test
+    public void testMaxBansCountsEveryService() {
+        BanPolicy policy = BanPolicy.builder().maxBans(1).build();
+        Assert.assertEquals(Verdict.ALLOW, policy.evaluate(player(MCBANS, "a")));
+        Assert.assertEquals(Verdict.DENY, policy.evaluate(player(MCBANS, "a", MINEBANS, "b")));
+        Assert.assertEquals(Verdict.DENY, policy.evaluate(player(MCBANS, "a", MCBLOCKIT, "b")));
+    }
+
+    @Test
+    public void testExcludedServicesAreNotCounted() {
+        BanPolicy policy = BanPolicy.builder().maxBans(0).exclude(MINEBANS).build();
+        Assert.assertEquals(Verdict.ALLOW, policy.evaluate(player(MINEBANS, "a", MINEBANS, "b")));
+        Assert.assertEquals(Verdict.DENY, policy.evaluate(player(MINEBANS, "a", MCBANS, "b")));
+    }
+
+    @Test
+    public void testIgnoreLegacy() {
+        BanPolicy policy = BanPolicy.builder().maxBans(0).ignoreLegacy().build();
+        Assert.assertTrue(MCBLOCKIT.isLegacy());
+        Assert.assertEquals(Verdict.ALLOW, policy.evaluate(player(MCBLOCKIT, "a")));
+        Assert.assertEquals(Verdict.DENY, policy.evaluate(player(MCBLOCKIT, "a", MCBANS, "b")));
+    }
+
+    @Test
+    public void testIncludeOverridesExcludeAndLegacy() {
+        BanPolicy policy = BanPolicy.builder().maxBans(0).include(MCBLOCKIT).exclude(MCBLOCKIT).ignoreLegacy().build();
+        Assert.assertEquals(Verdict.DENY, policy.evaluate(player(MCBLOCKIT, "a")));
+        Assert.assertEquals(Verdict.ALLOW, policy.evaluate(player(MCBANS, "a", MINEBANS, "b")));
+    }
+
+    @Test
+    public void testServiceLimits() {
+        BanPolicy policy = BanPolicy.builder().maxBans(MCBANS, 1).build();
+        Assert.assertEquals(Verdict.ALLOW, policy.evaluate(player(MCBANS, "a", MINEBANS, "b", MINEBANS, "c")));
+        Assert.assertEquals(Verdict.DENY, policy.evaluate(player(MCBANS, "a", MCBANS, "b")));
+
+        BanPolicy excluded = BanPolicy.builder().maxBans(MCBANS, 0).exclude(MCBANS).build();
+        Assert.assertEquals("Limit on an uncounted service applied", Verdict.ALLOW, excluded.evaluate(player(MCBANS, "a")));
+    }
+
+    @Test
+    public void testAllowedServersAreNotCounted() {
+        BanPolicy policy = BanPolicy.builder().maxBans(0).maxBans(MCBANS, 0).allowServer("Friendly.Example.com").build();
+        Assert.assertEquals(Verdict.ALLOW, policy.evaluate(player(MCBANS, "friendly.example.com")));
+        Assert.assertEquals(Verdict.DENY, policy.evaluate(player(MCBANS, "friendly.example.com", MINEBANS, "other.example.com")));
+    }
+
+    @Test
+    public void testDeniedServersAlwaysDeny() {
+        BanPolicy policy = BanPolicy.builder().exclude(MINEBANS).denyServer("Strict.example.com").build();
+        Assert.assertEquals(Verdict.DENY, policy.evaluate(player(MINEBANS, "STRICT.example.com")));
+        Assert.assertEquals(Verdict.ALLOW, policy.evaluate(player(MINEBANS, "other.example.com")));
+
+        BanPolicy both = BanPolicy.builder().allowServer("x.example.com").denyServer("x.example.com").build();
+        Assert.assertEquals(Verdict.DENY, both.evaluate(player(MCBANS, "x.example.com")));
+    }
+
+    @Test
+    public void testLazyPlayersGiveTheSameVerdicts() throws Exception {
+        String services = "\"mcbans\":{\"bans\":2,\"ban_info\":{\"a.example.com\":\"grief\",\"b.example.com\":\"xray\"}},"
+                + "\"mcblockit\":{\"bans\":1,\"ban_info\":{\"c.example.com\":\"grief\"}}";
+        byte[] body = StubTransport.utf8(StubTransport.player("Steve", StubTransport.uuidOf("Steve"), services));
+        BanPolicy[] policies = {
+            BanPolicy.builder().maxBans(2).build(),
+            BanPolicy.builder().maxBans(2).ignoreLegacy().build(),
+            BanPolicy.builder().maxBans(MCBANS, 1).build(),
+            BanPolicy.builder().denyServer("c.example.com").build()
+        };
+        for (BanPolicy policy : policies) {
+            Assert.assertEquals(policy.evaluate(ResponseDecoder.decodePlayer("Steve", body)), policy.evaluate(CompactBans.parse("Steve", body)));
+        }
+    }
+
+    @Test
+    public void testRememberedVerdictIsBounded() {
+        FishbansPlayer player = player(MCBANS, "a");
+        BanPolicy strict = BanPolicy.builder().maxBans(0).build();
+        Assert.assertEquals(Verdict.DENY, strict.evaluate(player));
+        Assert.assertEquals(Verdict.DENY, player.getVerdict(strict));
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertEquals(Verdict.ALLOW, BanPolicy.builder().build().evaluate(player));
+        }
+        Assert.assertNull(player.getVerdict(strict));
+        Assert.assertEquals(Verdict.DENY, strict.evaluate(player));
+    }
+
+    /**
+     * Builds a player from pairs of service and server.
+     */
+    private static FishbansPlayer player(Object... bans) {
+        List<Ban> list = new ArrayList<Ban>();
+        for (int i = 0; i < bans.length; i += 2) {
+            list.add(new Ban((BanServices) bans[i], (String) bans[i + 1], "grief"));
+        }
+        return new FishbansPlayer(list, "Steve", StubTransport.uuidOf("Steve"));
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.ae97.fishbans.api.cache.TtlPolicy;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import net.ae97.fishbans.api.watch.BanChangeEvent;
+import net.ae97.fishbans.api.watch.BanChangeListener;
+import net.ae97.fishbans.api.watch.BanWatcher;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests polling watched players for ban changes with {@link BanWatcher}.
+ *
+ * @author Lord_Ralex
+ */
+public class BanWatcherTest {
+
+    private static final long INTERVAL = 20;
+    private static final UUID STEVE = StubTransport.uuidOf("Steve");
+    private static HttpTransport previousTransport;
+    private static TtlPolicy previousPolicy;
+    private final ChangingTransport upstream = new ChangingTransport();
+    private final BlockingQueue<BanChangeEvent> events = new LinkedBlockingQueue<BanChangeEvent>();
+    private BanWatcher watcher;
+
+    @BeforeClass
+    public static void setUpClass() {
+        previousTransport = Fishbans.getTransport();
+        previousPolicy = Fishbans.getTtlPolicy();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Fishbans.setTransport(previousTransport);
+        Fishbans.setTtlPolicy(previousPolicy);
+    }
+
+    @Before
+    public void setUp() {
+        Fishbans.setTransport(upstream);
+        Fishbans.setTtlPolicy(TtlPolicy.fixed(1, TimeUnit.MINUTES));
+        Fishbans.clearCache();
+        watcher = new BanWatcher(INTERVAL, TimeUnit.MILLISECONDS);
+        watcher.setJitter(0);
+        watcher.addListener(new BanChangeListener() {
+            @Override
+            public void onBanChange(BanChangeEvent event) {
+                events.add(event);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        watcher.stop();
+        upstream.release.countDown();
+        Fishbans.clearCache();
+    }
+
+    @Test
+    public void testReportsAddedAndRemovedBans() throws Exception {
+        watcher.watch("Steve");
+        watcher.start();
+        awaitPolls(2);
+        upstream.server = "b.example.com";
+        BanChangeEvent event = events.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull("No change reported", event);
+        Assert.assertEquals("steve", event.getKey());
+        Assert.assertEquals(1, event.getAddedBans().size());
+        Assert.assertEquals("b.example.com", event.getAddedBans().get(0).getServer());
+        Assert.assertEquals(1, event.getRemovedBans().size());
+        Assert.assertEquals("a.example.com", event.getRemovedBans().get(0).getServer());
+        Assert.assertSame(event.getPlayer(), Fishbans.getFishbanPlayer("Steve"));
+    }
+
+    @Test
+    public void testUnchangedPlayerIsRevalidated() throws Exception {
+        FishbansPlayer cached = Fishbans.getFishbanPlayer("Steve");
+        watcher.watch("Steve");
+        watcher.start();
+        awaitPolls(6);
+        watcher.stop();
+        Assert.assertTrue("Fresh players were not checked", upstream.requests.get() > 1);
+        Assert.assertEquals("Polls downloaded the player again", 1, upstream.downloads.get());
+        Assert.assertNull(events.poll());
+        Assert.assertSame(cached, Fishbans.getFishbanPlayer("Steve"));
+    }
+
+    @Test
+    public void testUuidPollsSkipMojang() throws Exception {
+        watcher.watch(STEVE);
+        watcher.start();
+        awaitPolls(6);
+        Assert.assertEquals(1, upstream.mojang.get());
+    }
+
+    @Test
+    public void testRestartLeavesOneLoop() throws Exception {
+        watcher.watch("Steve");
+        watcher.start();
+        awaitPolls(2);
+        upstream.slow = true;
+        Assert.assertTrue(upstream.entered.await(5, TimeUnit.SECONDS));
+        watcher.stop();
+        watcher.start();
+        upstream.slow = false;
+        upstream.release.countDown();
+        awaitPolls(upstream.polls.get() + 2);
+        Thread.sleep(INTERVAL * 5);
+        Assert.assertEquals(1, watcherThreads());
+        watcher.stop();
+        Thread.sleep(INTERVAL * 5);
+        Assert.assertEquals(0, watcherThreads());
+    }
+
+    private void awaitPolls(int polls) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (upstream.polls.get() < polls && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertTrue("Watcher stopped polling", upstream.polls.get() >= polls);
+    }
+
+    private static int watcherThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("FishbansAPI-Watcher") && thread.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Serves Steve with one ban from a server that may be changed, tagging
+     * each version so unchanged polls are answered with 304. While slow, a
+     * poll ignores interrupts until released, like a blocking socket read.
+     */
+    private static class ChangingTransport extends StubTransport {
+
+        private final AtomicInteger polls = new AtomicInteger();
+        private final AtomicInteger downloads = new AtomicInteger();
+        private final AtomicInteger mojang = new AtomicInteger();
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile String server = "a.example.com";
+        private volatile boolean slow;
+
+        @Override
+        protected HttpResponse answer(String url, Map<String, String> headers) {
+            if (url.contains("mojang")) {
+                mojang.incrementAndGet();
+                return respond(profile("Steve", STEVE));
+            }
+            if (slow) {
+                entered.countDown();
+                while (release.getCount() > 0) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException ex) {
+                    }
+                }
+            }
+            polls.incrementAndGet();
+            String etag = "\"" + server + "\"";
+            Map<String, String> responseHeaders = new HashMap<String, String>();
+            responseHeaders.put("etag", etag);
+            if (etag.equals(headers.get("If-None-Match"))) {
+                return new HttpResponse(304, responseHeaders, new byte[0]);
+            }
+            downloads.incrementAndGet();
+            String services = "\"mcbans\":{\"bans\":1,\"ban_info\":{\"" + server + "\":\"grief\"}}";
+            return new HttpResponse(200, responseHeaders, utf8(player("Steve", STEVE, services)));
+        }
+    }
+}
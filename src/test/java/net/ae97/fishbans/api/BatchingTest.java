@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.ae97.fishbans.api.exceptions.NoSuchUserException;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for batching lookups which miss the cache close together, see
+ * {@link Fishbans#setBatching(long, TimeUnit, int)}.
+ *
+ * @author Lord_Ralex
+ */
+public class BatchingTest {
+
+    private static HttpTransport previous;
+    private final PipelinedTransport upstream = new PipelinedTransport();
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+
+    @BeforeClass
+    public static void setUpClass() {
+        previous = Fishbans.getTransport();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Fishbans.setTransport(previous);
+    }
+
+    @Before
+    public void setUp() {
+        Fishbans.setTransport(upstream);
+        Fishbans.clearCache();
+    }
+
+    @After
+    public void tearDown() {
+        Fishbans.setBatching(0, TimeUnit.MILLISECONDS, 32);
+        Fishbans.clearCache();
+        callers.shutdownNow();
+        upstream.executor.shutdownNow();
+    }
+
+    @Test
+    public void testBurstIsBatchedAndDeduplicated() throws Exception {
+        Fishbans.setBatching(100, TimeUnit.MILLISECONDS, 64);
+        long batches = Fishbans.getStatistics().getBatches();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<FishbansPlayer>> results = new ArrayList<Future<FishbansPlayer>>();
+        for (int i = 0; i < 40; i++) {
+            final String name = "Player" + (i % 10);
+            results.add(callers.submit(new Callable<FishbansPlayer>() {
+                @Override
+                public FishbansPlayer call() throws Exception {
+                    start.await();
+                    return Fishbans.getFishbanPlayer(name);
+                }
+            }));
+        }
+        start.countDown();
+        for (int i = 0; i < results.size(); i++) {
+            Assert.assertEquals("Player" + (i % 10), results.get(i).get(5, TimeUnit.SECONDS).getName());
+        }
+        Assert.assertEquals(10, upstream.requests.get());
+        Assert.assertEquals(10, upstream.maxActive.get());
+        Assert.assertEquals(batches + 1, Fishbans.getStatistics().getBatches());
+    }
+
+    @Test
+    public void testFullBatchIsSentWithoutWaiting() throws Exception {
+        Fishbans.setBatching(1, TimeUnit.MINUTES, 4);
+        List<Future<FishbansPlayer>> results = new ArrayList<Future<FishbansPlayer>>();
+        for (int i = 0; i < 4; i++) {
+            final String name = "Player" + i;
+            results.add(callers.submit(new Callable<FishbansPlayer>() {
+                @Override
+                public FishbansPlayer call() throws Exception {
+                    return Fishbans.getFishbanPlayer(name);
+                }
+            }));
+        }
+        for (Future<FishbansPlayer> result : results) {
+            Assert.assertNotNull(result.get(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(4, upstream.requests.get());
+    }
+
+    @Test
+    public void testEachLookupCompletesOnItsOwn() throws Exception {
+        Fishbans.setBatching(50, TimeUnit.MILLISECONDS, 64);
+        upstream.delays.put("slow", 2000L);
+        Future<FishbansPlayer> slow = callers.submit(new Callable<FishbansPlayer>() {
+            @Override
+            public FishbansPlayer call() throws Exception {
+                return Fishbans.getFishbanPlayer("Slow");
+            }
+        });
+        Future<FishbansPlayer> fast = callers.submit(new Callable<FishbansPlayer>() {
+            @Override
+            public FishbansPlayer call() throws Exception {
+                return Fishbans.getFishbanPlayer("Fast");
+            }
+        });
+        Assert.assertEquals("Fast", fast.get(1, TimeUnit.SECONDS).getName());
+        Assert.assertFalse(slow.isDone());
+        Assert.assertEquals("Slow", slow.get(5, TimeUnit.SECONDS).getName());
+    }
+
+    @Test
+    public void testErrorsReachOnlyTheirCaller() throws Exception {
+        Fishbans.setBatching(50, TimeUnit.MILLISECONDS, 64);
+        Future<FishbansPlayer> missing = callers.submit(new Callable<FishbansPlayer>() {
+            @Override
+            public FishbansPlayer call() throws Exception {
+                return Fishbans.getFishbanPlayer("Missing");
+            }
+        });
+        Future<FishbansPlayer> found = callers.submit(new Callable<FishbansPlayer>() {
+            @Override
+            public FishbansPlayer call() throws Exception {
+                return Fishbans.getFishbanPlayer("Found");
+            }
+        });
+        Assert.assertEquals("Found", found.get(5, TimeUnit.SECONDS).getName());
+        try {
+            missing.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected NoSuchUserException");
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof NoSuchUserException);
+        }
+    }
+
+    /**
+     * Answers asynchronous requests on their own threads after a short delay,
+     * recording how many were outstanding at once.
+     */
+    private static class PipelinedTransport extends StubTransport {
+
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger maxActive = new AtomicInteger();
+        private final Map<String, Long> delays = new ConcurrentHashMap<String, Long>();
+
+        @Override
+        protected HttpResponse answer(String url, Map<String, String> headers) {
+            String name = lastSegment(url);
+            if (name.equalsIgnoreCase("missing")) {
+                return respond("{\"success\":false,\"error\":\"No user found\"}");
+            }
+            return respond(player(name, uuidOf(name), ""));
+        }
+
+        @Override
+        public Future<HttpResponse> getAsync(final String url, final Map<String, String> headers) {
+            int now = active.incrementAndGet();
+            while (true) {
+                int max = maxActive.get();
+                if (now <= max || maxActive.compareAndSet(max, now)) {
+                    break;
+                }
+            }
+            final Long delay = delays.get(lastSegment(url).toLowerCase());
+            return executor.submit(new Callable<HttpResponse>() {
+                @Override
+                public HttpResponse call() throws Exception {
+                    try {
+                        Thread.sleep(delay == null ? 20 : delay);
+                        return get(url, headers);
+                    } finally {
+                        active.decrementAndGet();
+                    }
+                }
+            });
+        }
+    }
+}
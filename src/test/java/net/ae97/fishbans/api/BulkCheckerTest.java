@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import com.google.gson.JsonParser;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import net.ae97.fishbans.api.cli.BulkChecker;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that a {@link BulkChecker} run which is interrupted and started again
+ * from its checkpoint writes every line exactly once.
+ *
+ * @author Lord_Ralex
+ */
+public class BulkCheckerTest {
+
+    private static final int LINES = 40;
+    private static final int THREADS = 4;
+    private static final int BLOCK_FROM = 15;
+    private static HttpTransport previousTransport;
+    private final BlockingTransport upstream = new BlockingTransport();
+    private File input;
+    private File output;
+    private File checkpoint;
+
+    @BeforeClass
+    public static void setUpClass() {
+        previousTransport = Fishbans.getTransport();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Fishbans.setTransport(previousTransport);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        Fishbans.setTransport(upstream);
+        Fishbans.setHedgePercentile(0);
+        Fishbans.clearCache();
+        input = File.createTempFile("bulk", ".txt");
+        output = File.createTempFile("bulk", ".out");
+        checkpoint = File.createTempFile("bulk", ".ckpt");
+        Assert.assertTrue(output.delete());
+        Assert.assertTrue(checkpoint.delete());
+        StringBuilder names = new StringBuilder("# players\n");
+        for (int i = 1; i <= LINES; i++) {
+            names.append("Player").append(i).append('\n');
+        }
+        write(input, names.toString(), false);
+    }
+
+    @After
+    public void tearDown() {
+        upstream.release.release(LINES);
+        Fishbans.setHedgePercentile(95);
+        Fishbans.clearCache();
+        input.delete();
+        output.delete();
+        checkpoint.delete();
+        new File(checkpoint.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void testCsvResumesAfterInterruptWithoutDuplicates() throws Exception {
+        interrupt("csv");
+        Assert.assertEquals(0, BulkChecker.execute(args("csv")));
+        String[] rows = readRows();
+        Assert.assertTrue(rows[0], rows[0].startsWith("line,key,status,"));
+        int[] seen = new int[LINES + 2];
+        for (int i = 1; i < rows.length; i++) {
+            Assert.assertFalse("Header written again", rows[i].startsWith("line,"));
+            seen[Integer.parseInt(rows[i].substring(0, rows[i].indexOf(',')))]++;
+        }
+        assertEachOnce(seen);
+    }
+
+    @Test
+    public void testJsonlResumesAfterKillWithoutDuplicates() throws Exception {
+        upstream.hold = BLOCK_FROM;
+        final int[] status = new int[1];
+        Thread runner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                status[0] = BulkChecker.execute(args("jsonl"));
+            }
+        }, "Bulk-Test");
+        runner.start();
+        byte[] saved = awaitCheckpoint(LINES - BLOCK_FROM);
+        upstream.release.release();
+        runner.join(10000);
+        Assert.assertFalse("Run did not stop", runner.isAlive());
+        Assert.assertEquals(0, status[0]);
+
+        // As if the process was killed after saving the checkpoint, with
+        // rows after it and half a row at the end of the output
+        Files.write(checkpoint.toPath(), saved);
+        write(output, "{\"line\":", true);
+        Assert.assertEquals(0, BulkChecker.execute(args("jsonl")));
+        int[] seen = new int[LINES + 2];
+        for (String row : readRows()) {
+            seen[new JsonParser().parse(row).getAsJsonObject().get("line").getAsInt()]++;
+        }
+        assertEachOnce(seen);
+    }
+
+    /**
+     * Waits for the run to save a checkpoint with the given number of lines
+     * finished after the line it stopped at.
+     */
+    private byte[] awaitCheckpoint(int after) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            if (checkpoint.isFile()) {
+                byte[] content = Files.readAllBytes(checkpoint.toPath());
+                for (String line : new String(content, "UTF-8").split("\n")) {
+                    if (line.startsWith("done ") && line.split(" ").length - 1 == after) {
+                        return content;
+                    }
+                }
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError("Checkpoint never had " + after + " lines after a gap");
+    }
+
+    /**
+     * Runs until every lookup thread waits on a player from
+     * {@link #BLOCK_FROM} on, then interrupts the run and lets those lookups
+     * finish while it stops.
+     */
+    private void interrupt(final String format) throws Exception {
+        final int[] status = new int[1];
+        Thread runner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                status[0] = BulkChecker.execute(args(format));
+            }
+        }, "Bulk-Test");
+        runner.start();
+        Assert.assertTrue("Lookups never blocked", upstream.blocked.await(10, TimeUnit.SECONDS));
+        runner.interrupt();
+        upstream.release.release(THREADS);
+        runner.join(10000);
+        Assert.assertFalse("Run did not stop", runner.isAlive());
+        Assert.assertEquals(1, status[0]);
+        Assert.assertTrue(checkpoint.isFile());
+        int rows = readRows().length - (format.equals("csv") ? 1 : 0);
+        Assert.assertTrue("Wrote " + rows + " rows before stopping", rows >= BLOCK_FROM - 1 && rows < LINES);
+    }
+
+    private String[] args(String format) {
+        return new String[]{"-i", input.getPath(), "-o", output.getPath(), "-c", checkpoint.getPath(),
+            "-f", format, "-t", String.valueOf(THREADS), "-r", "0", "-q"};
+    }
+
+    private String[] readRows() throws IOException {
+        return new String(Files.readAllBytes(output.toPath()), "UTF-8").split("\n");
+    }
+
+    private static void assertEachOnce(int[] seen) {
+        Assert.assertEquals("Comment line written", 0, seen[1]);
+        for (int line = 2; line <= LINES + 1; line++) {
+            Assert.assertEquals("Times line " + line + " was written", 1, seen[line]);
+        }
+    }
+
+    private static void write(File file, String content, boolean append) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file, append), "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Answers every player, but holds lookups until they are released: those
+     * of the first players from {@link #BLOCK_FROM} on, or if set only the
+     * one player to hold.
+     */
+    private static class BlockingTransport extends StubTransport {
+
+        private final CountDownLatch blocked = new CountDownLatch(THREADS);
+        private final Semaphore release = new Semaphore(0);
+        private volatile int hold = -1;
+
+        @Override
+        protected HttpResponse answer(String url, Map<String, String> headers) throws IOException {
+            String name = lastSegment(url);
+            int number = Integer.parseInt(name.substring("Player".length()));
+            if (hold > 0 ? number == hold : number >= BLOCK_FROM && blocked.getCount() > 0) {
+                blocked.countDown();
+                release.acquireUninterruptibly();
+            }
+            return respond(player(name, uuidOf(name), "\"mcbans\":{\"bans\":1,\"ban_info\":{\"a.example.com\":\"grief\"}}"));
+        }
+    }
+}
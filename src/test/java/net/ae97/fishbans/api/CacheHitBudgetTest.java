@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Budgets for the cache-hit path. Each operation is measured on the calling
+ * thread with the JVM's per-thread allocation counter, after a warm-up so the
+ * JIT has compiled it. The budgets are committed here on purpose: raise one
+ * only together with the change which needs it.
+ * <p>
+ * Throughput floors are far below what any machine reaches and only catch
+ * gross regressions, such as a lock or a network call on the hit path.
+ *
+ * @author Lord_Ralex
+ */
+public class CacheHitBudgetTest {
+
+    private static final int WARMUP = 200000;
+    private static final int OPERATIONS = 500000;
+    private static final int ROUNDS = 3;
+    private static final String NAME = "budgetplayer";
+    private static final UUID PLAYER_UUID = UUID.fromString("0badc0de-0000-4000-8000-00000000b00d");
+    private static final double HIT_BY_NAME_BYTES = 16;
+    private static final double HIT_BY_UUID_BYTES = 96;
+    private static final double SERVICE_LIST_BYTES = 8;
+    private static final double ITERATION_BYTES = 32;
+    private static final double MIN_OPS_PER_SECOND = 200000;
+    private static HttpTransport previous;
+    private static com.sun.management.ThreadMXBean threads;
+    private static volatile int sink;
+
+    @BeforeClass
+    public static void setUpClass() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        previous = Fishbans.getTransport();
+        Fishbans.setTransport(new FixedTransport());
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (previous != null) {
+            Fishbans.setTransport(previous);
+        }
+        Fishbans.clearCache();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Fishbans.clearCache();
+        Fishbans.getFishbanPlayer(NAME);
+    }
+
+    @Test
+    public void testHitByName() throws Exception {
+        Result result = measure(new Operation() {
+            @Override
+            public int run() throws Exception {
+                return Fishbans.getBans(NAME).size();
+            }
+        });
+        result.check("getBans(String) hit", HIT_BY_NAME_BYTES);
+    }
+
+    @Test
+    public void testHitByUUID() throws Exception {
+        Result result = measure(new Operation() {
+            @Override
+            public int run() throws Exception {
+                return Fishbans.getBans(PLAYER_UUID).size();
+            }
+        });
+        result.check("getBans(UUID) hit", HIT_BY_UUID_BYTES);
+    }
+
+    @Test
+    public void testServiceList() throws Exception {
+        final FishbansPlayer player = Fishbans.getFishbanPlayer(NAME);
+        final BanServices service = BanServices.getService("MCBANS");
+        Result result = measure(new Operation() {
+            @Override
+            public int run() {
+                return player.getBanList(service).size();
+            }
+        });
+        result.check("getBanList(BanServices)", SERVICE_LIST_BYTES);
+    }
+
+    @Test
+    public void testIteration() throws Exception {
+        final List<Ban> bans = Fishbans.getFishbanPlayer(NAME).getBanList();
+        Result result = measure(new Operation() {
+            @Override
+            public int run() {
+                int length = 0;
+                for (Ban ban : bans) {
+                    length += ban.getReason().length();
+                }
+                return length;
+            }
+        });
+        result.check("iterating " + bans.size() + " bans", ITERATION_BYTES);
+    }
+
+    private static Result measure(Operation operation) throws Exception {
+        long thread = Thread.currentThread().getId();
+        int total = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            total += operation.run();
+        }
+        Result best = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            for (int i = 0; i < OPERATIONS; i++) {
+                total += operation.run();
+            }
+            long elapsed = Math.max(1, System.nanoTime() - start);
+            Result result = new Result((threads.getThreadAllocatedBytes(thread) - bytes) / (double) OPERATIONS, OPERATIONS * 1e9 / elapsed);
+            if (best == null || result.bytesPerOperation < best.bytesPerOperation) {
+                best = new Result(result.bytesPerOperation, Math.max(result.operationsPerSecond, best == null ? 0 : best.operationsPerSecond));
+            } else {
+                best = new Result(best.bytesPerOperation, Math.max(result.operationsPerSecond, best.operationsPerSecond));
+            }
+        }
+        sink = total;
+        return best;
+    }
+
+    private interface Operation {
+
+        int run() throws Exception;
+    }
+
+    private static class Result {
+
+        private final double bytesPerOperation;
+        private final double operationsPerSecond;
+
+        private Result(double bytesPerOperation, double operationsPerSecond) {
+            this.bytesPerOperation = bytesPerOperation;
+            this.operationsPerSecond = operationsPerSecond;
+        }
+
+        private void check(String name, double byteBudget) {
+            System.out.println(String.format("%s: %.1f bytes/op, %.0f ops/s", name, bytesPerOperation, operationsPerSecond));
+            Assert.assertTrue(String.format("%s allocated %.1f bytes/op, budget is %.0f", name, bytesPerOperation, byteBudget), bytesPerOperation <= byteBudget);
+            Assert.assertTrue(String.format("%s ran at %.0f ops/s, floor is %.0f", name, operationsPerSecond, MIN_OPS_PER_SECOND), operationsPerSecond >= MIN_OPS_PER_SECOND);
+        }
+    }
+
+    /**
+     * Answers every request with the same player, who has a few bans from two
+     * services.
+     */
+    private static class FixedTransport extends StubTransport {
+
+        private final String body;
+
+        private FixedTransport() {
+            StringBuilder json = new StringBuilder("\"mcbans\":{\"bans\":6,\"ban_info\":{");
+            for (int i = 0; i < 6; i++) {
+                json.append(i == 0 ? "" : ",").append("\"server").append(i).append(".example\":\"Griefing spawn ").append(i).append('"');
+            }
+            json.append("}},\"glizer\":{\"bans\":4,\"ban_info\":{");
+            for (int i = 0; i < 4; i++) {
+                json.append(i == 0 ? "" : ",").append("\"glizer").append(i).append(".example\":\"xray\"");
+            }
+            json.append("}},\"minebans\":{\"bans\":0,\"ban_info\":[]}");
+            body = player(NAME, PLAYER_UUID, json.toString());
+        }
+
+        @Override
+        protected HttpResponse answer(String url, Map<String, String> headers) {
+            return respond(url.contains("mojang") ? profile(NAME, PLAYER_UUID) : body);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.ae97.fishbans.api.cache.CacheWarmer;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the order, pace and stopping of a {@link CacheWarmer}.
+ *
+ * @author Lord_Ralex
+ */
+public class CacheWarmerTest {
+
+    private static HttpTransport previousTransport;
+    private final WarmupTransport upstream = new WarmupTransport();
+
+    @BeforeClass
+    public static void setUpClass() {
+        previousTransport = Fishbans.getTransport();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Fishbans.setTransport(previousTransport);
+    }
+
+    @Before
+    public void setUp() {
+        Fishbans.setTransport(upstream);
+        Fishbans.setHedgePercentile(0);
+        Fishbans.clearCache();
+    }
+
+    @After
+    public void tearDown() {
+        upstream.release.countDown();
+        Fishbans.setHedgePercentile(95);
+        Fishbans.clearCache();
+    }
+
+    @Test
+    public void testOnlinePlayersComeFirst() throws Exception {
+        CacheWarmer warmer = new CacheWarmer();
+        warmer.setThreads(1);
+        warmer.setRate(1000);
+        warmer.add("Old", 1000);
+        warmer.add("Recent", 5000);
+        warmer.add("Unknown", 0);
+        warmer.addAll(Arrays.asList("OnlineB", "OnlineA"));
+        warmer.start();
+        Assert.assertTrue(warmer.awaitCompletion(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList("OnlineB", "OnlineA", "Recent", "Old", "Unknown"), upstream.started);
+        Assert.assertEquals(5, warmer.getCompleted());
+        Assert.assertEquals(0, warmer.getFailed());
+    }
+
+    @Test
+    public void testRateSpacesLookups() throws Exception {
+        CacheWarmer warmer = new CacheWarmer();
+        warmer.setRate(20);
+        for (int i = 0; i < 6; i++) {
+            warmer.add("Player" + i, 0);
+        }
+        warmer.start();
+        Assert.assertTrue(warmer.awaitCompletion(5, TimeUnit.SECONDS));
+        Assert.assertEquals(6, warmer.getCompleted());
+        List<Long> times = upstream.startTimes;
+        for (int i = 1; i < times.size(); i++) {
+            long gap = TimeUnit.NANOSECONDS.toMillis(times.get(i) - times.get(i - 1));
+            Assert.assertTrue("Lookups " + gap + " ms apart", gap >= 40);
+        }
+    }
+
+    @Test
+    public void testBudgetCancelsRunningLookups() throws Exception {
+        upstream.block = true;
+        CacheWarmer warmer = new CacheWarmer();
+        warmer.setThreads(2);
+        warmer.setRate(1000);
+        warmer.setTimeBudget(300, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 5; i++) {
+            warmer.add("Player" + i, 0);
+        }
+        long start = System.nanoTime();
+        warmer.start();
+        Assert.assertTrue(warmer.awaitCompletion(5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue("Warmed for " + elapsed + " ms", elapsed < 1500);
+        Assert.assertEquals(2, upstream.started.size());
+        Assert.assertEquals(2, upstream.abandoned.get());
+        Assert.assertEquals(0, warmer.getCompleted());
+    }
+
+    @Test
+    public void testStopCancelsRunningLookups() throws Exception {
+        upstream.block = true;
+        CacheWarmer warmer = new CacheWarmer();
+        warmer.setThreads(1);
+        warmer.setRate(1000);
+        for (int i = 0; i < 5; i++) {
+            warmer.add("Player" + i, 0);
+        }
+        warmer.start();
+        upstream.awaitStarted(1);
+        warmer.stop();
+        Assert.assertTrue(warmer.awaitCompletion(2, TimeUnit.SECONDS));
+        Assert.assertEquals(1, upstream.started.size());
+        Assert.assertEquals(1, upstream.abandoned.get());
+        Assert.assertEquals(0, warmer.getCompleted());
+    }
+
+    @Test
+    public void testStopsWhenRealLookupsStart() throws Exception {
+        CacheWarmer warmer = new CacheWarmer();
+        warmer.setRate(10);
+        for (int i = 0; i < 20; i++) {
+            warmer.add("Player" + i, 0);
+        }
+        warmer.start();
+        upstream.awaitStarted(2);
+        Fishbans.getFishbanPlayer("Visitor");
+        Assert.assertTrue(warmer.awaitCompletion(2, TimeUnit.SECONDS));
+        Assert.assertTrue("Warmed " + warmer.getCompleted() + " players", warmer.getCompleted() < 5);
+    }
+
+    @Test
+    public void testKeepsWarmingWithoutStopOnTraffic() throws Exception {
+        CacheWarmer warmer = new CacheWarmer();
+        warmer.setRate(100);
+        warmer.setStopOnTraffic(false);
+        for (int i = 0; i < 5; i++) {
+            warmer.add("Player" + i, 0);
+        }
+        warmer.start();
+        upstream.awaitStarted(1);
+        Fishbans.getFishbanPlayer("Visitor");
+        Assert.assertTrue(warmer.awaitCompletion(5, TimeUnit.SECONDS));
+        Assert.assertEquals(5, warmer.getCompleted());
+    }
+
+    /**
+     * Records which warmed players were requested and when. With block set,
+     * requests for warmed players hang, ignoring interrupts like a blocking
+     * socket read, until their future is cancelled.
+     */
+    private static class WarmupTransport extends StubTransport {
+
+        private final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        private final List<Long> startTimes = Collections.synchronizedList(new ArrayList<Long>());
+        private final AtomicInteger abandoned = new AtomicInteger();
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile boolean block = false;
+
+        @Override
+        protected HttpResponse answer(String url, Map<String, String> headers) throws IOException {
+            return answer(url, new CountDownLatch(1));
+        }
+
+        private HttpResponse answer(String url, CountDownLatch disconnected) throws IOException {
+            String name = lastSegment(url);
+            if (name.startsWith("Visitor")) {
+                return respond(player(name, uuidOf(name), ""));
+            }
+            startTimes.add(System.nanoTime());
+            started.add(name);
+            while (block && release.getCount() > 0) {
+                try {
+                    if (disconnected.await(10, TimeUnit.SECONDS)) {
+                        throw new IOException("Connection closed");
+                    }
+                } catch (InterruptedException ex) {
+                }
+            }
+            return respond(player(name, uuidOf(name), ""));
+        }
+
+        @Override
+        public Future<HttpResponse> getAsync(final String url, Map<String, String> headers) {
+            final CountDownLatch disconnected = new CountDownLatch(1);
+            FutureTask<HttpResponse> task = new FutureTask<HttpResponse>(new Callable<HttpResponse>() {
+                @Override
+                public HttpResponse call() throws IOException {
+                    requests.incrementAndGet();
+                    return answer(url, disconnected);
+                }
+            }) {
+                @Override
+                public boolean cancel(boolean mayInterruptIfRunning) {
+                    boolean cancelled = super.cancel(mayInterruptIfRunning);
+                    if (cancelled) {
+                        abandoned.incrementAndGet();
+                        disconnected.countDown();
+                    }
+                    return cancelled;
+                }
+            };
+            new Thread(task, "Warmup-Test").start();
+            return task;
+        }
+
+        private void awaitStarted(int expected) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 2000;
+            while (started.size() < expected && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            Assert.assertTrue(started.size() >= expected);
+        }
+    }
+}
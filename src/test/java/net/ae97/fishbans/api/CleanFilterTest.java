@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import net.ae97.fishbans.api.cache.CleanFilter;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CleanFilter}: sizing, rotation, removal, and that
+ * {@link Fishbans} only answers from it when asked to.
+ *
+ * @author Lord_Ralex
+ */
+public class CleanFilterTest {
+
+    private static HttpTransport previous;
+    private final BannedTransport upstream = new BannedTransport();
+
+    @BeforeClass
+    public static void setUpClass() {
+        previous = Fishbans.getTransport();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Fishbans.setTransport(previous);
+    }
+
+    @Before
+    public void setUp() {
+        Fishbans.setTransport(upstream);
+        Fishbans.clearCache();
+    }
+
+    @After
+    public void tearDown() {
+        Fishbans.setCleanFilter(null);
+        Fishbans.setTrustCleanFilter(false);
+        Fishbans.clearCache();
+    }
+
+    @Test
+    public void testFalsePositiveRateMatchesSizing() {
+        CleanFilter filter = new CleanFilter(10000, 0.01, 1, TimeUnit.HOURS);
+        for (int i = 0; i < 10000; i++) {
+            filter.add("player" + i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertTrue("Added player was forgotten", filter.isClean("player" + i));
+        }
+        Assert.assertTrue(falsePositives(filter) < 0.02);
+    }
+
+    @Test
+    public void testMemoryFollowsSizing() {
+        CleanFilter filter = new CleanFilter(1000000, 0.001, 1, TimeUnit.HOURS);
+        long bytes = filter.getMemoryUsage();
+        Assert.assertTrue("Filter used " + bytes + " bytes", bytes > 1000000 && bytes < 4 * 1024 * 1024);
+        Assert.assertEquals(0.001, filter.getFalsePositiveRate(), 0);
+    }
+
+    @Test
+    public void testOverfilledFilterForgetsOldestPlayers() {
+        CleanFilter filter = new CleanFilter(10000, 0.01, 1, TimeUnit.HOURS);
+        for (int i = 0; i < 30000; i++) {
+            filter.add("player" + i);
+        }
+        int remembered = 0;
+        for (int i = 0; i < 3000; i++) {
+            if (filter.isClean("player" + i)) {
+                remembered++;
+            }
+        }
+        Assert.assertTrue(remembered + " of the oldest players remembered", remembered < 150);
+        for (int i = 27000; i < 30000; i++) {
+            Assert.assertTrue(filter.isClean("player" + i));
+        }
+        Assert.assertTrue(falsePositives(filter) < 0.02);
+    }
+
+    @Test
+    public void testPlayersAreForgottenAfterLifetime() throws Exception {
+        CleanFilter filter = new CleanFilter(100, 0.01, 400, TimeUnit.MILLISECONDS);
+        filter.add("Notch");
+        Thread.sleep(100);
+        Assert.assertTrue(filter.isClean("Notch"));
+        Thread.sleep(500);
+        Assert.assertFalse(filter.isClean("Notch"));
+    }
+
+    @Test
+    public void testRemovedPlayerIsMasked() {
+        CleanFilter filter = new CleanFilter(100, 0.01, 1, TimeUnit.HOURS);
+        filter.add("Notch");
+        Assert.assertTrue(filter.isClean("notch"));
+        filter.remove("NOTCH");
+        Assert.assertFalse(filter.isClean("Notch"));
+        filter.add("Notch");
+        Assert.assertTrue(filter.isClean("Notch"));
+        filter.clear();
+        Assert.assertFalse(filter.isClean("Notch"));
+    }
+
+    @Test
+    public void testLookupsIgnoreFilterUnlessTrusted() throws Exception {
+        CleanFilter filter = new CleanFilter(100, 0.01, 1, TimeUnit.HOURS);
+        Fishbans.setCleanFilter(filter);
+        // Stands in for a false positive: the player has bans but is in the filter
+        filter.add("Banned");
+        Assert.assertTrue(Fishbans.isKnownClean("Banned"));
+        Assert.assertEquals(1, Fishbans.getBans("Banned", BanServices.getService("MCBANS")).size());
+        Assert.assertEquals(1, upstream.requests.get());
+
+        Fishbans.clearCache();
+        filter.add("Banned");
+        Fishbans.setTrustCleanFilter(true);
+        Assert.assertEquals(0, Fishbans.getBanCount("Banned"));
+        Assert.assertTrue(Fishbans.getBans("Banned", BanServices.getService("MCBANS")).isEmpty());
+        Assert.assertEquals(Verdict.ALLOW, BanPolicy.builder().maxBans(0).build().check("Banned"));
+        Assert.assertEquals(1, upstream.requests.get());
+    }
+
+    @Test
+    public void testBannedPlayerIsRemovedFromFilter() throws Exception {
+        CleanFilter filter = new CleanFilter(100, 0.01, 1, TimeUnit.HOURS);
+        Fishbans.setCleanFilter(filter);
+        filter.add("Banned");
+        Fishbans.getFishbanPlayer("Banned");
+        Assert.assertFalse(filter.isClean("Banned"));
+        Fishbans.getFishbanPlayer("Clean");
+        Assert.assertTrue(filter.isClean("Clean"));
+        Assert.assertTrue(filter.isClean(StubTransport.uuidOf("Clean").toString()));
+    }
+
+    private static double falsePositives(CleanFilter filter) {
+        int found = 0;
+        int tries = 100000;
+        for (int i = 0; i < tries; i++) {
+            if (filter.isClean("stranger" + i)) {
+                found++;
+            }
+        }
+        return (double) found / tries;
+    }
+
+    /**
+     * Gives players named Banned one ban, and everyone else none.
+     */
+    private static class BannedTransport extends StubTransport {
+
+        @Override
+        protected HttpResponse answer(String url, Map<String, String> headers) {
+            String name = lastSegment(url);
+            if (url.contains("/bans/") && url.endsWith("/mcbans")) {
+                name = url.substring(0, url.lastIndexOf('/'));
+                name = lastSegment(name);
+            }
+            String services = name.equalsIgnoreCase("banned") ? "\"mcbans\":{\"bans\":1,\"ban_info\":{\"a.example.com\":\"grief\"}}" : "";
+            return respond(player(name, uuidOf(name), services));
+        }
+    }
+}
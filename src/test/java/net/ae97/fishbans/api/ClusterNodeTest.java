@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.ae97.fishbans.api.cluster.ClusterNode;
+import net.ae97.fishbans.api.exceptions.NoSuchUserException;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ClusterNode}, with several nodes on localhost. Only one of
+ * them is connected to {@link Fishbans}; the others answer from their own
+ * fixed data.
+ *
+ * @author Lord_Ralex
+ */
+public class ClusterNodeTest {
+
+    private static HttpTransport previous;
+    private final CountingTransport upstream = new CountingTransport();
+    private final List<ClusterNode> started = new ArrayList<ClusterNode>();
+
+    @BeforeClass
+    public static void setUpClass() {
+        previous = Fishbans.getTransport();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Fishbans.setTransport(previous);
+    }
+
+    @Before
+    public void setUp() {
+        Fishbans.setTransport(upstream);
+        Fishbans.clearCache();
+    }
+
+    @After
+    public void tearDown() {
+        Fishbans.setCluster(null);
+        Fishbans.clearCache();
+        for (ClusterNode node : started) {
+            node.stop();
+        }
+    }
+
+    @Test
+    public void testOwnershipIsSharedAndStable() {
+        List<InetSocketAddress> members = new ArrayList<InetSocketAddress>();
+        for (int i = 0; i < 3; i++) {
+            members.add(new InetSocketAddress("127.0.0.1", 20001 + i));
+        }
+        ClusterNode[] nodes = new ClusterNode[3];
+        for (int i = 0; i < 3; i++) {
+            nodes[i] = new ClusterNode(members.get(i), members);
+        }
+        int keys = 6000;
+        Map<InetSocketAddress, Integer> owned = new HashMap<InetSocketAddress, Integer>();
+        InetSocketAddress[] owners = new InetSocketAddress[keys];
+        for (int k = 0; k < keys; k++) {
+            owners[k] = nodes[0].getOwner("Player" + k);
+            Assert.assertEquals(owners[k], nodes[1].getOwner("player" + k));
+            Assert.assertEquals(owners[k], nodes[2].getOwner("PLAYER" + k));
+            Integer count = owned.get(owners[k]);
+            owned.put(owners[k], count == null ? 1 : count + 1);
+        }
+        for (InetSocketAddress member : members) {
+            int share = owned.get(member);
+            Assert.assertTrue(member + " owns " + share + " of " + keys, share > keys / 4 && share < keys * 5 / 12);
+        }
+
+        InetSocketAddress added = new InetSocketAddress("127.0.0.1", 20004);
+        nodes[0].addPeer(added);
+        int moved = 0;
+        for (int k = 0; k < keys; k++) {
+            InetSocketAddress owner = nodes[0].getOwner("Player" + k);
+            if (!owner.equals(owners[k])) {
+                Assert.assertEquals(added, owner);
+                moved++;
+            }
+        }
+        Assert.assertTrue("Adding a fourth member moved " + moved + " of " + keys, moved > keys / 6 && moved < keys / 3);
+    }
+
+    @Test
+    public void testForwardsMissesToOwner() throws Exception {
+        FixedNode b = startFixed();
+        FixedNode c = startFixed();
+        ClusterNode a = start(new ClusterNode(new InetSocketAddress("127.0.0.1", 0), Arrays.asList(b.getAddress(), c.getAddress())));
+        Fishbans.setCluster(a);
+
+        String remote = ownedBy(a, b.getAddress());
+        FishbansPlayer player = Fishbans.getFishbanPlayer(remote);
+        Assert.assertEquals(remote, player.getName());
+        Assert.assertEquals(2, player.getBanCount());
+        Assert.assertEquals(0, upstream.requests.get());
+        Assert.assertEquals(1, b.served.get());
+        Assert.assertSame(player, Fishbans.getFishbanPlayer(remote.toUpperCase()));
+        Assert.assertEquals(player, Fishbans.getFishbanPlayer(player.getUUID()));
+        Assert.assertEquals("Replicated player was asked for again", 1, b.served.get());
+        Fishbans.getFishbanPlayer(remote, true);
+        Assert.assertEquals(2, b.served.get());
+        Assert.assertTrue(b.forced);
+
+        String local = ownedBy(a, a.getAddress());
+        Assert.assertEquals(1, Fishbans.getFishbanPlayer(local).getBanCount());
+        Assert.assertEquals(1, upstream.requests.get());
+        Assert.assertEquals(2, a.getForwarded());
+
+        try {
+            Fishbans.getFishbanPlayer(ownedBy(a, c.getAddress(), "missing"));
+            Assert.fail("Expected NoSuchUserException");
+        } catch (NoSuchUserException ex) {
+        }
+    }
+
+    @Test
+    public void testFailsOverAndRebalances() throws Exception {
+        FixedNode b = startFixed();
+        FixedNode c = startFixed();
+        ClusterNode a = start(new ClusterNode(new InetSocketAddress("127.0.0.1", 0), Arrays.asList(b.getAddress(), c.getAddress())));
+        a.setRetryDelay(1, TimeUnit.MINUTES);
+        Fishbans.setCluster(a);
+
+        Fishbans.getFishbanPlayer(ownedBy(a, b.getAddress()));
+        b.stop();
+        String orphan = ownedBy(a, b.getAddress());
+        Assert.assertEquals(1, Fishbans.getFishbanPlayer(orphan).getBanCount());
+        Assert.assertEquals(1, upstream.requests.get());
+        Assert.assertEquals(1, a.getFailovers());
+        Assert.assertFalse(b.getAddress().equals(a.getOwner(orphan)));
+
+        List<String> ownedByC = new ArrayList<String>();
+        for (int k = 0; ownedByC.size() < 20; k++) {
+            if (a.getOwner("Player" + k).equals(c.getAddress())) {
+                ownedByC.add("Player" + k);
+            }
+        }
+        a.setPeers(Collections.singletonList(b.getAddress()));
+        for (String name : ownedByC) {
+            Assert.assertEquals(a.getAddress(), a.getOwner(name));
+        }
+        Assert.assertEquals(Collections.singleton(b.getAddress()), a.getPeers());
+    }
+
+    private FixedNode startFixed() throws IOException {
+        return start(new FixedNode());
+    }
+
+    private <T extends ClusterNode> T start(T node) throws IOException {
+        node.start();
+        started.add(node);
+        return node;
+    }
+
+    private static String ownedBy(ClusterNode node, InetSocketAddress owner) {
+        return ownedBy(node, owner, "Player");
+    }
+
+    private static String ownedBy(ClusterNode node, InetSocketAddress owner, String prefix) {
+        while (true) {
+            String name = prefix + UUID.randomUUID().toString().substring(0, 8);
+            if (node.getOwner(name).equals(owner)) {
+                return name;
+            }
+        }
+    }
+
+    /**
+     * A member which answers from fixed data instead of {@link Fishbans}.
+     */
+    private static class FixedNode extends ClusterNode {
+
+        private final AtomicInteger served = new AtomicInteger();
+        private volatile boolean forced;
+
+        private FixedNode() {
+            super(new InetSocketAddress("127.0.0.1", 0), Collections.<InetSocketAddress>emptyList());
+        }
+
+        @Override
+        protected FishbansPlayer lookup(String name, boolean force) throws IOException, NoSuchUserException {
+            served.incrementAndGet();
+            forced = force;
+            if (name.startsWith("missing")) {
+                throw new NoSuchUserException(name);
+            }
+            List<Ban> bans = new ArrayList<Ban>();
+            bans.add(new Ban(BanServices.getService("MCBANS"), "a.example.com", "grief"));
+            bans.add(new Ban(BanServices.getService("MCBOUNCER"), "b.example.com", "xray"));
+            return new FishbansPlayer(bans, name, UUID.nameUUIDFromBytes(name.toLowerCase().getBytes("UTF-8")));
+        }
+    }
+
+    private static class CountingTransport extends StubTransport {
+
+        @Override
+        protected HttpResponse answer(String url, Map<String, String> headers) {
+            String name = lastSegment(url);
+            return respond(player(name, uuidOf(name), "\"mcbans\":{\"bans\":1,\"ban_info\":{\"a.example.com\":\"grief\"}}"));
+        }
+    }
+}
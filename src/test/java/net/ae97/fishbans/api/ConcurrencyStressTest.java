@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Stress tests for concurrent lookups, invalidation and the service
+ * registry, run against an in-process upstream whose answers depend only on
+ * the player and a version the test controls.
+ *
+ * @author Lord_Ralex
+ */
+public class ConcurrencyStressTest {
+
+    private static final int THREADS = 16;
+    private static final int PLAYERS = 200;
+    private static final long RUN_MILLIS = 1500;
+    private static final String[] SERVICES = {"mcbans", "minebans", "mcbouncer", "mcblockit", "glizer"};
+    private static HttpTransport previous;
+    private final VersionedTransport upstream = new VersionedTransport();
+    private final Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+
+    @BeforeClass
+    public static void setUpClass() {
+        previous = Fishbans.getTransport();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Fishbans.setTransport(previous);
+    }
+
+    @Before
+    public void setUp() {
+        Fishbans.setTransport(upstream);
+        Fishbans.clearCache();
+    }
+
+    @After
+    public void tearDown() {
+        Fishbans.setCoalescing(false);
+        Fishbans.clearCache();
+    }
+
+    @Test
+    public void testLookupsUnderChurn() throws Exception {
+        final String[] names = new String[PLAYERS];
+        for (int i = 0; i < PLAYERS; i++) {
+            names[i] = "Player" + i;
+            upstream.register(names[i]);
+        }
+        final AtomicLong operations = new AtomicLong();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RUN_MILLIS);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < THREADS; t++) {
+            final Random random = new Random(t);
+            threads.add(start(new Task() {
+                @Override
+                public void run() throws Exception {
+                    while (System.nanoTime() - deadline < 0) {
+                        String name = names[random.nextInt(PLAYERS)];
+                        int choice = random.nextInt(10);
+                        if (choice == 0) {
+                            checkPlayer(name, Fishbans.getFishbanPlayer(name, true));
+                        } else if (choice <= 2) {
+                            checkPlayer(name, Fishbans.getFishbanPlayer(StubTransport.uuidOf(name)));
+                        } else if (choice == 3) {
+                            Assert.assertTrue(Fishbans.getBanCount(name) >= 0);
+                        } else {
+                            checkPlayer(name, Fishbans.getFishbanPlayer(name.toUpperCase()));
+                        }
+                        operations.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        final Random random = new Random(97);
+        threads.add(start(new Task() {
+            @Override
+            public void run() throws Exception {
+                while (System.nanoTime() - deadline < 0) {
+                    int choice = random.nextInt(4);
+                    if (choice == 0) {
+                        Fishbans.clearCache();
+                    } else if (choice == 1) {
+                        BanServices.updateServices();
+                    } else {
+                        Fishbans.invalidate(names[random.nextInt(PLAYERS)]);
+                    }
+                    Thread.sleep(2);
+                }
+            }
+        }));
+        join(threads);
+        System.out.println(String.format("Lookups under churn: %.0f ops/s over %d threads", operations.get() * 1000.0 / RUN_MILLIS, THREADS));
+
+        for (String name : names) {
+            checkPlayer(name, Fishbans.getFishbanPlayer(name));
+        }
+        long fetches = upstream.totalFetches.get();
+        for (String name : names) {
+            checkPlayer(name, Fishbans.getFishbanPlayer(name));
+            checkPlayer(name, Fishbans.getFishbanPlayer(StubTransport.uuidOf(name)));
+        }
+        Assert.assertEquals("Cached players were lost", fetches, upstream.totalFetches.get());
+    }
+
+    @Test
+    public void testCoalescedLookupsFetchOnce() throws Exception {
+        Fishbans.setCoalescing(true);
+        upstream.delayMillis = 20;
+        for (int round = 0; round < 20; round++) {
+            final String name = "Coalesced" + round;
+            final CountDownLatch ready = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int t = 0; t < THREADS; t++) {
+                threads.add(start(new Task() {
+                    @Override
+                    public void run() throws Exception {
+                        ready.await();
+                        checkPlayer(name, Fishbans.getFishbanPlayer(name));
+                    }
+                }));
+            }
+            ready.countDown();
+            join(threads);
+            Assert.assertEquals("Duplicate fetches for " + name, 1, upstream.fetchesOf(name));
+        }
+    }
+
+    @Test
+    public void testNoStaleReadsAfterInvalidation() throws Exception {
+        checkNoStaleReads(false);
+    }
+
+    @Test
+    public void testNoStaleReadsAfterInvalidationWhileCoalescing() throws Exception {
+        Fishbans.setCoalescing(true);
+        checkNoStaleReads(true);
+    }
+
+    @Test
+    public void testServiceRegistry() throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RUN_MILLIS / 3);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < THREADS; t++) {
+            threads.add(start(new Task() {
+                @Override
+                public void run() throws Exception {
+                    while (System.nanoTime() - deadline < 0) {
+                        Set<BanServices> services = new HashSet<BanServices>(BanServices.getBanServices());
+                        Assert.assertEquals(SERVICES.length, services.size());
+                        for (String name : SERVICES) {
+                            BanServices service = BanServices.getService(name);
+                            Assert.assertNotNull(service);
+                            Assert.assertTrue(services.contains(service));
+                            Assert.assertSame(service, BanServices.getService(service.getOrdinal()));
+                        }
+                    }
+                }
+            }));
+        }
+        threads.add(start(new Task() {
+            @Override
+            public void run() throws Exception {
+                while (System.nanoTime() - deadline < 0) {
+                    BanServices.updateServices();
+                }
+            }
+        }));
+        join(threads);
+    }
+
+    /**
+     * Bumps the upstream version of a player, invalidates it and only then
+     * publishes the version. Any lookup which starts after the version is
+     * published must see at least that version.
+     */
+    private void checkNoStaleReads(boolean coalescing) throws Exception {
+        final String name = "Changing";
+        final UUID uuid = StubTransport.uuidOf(name);
+        upstream.register(name);
+        final AtomicInteger committed = new AtomicInteger();
+        final AtomicLong reads = new AtomicLong();
+        upstream.jitter = true;
+        final int versions = 300;
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < THREADS / 2; t++) {
+            final boolean byUUID = t % 2 == 1;
+            threads.add(start(new Task() {
+                @Override
+                public void run() throws Exception {
+                    while (committed.get() < versions) {
+                        int before = committed.get();
+                        FishbansPlayer player = byUUID ? Fishbans.getFishbanPlayer(uuid) : Fishbans.getFishbanPlayer(name);
+                        if (player.getBanCount() < before) {
+                            Assert.fail("Read version " + player.getBanCount() + " after version " + before + " was invalidated" + (byUUID ? " by UUID" : ""));
+                        }
+                        reads.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        threads.add(start(new Task() {
+            @Override
+            public void run() throws Exception {
+                for (int i = 1; i <= versions; i++) {
+                    upstream.setVersion(name, i);
+                    if (i % 2 == 0) {
+                        Fishbans.invalidate(name);
+                    } else {
+                        Fishbans.invalidate(uuid);
+                    }
+                    committed.set(i);
+                    Thread.sleep(1);
+                }
+            }
+        }));
+        join(threads);
+        System.out.println(String.format("Invalidation%s: %d reads across %d versions", coalescing ? " while coalescing" : "", reads.get(), versions));
+    }
+
+    private static void checkPlayer(String name, FishbansPlayer player) {
+        Assert.assertNotNull("No player for " + name, player);
+        Assert.assertTrue("Asked for " + name + ", got " + player.getName(), name.equalsIgnoreCase(player.getName()));
+        Assert.assertEquals(StubTransport.uuidOf(name), player.getUUID());
+        Assert.assertEquals(player.getBanCount(), player.getBanList().size());
+    }
+
+    private Thread start(final Task task) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (Throwable ex) {
+                    failures.add(ex);
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void join(List<Thread> threads) throws Exception {
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+            Assert.assertFalse("Thread did not finish", thread.isAlive());
+        }
+        Throwable failure = failures.peek();
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new AssertionError(failure);
+        }
+    }
+
+    private interface Task {
+
+        void run() throws Exception;
+    }
+
+    /**
+     * Answers like Fishbans and Mojang. A player has as many bans as its
+     * version, which starts at 1, and its UUID is derived from its name. The
+     * version is read when a request arrives, so a slow response carries the
+     * version from when it was sent.
+     */
+    private static class VersionedTransport extends StubTransport {
+
+        private final Map<String, AtomicInteger> versions = new ConcurrentHashMap<String, AtomicInteger>();
+        private final Map<String, AtomicInteger> fetches = new ConcurrentHashMap<String, AtomicInteger>();
+        private final Map<UUID, String> names = new ConcurrentHashMap<UUID, String>();
+        private final AtomicLong totalFetches = new AtomicLong();
+        private volatile long delayMillis = 0;
+        private volatile boolean jitter = false;
+
+        private void register(String name) {
+            names.put(uuidOf(name), name);
+        }
+
+        private void setVersion(String name, int version) {
+            counter(versions, name, 1).set(version);
+        }
+
+        private int fetchesOf(String name) {
+            return counter(fetches, name, 0).get();
+        }
+
+        private static AtomicInteger counter(Map<String, AtomicInteger> map, String name, int initial) {
+            String key = name.toLowerCase();
+            AtomicInteger counter = map.get(key);
+            if (counter == null) {
+                ((ConcurrentHashMap<String, AtomicInteger>) map).putIfAbsent(key, new AtomicInteger(initial));
+                counter = map.get(key);
+            }
+            return counter;
+        }
+
+        @Override
+        protected HttpResponse answer(String url, Map<String, String> headers) {
+            String[] path = url.substring(url.indexOf("://") + 3).split("/");
+            if (url.contains("mojang")) {
+                UUID uuid = Fishbans.convertToUUID(path[path.length - 1]);
+                String name = names.get(uuid);
+                return name == null ? respond(204, "") : respond(profile(name, uuid));
+            }
+            String name = path[2];
+            int version = counter(versions, name, 1).get();
+            pause(requests.get());
+            if (path[1].equals("stats")) {
+                StringBuilder json = new StringBuilder("{\"success\":true,\"stats\":{\"username\":\"").append(name);
+                json.append("\",\"uuid\":\"").append(hex(uuidOf(name))).append("\",\"service\":{");
+                for (int i = 0; i < SERVICES.length; i++) {
+                    json.append(i == 0 ? "\"" : ",\"").append(SERVICES[i]).append("\":").append(i == 0 ? version : 0);
+                }
+                return respond(json.append("}}}").toString());
+            }
+            counter(fetches, name, 0).incrementAndGet();
+            totalFetches.incrementAndGet();
+            StringBuilder json = new StringBuilder("\"mcbans\":{\"bans\":").append(version).append(",\"ban_info\":{");
+            for (int i = 0; i < version; i++) {
+                json.append(i == 0 ? "\"" : ",\"").append("server").append(i).append("\":\"version ").append(version).append('"');
+            }
+            json.append("}},\"glizer\":{\"bans\":0,\"ban_info\":[]}");
+            return respond(player(name, uuidOf(name), json.toString()));
+        }
+
+        private void pause(int request) {
+            long delay = delayMillis;
+            if (jitter) {
+                delay += (request * 7919) % 3;
+            }
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import net.ae97.fishbans.api.diagnostics.DiagnosticsServer;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests {@link DiagnosticsServer} over a real connection to localhost.
+ *
+ * @author Lord_Ralex
+ */
+public class DiagnosticsServerTest {
+
+    private static HttpTransport previousTransport;
+    private DiagnosticsServer server;
+
+    @BeforeClass
+    public static void setUpClass() {
+        previousTransport = Fishbans.getTransport();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Fishbans.setTransport(previousTransport);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Fishbans.setTransport(new StubTransport() {
+            @Override
+            protected HttpResponse answer(String url, Map<String, String> headers) throws IOException {
+                String name = lastSegment(url);
+                return respond(player(name, uuidOf(name), "\"mcbans\":{\"bans\":1,\"ban_info\":{\"a.example.com\":\"grief\"}}"));
+            }
+        });
+        Fishbans.clearCache();
+        Fishbans.getFishbanPlayer("Notch");
+        Fishbans.getFishbanPlayer("jeb_");
+        server = new DiagnosticsServer(0);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        Fishbans.clearCache();
+    }
+
+    @Test
+    public void testJsonSnapshot() throws Exception {
+        for (int i = 0; i < 1600; i++) {
+            Fishbans.getFishbanPlayer("Notch");
+        }
+        Reply reply = send("GET", "/stats");
+        Assert.assertEquals(200, reply.status);
+        Assert.assertTrue(reply.contentType, reply.contentType.startsWith("application/json"));
+        JsonObject json = new JsonParser().parse(reply.body).getAsJsonObject();
+        JsonObject cache = json.getAsJsonObject("cache");
+        Assert.assertEquals(2, cache.get("players").getAsInt());
+        Assert.assertEquals(2, cache.get("fresh").getAsInt());
+        Assert.assertTrue(cache.get("hits").getAsLong() >= 1600);
+        Assert.assertTrue(json.getAsJsonArray("upstreams").size() > 0);
+        boolean hot = false;
+        for (JsonElement key : json.getAsJsonArray("hotKeys")) {
+            hot |= key.getAsJsonObject().get("key").getAsString().equals("notch");
+        }
+        Assert.assertTrue(reply.body, hot);
+    }
+
+    @Test
+    public void testTextSnapshot() throws Exception {
+        Reply reply = send("GET", "/stats.txt");
+        Assert.assertEquals(200, reply.status);
+        Assert.assertTrue(reply.contentType, reply.contentType.startsWith("text/plain"));
+        Assert.assertTrue(reply.body, reply.body.startsWith("cache.players 2\ncache.fresh 2\n"));
+        Assert.assertTrue(reply.body, reply.body.contains("\nupstream.fishbans.requests "));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        Reply reply = send("POST", "/invalidate?key=NOTCH");
+        Assert.assertEquals(200, reply.status);
+        Assert.assertEquals(1, Fishbans.getStatistics().getCachedPlayers());
+
+        reply = send("POST", "/invalidate?key=" + StubTransport.hex(StubTransport.uuidOf("jeb_")));
+        Assert.assertEquals(200, reply.status);
+        Assert.assertEquals(0, Fishbans.getStatistics().getCachedPlayers());
+
+        Assert.assertEquals(400, send("POST", "/invalidate").status);
+        Assert.assertEquals(405, send("GET", "/invalidate?key=Notch").status);
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        Assert.assertEquals(200, send("POST", "/clear").status);
+        Assert.assertEquals(0, Fishbans.getStatistics().getCachedPlayers());
+        Assert.assertTrue(send("GET", "/stats.txt").body.startsWith("cache.players 0\n"));
+    }
+
+    @Test
+    public void testAdminActionsCanBeDisabled() throws Exception {
+        server.setAdminEnabled(false);
+        Assert.assertEquals(403, send("POST", "/clear").status);
+        Assert.assertEquals(403, send("POST", "/invalidate?key=Notch").status);
+        Assert.assertEquals(2, Fishbans.getStatistics().getCachedPlayers());
+        Assert.assertEquals(200, send("GET", "/stats").status);
+        Assert.assertEquals(404, send("GET", "/unknown").status);
+    }
+
+    private Reply send(String method, String path) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(5000);
+            connection.setReadTimeout(5000);
+            Reply reply = new Reply();
+            reply.status = connection.getResponseCode();
+            reply.contentType = connection.getContentType();
+            InputStream in = reply.status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            if (in != null) {
+                try {
+                    byte[] buffer = new byte[4096];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        body.write(buffer, 0, read);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            reply.body = new String(body.toByteArray(), "UTF-8");
+            return reply;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static class Reply {
+
+        private int status;
+        private String contentType;
+        private String body;
+    }
+}
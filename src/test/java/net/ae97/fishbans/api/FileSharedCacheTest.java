@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import net.ae97.fishbans.api.cache.FileSharedCache;
+import net.ae97.fishbans.api.cache.SharedCacheEntry;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for {@link FileSharedCache}: storing and reading entries, expiry,
+ * damaged entry files, and its use as the shared cache of {@link Fishbans}.
+ *
+ * @author Lord_Ralex
+ */
+public class FileSharedCacheTest {
+
+    private static HttpTransport previousTransport;
+    private File directory;
+    private FileSharedCache cache;
+
+    @BeforeClass
+    public static void setUpClass() {
+        previousTransport = Fishbans.getTransport();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Fishbans.setTransport(previousTransport);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("shared").toFile();
+        cache = new FileSharedCache(directory);
+    }
+
+    @After
+    public void tearDown() {
+        Fishbans.setSharedCache(null);
+        Fishbans.clearCache();
+        cache.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testPutThenGet() throws Exception {
+        long now = System.currentTimeMillis();
+        byte[] payload = StubTransport.utf8("payload");
+        cache.put("notch", new SharedCacheEntry(payload, now, 60000)).get(5, TimeUnit.SECONDS);
+        SharedCacheEntry read = cache.get("notch").get(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(read);
+        Assert.assertArrayEquals(payload, read.getPayload());
+        Assert.assertEquals(now, read.getStoredAt());
+        Assert.assertEquals(60000, read.getTimeToLive());
+        Assert.assertNull(cache.get("jeb_").get(5, TimeUnit.SECONDS));
+
+        cache.remove("notch").get(5, TimeUnit.SECONDS);
+        Assert.assertNull(cache.get("notch").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testMissIsAnsweredAtOnce() throws Exception {
+        Future<SharedCacheEntry> miss = cache.get("nobody");
+        Assert.assertTrue("Miss waited for a read", miss.isDone());
+        Assert.assertNull(miss.get());
+    }
+
+    @Test
+    public void testExpiredEntryIsIgnored() throws Exception {
+        long old = System.currentTimeMillis() - 10000;
+        cache.put("notch", new SharedCacheEntry(StubTransport.utf8("old"), old, 5000)).get(5, TimeUnit.SECONDS);
+        cache.put("jeb_", new SharedCacheEntry(StubTransport.utf8("new"), old, 60000)).get(5, TimeUnit.SECONDS);
+        Assert.assertNull(cache.get("notch").get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, entryFiles().length);
+        Assert.assertEquals(0, cache.purge());
+        Assert.assertNotNull(cache.get("jeb_").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPurgeDeletesExpiredEntries() throws Exception {
+        long old = System.currentTimeMillis() - 10000;
+        cache.put("notch", new SharedCacheEntry(StubTransport.utf8("old"), old, 5000)).get(5, TimeUnit.SECONDS);
+        cache.put("jeb_", new SharedCacheEntry(StubTransport.utf8("new"), old, 60000)).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(1, cache.purge());
+        Assert.assertEquals(1, entryFiles().length);
+    }
+
+    @Test
+    public void testCorruptEntryIsIgnored() throws Exception {
+        cache.put("notch", new SharedCacheEntry(StubTransport.utf8("payload"), System.currentTimeMillis(), 60000)).get(5, TimeUnit.SECONDS);
+        File file = entryFiles()[0];
+        Files.write(file.toPath(), StubTransport.utf8("not a cache entry"));
+        Assert.assertNull(cache.get("notch").get(5, TimeUnit.SECONDS));
+        Assert.assertFalse("Corrupt entry was kept", file.exists());
+    }
+
+    @Test
+    public void testTruncatedEntryIsIgnored() throws Exception {
+        for (int length : new int[]{2, 14, 26}) {
+            cache.put("notch", new SharedCacheEntry(StubTransport.utf8("payload"), System.currentTimeMillis(), 60000)).get(5, TimeUnit.SECONDS);
+            File file = entryFiles()[0];
+            RandomAccessFile out = new RandomAccessFile(file, "rw");
+            try {
+                out.setLength(length);
+            } finally {
+                out.close();
+            }
+            Assert.assertNull("Read an entry cut to " + length + " bytes", cache.get("notch").get(5, TimeUnit.SECONDS));
+            Assert.assertFalse("Truncated entry was kept", file.exists());
+        }
+    }
+
+    @Test
+    public void testLookupsShareThroughDirectory() throws Exception {
+        StubTransport upstream = new StubTransport() {
+            @Override
+            protected HttpResponse answer(String url, Map<String, String> headers) throws IOException {
+                String name = lastSegment(url);
+                return respond(player(name, uuidOf(name), "\"mcbans\":{\"bans\":1,\"ban_info\":{\"a.example.com\":\"grief\"}}"));
+            }
+        };
+        Fishbans.setTransport(upstream);
+        Fishbans.clearCache();
+        Fishbans.setSharedCache(cache);
+        Assert.assertEquals(1, Fishbans.getFishbanPlayer("Notch").getBanCount());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (entryFiles().length < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals("Entries by name and UUID", 2, entryFiles().length);
+
+        // Another server has only the shared directory
+        Fishbans.clearCache();
+        FishbansPlayer shared = Fishbans.getFishbanPlayer("notch");
+        Assert.assertEquals("Notch", shared.getName());
+        Assert.assertEquals(1, shared.getBanCount());
+        Assert.assertEquals("Looked up again instead of using the shared entry", 1, upstream.requests.get());
+    }
+
+    private File[] entryFiles() {
+        File[] files = directory.listFiles();
+        Assert.assertNotNull(files);
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(".entry")) {
+                files[count++] = file;
+            }
+        }
+        File[] entries = new File[count];
+        System.arraycopy(files, 0, entries, 0, count);
+        return entries;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link FishbansPlayerCodec}.
+ *
+ * @author Lord_Ralex
+ */
+public class FishbansPlayerCodecTest {
+
+    private static final String[] WORDS = {"grief", "xray", "hacking", "spam", "Griefing spawn", "überhack", "☃ snowman", "\"quoted\"", "", "fly"};
+    private static final double MAX_SIZE_RATIO = 0.75;
+    private final Random random = new Random(97);
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (int i = 0; i < 500; i++) {
+            FishbansPlayer player = randomPlayer(random.nextInt(30), false);
+            long timestamp = random.nextLong() & Long.MAX_VALUE;
+            byte[] data = FishbansPlayerCodec.encode(player, timestamp);
+            FishbansPlayer decoded = FishbansPlayerCodec.decode(data);
+            assertSamePlayer(player, decoded);
+            Assert.assertEquals(timestamp, FishbansPlayerCodec.decodeTimestamp(data));
+        }
+    }
+
+    @Test
+    public void testDecodeSingleService() throws IOException {
+        FishbansPlayer player = randomPlayer(40, false);
+        byte[] data = FishbansPlayerCodec.encode(player, 0);
+        for (BanServices service : BanServices.getBanServices()) {
+            Assert.assertEquals(counts(player.getBanList(service)), counts(FishbansPlayerCodec.decodeBans(data, service)));
+        }
+    }
+
+    @Test
+    public void testEmptyPlayer() throws IOException {
+        FishbansPlayer player = new FishbansPlayer(new ArrayList<Ban>(), "Notch", UUID.randomUUID());
+        byte[] data = FishbansPlayerCodec.encode(player, 1);
+        assertSamePlayer(player, FishbansPlayerCodec.decode(data));
+        Assert.assertTrue("Empty player took " + data.length + " bytes", data.length < 32);
+    }
+
+    @Test
+    public void testFuzz() {
+        for (int i = 0; i < 5000; i++) {
+            byte[] data = FishbansPlayerCodec.encode(randomPlayer(random.nextInt(8), false), random.nextLong());
+            if (random.nextBoolean()) {
+                data = Arrays.copyOf(data, random.nextInt(data.length));
+            }
+            int flips = 1 + random.nextInt(4);
+            for (int j = 0; j < flips && data.length > 0; j++) {
+                data[random.nextInt(data.length)] = (byte) random.nextInt(256);
+            }
+            try {
+                FishbansPlayerCodec.decode(data);
+            } catch (IOException ex) {
+            }
+            try {
+                FishbansPlayerCodec.decodeBans(data, BanServices.getService("MCBANS"));
+            } catch (IOException ex) {
+            }
+        }
+    }
+
+    @Test
+    public void testSmallerThanJson() throws Exception {
+        FishbansPlayer player = randomPlayer(25, true);
+        byte[] json = toUpstreamJson(player).getBytes("UTF-8");
+        byte[] data = FishbansPlayerCodec.encode(player, System.currentTimeMillis());
+        Assert.assertTrue("Binary (" + data.length + ") should be at most " + MAX_SIZE_RATIO + " of JSON (" + json.length + ")",
+                data.length <= json.length * MAX_SIZE_RATIO);
+        assertSamePlayer(player, FishbansPlayerCodec.decode(data));
+        assertSamePlayer(player, ResponseDecoder.decodePlayer(player.getName(), json));
+    }
+
+    private FishbansPlayer randomPlayer(int banCount, boolean upstreamShape) {
+        List<BanServices> services = new ArrayList<BanServices>(BanServices.getBanServices());
+        List<Ban> bans = new ArrayList<Ban>();
+        for (int i = 0; i < banCount; i++) {
+            BanServices service = !upstreamShape && random.nextInt(10) == 0 ? null : services.get(random.nextInt(services.size()));
+            String server = upstreamShape ? "server" + i + ".example.com" : "server" + random.nextInt(5) + ".example.com";
+            String reason = !upstreamShape && random.nextInt(8) == 0 ? null : WORDS[random.nextInt(WORDS.length)];
+            bans.add(new Ban(service, server, reason));
+        }
+        return new FishbansPlayer(bans, "Player" + random.nextInt(1000), new UUID(random.nextLong(), random.nextLong()));
+    }
+
+    private static String toUpstreamJson(FishbansPlayer player) {
+        JsonObject services = new JsonObject();
+        for (BanServices service : BanServices.getBanServices()) {
+            JsonObject info = new JsonObject();
+            for (Ban ban : player.getBanList(service)) {
+                info.addProperty(ban.getServer(), ban.getReason());
+            }
+            JsonObject entry = new JsonObject();
+            entry.addProperty("bans", player.getBanCount(service));
+            entry.add("ban_info", info);
+            services.add(service.getDisplayName().toLowerCase(), entry);
+        }
+        JsonObject bans = new JsonObject();
+        bans.addProperty("username", player.getName());
+        bans.addProperty("uuid", player.getUUID().toString().replace("-", ""));
+        bans.addProperty("totalbans", player.getBanCount());
+        bans.add("service", services);
+        JsonObject root = new JsonObject();
+        root.addProperty("success", true);
+        root.add("bans", bans);
+        return root.toString();
+    }
+
+    private static void assertSamePlayer(FishbansPlayer expected, FishbansPlayer actual) {
+        Assert.assertEquals(expected.getName(), actual.getName());
+        Assert.assertEquals(expected.getUUID(), actual.getUUID());
+        Assert.assertEquals(expected.getFingerprint(), actual.getFingerprint());
+        Assert.assertEquals(counts(expected.getBanList()), counts(actual.getBanList()));
+    }
+
+    private static Map<Ban, Integer> counts(List<Ban> bans) {
+        Map<Ban, Integer> counts = new HashMap<Ban, Integer>();
+        for (Ban ban : bans) {
+            Integer count = counts.get(ban);
+            counts.put(ban, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the second request sent by lookups with a timeout, see
+ * {@link Fishbans#setHedgePercentile(double)}.
+ *
+ * @author Lord_Ralex
+ */
+public class HedgingTest {
+
+    private static HttpTransport previousTransport;
+    private final SlowTransport upstream = new SlowTransport();
+
+    @BeforeClass
+    public static void setUpClass() {
+        previousTransport = Fishbans.getTransport();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Fishbans.setTransport(previousTransport);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Fishbans.setTransport(upstream);
+        Fishbans.setHedgePercentile(50);
+        Fishbans.clearCache();
+        for (int i = 0; i < 256; i++) {
+            Fishbans.getFishbanPlayer("Fast" + i);
+        }
+        Fishbans.clearCache();
+        upstream.requests.set(0);
+    }
+
+    @After
+    public void tearDown() {
+        Fishbans.setCoalescing(false);
+        Fishbans.setHedgePercentile(95);
+        Fishbans.clearCache();
+    }
+
+    @Test
+    public void testHedgeDoesNotJoinSlowLookup() throws Exception {
+        Fishbans.setCoalescing(true);
+        upstream.delays = new long[]{5000, 0};
+        long start = System.nanoTime();
+        LookupResult result = Fishbans.getFishbanPlayer("Slow", 2, TimeUnit.SECONDS);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertEquals(LookupResult.Status.FRESH, result.getStatus());
+        Assert.assertTrue("Waited " + elapsed + " ms for the slow request", elapsed < 1000);
+        Assert.assertEquals(2, upstream.requests.get());
+        awaitAbandoned(1);
+    }
+
+    @Test
+    public void testLosingHedgeIsCancelled() throws Exception {
+        upstream.delays = new long[]{150, 5000};
+        LookupResult result = Fishbans.getFishbanPlayer("Slow", 2, TimeUnit.SECONDS);
+        Assert.assertEquals(LookupResult.Status.FRESH, result.getStatus());
+        Assert.assertEquals(2, upstream.requests.get());
+        awaitAbandoned(1);
+        Assert.assertSame(result.getPlayer(), Fishbans.getFishbanPlayer("Slow"));
+    }
+
+    @Test
+    public void testHedgesUuidLookups() throws Exception {
+        upstream.delays = new long[]{5000, 0};
+        LookupResult result = Fishbans.getFishbanPlayer(StubTransport.uuidOf("Slow"), 2, TimeUnit.SECONDS);
+        Assert.assertEquals(LookupResult.Status.FRESH, result.getStatus());
+        Assert.assertEquals("Slow", result.getPlayer().getName());
+        awaitAbandoned(1);
+    }
+
+    private void awaitAbandoned(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (upstream.abandoned.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals("Losing request kept running", expected, upstream.abandoned.get());
+    }
+
+    /**
+     * Answers the Fast players at once, and each request for Slow after the
+     * next of the given delays. Like a blocking socket read, a delayed
+     * request ignores interrupts and only ends early when its future is
+     * cancelled, which is counted as abandoning it.
+     */
+    private static class SlowTransport extends StubTransport {
+
+        private final AtomicInteger slowRequests = new AtomicInteger();
+        private final AtomicInteger abandoned = new AtomicInteger();
+        private volatile long[] delays = new long[0];
+
+        @Override
+        protected HttpResponse answer(String url, Map<String, String> headers) throws IOException {
+            return answer(url, new CountDownLatch(1));
+        }
+
+        private HttpResponse answer(String url, CountDownLatch disconnected) throws IOException {
+            String name = lastSegment(url);
+            if (url.contains("mojang")) {
+                return respond(profile("Slow", uuidOf("Slow")));
+            }
+            if (name.equals("Slow")) {
+                long[] plan = delays;
+                int request = slowRequests.getAndIncrement();
+                long until = System.currentTimeMillis() + (request < plan.length ? plan[request] : 0);
+                while (System.currentTimeMillis() < until) {
+                    try {
+                        if (disconnected.await(until - System.currentTimeMillis(), TimeUnit.MILLISECONDS)) {
+                            throw new IOException("Connection closed");
+                        }
+                    } catch (InterruptedException ex) {
+                    }
+                }
+            }
+            return respond(player(name, uuidOf(name), "\"mcbans\":{\"bans\":1,\"ban_info\":{\"a.example.com\":\"grief\"}}"));
+        }
+
+        @Override
+        public Future<HttpResponse> getAsync(final String url, Map<String, String> headers) {
+            final CountDownLatch disconnected = new CountDownLatch(1);
+            FutureTask<HttpResponse> task = new FutureTask<HttpResponse>(new Callable<HttpResponse>() {
+                @Override
+                public HttpResponse call() throws IOException {
+                    requests.incrementAndGet();
+                    return answer(url, disconnected);
+                }
+            }) {
+                @Override
+                public boolean cancel(boolean mayInterruptIfRunning) {
+                    boolean cancelled = super.cancel(mayInterruptIfRunning);
+                    if (cancelled) {
+                        abandoned.incrementAndGet();
+                        disconnected.countDown();
+                    }
+                    return cancelled;
+                }
+            };
+            new Thread(task, "Hedging-Test").start();
+            return task;
+        }
+    }
+}
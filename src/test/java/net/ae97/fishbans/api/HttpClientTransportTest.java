@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the Java 11 HttpClientTransport against a local socket. The class is
+ * only built on Java 11 and newer, under META-INF/versions/11, so it is
+ * loaded by name and the tests are skipped when it is not there.
+ *
+ * @author Lord_Ralex
+ */
+public class HttpClientTransportTest {
+
+    private HttpTransport transport;
+    private ServerSocket server;
+
+    @Before
+    public void setUp() throws Exception {
+        Class<?> type;
+        try {
+            type = Class.forName("net.ae97.fishbans.api.http.HttpClientTransport");
+        } catch (ClassNotFoundException ex) {
+            Assume.assumeTrue(false);
+            return;
+        }
+        transport = (HttpTransport) type.getConstructor().newInstance();
+        server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testPlainHttpIsNotUpgraded() throws Exception {
+        Future<HttpResponse> response = transport.getAsync(url(), Collections.singletonMap("If-None-Match", "\"v1\""));
+        Socket accepted = server.accept();
+        try {
+            accepted.setSoTimeout(5000);
+            String request = readHead(accepted.getInputStream());
+            Assert.assertTrue(request, request.startsWith("GET /bans/Notch HTTP/1.1\r\n"));
+            Assert.assertFalse(request, request.toLowerCase().contains("upgrade"));
+            Assert.assertTrue(request, request.contains("\"v1\""));
+            accepted.getOutputStream().write(StubTransport.utf8("HTTP/1.1 200 OK\r\nContent-Length: 2\r\nETag: \"v2\"\r\n\r\nok"));
+            accepted.getOutputStream().flush();
+            HttpResponse reply = response.get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(200, reply.getStatus());
+            Assert.assertEquals("\"v2\"", reply.getHeader("etag"));
+            Assert.assertArrayEquals(StubTransport.utf8("ok"), reply.getBody());
+        } finally {
+            accepted.close();
+        }
+    }
+
+    @Test
+    public void testCancelClosesConnection() throws Exception {
+        Future<HttpResponse> response = transport.getAsync(url(), Collections.<String, String>emptyMap());
+        Socket accepted = server.accept();
+        try {
+            accepted.setSoTimeout(5000);
+            InputStream in = accepted.getInputStream();
+            readHead(in);
+            Assert.assertTrue(response.cancel(true));
+            byte[] buffer = new byte[4096];
+            while (in.read(buffer) != -1) {
+            }
+        } finally {
+            accepted.close();
+        }
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + server.getLocalPort() + "/bans/Notch";
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int b = in.read();
+            if (b == -1) {
+                break;
+            }
+            head.write(b);
+            matched = b == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        return new String(head.toByteArray(), "ISO-8859-1");
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import net.ae97.fishbans.api.cache.InvalidationChannel;
+import net.ae97.fishbans.api.cache.InvalidationListener;
+import net.ae97.fishbans.api.cache.InvalidationTransport;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for {@link InvalidationChannel}: batching of published keys, and that
+ * every received key reaches the cache.
+ *
+ * @author Lord_Ralex
+ */
+public class InvalidationChannelTest {
+
+    private static HttpTransport previous;
+    private final BanningTransport upstream = new BanningTransport();
+    private final MemoryTransport wire = new MemoryTransport();
+    private InvalidationChannel channel;
+
+    @BeforeClass
+    public static void setUpClass() {
+        previous = Fishbans.getTransport();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Fishbans.setTransport(previous);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Fishbans.setTransport(upstream);
+        Fishbans.clearCache();
+        channel = new InvalidationChannel(wire, 50, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        Fishbans.setInvalidationChannel(null);
+        channel.close();
+        Fishbans.clearCache();
+    }
+
+    @Test
+    public void testPublishedBurstIsOneDeduplicatedBatch() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            channel.publish("notch");
+            channel.publish("jeb_");
+        }
+        Assert.assertTrue(wire.sent.isEmpty());
+        long deadline = System.currentTimeMillis() + 2000;
+        while (wire.sent.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, wire.sent.size());
+        Assert.assertEquals(Arrays.asList("notch", "jeb_"), wire.sent.get(0));
+    }
+
+    @Test
+    public void testFlushSendsWithoutWaiting() {
+        channel.publish("notch");
+        channel.flush();
+        Assert.assertEquals(1, wire.sent.size());
+        channel.flush();
+        Assert.assertEquals(1, wire.sent.size());
+    }
+
+    @Test
+    public void testRepeatedKeysAreAllDelivered() {
+        final List<String> received = new ArrayList<String>();
+        channel.setListener(new InvalidationListener() {
+            @Override
+            public void onInvalidate(Collection<String> keys) {
+                received.addAll(keys);
+            }
+        });
+        wire.deliver("notch", "notch");
+        wire.deliver("notch");
+        Assert.assertEquals(Arrays.asList("notch", "notch"), received);
+    }
+
+    @Test
+    public void testBanThenUnbanBothReachTheCache() throws Exception {
+        Fishbans.setInvalidationChannel(channel);
+        Assert.assertEquals(0, Fishbans.getBanCount("Notch"));
+
+        upstream.bans = 1;
+        wire.deliver("notch");
+        Assert.assertEquals(1, Fishbans.getFishbanPlayer("Notch").getBanCount());
+
+        upstream.bans = 0;
+        wire.deliver("notch");
+        Assert.assertEquals(0, Fishbans.getFishbanPlayer("Notch").getBanCount());
+    }
+
+    @Test
+    public void testInvalidateIsPublished() throws Exception {
+        Fishbans.setInvalidationChannel(channel);
+        Fishbans.getFishbanPlayer("Notch");
+        Fishbans.invalidate("Notch");
+        channel.flush();
+        Assert.assertEquals(1, wire.sent.size());
+        Assert.assertTrue(wire.sent.get(0).contains("notch"));
+        Assert.assertTrue(wire.sent.get(0).contains(StubTransport.uuidOf("Notch").toString()));
+    }
+
+    /**
+     * Records sent batches and lets the test deliver batches as if another
+     * server had sent them.
+     */
+    private static class MemoryTransport implements InvalidationTransport {
+
+        private final List<List<String>> sent = new CopyOnWriteArrayList<List<String>>();
+        private InvalidationListener receiver;
+
+        @Override
+        public void open(InvalidationListener receiver) {
+            this.receiver = receiver;
+        }
+
+        @Override
+        public void send(Collection<String> keys) {
+            sent.add(new ArrayList<String>(keys));
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private void deliver(String... keys) {
+            receiver.onInvalidate(Arrays.asList(keys));
+        }
+    }
+
+    /**
+     * Gives every player the configured number of bans.
+     */
+    private static class BanningTransport extends StubTransport {
+
+        private volatile int bans = 0;
+
+        @Override
+        protected HttpResponse answer(String url, Map<String, String> headers) {
+            String name = url.contains("/stats/") || url.contains("/bans/") ? url.split("/")[4] : lastSegment(url);
+            if (url.contains("/stats/")) {
+                return respond("{\"success\":true,\"stats\":{\"username\":\"" + name + "\",\"uuid\":\"" + hex(uuidOf(name)) + "\",\"service\":{\"mcbans\":" + bans + "}}}");
+            }
+            StringBuilder services = new StringBuilder("\"mcbans\":{\"bans\":").append(bans).append(",\"ban_info\":{");
+            for (int i = 0; i < bans; i++) {
+                services.append(i == 0 ? "\"" : ",\"").append("server").append(i).append("\":\"grief\"");
+            }
+            return respond(player(name, uuidOf(name), services.append("}}").toString()));
+        }
+    }
+}
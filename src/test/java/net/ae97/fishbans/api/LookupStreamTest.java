@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import net.ae97.fishbans.api.stream.LookupStream;
+import net.ae97.fishbans.api.stream.LookupSubscriber;
+import net.ae97.fishbans.api.stream.LookupSubscription;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the demand, concurrency and terminal signals of {@link LookupStream}.
+ *
+ * @author Lord_Ralex
+ */
+public class LookupStreamTest {
+
+    private static HttpTransport previousTransport;
+    private final SlowTransport upstream = new SlowTransport();
+
+    @BeforeClass
+    public static void setUpClass() {
+        previousTransport = Fishbans.getTransport();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Fishbans.setTransport(previousTransport);
+    }
+
+    @Before
+    public void setUp() {
+        Fishbans.setTransport(upstream);
+        Fishbans.clearCache();
+    }
+
+    @After
+    public void tearDown() {
+        Fishbans.clearCache();
+    }
+
+    @Test
+    public void testNothingStartsBeforeRequest() throws Exception {
+        CountingKeys keys = new CountingKeys(5, -1);
+        Recorder recorder = new Recorder(0);
+        new LookupStream(keys, 2).subscribe(recorder);
+        Thread.sleep(100);
+        Assert.assertEquals(0, keys.read.get());
+        Assert.assertEquals(0, upstream.requests.get());
+        Assert.assertTrue(recorder.results.isEmpty());
+
+        recorder.subscription.request(1);
+        recorder.awaitResults(1);
+        Thread.sleep(100);
+        Assert.assertEquals(1, recorder.results.size());
+        Assert.assertEquals(1, keys.read.get());
+        Assert.assertEquals(1, upstream.requests.get());
+        recorder.subscription.cancel();
+    }
+
+    @Test
+    public void testLimitsLookupsInFlight() throws Exception {
+        upstream.delay = 20;
+        Recorder recorder = new Recorder(Long.MAX_VALUE);
+        new LookupStream(new CountingKeys(24, -1), 3).subscribe(recorder);
+        Assert.assertTrue(recorder.done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(24, recorder.results.size());
+        Assert.assertEquals(3, upstream.maxConcurrent.get());
+    }
+
+    @Test
+    public void testCancelStopsEmissions() throws Exception {
+        upstream.delay = 20;
+        Recorder recorder = new Recorder(Long.MAX_VALUE);
+        recorder.cancelAfter = 2;
+        new LookupStream(new CountingKeys(100, -1), 4).subscribe(recorder);
+        recorder.awaitResults(2);
+        Thread.sleep(200);
+        Assert.assertEquals(2, recorder.results.size());
+        Assert.assertTrue("Lookups kept starting after cancel", upstream.requests.get() <= 2 + 4);
+        Assert.assertEquals(0, recorder.completions.get());
+        Assert.assertTrue(recorder.errors.isEmpty());
+    }
+
+    @Test
+    public void testErrorWhenKeysThrow() throws Exception {
+        Recorder recorder = new Recorder(Long.MAX_VALUE);
+        CountingKeys keys = new CountingKeys(10, 3);
+        new LookupStream(keys, 2).subscribe(recorder);
+        Assert.assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        Assert.assertEquals(1, recorder.errors.size());
+        Assert.assertSame(keys.error, recorder.errors.get(0));
+        Assert.assertEquals(0, recorder.completions.get());
+        Assert.assertTrue(recorder.results.size() <= 3);
+    }
+
+    @Test
+    public void testCompletesOnce() throws Exception {
+        Recorder recorder = new Recorder(1);
+        recorder.requestEach = true;
+        new LookupStream(new CountingKeys(5, -1), 2).subscribe(recorder);
+        Assert.assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        Assert.assertEquals(5, recorder.results.size());
+        Assert.assertEquals(1, recorder.completions.get());
+        Assert.assertTrue(recorder.errors.isEmpty());
+    }
+
+    @Test
+    public void testCompletesWhenExactlyEveryResultWasRequested() throws Exception {
+        Recorder recorder = new Recorder(5);
+        new LookupStream(new CountingKeys(5, -1), 2).subscribe(recorder);
+        Assert.assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(5, recorder.results.size());
+        Assert.assertEquals(1, recorder.completions.get());
+    }
+
+    /**
+     * Gives the keys Player0, Player1 and so on, counting how many were read,
+     * and throws instead of giving the key at the failing index.
+     */
+    private static class CountingKeys implements Iterator<String> {
+
+        private final int size;
+        private final int failAt;
+        private final AtomicInteger read = new AtomicInteger();
+        private final RuntimeException error = new IllegalStateException("Roster could not be read");
+
+        private CountingKeys(int size, int failAt) {
+            this.size = size;
+            this.failAt = failAt;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return read.get() < size;
+        }
+
+        @Override
+        public String next() {
+            int index = read.getAndIncrement();
+            if (index == failAt) {
+                throw error;
+            }
+            return "Player" + index;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Records every signal, requesting the given number of results up front
+     * and optionally one more after each result.
+     */
+    private static class Recorder implements LookupSubscriber {
+
+        private final long initial;
+        private final List<LookupResult> results = Collections.synchronizedList(new ArrayList<LookupResult>());
+        private final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        private final AtomicInteger completions = new AtomicInteger();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile LookupSubscription subscription;
+        private volatile boolean requestEach = false;
+        private volatile int cancelAfter = -1;
+
+        private Recorder(long initial) {
+            this.initial = initial;
+        }
+
+        @Override
+        public void onSubscribe(LookupSubscription subscription) {
+            this.subscription = subscription;
+            if (initial > 0) {
+                subscription.request(initial);
+            }
+        }
+
+        @Override
+        public void onNext(LookupResult result) {
+            Assert.assertEquals(LookupResult.Status.FRESH, result.getStatus());
+            results.add(result);
+            if (results.size() == cancelAfter) {
+                subscription.cancel();
+            } else if (requestEach) {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            errors.add(error);
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completions.incrementAndGet();
+            done.countDown();
+        }
+
+        private void awaitResults(int expected) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (results.size() < expected && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            Assert.assertTrue(results.size() >= expected);
+        }
+    }
+
+    /**
+     * Answers every player after a delay, tracking how many requests run at
+     * the same time.
+     */
+    private static class SlowTransport extends StubTransport {
+
+        private final AtomicInteger concurrent = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+        private volatile long delay = 0;
+
+        @Override
+        protected HttpResponse answer(String url, Map<String, String> headers) throws IOException {
+            int running = concurrent.incrementAndGet();
+            try {
+                int max;
+                while (running > (max = maxConcurrent.get()) && !maxConcurrent.compareAndSet(max, running)) {
+                }
+                if (delay > 0) {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException ex) {
+                        throw new IOException(ex);
+                    }
+                }
+                String name = lastSegment(url);
+                return respond(player(name, uuidOf(name), ""));
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        }
+    }
+}
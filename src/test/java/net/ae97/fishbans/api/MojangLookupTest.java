@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import net.ae97.fishbans.api.exceptions.NoSuchUUIDException;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that only Mojang saying a profile does not exist is reported as a
+ * missing UUID, and that its errors are reported as errors.
+ *
+ * @author Lord_Ralex
+ */
+public class MojangLookupTest {
+
+    private static final UUID NOTCH = UUID.fromString("069a79f4-44e9-4726-a5be-fca90e38aaf5");
+    private static HttpTransport previous;
+    private final MojangTransport upstream = new MojangTransport();
+
+    @BeforeClass
+    public static void setUpClass() {
+        previous = Fishbans.getTransport();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Fishbans.setTransport(previous);
+    }
+
+    @Before
+    public void setUp() {
+        Fishbans.setTransport(upstream);
+        Fishbans.clearCache();
+    }
+
+    @After
+    public void tearDown() {
+        Fishbans.clearCache();
+    }
+
+    @Test
+    public void testProfileIsDecoded() throws Exception {
+        upstream.status = 200;
+        Assert.assertEquals("Notch", Fishbans.getUsernameFromUUID(NOTCH));
+    }
+
+    @Test
+    public void testMissingProfileIsNull() throws Exception {
+        upstream.status = 204;
+        Assert.assertNull(Fishbans.getUsernameFromUUID(NOTCH));
+        upstream.status = 404;
+        Assert.assertNull(Fishbans.getUsernameFromUUID(NOTCH));
+    }
+
+    @Test
+    public void testRateLimitIsAnError() throws Exception {
+        upstream.status = 429;
+        try {
+            Fishbans.getUsernameFromUUID(NOTCH);
+            Assert.fail("Expected IOException");
+        } catch (IOException ex) {
+            Assert.assertTrue(ex.getMessage().contains("429"));
+        }
+    }
+
+    @Test
+    public void testOutageIsNotAMissingUUID() throws Exception {
+        upstream.status = 503;
+        try {
+            Fishbans.getFishbanPlayer(NOTCH);
+            Assert.fail("Expected IOException");
+        } catch (NoSuchUUIDException ex) {
+            Assert.fail("Outage was reported as a missing UUID");
+        } catch (IOException ex) {
+            Assert.assertTrue(ex.getMessage().contains("503"));
+        }
+        upstream.status = 200;
+        Assert.assertEquals("Notch", Fishbans.getFishbanPlayer(NOTCH).getName());
+    }
+
+    /**
+     * Answers Mojang with the configured status, with an error body unless
+     * the status is 200.
+     */
+    private static class MojangTransport extends StubTransport {
+
+        private volatile int status = 200;
+
+        @Override
+        protected HttpResponse answer(String url, Map<String, String> headers) {
+            if (!url.contains("mojang")) {
+                return respond(player("Notch", NOTCH, ""));
+            }
+            if (status == 200) {
+                return respond(profile("Notch", NOTCH));
+            }
+            if (status == 204) {
+                return respond(204, "");
+            }
+            return respond(status, "{\"error\":\"TooManyRequestsException\",\"errorMessage\":\"The client has sent too many requests\"}");
+        }
+    }
+}
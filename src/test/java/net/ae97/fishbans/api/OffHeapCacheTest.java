@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import net.ae97.fishbans.api.cache.OffHeapCache;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import net.ae97.fishbans.api.index.BanIndex;
+import net.ae97.fishbans.api.index.BanQuery;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for {@link OffHeapCache}: lookups by both keys, expiry, replacement,
+ * removal, eviction when full, and its use as the cache of {@link Fishbans}.
+ *
+ * @author Lord_Ralex
+ */
+public class OffHeapCacheTest {
+
+    private static HttpTransport previous;
+    private final GriefTransport upstream = new GriefTransport();
+
+    @BeforeClass
+    public static void setUpClass() {
+        previous = Fishbans.getTransport();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Fishbans.setTransport(previous);
+    }
+
+    @Before
+    public void setUp() {
+        Fishbans.setTransport(upstream);
+        Fishbans.clearCache();
+    }
+
+    @After
+    public void tearDown() {
+        Fishbans.setOffHeapCache(null);
+        Fishbans.clearCache();
+    }
+
+    @Test
+    public void testStoredPlayerIsFoundByNameAndUUID() throws Exception {
+        OffHeapCache cache = new OffHeapCache(1024 * 1024, 64 * 1024);
+        FishbansPlayer player = player("Notch", 3);
+        Assert.assertTrue(cache.put(player, 1000, 5000, 500));
+        for (String key : new String[]{"notch", player.getUUID().toString()}) {
+            FishbansPlayer read = FishbansPlayerCodec.decode(cache.get(key));
+            Assert.assertEquals("Notch", read.getName());
+            Assert.assertEquals(player.getUUID(), read.getUUID());
+            Assert.assertEquals(player.getFingerprint(), read.getFingerprint());
+            Assert.assertEquals(5000, cache.getExpiresAt(key));
+            Assert.assertEquals(500, cache.getStableSince(key));
+            Assert.assertEquals(player.getFingerprint(), cache.getFingerprint(key));
+        }
+        Assert.assertEquals(1, cache.getEntryCount());
+        Assert.assertNull(cache.get("jeb_"));
+        Assert.assertEquals(Long.MIN_VALUE, cache.getExpiresAt("jeb_"));
+    }
+
+    @Test
+    public void testExpiredEntryIsOnlyReadWhenAllowed() {
+        OffHeapCache cache = new OffHeapCache(1024 * 1024, 64 * 1024);
+        cache.put(player("Notch", 1), 1000, 5000, 1000);
+        Assert.assertNotNull(cache.get("notch", 4999));
+        Assert.assertNull(cache.get("notch", 5000));
+        Assert.assertNotNull(cache.get("notch"));
+    }
+
+    @Test
+    public void testReplaceAndRemove() throws Exception {
+        OffHeapCache cache = new OffHeapCache(1024 * 1024, 64 * 1024);
+        cache.put(player("Notch", 1), 1000);
+        cache.put(player("Notch", 2), 2000);
+        Assert.assertEquals(1, cache.getEntryCount());
+        Assert.assertEquals(2, FishbansPlayerCodec.decode(cache.get("notch")).getBanCount());
+        cache.remove(player("Notch", 0).getUUID().toString());
+        Assert.assertNull(cache.get("notch"));
+        Assert.assertEquals(0, cache.getEntryCount());
+        Assert.assertEquals(0, cache.getUsedMemory());
+    }
+
+    @Test
+    public void testIndexSurvivesGrowthAndRemovals() {
+        OffHeapCache cache = new OffHeapCache(64 * 1024 * 1024, 256 * 1024);
+        int count = 5000;
+        for (int i = 0; i < count; i++) {
+            Assert.assertTrue(cache.put(player("player" + i, i % 4), i));
+        }
+        Random random = new Random(42);
+        boolean[] removed = new boolean[count];
+        for (int i = 0; i < count / 2; i++) {
+            int victim = random.nextInt(count);
+            removed[victim] = true;
+            cache.remove("player" + victim);
+        }
+        int live = 0;
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals("player" + i, removed[i], cache.get("player" + i) == null);
+            Assert.assertEquals("player" + i, removed[i], cache.get(StubTransport.uuidOf("player" + i).toString()) == null);
+            live += removed[i] ? 0 : 1;
+        }
+        Assert.assertEquals(live, cache.getEntryCount());
+        Assert.assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testFullCacheEvictsOldestSlab() {
+        OffHeapCache cache = new OffHeapCache(4 * 4096, 4096);
+        int count = 0;
+        while (cache.getEvictionCount() == 0) {
+            Assert.assertTrue(cache.put(player("player" + count, 2), count));
+            count++;
+        }
+        Assert.assertNull("Oldest entry was kept", cache.get("player0"));
+        Assert.assertNotNull("Newest entry was evicted", cache.get("player" + (count - 1)));
+        Assert.assertEquals(cache.getCapacity(), cache.getAllocatedMemory());
+        Assert.assertTrue(cache.getUsedMemory() <= cache.getCapacity());
+        Assert.assertEquals(count - cache.getEvictionCount(), cache.getEntryCount());
+    }
+
+    @Test
+    public void testOversizedPlayerIsRejected() {
+        OffHeapCache cache = new OffHeapCache(4 * 4096, 4096);
+        Assert.assertFalse(cache.put(player("Notch", 200), 1000));
+        Assert.assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void testClearForgetsEverything() {
+        OffHeapCache cache = new OffHeapCache(1024 * 1024, 64 * 1024);
+        for (int i = 0; i < 100; i++) {
+            cache.put(player("player" + i, 1), i);
+        }
+        cache.clear();
+        Assert.assertEquals(0, cache.getEntryCount());
+        Assert.assertNull(cache.get("player5"));
+        Assert.assertTrue(cache.put(player("player5", 1), 1));
+        Assert.assertNotNull(cache.get("player5"));
+    }
+
+    @Test
+    public void testInvalidatedPlayerLeavesBanIndex() throws Exception {
+        Fishbans.setOffHeapCache(new OffHeapCache(1024 * 1024, 64 * 1024));
+        BanIndex index = new BanIndex();
+        Fishbans.addCacheListener(index);
+        try {
+            Fishbans.getFishbanPlayer("Notch");
+            Fishbans.getFishbanPlayer("jeb_");
+            Assert.assertEquals(2, index.count(BanQuery.server("server0.example")));
+            Fishbans.invalidate("Notch");
+            List<FishbansPlayer> left = index.query(BanQuery.server("server0.example"));
+            Assert.assertEquals(1, left.size());
+            Assert.assertEquals("jeb_", left.get(0).getName());
+            Fishbans.invalidate(StubTransport.uuidOf("jeb_"));
+            Assert.assertEquals(0, index.size());
+        } finally {
+            Fishbans.removeCacheListener(index);
+        }
+    }
+
+    private static FishbansPlayer player(String name, int bans) {
+        List<Ban> list = new ArrayList<Ban>();
+        for (int i = 0; i < bans; i++) {
+            list.add(new Ban(BanServices.getService("MCBANS"), "server" + i + ".example", "Griefing the spawn area " + i));
+        }
+        return new FishbansPlayer(list, name, StubTransport.uuidOf(name));
+    }
+
+    /**
+     * Gives every player one ban, on server0.example.
+     */
+    private static class GriefTransport extends StubTransport {
+
+        @Override
+        protected HttpResponse answer(String url, Map<String, String> headers) {
+            String name = lastSegment(url);
+            return respond(player(name, uuidOf(name), "\"mcbans\":{\"bans\":1,\"ban_info\":{\"server0.example\":\"grief\"}}"));
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.UUID;
+import net.ae97.fishbans.api.exceptions.NoSuchUserException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ResponseDecoder}, checked against what Gson reads from the
+ * same responses.
+ *
+ * @author Lord_Ralex
+ */
+public class ResponseDecoderTest {
+
+    private static final String[] WORDS = {"grief", "xray", "Griefing spawn", "überhack", "☃ snowman", "\"quoted\"", "back\\slash", "tab\there", "line\nbreak", "𝄞 clef", ""};
+    private static final String UUID_HEX = "069a79f444e94726a5befca90e38aaf5";
+    private final Random random = new Random(46);
+
+    @Test
+    public void testDecodesPlayer() throws Exception {
+        String json = "{\"success\":true,\"bans\":{\"username\":\"Notch\",\"uuid\":\"" + UUID_HEX + "\",\"totalbans\":3,\"service\":{"
+                + "\"mcbans\":{\"bans\":2,\"ban_info\":{\"a.example.com\":\"grief\",\"b.example.com\":\"\\u00fcber \\\"hack\\\"\"}},"
+                + "\"mcbouncer\":{\"bans\":\"1\",\"ban_info\":{\"c.example.com\":\"\\ud834\\udd1e\"}},"
+                + "\"glizer\":{\"bans\":0,\"ban_info\":[]}}}}";
+        FishbansPlayer player = ResponseDecoder.decodePlayer("Notch", json.getBytes("UTF-8"));
+        Assert.assertEquals("Notch", player.getName());
+        Assert.assertEquals(Fishbans.convertToUUID(UUID_HEX), player.getUUID());
+        Assert.assertEquals(3, player.getBanCount());
+        Assert.assertEquals(2, player.getBanCount(BanServices.getService("MCBANS")));
+        Map<Ban, Integer> expected = new HashMap<Ban, Integer>();
+        expected.put(new Ban(BanServices.getService("MCBANS"), "a.example.com", "grief"), 1);
+        expected.put(new Ban(BanServices.getService("MCBANS"), "b.example.com", "über \"hack\""), 1);
+        expected.put(new Ban(BanServices.getService("MCBOUNCER"), "c.example.com", "\uD834\uDD1E"), 1);
+        Assert.assertEquals(expected, counts(player.getBanList()));
+    }
+
+    @Test
+    public void testSkipsUnknownFields() throws Exception {
+        String json = "{\"meta\":{\"nested\":[1,{\"x\":\"}\"}],\"ok\":null},\"success\":true,\"bans\":{\"extra\":[\"a\",\"b\"],"
+                + "\"username\":\"Notch\",\"uuid\":\"" + UUID_HEX + "\",\"service\":{\"mcbans\":{\"updated\":12.5,"
+                + "\"bans\":1,\"ban_info\":{\"a.example.com\":\"grief\"},\"flags\":{\"x\":true}}}}}";
+        FishbansPlayer player = ResponseDecoder.decodePlayer("Notch", json.getBytes("UTF-8"));
+        Assert.assertEquals(1, player.getBanCount());
+        Assert.assertEquals("grief", player.getBanList().get(0).getReason());
+    }
+
+    @Test
+    public void testNullResponse() throws Exception {
+        Assert.assertNull(ResponseDecoder.decodePlayer("Notch", " null ".getBytes("UTF-8")));
+    }
+
+    @Test(expected = NoSuchUserException.class)
+    public void testUnsuccessful() throws Exception {
+        ResponseDecoder.decodePlayer("Nobody", "{\"success\":false,\"error\":\"No user found\"}".getBytes("UTF-8"));
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        String[] inputs = {
+            "",
+            "{\"success\":true,\"bans\":{\"username\":\"Notch\"",
+            "{\"success\":tru}",
+            "{\"success\":true,\"bans\":{\"username\":\"Notch\",\"uuid\":\"" + UUID_HEX + "\",\"service\":{\"mcbans\":{\"bans\":1,\"ban_info\":{\"a\":\"\\q\"}}}}}",
+            "{\"success\":true,\"bans\":{\"service\":{}}}",
+            "[1,2]"
+        };
+        for (String input : inputs) {
+            try {
+                ResponseDecoder.decodePlayer("Notch", input.getBytes("UTF-8"));
+                Assert.fail("Decoded " + input);
+            } catch (IOException ex) {
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesGson() throws Exception {
+        for (int i = 0; i < 300; i++) {
+            String json = randomResponse(random.nextInt(20));
+            FishbansPlayer expected = gsonDecode(new JsonParser().parse(json).getAsJsonObject());
+            FishbansPlayer actual = ResponseDecoder.decodePlayer(expected.getName(), json.getBytes("UTF-8"));
+            Assert.assertEquals(expected.getName(), actual.getName());
+            Assert.assertEquals(expected.getUUID(), actual.getUUID());
+            Assert.assertEquals(counts(expected.getBanList()), counts(actual.getBanList()));
+        }
+    }
+
+    @Test
+    public void testLazyDecodingAgrees() throws Exception {
+        String[] services = {
+            "\"mcbans\":{\"bans\":0,\"ban_info\":{\"a.example.com\":\"grief\"}}",
+            "\"mcbans\":{\"ban_info\":{\"a.example.com\":\"grief\"},\"bans\":0}",
+            "\"mcbans\":{\"bans\":null,\"ban_info\":{\"a.example.com\":\"grief\"}}",
+            "\"mcbans\":{\"bans\":\"0\",\"ban_info\":{\"a.example.com\":\"grief\"}}",
+            "\"mcbans\":{\"bans\":1,\"ban_info\":[]}",
+            "\"mcbans\":null,\"mcbouncer\":{\"bans\":1,\"ban_info\":{\"b.example.com\":\"xray\"}}",
+            "\"mcbans\":[],\"glizer\":\"none\"",
+            "\"mcbans\":{\"ban_info\":{\"a.example.com\":\"grief\"}}"
+        };
+        int[] expected = {0, 0, 0, 0, 0, 1, 0, 1};
+        for (int i = 0; i < services.length; i++) {
+            String json = "{\"success\":true,\"bans\":{\"username\":\"Notch\",\"uuid\":\"" + UUID_HEX + "\",\"service\":{" + services[i] + "}}}";
+            FishbansPlayer eager = ResponseDecoder.decodePlayer("Notch", json.getBytes("UTF-8"));
+            FishbansPlayer lazy = CompactBans.parse("Notch", json.getBytes("UTF-8"));
+            Assert.assertEquals(services[i], expected[i], eager.getBanCount());
+            Assert.assertEquals(services[i], expected[i], lazy.getBanCount());
+            Assert.assertEquals(services[i], counts(eager.getBanList()), counts(lazy.getBanList()));
+        }
+        String noServices = "{\"success\":true,\"bans\":{\"username\":\"Notch\",\"uuid\":\"" + UUID_HEX + "\",\"service\":null}}";
+        Assert.assertEquals(0, ResponseDecoder.decodePlayer("Notch", noServices.getBytes("UTF-8")).getBanCount());
+        Assert.assertEquals(0, CompactBans.parse("Notch", noServices.getBytes("UTF-8")).getBanCount());
+    }
+
+    @Test
+    public void testProfileName() throws Exception {
+        String profile = "{\"id\":\"" + UUID_HEX + "\",\"name\":\"Notch\",\"properties\":[{\"name\":\"textures\",\"value\":\"e30=\"}]}";
+        Assert.assertEquals("Notch", ResponseDecoder.decodeProfileName(profile.getBytes("UTF-8")));
+        String error = "{\"error\":\"TooManyRequestsException\",\"errorMessage\":\"The client has sent too many requests\"}";
+        Assert.assertNull(ResponseDecoder.decodeProfileName(error.getBytes("UTF-8")));
+        Assert.assertNull(ResponseDecoder.decodeProfileName("[]".getBytes("UTF-8")));
+        Assert.assertNull(ResponseDecoder.decodeProfileName("{\"id\":\"x\"}".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testFasterThanGson() throws Exception {
+        String json = randomResponse(25);
+        byte[] body = json.getBytes("UTF-8");
+        int rounds = 20000;
+        long sink = 0;
+        long gsonTime = Long.MAX_VALUE;
+        long decoderTime = Long.MAX_VALUE;
+        for (int pass = 0; pass < 3; pass++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                sink += gsonDecode(new JsonParser().parse(new String(body, "UTF-8")).getAsJsonObject()).getBanCount();
+            }
+            gsonTime = Math.min(gsonTime, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                sink += ResponseDecoder.decodePlayer("Player", body).getBanCount();
+            }
+            decoderTime = Math.min(decoderTime, System.nanoTime() - start);
+        }
+        Assert.assertEquals(rounds * 6L * 25, sink);
+        System.out.println("Decode: Gson " + (gsonTime / rounds) + " ns/op, decoder " + (decoderTime / rounds) + " ns/op");
+        Assert.assertTrue("Decoder took " + decoderTime + " ns, Gson " + gsonTime + " ns", decoderTime < gsonTime);
+    }
+
+    private String randomResponse(int banCount) {
+        List<BanServices> services = new ArrayList<BanServices>(BanServices.getBanServices());
+        Map<BanServices, JsonObject> infos = new HashMap<BanServices, JsonObject>();
+        for (BanServices service : services) {
+            infos.put(service, new JsonObject());
+        }
+        for (int i = 0; i < banCount; i++) {
+            BanServices service = services.get(random.nextInt(services.size()));
+            infos.get(service).addProperty("server" + i + ".example.com", WORDS[random.nextInt(WORDS.length)]);
+        }
+        JsonObject serviceObject = new JsonObject();
+        for (BanServices service : services) {
+            JsonObject entry = new JsonObject();
+            int count = infos.get(service).entrySet().size();
+            if (random.nextBoolean()) {
+                entry.addProperty("bans", count);
+            } else {
+                entry.addProperty("bans", String.valueOf(count));
+            }
+            entry.add("ban_info", infos.get(service));
+            serviceObject.add(service.getDisplayName().toLowerCase(), entry);
+        }
+        JsonObject bans = new JsonObject();
+        bans.addProperty("username", "Player" + random.nextInt(1000));
+        bans.addProperty("uuid", new UUID(random.nextLong(), random.nextLong()).toString().replace("-", ""));
+        bans.addProperty("totalbans", banCount);
+        bans.add("service", serviceObject);
+        JsonObject root = new JsonObject();
+        root.addProperty("success", true);
+        root.add("bans", bans);
+        return root.toString();
+    }
+
+    private static FishbansPlayer gsonDecode(JsonObject maps) {
+        JsonObject bans = maps.getAsJsonObject("bans").getAsJsonObject("service");
+        List<Ban> banlist = new ArrayList<Ban>();
+        for (Entry<String, JsonElement> banEntry : bans.entrySet()) {
+            BanServices provider = BanServices.getService(banEntry.getKey());
+            JsonObject obj = banEntry.getValue().getAsJsonObject();
+            if (obj.get("bans").getAsInt() == 0) {
+                continue;
+            }
+            for (Entry<String, JsonElement> banListing : obj.get("ban_info").getAsJsonObject().entrySet()) {
+                banlist.add(new Ban(provider, banListing.getKey(), banListing.getValue().getAsString()));
+            }
+        }
+        return new FishbansPlayer(banlist, maps.getAsJsonObject("bans").get("username").getAsString(), Fishbans.convertToUUID(maps.getAsJsonObject("bans").get("uuid").getAsString()));
+    }
+
+    private static Map<Ban, Integer> counts(List<Ban> bans) {
+        Map<Ban, Integer> counts = new HashMap<Ban, Integer>();
+        for (Ban ban : bans) {
+            Integer count = counts.get(ban);
+            counts.put(ban, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+}
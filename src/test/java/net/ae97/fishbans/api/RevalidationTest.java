@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.ae97.fishbans.api.cache.TtlPolicy;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that expired players are revalidated instead of downloaded again
+ * when Fishbans says they have not changed.
+ *
+ * @author Lord_Ralex
+ */
+public class RevalidationTest {
+
+    private static final long TTL = 30;
+    private static final UUID NOTCH = UUID.fromString("069a79f4-44e9-4726-a5be-fca90e38aaf5");
+    private static HttpTransport previousTransport;
+    private static TtlPolicy previousPolicy;
+    private final ValidatingTransport upstream = new ValidatingTransport();
+
+    @BeforeClass
+    public static void setUpClass() {
+        previousTransport = Fishbans.getTransport();
+        previousPolicy = Fishbans.getTtlPolicy();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Fishbans.setTransport(previousTransport);
+        Fishbans.setTtlPolicy(previousPolicy);
+    }
+
+    @Before
+    public void setUp() {
+        Fishbans.setTransport(upstream);
+        Fishbans.setTtlPolicy(TtlPolicy.fixed(TTL, TimeUnit.MILLISECONDS));
+        Fishbans.clearCache();
+    }
+
+    @After
+    public void tearDown() {
+        Fishbans.clearCache();
+    }
+
+    @Test
+    public void testNotModifiedKeepsPlayer() throws Exception {
+        upstream.validators = true;
+        FishbansPlayer first = Fishbans.getFishbanPlayer("Notch");
+        long notModified = Fishbans.getStatistics().getNotModified();
+        Thread.sleep(TTL * 2);
+        FishbansPlayer second = Fishbans.getFishbanPlayer("Notch");
+        Assert.assertSame(first, second);
+        Assert.assertEquals("\"v1\"", upstream.lastEtag);
+        Assert.assertEquals(1, upstream.notModified.get());
+        Assert.assertEquals(notModified + 1, Fishbans.getStatistics().getNotModified());
+        Assert.assertSame(first, Fishbans.getFishbanPlayer(first.getUUID()));
+        Assert.assertEquals(2, upstream.requests.get());
+
+        upstream.version = 2;
+        Thread.sleep(TTL * 2);
+        FishbansPlayer changed = Fishbans.getFishbanPlayer("Notch");
+        Assert.assertNotSame(first, changed);
+        Assert.assertEquals(2, changed.getBanCount());
+    }
+
+    @Test
+    public void testIdenticalBodyKeepsPlayer() throws Exception {
+        upstream.validators = false;
+        FishbansPlayer first = Fishbans.getFishbanPlayer("Notch");
+        Thread.sleep(TTL * 2);
+        Assert.assertSame(first, Fishbans.getFishbanPlayer("Notch"));
+        Assert.assertNull(upstream.lastEtag);
+        Assert.assertEquals(0, upstream.notModified.get());
+
+        upstream.version = 2;
+        Thread.sleep(TTL * 2);
+        Assert.assertEquals(2, Fishbans.getFishbanPlayer("Notch").getBanCount());
+    }
+
+    @Test
+    public void testInvalidatedPlayerIsDownloaded() throws Exception {
+        upstream.validators = true;
+        FishbansPlayer first = Fishbans.getFishbanPlayer("Notch");
+        Fishbans.invalidate("Notch");
+        FishbansPlayer second = Fishbans.getFishbanPlayer("Notch");
+        Assert.assertNotSame(first, second);
+        Assert.assertNull(upstream.lastEtag);
+    }
+
+    private static class ValidatingTransport extends StubTransport {
+
+        private final AtomicInteger notModified = new AtomicInteger();
+        private volatile boolean validators;
+        private volatile int version = 1;
+        private volatile String lastEtag;
+
+        @Override
+        protected HttpResponse answer(String url, Map<String, String> headers) {
+            lastEtag = headers.get("If-None-Match");
+            String etag = "\"v" + version + "\"";
+            StringBuilder json = new StringBuilder("\"mcbans\":{\"bans\":").append(version).append(",\"ban_info\":{");
+            for (int i = 0; i < version; i++) {
+                json.append(i == 0 ? "\"" : ",\"").append("server").append(i).append("\":\"grief\"");
+            }
+            json.append("}}");
+            Map<String, String> responseHeaders = new HashMap<String, String>();
+            if (validators) {
+                responseHeaders.put("etag", etag);
+                if (etag.equals(lastEtag)) {
+                    notModified.incrementAndGet();
+                    return new HttpResponse(304, responseHeaders, new byte[0]);
+                }
+            }
+            return new HttpResponse(200, responseHeaders, utf8(player("Notch", NOTCH, json.toString())));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import net.ae97.fishbans.api.sidecar.SidecarServer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests {@link SidecarServer} over real connections to localhost, with
+ * Fishbans answered by a stub.
+ *
+ * @author Lord_Ralex
+ */
+public class SidecarServerTest {
+
+    /**
+     * Spaced out and with a field the decoder ignores, so an encoded player
+     * would not match it byte for byte.
+     */
+    private static final String NOTCH = "{\"success\": true, \"bans\": {\"username\": \"Notch\", \"uuid\": \"" + StubTransport.hex(StubTransport.uuidOf("Notch"))
+            + "\", \"totalbans\": 1, \"service\": {\"mcbans\": {\"bans\": 1, \"ban_info\": {\"a.example.com\": \"grief \\u00e9\"}}}}, \"cached\": false}";
+    private static HttpTransport previousTransport;
+    private static boolean previousKeepResponses;
+    private final SlowTransport upstream = new SlowTransport();
+    private SidecarServer server;
+
+    @BeforeClass
+    public static void setUpClass() {
+        previousTransport = Fishbans.getTransport();
+        previousKeepResponses = Fishbans.isKeepResponses();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Fishbans.setTransport(previousTransport);
+        Fishbans.setKeepResponses(previousKeepResponses);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Fishbans.setTransport(upstream);
+        Fishbans.clearCache();
+        server = new SidecarServer(0);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        Fishbans.clearCache();
+    }
+
+    @Test
+    public void testBansArePassedThrough() throws Exception {
+        Assert.assertArrayEquals(StubTransport.utf8(NOTCH), get("/bans/Notch"));
+        Assert.assertEquals(1, server.getPassedThrough());
+        Assert.assertEquals(1, upstream.requests.get());
+    }
+
+    @Test
+    public void testSecondClientIsAnsweredFromCache() throws Exception {
+        byte[] first = get("/bans/Notch");
+        byte[] second = get("/bans/notch");
+        Assert.assertArrayEquals(first, second);
+        Assert.assertArrayEquals(StubTransport.utf8(NOTCH), second);
+        Assert.assertEquals("Second client fetched again", 1, upstream.requests.get());
+        Assert.assertEquals(2, server.getRequests());
+    }
+
+    @Test
+    public void testConcurrentClientsShareOneFetch() throws Exception {
+        upstream.delay = 300;
+        ExecutorService clients = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] replies = new Future<?>[4];
+            for (int i = 0; i < replies.length; i++) {
+                replies[i] = clients.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        return get("/bans/Notch");
+                    }
+                });
+            }
+            for (Future<?> reply : replies) {
+                Assert.assertArrayEquals(StubTransport.utf8(NOTCH), (byte[]) reply.get());
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+        Assert.assertEquals(1, upstream.requests.get());
+    }
+
+    private byte[] get(String path) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(5000);
+            connection.setReadTimeout(5000);
+            Assert.assertEquals(200, connection.getResponseCode());
+            InputStream in = connection.getInputStream();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+            return body.toByteArray();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Answers Notch, after the delay if one is set.
+     */
+    private static class SlowTransport extends StubTransport {
+
+        private volatile long delay = 0;
+
+        @Override
+        protected HttpResponse answer(String url, Map<String, String> headers) throws IOException {
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    throw new IOException("Interrupted");
+                }
+            }
+            return respond(NOTCH);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import net.ae97.fishbans.api.cache.TtlPolicy;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests serving expired players while Fishbans cannot be reached, see
+ * {@link Fishbans#setStaleIfError(long, TimeUnit)}.
+ *
+ * @author Lord_Ralex
+ */
+public class StaleIfErrorTest {
+
+    private static final UUID NOTCH = UUID.fromString("069a79f4-44e9-4726-a5be-fca90e38aaf5");
+    private static final long TTL = 50;
+    private static HttpTransport previousTransport;
+    private static TtlPolicy previousPolicy;
+    private final OutageTransport upstream = new OutageTransport();
+
+    @BeforeClass
+    public static void setUpClass() {
+        previousTransport = Fishbans.getTransport();
+        previousPolicy = Fishbans.getTtlPolicy();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Fishbans.setTransport(previousTransport);
+        Fishbans.setTtlPolicy(previousPolicy);
+    }
+
+    @Before
+    public void setUp() {
+        Fishbans.setTransport(upstream);
+        Fishbans.setTtlPolicy(TtlPolicy.fixed(TTL, TimeUnit.MILLISECONDS));
+        Fishbans.setStaleIfError(1, TimeUnit.MINUTES);
+        Fishbans.clearCache();
+    }
+
+    @After
+    public void tearDown() {
+        Fishbans.setStaleIfError(0, TimeUnit.MILLISECONDS);
+        Fishbans.clearCache();
+    }
+
+    @Test
+    public void testServesStaleOnFailure() throws Exception {
+        FishbansPlayer fresh = Fishbans.getFishbanPlayer("Notch");
+        Assert.assertFalse(fresh.isStale());
+        Assert.assertEquals(0, fresh.getStaleness(TimeUnit.MILLISECONDS));
+        Thread.sleep(TTL * 2);
+        upstream.down = true;
+        long served = Fishbans.getStatistics().getStaleServed();
+        FishbansPlayer stale = Fishbans.getFishbanPlayer("Notch");
+        Assert.assertTrue(stale.isStale());
+        Assert.assertTrue(stale.getStaleness(TimeUnit.MILLISECONDS) >= TTL / 2);
+        Assert.assertEquals(fresh.getBanCount(), stale.getBanCount());
+        Assert.assertTrue(Fishbans.getFishbanPlayer(NOTCH).isStale());
+        Assert.assertEquals(1, Fishbans.getBanCount("Notch"));
+        Assert.assertEquals(1, Fishbans.getBans(NOTCH, BanServices.getService("MCBANS")).size());
+        Assert.assertEquals(served + 4, Fishbans.getStatistics().getStaleServed());
+    }
+
+    @Test
+    public void testCachedPlayerIsNeverMarked() throws Exception {
+        FishbansPlayer fresh = Fishbans.getFishbanPlayer("Notch");
+        Thread.sleep(TTL * 2);
+        upstream.down = true;
+        FishbansPlayer stale = Fishbans.getFishbanPlayer("Notch");
+        Assert.assertTrue(stale.isStale());
+        Assert.assertNotSame(fresh, stale);
+        Assert.assertFalse(fresh.isStale());
+        Assert.assertEquals(fresh.getFingerprint(), stale.getFingerprint());
+        Assert.assertArrayEquals(fresh.getBanList().toArray(), stale.getBanList().toArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void testFailsWhenDisabled() throws Exception {
+        Fishbans.setStaleIfError(0, TimeUnit.MILLISECONDS);
+        Fishbans.getFishbanPlayer("Notch");
+        Thread.sleep(TTL * 2);
+        upstream.down = true;
+        Fishbans.getFishbanPlayer("Notch");
+    }
+
+    @Test(expected = IOException.class)
+    public void testFailsOutsideWindow() throws Exception {
+        Fishbans.setStaleIfError(TTL, TimeUnit.MILLISECONDS);
+        Fishbans.getFishbanPlayer("Notch");
+        Thread.sleep(TTL * 4);
+        upstream.down = true;
+        Fishbans.getFishbanPlayer("Notch");
+    }
+
+    @Test(expected = IOException.class)
+    public void testForcedLookupFails() throws Exception {
+        Fishbans.getFishbanPlayer("Notch");
+        Thread.sleep(TTL * 2);
+        upstream.down = true;
+        Fishbans.getFishbanPlayer("Notch", true);
+    }
+
+    @Test
+    public void testDeadlineLookupServesStaleWithinWindow() throws Exception {
+        Fishbans.getFishbanPlayer("Notch");
+        Thread.sleep(TTL * 2);
+        upstream.down = true;
+        LookupResult result = Fishbans.getFishbanPlayer("Notch", 1, TimeUnit.SECONDS);
+        Assert.assertEquals(LookupResult.Status.STALE, result.getStatus());
+        Assert.assertTrue(result.getPlayer().isStale());
+        Assert.assertTrue(result.getError() instanceof IOException);
+    }
+
+    @Test
+    public void testDeadlineLookupFailsOutsideWindow() throws Exception {
+        Fishbans.setStaleIfError(TTL, TimeUnit.MILLISECONDS);
+        Fishbans.getFishbanPlayer("Notch");
+        Thread.sleep(TTL * 4);
+        upstream.down = true;
+        LookupResult result = Fishbans.getFishbanPlayer("Notch", 1, TimeUnit.SECONDS);
+        Assert.assertEquals(LookupResult.Status.FAILED, result.getStatus());
+        Assert.assertNull(result.getPlayer());
+        Assert.assertTrue(result.getError() instanceof IOException);
+
+        Fishbans.setStaleIfError(0, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(LookupResult.Status.FAILED, Fishbans.getFishbanPlayer(NOTCH, 1, TimeUnit.SECONDS).getStatus());
+    }
+
+    @Test
+    public void testDeadlineLookupTimesOutOutsideWindow() throws Exception {
+        Fishbans.setStaleIfError(TTL, TimeUnit.MILLISECONDS);
+        Fishbans.getFishbanPlayer("Notch");
+        Thread.sleep(TTL * 4);
+        upstream.hang = true;
+        LookupResult result = Fishbans.getFishbanPlayer("Notch", 100, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(LookupResult.Status.TIMEOUT, result.getStatus());
+        Assert.assertNull(result.getPlayer());
+
+        Fishbans.setStaleIfError(1, TimeUnit.MINUTES);
+        result = Fishbans.getFishbanPlayer("Notch", 100, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(LookupResult.Status.STALE, result.getStatus());
+        Assert.assertNull(result.getError());
+    }
+
+    @Test
+    public void testRefreshesInBackground() throws Exception {
+        Fishbans.getFishbanPlayer("Notch");
+        Thread.sleep(TTL * 2);
+        upstream.down = true;
+        Assert.assertTrue(Fishbans.getFishbanPlayer("Notch").isStale());
+        Assert.assertEquals(1, Fishbans.getStatistics().getRefreshing());
+        int requests = upstream.requests.get();
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(Fishbans.getFishbanPlayer("Notch").isStale());
+        }
+        Assert.assertEquals("Lookups waited on Fishbans during backoff", requests, upstream.requests.get());
+
+        Fishbans.setTtlPolicy(TtlPolicy.fixed(1, TimeUnit.MINUTES));
+        upstream.down = false;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Fishbans.getStatistics().getRefreshing() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(0, Fishbans.getStatistics().getRefreshing());
+        FishbansPlayer refreshed = Fishbans.getFishbanPlayer("Notch");
+        Assert.assertFalse(refreshed.isStale());
+        Assert.assertEquals(requests + 1, upstream.requests.get());
+    }
+
+    private static class OutageTransport extends StubTransport {
+
+        private volatile boolean down = false;
+        private volatile boolean hang = false;
+
+        @Override
+        protected HttpResponse answer(String url, Map<String, String> headers) throws IOException {
+            if (hang) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ex) {
+                }
+                throw new IOException("Read timed out");
+            }
+            if (down) {
+                throw new IOException("Connection refused");
+            }
+            if (url.contains("mojang")) {
+                return respond(profile("Notch", NOTCH));
+            } else if (url.contains("/stats/")) {
+                return respond("{\"success\":true,\"stats\":{\"username\":\"Notch\",\"uuid\":\"" + hex(NOTCH) + "\",\"service\":{\"mcbans\":1}}}");
+            }
+            return respond(player("Notch", NOTCH, "\"mcbans\":{\"bans\":1,\"ban_info\":{\"a.example.com\":\"grief\"}}"));
+        }
+    }
+}
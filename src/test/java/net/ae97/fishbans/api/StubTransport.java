@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.HttpTransport;
+
+/**
+ * An {@link HttpTransport} for tests which answers from canned responses
+ * instead of the network. Subclasses only decide what each URL returns; the
+ * requests are counted, and asynchronous requests are answered on the calling
+ * thread unless {@link #getAsync(java.lang.String, java.util.Map)} is
+ * overridden.
+ *
+ * @author Lord_Ralex
+ */
+abstract class StubTransport implements HttpTransport {
+
+    final AtomicInteger requests = new AtomicInteger();
+
+    @Override
+    public HttpResponse get(String url, Map<String, String> headers) throws IOException {
+        requests.incrementAndGet();
+        return answer(url, headers);
+    }
+
+    /**
+     * Gives the response to one request.
+     *
+     * @param url URL requested
+     * @param headers Request headers sent
+     *
+     * @return The response
+     *
+     * @throws IOException Thrown to simulate a failed request
+     */
+    protected abstract HttpResponse answer(String url, Map<String, String> headers) throws IOException;
+
+    @Override
+    public Future<HttpResponse> getAsync(final String url, final Map<String, String> headers) {
+        FutureTask<HttpResponse> task = new FutureTask<HttpResponse>(new Callable<HttpResponse>() {
+            @Override
+            public HttpResponse call() throws IOException {
+                return get(url, headers);
+            }
+        });
+        task.run();
+        return task;
+    }
+
+    static HttpResponse respond(String body) {
+        return respond(200, body);
+    }
+
+    static HttpResponse respond(int status, String body) {
+        return new HttpResponse(status, new HashMap<String, String>(), utf8(body));
+    }
+
+    /**
+     * Gets the last part of the path of a URL, the name or UUID looked up.
+     */
+    static String lastSegment(String url) {
+        return url.substring(url.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Gets the UUID tests give a player, derived from its name.
+     */
+    static UUID uuidOf(String name) {
+        return UUID.nameUUIDFromBytes(utf8(name.toLowerCase()));
+    }
+
+    static String hex(UUID uuid) {
+        return uuid.toString().replace("-", "");
+    }
+
+    /**
+     * Builds a Fishbans reply for a player, with the given JSON as the
+     * contents of its service object.
+     */
+    static String player(String name, UUID uuid, String services) {
+        return "{\"success\":true,\"bans\":{\"username\":\"" + name + "\",\"uuid\":\"" + hex(uuid) + "\",\"service\":{" + services + "}}}";
+    }
+
+    /**
+     * Builds a Mojang profile reply.
+     */
+    static String profile(String name, UUID uuid) {
+        return "{\"id\":\"" + hex(uuid) + "\",\"name\":\"" + name + "\"}";
+    }
+
+    static byte[] utf8(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
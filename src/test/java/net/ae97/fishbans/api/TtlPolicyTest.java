@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.util.concurrent.TimeUnit;
+import net.ae97.fishbans.api.cache.TtlPolicy;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the times to live given by {@link TtlPolicy}.
+ *
+ * @author Lord_Ralex
+ */
+public class TtlPolicyTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Test
+    public void testDefaultIsFiveMinutes() throws Exception {
+        TtlPolicy policy = Fishbans.getTtlPolicy();
+        Assert.assertEquals(5 * MINUTE, policy.getMinTtl());
+        Assert.assertEquals(5 * MINUTE, policy.getMaxTtl());
+        Assert.assertEquals(5 * MINUTE, policy.getTtl(banned(), HOUR * 24));
+        Assert.assertEquals(5 * MINUTE, policy.getTtl(clean(), 0));
+    }
+
+    @Test
+    public void testFixedIgnoresStability() throws Exception {
+        TtlPolicy policy = TtlPolicy.fixed(30, TimeUnit.SECONDS);
+        Assert.assertEquals(30000, policy.getTtl(banned(), 0));
+        Assert.assertEquals(30000, policy.getTtl(clean(), HOUR * 24 * 365));
+        Assert.assertEquals(30000, policy.getTtl(BanServices.getService("mcblockit"), 3));
+        Assert.assertEquals(30000, policy.getTtl((BanServices) null, 0));
+    }
+
+    @Test
+    public void testRangeGrowsWithStability() throws Exception {
+        TtlPolicy policy = new TtlPolicy(1, 60, TimeUnit.MINUTES);
+        FishbansPlayer player = banned();
+        Assert.assertEquals(MINUTE, policy.getTtl(player, 0));
+        Assert.assertEquals(5 * MINUTE, policy.getTtl(player, policy.getAssumedStability()));
+        Assert.assertEquals(10 * MINUTE, policy.getTtl(player, 100 * MINUTE));
+        Assert.assertEquals(HOUR, policy.getTtl(player, HOUR * 24));
+    }
+
+    @Test
+    public void testCleanPlayersLastLonger() throws Exception {
+        TtlPolicy policy = new TtlPolicy(1, 60, TimeUnit.MINUTES);
+        long stable = 100 * MINUTE;
+        Assert.assertEquals(2 * policy.getTtl(banned(), stable), policy.getTtl(clean(), stable));
+        Assert.assertEquals(10 * MINUTE, policy.getTtl(BanServices.getService("mcbans"), 0));
+        Assert.assertEquals(5 * MINUTE, policy.getTtl(BanServices.getService("mcbans"), 2));
+        Assert.assertEquals(HOUR, policy.getTtl(BanServices.getService("mcblockit"), 2));
+
+        policy.setCleanFactor(4).setStabilityFactor(0.5);
+        Assert.assertEquals(50 * MINUTE, policy.getTtl(banned(), stable));
+        Assert.assertEquals(HOUR, policy.getTtl(clean(), stable));
+    }
+
+    @Test
+    public void testBaseKeptInRange() {
+        TtlPolicy policy = new TtlPolicy(10, 20, TimeUnit.MINUTES);
+        Assert.assertEquals(10 * MINUTE, policy.getTtl(BanServices.getService("mcbans"), 1));
+        policy.setBaseTtl(2, TimeUnit.HOURS);
+        Assert.assertEquals(20 * MINUTE, policy.getTtl(BanServices.getService("mcbans"), 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsInvertedRange() {
+        new TtlPolicy(10, 5, TimeUnit.MINUTES);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsZeroTtl() {
+        TtlPolicy.fixed(0, TimeUnit.MINUTES);
+    }
+
+    private static FishbansPlayer banned() throws Exception {
+        return decode("\"mcbans\":{\"bans\":1,\"ban_info\":{\"a.example.com\":\"grief\"}}");
+    }
+
+    /**
+     * A player whose only ban is from a legacy service, which does not count
+     * against being clean.
+     */
+    private static FishbansPlayer clean() throws Exception {
+        return decode("\"mcblockit\":{\"bans\":1,\"ban_info\":{\"b.example.com\":\"grief\"}}");
+    }
+
+    private static FishbansPlayer decode(String services) throws Exception {
+        return ResponseDecoder.decodePlayer("Steve", StubTransport.utf8(StubTransport.player("Steve", StubTransport.uuidOf("Steve"), services)));
+    }
+}
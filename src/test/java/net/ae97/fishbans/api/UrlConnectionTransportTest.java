@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2014 Lord_Ralex
+ *
+ * This file is a part of FishbansAPI
+ *
+ * FishbansAPI is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FishbansAPI is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with FishbansAPI.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.ae97.fishbans.api;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.concurrent.Future;
+import net.ae97.fishbans.api.http.HttpResponse;
+import net.ae97.fishbans.api.http.UrlConnectionTransport;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that {@link UrlConnectionTransport} closes the connection of a
+ * cancelled request.
+ *
+ * @author Lord_Ralex
+ */
+public class UrlConnectionTransportTest {
+
+    @Test
+    public void testCancelClosesConnection() throws Exception {
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        try {
+            UrlConnectionTransport transport = new UrlConnectionTransport(5000, 30000);
+            Future<HttpResponse> response = transport.getAsync("http://127.0.0.1:" + server.getLocalPort() + "/bans/Notch", Collections.<String, String>emptyMap());
+            Socket accepted = server.accept();
+            try {
+                accepted.setSoTimeout(5000);
+                InputStream in = accepted.getInputStream();
+                byte[] request = new byte[4096];
+                Assert.assertTrue(in.read(request) > 0);
+                Assert.assertTrue(response.cancel(true));
+                long start = System.currentTimeMillis();
+                while (in.read(request) != -1) {
+                }
+                Assert.assertTrue("Connection stayed open", System.currentTimeMillis() - start < 5000);
+            } finally {
+                accepted.close();
+            }
+        } finally {
+            server.close();
+        }
+    }
+}